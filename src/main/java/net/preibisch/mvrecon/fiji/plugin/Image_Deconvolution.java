@@ -23,13 +23,18 @@
 package net.preibisch.mvrecon.fiji.plugin;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
 import ij.ImageJ;
 import ij.plugin.PlugIn;
+import mpicbg.models.AffineModel1D;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Interval;
@@ -38,6 +43,7 @@ import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.plugin.fusion.DeconvolutionGUI;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.GenericLoadParseQueryXML;
@@ -70,6 +76,9 @@ import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constell
  */
 public class Image_Deconvolution implements PlugIn
 {
+	// describes how the inputs prepared in an N5 were computed
+	public static String parametersAttribute = "parameters";
+
 	@Override
 	public void run( String arg )
 	{
@@ -153,32 +162,63 @@ public class Image_Deconvolution implements PlugIn
 			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusion of 'virtual views' " );
 			fusion.fuseGroups();
 
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Normalizing weights ... " );
-			fusion.normalizeWeights( decon.getOSEMSpeedUp(), decon.getAdditionalSmoothBlending(), 0.1f, 0.05f );
+			final N5Writer n5 = decon.getPreparedInputsN5() == null ? null : new N5FSWriter( decon.getPreparedInputsN5() );
+			final String n5Dataset = "deconvolutionInputs/batch" + i;
 
-			if ( decon.getInputImgCacheType() == ImgDataType.CACHED )
-			{
-				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Caching fused input images ... " );
-				fusion.cacheImages();
-			}
-			else if ( decon.getInputImgCacheType() == ImgDataType.PRECOMPUTED )
+			if ( n5 != null )
 			{
-				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Precomputing fused input images ... " );
-				fusion.copyImages( decon.getCopyFactory() );
+				// inputs stored by a previous run are reused (see ProcessInputImages.isStored), unless they were computed differently
+				final String parameters = inputParameters( spimData, deconVirtualViews, bb, downsampling, decon );
+
+				if ( n5.exists( n5Dataset ) && !parameters.equals( n5.getAttribute( n5Dataset, parametersAttribute, String.class ) ) )
+				{
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Parameters changed, removing the previously prepared inputs in '" + n5Dataset + "' ... " );
+					n5.remove( n5Dataset );
+				}
+
+				n5.createGroup( n5Dataset );
+				n5.setAttribute( n5Dataset, parametersAttribute, parameters );
+
+				// the unnormalized weights are stored first so that normalizing reads them from disk
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Writing fused input images & weights to '" + decon.getPreparedInputsN5() + "' ... " );
+				fusion.storeImages( n5, n5Dataset, decon.getCacheBlockSize(), decon.getCacheMaxNumBlocks() );
+				fusion.storeUnnormalizedWeights( n5, n5Dataset, decon.getCacheBlockSize(), decon.getCacheMaxNumBlocks() );
 			}
 
-			if ( decon.getWeightCacheType() == ImgDataType.CACHED )
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Normalizing weights ... " );
+			fusion.normalizeWeights( decon.getOSEMSpeedUp(), decon.getAdditionalSmoothBlending(), 0.1f, 0.05f );
+
+			if ( n5 != null )
 			{
-				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Caching weight images ... " );
-				fusion.cacheUnnormalizedWeights();
-				fusion.cacheNormalizedWeights();
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Writing normalized weights to '" + decon.getPreparedInputsN5() + "' ... " );
+				fusion.storeNormalizedWeights( n5, n5Dataset, decon.getCacheBlockSize(), decon.getCacheMaxNumBlocks() );
 			}
-			if ( decon.getWeightCacheType() == ImgDataType.PRECOMPUTED )
+			else
 			{
-				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Precomputing weight images ... " );
-				// we cache the unnormalized ones so the copying is efficient
-				fusion.cacheUnnormalizedWeights();
-				fusion.copyNormalizedWeights( decon.getCopyFactory() );
+				if ( decon.getInputImgCacheType() == ImgDataType.CACHED )
+				{
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Caching fused input images ... " );
+					fusion.cacheImages();
+				}
+				else if ( decon.getInputImgCacheType() == ImgDataType.PRECOMPUTED )
+				{
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Precomputing fused input images ... " );
+					fusion.copyImages( decon.getCopyFactory() );
+				}
+
+				if ( decon.getWeightCacheType() == ImgDataType.CACHED )
+				{
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Caching weight images ... " );
+					fusion.cacheUnnormalizedWeights();
+					fusion.cacheNormalizedWeights();
+				}
+				if ( decon.getWeightCacheType() == ImgDataType.PRECOMPUTED )
+				{
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Precomputing weight images ... " );
+					// we cache the unnormalized ones so the copying is efficient
+					fusion.cacheUnnormalizedWeights();
+					fusion.copyNormalizedWeights( decon.getCopyFactory() );
+				}
 			}
 
 			final ImgFactory< FloatType > psiFactory = decon.getPsiFactory();
@@ -248,13 +288,16 @@ public class Image_Deconvolution implements PlugIn
 				}
 				else
 				{
-					mvDecon = new MultiViewDeconvolutionSeq( views, numIterations, psiInitFactory, (ComputeBlockThreadFactory< ComputeBlockSeqThread >)cptf, psiFactory );
+					final MultiViewDeconvolutionSeq mvDeconSeq = new MultiViewDeconvolutionSeq( views, numIterations, psiInitFactory, (ComputeBlockThreadFactory< ComputeBlockSeqThread >)cptf, psiFactory );
+					mvDeconSeq.setBlockMajorSchedule( decon.isBlockMajorSchedule() );
+					mvDecon = mvDeconSeq;
 				}
 
 				if ( !mvDecon.initWasSuccessful() )
 					return false;
 				mvDecon.setDebug( debug );
 				mvDecon.setDebugInterval( debugInterval );
+				mvDecon.setConvergence( decon.createConvergence() );
 				mvDecon.runIterations();
 
 				if ( !export( mvDecon.getPSI(), decon, exporter, deconGroup ) )
@@ -285,6 +328,41 @@ public class Image_Deconvolution implements PlugIn
 		return true;
 	}
 
+	/**
+	 * @return everything that determines the fused input images and weights of one deconvolution batch
+	 */
+	protected static String inputParameters(
+			final SpimData2 spimData,
+			final List< Group< ViewDescription > > deconVirtualViews,
+			final Interval bb,
+			final double downsampling,
+			final DeconvolutionGUI decon )
+	{
+		final StringBuilder parameters = new StringBuilder();
+
+		parameters.append( "bb=" + Util.printInterval( bb ) + ", downsampling=" + downsampling );
+		parameters.append( ", blending=" + decon.getBlendingRange() + "/" + decon.getBlendingBorder() );
+		parameters.append( ", osem=" + decon.getOSEMSpeedUp() + ", smooth=" + decon.getAdditionalSmoothBlending() );
+		parameters.append( ", cellDim=" + decon.getCacheBlockSize() );
+
+		for ( final Group< ViewDescription > virtualView : deconVirtualViews )
+		{
+			parameters.append( "; " + Group.gvids( Group.getViewsSorted( virtualView.getViews() ) ) );
+
+			for ( final ViewDescription vd : Group.getViewsSorted( virtualView.getViews() ) )
+			{
+				parameters.append( " " + spimData.getViewRegistrations().getViewRegistration( vd ).getModel() );
+
+				final AffineModel1D adjustment = decon.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments().get( vd ) : null;
+
+				if ( adjustment != null )
+					parameters.append( " " + Arrays.toString( adjustment.getMatrix( null ) ) );
+			}
+		}
+
+		return parameters.toString();
+	}
+
 	protected static boolean export(
 			final RandomAccessibleInterval< FloatType > output,
 			final DeconvolutionGUI fusion,
@@ -25,6 +25,7 @@ package net.preibisch.mvrecon.fiji.plugin;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -52,16 +53,23 @@ import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
+import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.GenericLoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.process.cache.CacheManager;
 import net.preibisch.mvrecon.process.export.Calibrateable;
+import net.preibisch.mvrecon.process.export.ConcurrentExport;
+import net.preibisch.mvrecon.process.export.ExportN5API;
 import net.preibisch.mvrecon.process.export.ImgExport;
+import net.preibisch.mvrecon.process.fusion.FusionGroupScheduler;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.lazy.LazyAffineFusion;
+import net.preibisch.mvrecon.process.fusion.lazy.LazyMultiChannelAffineFusion;
 import net.preibisch.mvrecon.process.fusion.lazy.LazyNonRigidFusion;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonRigidTools;
@@ -133,187 +141,369 @@ public class Image_Fusion implements PlugIn
 		// one common executerservice
 		final ExecutorService taskExecutor = Executors.newFixedThreadPool( Threads.numThreads() );
 
-		for ( final Group< ViewDescription > group : Group.getGroupsSorted( groups ) )
+		if ( fusion.fuseChannelsTogether() )
 		{
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing group " + (++i) + "/" + groups.size() + " (group=" + group + ")" );
+			if ( fusion.getNonRigidParameters().isActive() )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing all channels in one pass is not supported for non-rigid fusion, fusing channels independently." );
+			else if ( fusion.getSplittingType() > 1 )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing all channels in one pass requires splitting by channel, fusing groups independently." );
+			else if ( !ExportN5API.class.isInstance( exporter ) )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing all channels in one pass requires the N5-API export, fusing channels independently." );
+			else if ( FusionTools.is2d( groups.stream().flatMap( g -> g.getViews().stream() ).collect( Collectors.toList() ) ) )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing all channels in one pass is not supported for 2d images, fusing channels independently." );
+			else
+			{
+				final boolean success = fuseChannelsTogether( spimData, fusion, (ExportN5API)exporter, groups );
 
-			final Pair< Double, String > transformedCal = TransformationTools.computeAverageCalibration( group, spimData.getViewRegistrations() );
-			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Approximate pixel size of fused image (without downsampling): " + transformedCal.getA() + " " + transformedCal.getB() );
+				exporter.finish();
+				taskExecutor.shutdown();
 
-			if ( Calibrateable.class.isInstance( exporter ) )
-				((Calibrateable)exporter).setCalibration( transformedCal.getA(), transformedCal.getB() );
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
+
+				return success;
+			}
+		}
 
-			final ArrayList< ViewId > viewsToUse;
+		final ArrayList< Group< ViewDescription > > sortedGroups = Group.getGroupsSorted( groups );
 
-			if ( fusion.getNonRigidParameters().isActive() )
-			{
-				viewsToUse = NonRigidTools.assembleViewsToUse( spimData, group.getViews(), fusion.getNonRigidParameters().nonRigidAcrossTime() );
+		if ( fusion.getMaxConcurrentGroups() > 1 && sortedGroups.size() > 1 && ConcurrentExport.class.isInstance( exporter ) )
+		{
+			// several groups at once, sharing one worker pool and a global memory budget
+			final FusionGroupScheduler scheduler = new FusionGroupScheduler( fusion.getMaxConcurrentGroups() );
+			((ConcurrentExport)exporter).setWorkerPool( scheduler.getWorkerPool() );
 
-				if ( viewsToUse == null )
-					return false;
+			// the output ids (e.g. BDV ViewIds) follow the group order, not the order in which the groups are processed
+			((ConcurrentExport)exporter).assignOutputIds( sortedGroups );
 
-				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Non-Rigid Views being used for current group" );
+			final long estimatedMemory = FusionGroupScheduler.estimateMemory(
+					exporter.blocksize(), fusion.getPixelType() == 0 ? 4 : fusion.getPixelType() == 1 ? 2 : 1, scheduler.workersPerJob( sortedGroups.size() ) );
+			final long numPixels = FusionTools.numPixels( fusion.getBoundingBox(), Double.NaN );
 
-				for ( final ViewId v : viewsToUse )
-					IOFunctions.println( "\t" + Group.pvid( v ) );
-			}
-			else
+			for ( final Group< ViewDescription > group : sortedGroups )
 			{
-				viewsToUse = null;
+				final String label = (++i) + "/" + groups.size();
+
+				scheduler.add(
+						getTitle( fusion.getSplittingType(), group ) + " (" + label + ")",
+						estimatedMemory,
+						numPixels,
+						() -> fuseGroup( spimData, fusion, exporter, group, label, taskExecutor ) );
 			}
 
-			final int[] blocksize = exporter.blocksize();
-			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): block size used during fusion: " + Util.printCoordinates( blocksize ) );
+			final boolean success = scheduler.run();
 
-			final Converter conv;
-			final Type type;
+			((ConcurrentExport)exporter).setWorkerPool( null );
 
-			if ( fusion.getPixelType() == 2 )
-			{
-				conv = new RealUnsignedByteConverter<>( fusion.minIntensity(), fusion.maxIntensity() );
-				type = new UnsignedByteType();
-			}
-			else if ( fusion.getPixelType() == 1 )
-			{
-				conv = new RealUnsignedShortConverter<>( fusion.minIntensity(), fusion.maxIntensity() );
-				type = new UnsignedShortType();
-			}
-			else
+			if ( !success )
+				return false;
+		}
+		else
+		{
+			if ( fusion.getMaxConcurrentGroups() > 1 && !ConcurrentExport.class.isInstance( exporter ) )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): The selected export does not support concurrent fusion, fusing groups one after another." );
+
+			for ( final Group< ViewDescription > group : sortedGroups )
+				if ( !fuseGroup( spimData, fusion, exporter, group, (++i) + "/" + groups.size(), taskExecutor ) )
+					return false;
+		}
+
+		exporter.finish();
+		
+		taskExecutor.shutdown();
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): " + CacheManager.statistics() );
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
+
+		return true;
+	}
+
+	/**
+	 * Fuses and exports one group, might be called concurrently for different groups if the exporter implements {@link ConcurrentExport}.
+	 *
+	 * @param spimData - the spimdata
+	 * @param fusion - the fusion parameters
+	 * @param exporter - the exporter
+	 * @param group - the group to fuse
+	 * @param label - for progress reporting
+	 * @param taskExecutor - the executorservice for non-rigid fusion
+	 * @return true if successful
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	protected static boolean fuseGroup(
+			final SpimData2 spimData,
+			final FusionGUI fusion,
+			final ImgExport exporter,
+			final Group< ViewDescription > group,
+			final String label,
+			final ExecutorService taskExecutor )
+	{
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing group " + label + " (group=" + group + ")" );
+
+		final Pair< Double, String > transformedCal = TransformationTools.computeAverageCalibration( group, spimData.getViewRegistrations() );
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Approximate pixel size of fused image (without downsampling): " + transformedCal.getA() + " " + transformedCal.getB() );
+
+		if ( Calibrateable.class.isInstance( exporter ) )
+			((Calibrateable)exporter).setCalibration( transformedCal.getA(), transformedCal.getB() );
+
+		final ArrayList< ViewId > viewsToUse;
+
+		if ( fusion.getNonRigidParameters().isActive() )
+		{
+			viewsToUse = NonRigidTools.assembleViewsToUse( spimData, group.getViews(), fusion.getNonRigidParameters().nonRigidAcrossTime() );
+
+			if ( viewsToUse == null )
+				return false;
+
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Non-Rigid Views being used for current group" );
+
+			for ( final ViewId v : viewsToUse )
+				IOFunctions.println( "\t" + Group.pvid( v ) );
+		}
+		else
+		{
+			viewsToUse = null;
+		}
+
+		final int[] blocksize = exporter.blocksize();
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): block size used during fusion: " + Util.printCoordinates( blocksize ) );
+
+		final Pair< Converter, Type > convType = createConverter( fusion );
+		final Converter conv = convType.getA();
+		final Type type = convType.getB();
+
+		// get, and update the transformations with anisotropy, downsampling
+		final Set< ? extends ViewId > views =
+				fusion.getNonRigidParameters().isActive() ?
+						Sets.union( group.getViews(), viewsToUse.stream().collect( Collectors.toSet() ) ) : group.getViews();
+
+		final HashMap< ViewId, AffineTransform3D > registrations =
+				TransformVirtual.adjustAllTransforms(
+						views,
+						spimData.getViewRegistrations().getViewRegistrations(),
+						fusion.getAnisotropyFactor(),
+						fusion.getDownsampling() );
+
+		final RandomAccessibleInterval lazy;
+
+		if ( fusion.getNonRigidParameters().isActive() )
+		{
+			lazy = LazyNonRigidFusion.init(
+					conv,
+					spimData.getSequenceDescription().getImgLoader(),
+					registrations,
+					spimData.getViewInterestPoints().getViewInterestPoints(),
+					spimData.getSequenceDescription().getViewDescriptions(),
+					group.getViews(),
+					viewsToUse,
+					fusion.getNonRigidParameters().getLabels(),
+					fusion.useBlending(),
+					fusion.useContentBased(),
+					fusion.getNonRigidParameters().showDistanceMap(),
+					Util.getArrayFromValue( fusion.getNonRigidParameters().getControlPointDistance(), 3 ),
+					fusion.getNonRigidParameters().getAlpha(),
+					false,
+					fusion.getInterpolation(),
+					fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+					taskExecutor,
+					fusion.getBoundingBox(),
+					(RealType & NativeType)type,
+					blocksize );
+
+			// TODO: replace with LazyAffineFusion and varying blocksizes depending on the task
+			/*
+			virtual = NonRigidTools.fuseVirtualInterpolatedNonRigid(
+							spimData.getSequenceDescription().getImgLoader(),
+							registrations,
+							spimData.getViewInterestPoints().getViewInterestPoints(),
+							spimData.getSequenceDescription().getViewDescriptions(),
+							group.getViews(),
+							viewsToUse,
+							fusion.getNonRigidParameters().getLabels(),
+							fusion.useBlending(),
+							fusion.useContentBased(),
+							fusion.getNonRigidParameters().showDistanceMap(),
+							Util.getArrayFromValue( fusion.getNonRigidParameters().getControlPointDistance(), 3 ),
+							fusion.getNonRigidParameters().getAlpha(),
+							false,
+							fusion.getInterpolation(),
+							fusion.getBoundingBox(),
+							fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+							taskExecutor );
+			*/
+		}
+		else
+		{
+			lazy = LazyAffineFusion.init(
+					conv,
+					spimData.getSequenceDescription().getImgLoader(),
+					group.getViews(),
+					registrations,
+					spimData.getSequenceDescription().getViewDescriptions(),
+					fusion.useBlending(), // blending
+					fusion.useContentBased(), // content based
+					fusion.getInterpolation(), // linear interpolatio
+					fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+					fusion.getBoundingBox(),
+					(RealType & NativeType)type,
+					blocksize );
+
+			// TODO: replace with LazyAffineFusion and varying blocksizes depending on the task
+			/*
+			virtual = FusionTools.fuseVirtual(
+					spimData.getSequenceDescription().getImgLoader(),
+					registrations,
+					spimData.getSequenceDescription().getViewDescriptions(),
+					group.getViews(),
+					fusion.useBlending(),
+					fusion.useContentBased(),
+					fusion.getInterpolation(),
+					fusion.getBoundingBox(),
+					fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null );
+			*/
+		}
+
+		final String title = getTitle( fusion.getSplittingType(), group );
+
+		if ( !exporter.exportImage(
+				lazy,
+				fusion.getBoundingBox(),
+				fusion.getDownsampling(),
+				fusion.getAnisotropyFactor(),
+				title,
+				group  ) )
+			return false;
+
+		/*
+		if ( fusion.getPixelType() == 1 ) // 16 bit
+		{
+			final double[] minmax = determineInputBitDepth( group, spimData, virtual );
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Range for conversion to 16-bit, min=" + minmax[ 0 ] + ", max=" + minmax[ 1 ] );
+
+			if ( !cacheAndExport(
+					new ConvertedRandomAccessibleInterval< FloatType, UnsignedShortType >(
+							virtual, new RealUnsignedShortConverter<>( minmax[ 0 ], minmax[ 1 ] ), new UnsignedShortType() ),
+					taskExecutor, new UnsignedShortType(), fusion, exporter, group, minmax ) )
+				return false;
+		}
+		else
+		{
+			if ( !cacheAndExport( virtual, taskExecutor, new FloatType(), fusion, exporter, group, null ) )
+				return false;
+		}*/
+
+		return true;
+	}
+
+	/**
+	 * Fuses all channels of each timepoint (and illumination, depending on the splitting type) in one pass,
+	 * every output block is computed once for all channels and each channel is saved as its own dataset.
+	 *
+	 * @param spimData - the spimdata
+	 * @param fusion - the fusion parameters
+	 * @param exporter - the N5-API exporter
+	 * @param groups - the fusion groups (one per channel, timepoint and maybe illumination)
+	 * @return true if successful
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	protected static boolean fuseChannelsTogether(
+			final SpimData2 spimData,
+			final FusionGUI fusion,
+			final ExportN5API exporter,
+			final List< Group< ViewDescription > > groups )
+	{
+		// all groups that only differ by channel are fused together
+		final LinkedHashMap< String, ArrayList< Group< ViewDescription > > > channelSets = new LinkedHashMap<>();
+
+		for ( final Group< ViewDescription > group : Group.getGroupsSorted( groups ) )
+		{
+			final ViewDescription vd0 = group.iterator().next();
+
+			String key = "tp=" + vd0.getTimePointId();
+
+			if ( fusion.getSplittingType() == 1 ) // "Each timepoint, channel & illumination"
+				key += ", illum=" + vd0.getViewSetup().getIllumination().getId();
+
+			channelSets.computeIfAbsent( key, k -> new ArrayList<>() ).add( group );
+		}
+
+		final Pair< Converter, Type > convType = createConverter( fusion );
+		final int[] blocksize = exporter.blocksize();
+
+		int i = 0;
+
+		for ( final ArrayList< Group< ViewDescription > > channelSet : channelSets.values() )
+		{
+			channelSet.sort( ( g1, g2 ) -> g1.iterator().next().getViewSetup().getChannel().getId() - g2.iterator().next().getViewSetup().getChannel().getId() );
+
+			final ArrayList< ViewDescription > allViews = new ArrayList<>();
+			final ArrayList< Set< ViewDescription > > channelViews = new ArrayList<>();
+			final ArrayList< String > titles = new ArrayList<>();
+
+			for ( final Group< ViewDescription > group : channelSet )
 			{
-				conv = null;
-				type = new FloatType();
+				allViews.addAll( group.getViews() );
+				channelViews.add( group.getViews() );
+				titles.add( getTitle( fusion.getSplittingType(), group ) );
 			}
 
-			// get, and update the transformations with anisotropy, downsampling
-			final Set< ? extends ViewId > views =
-					fusion.getNonRigidParameters().isActive() ?
-							Sets.union( group.getViews(), viewsToUse.stream().collect( Collectors.toSet() ) ) : group.getViews();
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing " + channelSet.size() + " channels together " + (++i) + "/" + channelSets.size() + " (groups=" + channelSet + ")" );
+
+			final Pair< Double, String > transformedCal = TransformationTools.computeAverageCalibration( allViews, spimData.getViewRegistrations() );
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Approximate pixel size of fused image (without downsampling): " + transformedCal.getA() + " " + transformedCal.getB() );
+
+			if ( Calibrateable.class.isInstance( exporter ) )
+				((Calibrateable)exporter).setCalibration( transformedCal.getA(), transformedCal.getB() );
 
 			final HashMap< ViewId, AffineTransform3D > registrations =
 					TransformVirtual.adjustAllTransforms(
-							views,
+							allViews,
 							spimData.getViewRegistrations().getViewRegistrations(),
 							fusion.getAnisotropyFactor(),
 							fusion.getDownsampling() );
 
-			final RandomAccessibleInterval lazy;
+			final RandomAccessibleInterval lazy = LazyMultiChannelAffineFusion.init(
+					convType.getA(),
+					spimData.getSequenceDescription().getImgLoader(),
+					channelViews,
+					registrations,
+					spimData.getSequenceDescription().getViewDescriptions(),
+					fusion.useBlending(),
+					fusion.useContentBased(),
+					fusion.getInterpolation(),
+					fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+					fusion.getBoundingBox(),
+					(RealType & NativeType)convType.getB(),
+					blocksize );
+
+			final ArrayList< RandomAccessibleInterval > channels = new ArrayList<>();
 
-			if ( fusion.getNonRigidParameters().isActive() )
-			{
-				lazy = LazyNonRigidFusion.init(
-						conv,
-						spimData.getSequenceDescription().getImgLoader(),
-						registrations,
-						spimData.getViewInterestPoints().getViewInterestPoints(),
-						spimData.getSequenceDescription().getViewDescriptions(),
-						group.getViews(),
-						viewsToUse,
-						fusion.getNonRigidParameters().getLabels(),
-						fusion.useBlending(),
-						fusion.useContentBased(),
-						fusion.getNonRigidParameters().showDistanceMap(),
-						Util.getArrayFromValue( fusion.getNonRigidParameters().getControlPointDistance(), 3 ),
-						fusion.getNonRigidParameters().getAlpha(),
-						false,
-						fusion.getInterpolation(),
-						fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
-						taskExecutor,
-						fusion.getBoundingBox(),
-						(RealType & NativeType)type,
-						blocksize );
-
-				// TODO: replace with LazyAffineFusion and varying blocksizes depending on the task
-				/*
-				virtual = NonRigidTools.fuseVirtualInterpolatedNonRigid(
-								spimData.getSequenceDescription().getImgLoader(),
-								registrations,
-								spimData.getViewInterestPoints().getViewInterestPoints(),
-								spimData.getSequenceDescription().getViewDescriptions(),
-								group.getViews(),
-								viewsToUse,
-								fusion.getNonRigidParameters().getLabels(),
-								fusion.useBlending(),
-								fusion.useContentBased(),
-								fusion.getNonRigidParameters().showDistanceMap(),
-								Util.getArrayFromValue( fusion.getNonRigidParameters().getControlPointDistance(), 3 ),
-								fusion.getNonRigidParameters().getAlpha(),
-								false,
-								fusion.getInterpolation(),
-								fusion.getBoundingBox(),
-								fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
-								taskExecutor );
-				*/
-			}
-			else
-			{
-				lazy = LazyAffineFusion.init(
-						conv,
-						spimData.getSequenceDescription().getImgLoader(),
-						group.getViews(),
-						registrations,
-						spimData.getSequenceDescription().getViewDescriptions(),
-						fusion.useBlending(), // blending
-						fusion.useContentBased(), // content based
-						fusion.getInterpolation(), // linear interpolatio
-						fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
-						fusion.getBoundingBox(),
-						(RealType & NativeType)type,
-						blocksize );
-
-				// TODO: replace with LazyAffineFusion and varying blocksizes depending on the task
-				/*
-				virtual = FusionTools.fuseVirtual(
-						spimData.getSequenceDescription().getImgLoader(),
-						registrations,
-						spimData.getSequenceDescription().getViewDescriptions(),
-						group.getViews(),
-						fusion.useBlending(),
-						fusion.useContentBased(),
-						fusion.getInterpolation(),
-						fusion.getBoundingBox(),
-						fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null );
-				*/
-			}
+			for ( int c = 0; c < channelSet.size(); ++c )
+				channels.add( Views.hyperSlice( lazy, 3, c ) );
 
-			final String title = getTitle( fusion.getSplittingType(), group );
-	
-			if ( !exporter.exportImage(
-					lazy,
+			if ( !exporter.exportImages(
+					(List)channels,
 					fusion.getBoundingBox(),
 					fusion.getDownsampling(),
 					fusion.getAnisotropyFactor(),
-					title,
-					group  ) )
+					titles,
+					channelSet ) )
 				return false;
-
-			/*
-			if ( fusion.getPixelType() == 1 ) // 16 bit
-			{
-				final double[] minmax = determineInputBitDepth( group, spimData, virtual );
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Range for conversion to 16-bit, min=" + minmax[ 0 ] + ", max=" + minmax[ 1 ] );
-
-				if ( !cacheAndExport(
-						new ConvertedRandomAccessibleInterval< FloatType, UnsignedShortType >(
-								virtual, new RealUnsignedShortConverter<>( minmax[ 0 ], minmax[ 1 ] ), new UnsignedShortType() ),
-						taskExecutor, new UnsignedShortType(), fusion, exporter, group, minmax ) )
-					return false;
-			}
-			else
-			{
-				if ( !cacheAndExport( virtual, taskExecutor, new FloatType(), fusion, exporter, group, null ) )
-					return false;
-			}*/
 		}
 
-		exporter.finish();
-		
-		taskExecutor.shutdown();
-
-		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
-
 		return true;
 	}
 
+	@SuppressWarnings("rawtypes")
+	protected static Pair< Converter, Type > createConverter( final FusionGUI fusion )
+	{
+		if ( fusion.getPixelType() == 2 )
+			return new ValuePair<>( new RealUnsignedByteConverter<>( fusion.minIntensity(), fusion.maxIntensity() ), new UnsignedByteType() );
+		else if ( fusion.getPixelType() == 1 )
+			return new ValuePair<>( new RealUnsignedShortConverter<>( fusion.minIntensity(), fusion.maxIntensity() ), new UnsignedShortType() );
+		else
+			return new ValuePair<>( null, new FloatType() );
+	}
+
 	public static double[] determineInputBitDepth( final Iterable< ? extends ViewDescription > group, final SpimData2 spimData )
 	{
 		SetupImgLoader< ? > loader = spimData.getSequenceDescription().getImgLoader().getSetupImgLoader( group.iterator().next().getViewSetupId() );
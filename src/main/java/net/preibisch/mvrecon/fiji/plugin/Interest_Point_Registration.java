@@ -33,6 +33,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
@@ -55,6 +60,7 @@ import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.global.GlobalOptimizationParameters;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.global.GlobalOptimizationParameters.GlobalOptType;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.pairwise.CenterOfMassGUI;
@@ -330,216 +336,315 @@ public class Interest_Point_Registration implements PlugIn
 		if ( collectStatistics )
 			this.statistics = new ArrayList<>();
 
+		// subsets that share no views are independent and are registered concurrently, while the pairwise matching of
+		// all subsets runs on one shared pool sized to the machine. Subsets can share views (e.g. the reference timepoint
+		// is part of every subset), their correspondences and transformations are then updated one subset after another.
+		final boolean disjoint = viewDisjoint( subsets );
+		final int numSubsetThreads = disjoint ? Math.max( 1, Math.min( subsets.size(), Threads.numThreads() ) ) : 1;
+		final ExecutorService matchingExecutor = Executors.newFixedThreadPool( Threads.numThreads() );
+		final ExecutorService subsetExecutor = Executors.newFixedThreadPool( numSubsetThreads );
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Registering " + subsets.size() + " subset(s), " + numSubsetThreads + " at a time" +
+				( disjoint ? "." : " (subsets share views)." ) );
+
+		// statistics are collected per subset and concatenated in subset order, independent of which subset finishes first
+		final ArrayList< List< Pair< Pair< ViewId, ViewId >, ? extends PairwiseResult< ? > > > > statisticsPerSubset = new ArrayList<>();
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
 		for ( final Subset< ViewId > subset : subsets )
 		{
-			// fix view(s)
-			final List< ViewId > fixedViews = setup.getDefaultFixedViews();
-			IOFunctions.println( "By default #fixed views for strategy " + setup.getClass().getSimpleName() + " = " + fixedViews.size() );
-			fixedViews.addAll( viewsToFix );
-			IOFunctions.println( "Removed " + subset.fixViews( fixedViews ).size() + " views due to fixing all views (in total " + fixedViews.size() + ")" );
-
-			HashMap< ViewId, Tile< M > > models;
-			final Collection< Pair< Group< ViewId >, Group< ViewId > > > removedInconsistentPairs = new ArrayList<>();
+			final List< Pair< Pair< ViewId, ViewId >, ? extends PairwiseResult< ? > > > subsetStatistics = collectStatistics ? new ArrayList<>() : null;
+			statisticsPerSubset.add( subsetStatistics );
 
-			if ( groupingType == InterestpointGroupingType.DO_NOT_GROUP )
+			tasks.add( () ->
 			{
-				// get all pairs to be compared (either that XOR grouped pairs)
-				final List< Pair< ViewId, ViewId > > pairs = subset.getPairs();
+				this.< M >registerSubset(
+						setup, subset, viewSetups, pairwiseMatching, groupingType, interestPointMergeDistance, viewsToFix, mapBackModel, mapBackViews,
+						registrations, interestpointLists, labelMap, globalOptParameters, interestpoints, subsetStatistics, matchingExecutor );
+				return null;
+			});
+		}
 
-				for ( final Pair< ViewId, ViewId > pair : pairs )
-					System.out.println( Group.pvid( pair.getA() ) + " <=> " + Group.pvid( pair.getB() ) );
+		try
+		{
+			// invokeAll() returns when all tasks are complete
+			for ( final Future< Void > future : subsetExecutor.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			IOFunctions.println( "Failed to register subsets: " + e );
+			e.printStackTrace();
+			return false;
+		}
+		finally
+		{
+			subsetExecutor.shutdown();
+			matchingExecutor.shutdown();
+		}
 
-				// compute all pairwise matchings
-				final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > > result =
-						MatcherPairwiseTools.computePairs( pairs, interestpoints, pairwiseMatching.pairwiseMatchingInstance() );
+		if ( collectStatistics )
+			for ( final List< Pair< Pair< ViewId, ViewId >, ? extends PairwiseResult< ? > > > subsetStatistics : statisticsPerSubset )
+				statistics.addAll( subsetStatistics );
 
-				// clear correspondences
-				MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap );
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): DONE." );
 
-				// add the corresponding detections and output result
-				for ( final Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > p : result )
-				{
-					final ViewId vA = p.getA().getA();
-					final ViewId vB = p.getA().getB();
+		return true;
+	}
 
-					final InterestPoints listA = interestpointLists.get( vA ).getInterestPointList( labelMap.get( vA ) );
-					final InterestPoints listB = interestpointLists.get( vB ).getInterestPointList( labelMap.get( vB ) );
+	/**
+	 * @param subsets - the subsets
+	 * @return true if no view is part of more than one subset
+	 */
+	public static boolean viewDisjoint( final Collection< Subset< ViewId > > subsets )
+	{
+		final HashSet< ViewId > views = new HashSet<>();
 
-					MatcherPairwiseTools.addCorrespondences( p.getB().getInliers(), vA, vB, labelMap.get( vA ), labelMap.get( vB ), listA, listB );
+		for ( final Subset< ViewId > subset : subsets )
+			for ( final ViewId viewId : subset.getViews() )
+				if ( !views.add( viewId ) )
+					return false;
 
-					if ( collectStatistics )
-						statistics.add( p );
-				}
+		return true;
+	}
 
-				// run global optimization
-				final PointMatchCreator pmc = new InterestPointMatchCreator( result );
-				final M model = pairwiseMatching.getMatchingModel().getModel();
+	/**
+	 * Pairwise matching and global optimization of one subset, the resulting transformations and correspondences
+	 * are stored as soon as it is done. Subsets can only be processed concurrently if they share no views
+	 * (see {@link #viewDisjoint(Collection)}), since the correspondences and registrations of their views are updated here.
+	 *
+	 * @param subsetStatistics - the pairwise results are added here, or null
+	 * @param matchingExecutor - the (shared) executorservice for pairwise matching
+	 */
+	protected < M extends AbstractModel<M> & Affine3D<M>> void registerSubset(
+			final PairwiseSetup< ViewId > setup,
+			final Subset< ViewId > subset,
+			final Map< Integer, ? extends BasicViewSetup > viewSetups,
+			final PairwiseGUI pairwiseMatching,
+			final InterestpointGroupingType groupingType,
+			final double interestPointMergeDistance,
+			final Set< ViewId > viewsToFix,
+			final Model< ? > mapBackModel,
+			final Map< Subset< ViewId >, Pair< ViewId, Dimensions > > mapBackViews,
+			final Map< ViewId, ViewRegistration > registrations,
+			final Map< ViewId, ViewInterestPointLists > interestpointLists,
+			final Map< ViewId, String > labelMap,
+			final GlobalOptimizationParameters globalOptParameters,
+			final Map< ViewId, List< InterestPoint > > interestpoints,
+			final List< Pair< Pair< ViewId, ViewId >, ? extends PairwiseResult< ? > > > subsetStatistics,
+			final ExecutorService matchingExecutor )
+	{
+		// fix view(s)
+		final List< ViewId > fixedViews = setup.getDefaultFixedViews();
+		IOFunctions.println( "By default #fixed views for strategy " + setup.getClass().getSimpleName() + " = " + fixedViews.size() );
+		fixedViews.addAll( viewsToFix );
+		IOFunctions.println( "Removed " + subset.fixViews( fixedViews ).size() + " views due to fixing all views (in total " + fixedViews.size() + ")" );
 
-				if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_SIMPLE )
-				{
-					final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
-
-					models = GlobalOpt.computeTiles(
-									model,
-									pmc,
-									cs,
-									fixedViews,
-									subset.getGroups() );
-				}
-				else if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_ITERATIVE )
-				{
-					models = GlobalOptIterative.computeTiles(
-									model,
-									pmc,
-									new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ),
-									new MaxErrorLinkRemoval(),
-									removedInconsistentPairs,
-									fixedViews,
-									subset.getGroups() );
-				}
-				else //if ( globalOptParameters.method == GlobalOptType.TWO_ROUND_SIMPLE || globalOptParameters.method == GlobalOptType.TWO_ROUND_ITERATIVE )
-				{
-					models = GlobalOptTwoRound.computeTiles(
-							model,
-							pmc,
-							new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ), // if it's simple, both will be Double.MAX
-							new MaxErrorLinkRemoval(),
-							removedInconsistentPairs,
-							new MetaDataWeakLinkFactory(
-									registrations,
-									new SimpleBoundingBoxOverlap<>( viewSetups, registrations ) ),
-							new ConvergenceStrategy( Double.MAX_VALUE ),
-							fixedViews,
-							subset.getGroups() );
-				}
-			}
-			else
-			{
-				// test grouped registration
-				final List< Pair< Group< ViewId >, Group< ViewId > > > groupedPairs = subset.getGroupedPairs();
-				final Map< Group< ViewId >, List< GroupedInterestPoint< ViewId > > > groupedInterestpoints = new HashMap<>();
+		HashMap< ViewId, Tile< M > > models;
+		final Collection< Pair< Group< ViewId >, Group< ViewId > > > removedInconsistentPairs = new ArrayList<>();
 
-				final double maxError = interestPointMergeDistance;
-				final InterestPointGroupingMinDistance< ViewId > ipGrouping;
+		if ( groupingType == InterestpointGroupingType.DO_NOT_GROUP )
+		{
+			// get all pairs to be compared (either that XOR grouped pairs)
+			final List< Pair< ViewId, ViewId > > pairs = subset.getPairs();
 
-				if ( Double.isNaN( maxError ) )
-					ipGrouping = new InterestPointGroupingMinDistance<>( interestpoints );
-				else
-					ipGrouping = new InterestPointGroupingMinDistance<>( maxError, interestpoints );
+			for ( final Pair< ViewId, ViewId > pair : pairs )
+				System.out.println( Group.pvid( pair.getA() ) + " <=> " + Group.pvid( pair.getB() ) );
 
-				IOFunctions.println( "Using a maximum radius of " + ipGrouping.getRadius() + " to filter interest points from overlapping views." );
+			// compute all pairwise matchings
+			final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > > result =
+					MatcherPairwiseTools.computePairs( pairs, interestpoints, pairwiseMatching.pairwiseMatchingInstance(), matchingExecutor );
 
-				// which groups exist
-				final Set< Group< ViewId > > groups = new HashSet<>();
+			// clear correspondences
+			MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap );
 
-				for ( final Pair< Group< ViewId >, Group< ViewId > > pair : groupedPairs )
-				{
-					groups.add( pair.getA() );
-					groups.add( pair.getB() );
+			// add the corresponding detections and output result
+			for ( final Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > p : result )
+			{
+				final ViewId vA = p.getA().getA();
+				final ViewId vB = p.getA().getB();
 
-					if ( !groupedInterestpoints.containsKey( pair.getA() ) )
-					{
-						groupedInterestpoints.put( pair.getA(), ipGrouping.group( pair.getA() ) );
-						IOFunctions.println( "Grouping interestpoints for " + pair.getA() + " (" + ipGrouping.countBefore() + " >>> " + ipGrouping.countAfter() + ")" );
-					}
+				final InterestPoints listA = interestpointLists.get( vA ).getInterestPointList( labelMap.get( vA ) );
+				final InterestPoints listB = interestpointLists.get( vB ).getInterestPointList( labelMap.get( vB ) );
 
-					if ( !groupedInterestpoints.containsKey( pair.getB() ) )
-					{
-						groupedInterestpoints.put( pair.getB(), ipGrouping.group( pair.getB() ) );
-						IOFunctions.println( "Grouping interestpoints for " + pair.getB() + " (" + ipGrouping.countBefore() + " >>> " + ipGrouping.countAfter() + ")" );
-					}
-				}
+				MatcherPairwiseTools.addCorrespondences( p.getB().getInliers(), vA, vB, labelMap.get( vA ), labelMap.get( vB ), listA, listB );
 
-				final List< Pair< Pair< Group< ViewId >, Group< ViewId > >, PairwiseResult< GroupedInterestPoint< ViewId > > > > resultGroup =
-						MatcherPairwiseTools.computePairs( groupedPairs, groupedInterestpoints, pairwiseMatching.pairwiseGroupedMatchingInstance() );
+				if ( subsetStatistics != null )
+					subsetStatistics.add( p );
+			}
 
-				// clear correspondences and get a map linking ViewIds to the correspondence lists
-				final Map< ViewId, List< CorrespondingInterestPoints > > cMap = MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap );
+			// run global optimization
+			final PointMatchCreator pmc = new InterestPointMatchCreator( result );
+			final M model = pairwiseMatching.getMatchingModel().getModel();
 
-				// add the corresponding detections and transform HashMap< Pair< Group < V >, Group< V > >, PairwiseResult > to HashMap< Pair< V, V >, PairwiseResult >
-				final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< GroupedInterestPoint< ViewId > > > > resultTransformed =
-						MatcherPairwiseTools.addCorrespondencesFromGroups( resultGroup, interestpointLists, labelMap, cMap );
+			if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_SIMPLE )
+			{
+				final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
+
+				models = GlobalOpt.computeTiles(
+								model,
+								pmc,
+								cs,
+								fixedViews,
+								subset.getGroups() );
+			}
+			else if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_ITERATIVE )
+			{
+				models = GlobalOptIterative.computeTiles(
+								model,
+								pmc,
+								new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ),
+								new MaxErrorLinkRemoval(),
+								removedInconsistentPairs,
+								fixedViews,
+								subset.getGroups() );
+			}
+			else //if ( globalOptParameters.method == GlobalOptType.TWO_ROUND_SIMPLE || globalOptParameters.method == GlobalOptType.TWO_ROUND_ITERATIVE )
+			{
+				models = GlobalOptTwoRound.computeTiles(
+						model,
+						pmc,
+						new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ), // if it's simple, both will be Double.MAX
+						new MaxErrorLinkRemoval(),
+						removedInconsistentPairs,
+						new MetaDataWeakLinkFactory(
+								registrations,
+								new SimpleBoundingBoxOverlap<>( viewSetups, registrations ) ),
+						new ConvergenceStrategy( Double.MAX_VALUE ),
+						fixedViews,
+						subset.getGroups() );
+			}
+		}
+		else
+		{
+			// test grouped registration
+			final List< Pair< Group< ViewId >, Group< ViewId > > > groupedPairs = subset.getGroupedPairs();
+			final Map< Group< ViewId >, List< GroupedInterestPoint< ViewId > > > groupedInterestpoints = new HashMap<>();
 
-				if ( collectStatistics )
-					for ( final Pair< Pair< ViewId, ViewId >, PairwiseResult< GroupedInterestPoint< ViewId > > > p : resultTransformed )
-					{
-						System.out.println( Group.pvid( p.getA().getA() ) + " " + Group.pvid( p.getA().getB() ) + ": " + p.getB().getInliers().size() +"/" + p.getB().getCandidates().size() + " with " + p.getB().getError() + " px." );
-						statistics.add( p );
-					}
+			final double maxError = interestPointMergeDistance;
+			final InterestPointGroupingMinDistance< ViewId > ipGrouping;
 
-				// run global optimization
-				final PointMatchCreator pmc = new InterestPointMatchCreator( resultTransformed );
-				final M model = pairwiseMatching.getMatchingModel().getModel();
+			if ( Double.isNaN( maxError ) )
+				ipGrouping = new InterestPointGroupingMinDistance<>( interestpoints );
+			else
+				ipGrouping = new InterestPointGroupingMinDistance<>( maxError, interestpoints );
 
-				//models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.compute( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, groups );
+			IOFunctions.println( "Using a maximum radius of " + ipGrouping.getRadius() + " to filter interest points from overlapping views." );
 
-				if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_SIMPLE )
+			// which groups exist
+			final Set< Group< ViewId > > groups = new HashSet<>();
+
+			for ( final Pair< Group< ViewId >, Group< ViewId > > pair : groupedPairs )
+			{
+				groups.add( pair.getA() );
+				groups.add( pair.getB() );
+
+				if ( !groupedInterestpoints.containsKey( pair.getA() ) )
 				{
-					final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
-
-					models = GlobalOpt.computeTiles(
-									model,
-									pmc,
-									cs,
-									fixedViews,
-									groups );
+					groupedInterestpoints.put( pair.getA(), ipGrouping.group( pair.getA() ) );
+					IOFunctions.println( "Grouping interestpoints for " + pair.getA() + " (" + ipGrouping.countBefore() + " >>> " + ipGrouping.countAfter() + ")" );
 				}
-				else if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_ITERATIVE )
+
+				if ( !groupedInterestpoints.containsKey( pair.getB() ) )
 				{
-					models = GlobalOptIterative.computeTiles(
-									model,
-									pmc,
-									new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ),
-									new MaxErrorLinkRemoval(),
-									removedInconsistentPairs,
-									fixedViews,
-									groups );
+					groupedInterestpoints.put( pair.getB(), ipGrouping.group( pair.getB() ) );
+					IOFunctions.println( "Grouping interestpoints for " + pair.getB() + " (" + ipGrouping.countBefore() + " >>> " + ipGrouping.countAfter() + ")" );
 				}
-				else //if ( globalOptParameters.method == GlobalOptType.TWO_ROUND_SIMPLE || globalOptParameters.method == GlobalOptType.TWO_ROUND_ITERATIVE )
+			}
+
+			final List< Pair< Pair< Group< ViewId >, Group< ViewId > >, PairwiseResult< GroupedInterestPoint< ViewId > > > > resultGroup =
+					MatcherPairwiseTools.computePairs( groupedPairs, groupedInterestpoints, pairwiseMatching.pairwiseGroupedMatchingInstance(), matchingExecutor );
+
+			// clear correspondences and get a map linking ViewIds to the correspondence lists
+			final Map< ViewId, List< CorrespondingInterestPoints > > cMap = MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap );
+
+			// add the corresponding detections and transform HashMap< Pair< Group < V >, Group< V > >, PairwiseResult > to HashMap< Pair< V, V >, PairwiseResult >
+			final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< GroupedInterestPoint< ViewId > > > > resultTransformed =
+					MatcherPairwiseTools.addCorrespondencesFromGroups( resultGroup, interestpointLists, labelMap, cMap );
+
+			if ( subsetStatistics != null )
+				for ( final Pair< Pair< ViewId, ViewId >, PairwiseResult< GroupedInterestPoint< ViewId > > > p : resultTransformed )
 				{
-					// TODO: returns HashMap< ViewId, AffineModel3D>????
-					models = GlobalOptTwoRound.computeTiles(
-							model,
-							pmc,
-							new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ), // if it's simple, both will be Double.MAX
-							new MaxErrorLinkRemoval(),
-							removedInconsistentPairs,
-							new MetaDataWeakLinkFactory(
-									registrations,
-									new SimpleBoundingBoxOverlap<>( viewSetups, registrations ) ),
-							new ConvergenceStrategy( Double.MAX_VALUE ),
-							fixedViews,
-							groups );
+					System.out.println( Group.pvid( p.getA().getA() ) + " " + Group.pvid( p.getA().getB() ) + ": " + p.getB().getInliers().size() +"/" + p.getB().getCandidates().size() + " with " + p.getB().getError() + " px." );
+					subsetStatistics.add( p );
 				}
-			}
 
-			AffineTransform3D mapBack = null;
+			// run global optimization
+			final PointMatchCreator pmc = new InterestPointMatchCreator( resultTransformed );
+			final M model = pairwiseMatching.getMatchingModel().getModel();
 
-			// global opt failed
-			if ( models == null || models.keySet().size() == 0 )
+			//models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.compute( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, groups );
+
+			if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_SIMPLE )
+			{
+				final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
+
+				models = GlobalOpt.computeTiles(
+								model,
+								pmc,
+								cs,
+								fixedViews,
+								groups );
+			}
+			else if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_ITERATIVE )
+			{
+				models = GlobalOptIterative.computeTiles(
+								model,
+								pmc,
+								new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ),
+								new MaxErrorLinkRemoval(),
+								removedInconsistentPairs,
+								fixedViews,
+								groups );
+			}
+			else //if ( globalOptParameters.method == GlobalOptType.TWO_ROUND_SIMPLE || globalOptParameters.method == GlobalOptType.TWO_ROUND_ITERATIVE )
 			{
-				models = new HashMap<>();
+				// TODO: returns HashMap< ViewId, AffineModel3D>????
+				models = GlobalOptTwoRound.computeTiles(
+						model,
+						pmc,
+						new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ), // if it's simple, both will be Double.MAX
+						new MaxErrorLinkRemoval(),
+						removedInconsistentPairs,
+						new MetaDataWeakLinkFactory(
+								registrations,
+								new SimpleBoundingBoxOverlap<>( viewSetups, registrations ) ),
+						new ConvergenceStrategy( Double.MAX_VALUE ),
+						fixedViews,
+						groups );
+			}
+		}
 
-				for ( final ViewId viewId : subset.getViews() )
-					models.put( viewId, new Tile< M >( pairwiseMatching.getMatchingModel().getModel() ) );
+		AffineTransform3D mapBack = null;
 
-				IOFunctions.println( "No transformations could be found, setting all models to identity transformation." );
-			}
-			else
+		// global opt failed
+		if ( models == null || models.keySet().size() == 0 )
+		{
+			models = new HashMap<>();
+
+			for ( final ViewId viewId : subset.getViews() )
+				models.put( viewId, new Tile< M >( pairwiseMatching.getMatchingModel().getModel() ) );
+
+			IOFunctions.println( "No transformations could be found, setting all models to identity transformation." );
+		}
+		else
+		{
+			if ( mapBackModel != null )
 			{
-				if ( mapBackModel != null )
-				{
-					final ViewId mapBackView = mapBackViews.get( subset ).getA();
-					mapBack = TransformationTools.computeMapBackModel(
-							mapBackViews.get( subset ).getB(),
-							registrations.get( mapBackView ).getModel(),
-							models.get( mapBackView ).getModel(),
-							mapBackModel );
-
-					IOFunctions.println( "Mapback model: " + mapBack );
-				}
+				final ViewId mapBackView = mapBackViews.get( subset ).getA();
+				mapBack = TransformationTools.computeMapBackModel(
+						mapBackViews.get( subset ).getB(),
+						registrations.get( mapBackView ).getModel(),
+						models.get( mapBackView ).getModel(),
+						mapBackModel );
+
+				IOFunctions.println( "Mapback model: " + mapBack );
 			}
+		}
 
+		// commit the result of this subset right away, concurrent subsets share no views so only the log output needs to be serialized
+		synchronized ( registrations )
+		{
 			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Final transformation models (without mapback model):" );
 
 			// TODO: sort by time and viewid
@@ -560,10 +665,6 @@ public class Interest_Point_Registration implements PlugIn
 					IOFunctions.println( output + ", " + TransformationTools.getScaling( (Affine3D<?>)tile.getModel() ) );
 			}
 		}
-
-		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): DONE." );
-
-		return true;
 	}
 
 	public ArrayList< ViewId > filterRemainingViewIds( final List< ViewId > viewIds, final Map< ViewId, String > labelMap, final Map< ViewId, ViewInterestPointLists > interestpointLists )
@@ -592,8 +693,9 @@ public class Interest_Point_Registration implements PlugIn
 
 	public void identifySubsets( final PairwiseSetup< ViewId > setup, final OverlapDetection< ViewId > overlapDetection )
 	{
-		IOFunctions.println( "Defined pairs, removed " + setup.definePairs().size() + " redundant view pairs." );
-		IOFunctions.println( "Removed " + setup.removeNonOverlappingPairs( overlapDetection ).size() + " pairs because they do not overlap (Strategy='" + overlapDetection.getClass().getSimpleName() + "')" );
+		// only overlapping pairs are defined (Strategy for overlap detection, e.g. bounding boxes, is used for a spatial search)
+		IOFunctions.println( "Defined overlapping pairs (Strategy='" + overlapDetection.getClass().getSimpleName() + "'), removed " + setup.definePairs( overlapDetection ).size() + " redundant view pairs." );
+		IOFunctions.println( "Number of pairs to compare: " + setup.getPairs().size() );
 		setup.reorderPairs();
 		setup.detectSubsets();
 		setup.sortSubsets();
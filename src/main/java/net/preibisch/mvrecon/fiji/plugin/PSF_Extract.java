@@ -25,19 +25,26 @@ package net.preibisch.mvrecon.fiji.plugin;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
 import net.imglib2.type.numeric.real.FloatType;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunction;
+import net.preibisch.mvrecon.process.deconvolution.DeconViews;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.psf.BatchedPSFExtraction;
 import net.preibisch.mvrecon.process.psf.PSFExtraction;
 
 public class PSF_Extract implements PlugIn
@@ -153,28 +160,37 @@ public class PSF_Extract implements PlugIn
 		IOFunctions.println( "PSF size Y (pixels in input image calibration): " + psfSizeY );
 		IOFunctions.println( "PSF size Z (pixels in input image calibration): " + psfSizeZ );
 
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Extracting PSFs for " + viewIds.size() + " views ... " );
+
+		final ExecutorService service = DeconViews.createExecutorService();
+		final HashMap< ViewId, ArrayImg< FloatType, FloatArray > > psfs =
+				BatchedPSFExtraction.extractPSFs( spimData, viewIds, label, corresponding, new long[]{ psfSizeX, psfSizeY, psfSizeZ }, service, Threads.numThreads() );
+		service.shutdown();
+
 		int count = 0;
 
 		for ( final ViewId viewId : viewIds )
 		{
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Extracting PSF for " + Group.pvid( viewId ) + " ... " );
-
-			final PSFExtraction< FloatType > psf = new PSFExtraction< FloatType >( spimData, viewId, label, corresponding, new FloatType(), new long[]{ psfSizeX, psfSizeY, psfSizeZ } );
+			final ArrayImg< FloatType, FloatArray > psf = psfs.get( viewId );
 
-			if ( psf.hadDetections() )
+			if ( psf != null )
 			{
 				++count;
 
 				if ( removeMinIntensity )
-					psf.removeMinProjections();
+					PSFExtraction.removeMinProjections( psf );
 
-				spimData.getPointSpreadFunctions().addPSF( viewId, new PointSpreadFunction( spimData, viewId, psf.getPSF() ) );
-				
-				if ( saveXml )
-					SpimData2.saveXML( spimData, xmlFileName, clusterExtension );
+				spimData.getPointSpreadFunctions().addPSF( viewId, new PointSpreadFunction( spimData, viewId, psf ) );
+			}
+			else
+			{
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): No locations for " + Group.pvid( viewId ) + ", no PSF extracted." );
 			}
 		}
 
+		if ( saveXml && count > 0 )
+			SpimData2.saveXML( spimData, xmlFileName, clusterExtension );
+
 		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Extracted " + count + "/" + viewIds.size() + " PSFs." );
 
 		return true;
@@ -36,6 +36,7 @@ import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
 import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMinFilterThreshold;
+import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMinFilterThresholdBlockwise;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 
 public class MinFilterThresholdBoundingBoxGUI extends BoundingBoxGUI
@@ -44,6 +45,8 @@ public class MinFilterThresholdBoundingBoxGUI extends BoundingBoxGUI
 	public static double defaultBackgroundIntensity = 5;
 	public static int defaultDiscardedObjectSize = 25;
 	public static boolean defaultDisplaySegmentationImage = false;
+	public static boolean defaultBlockwise = true;
+	public static boolean defaultUseLowestResolution = false;
 
 	public MinFilterThresholdBoundingBoxGUI( final SpimData2 spimData, final List< ViewId > viewIdsToProcess )
 	{
@@ -86,6 +89,8 @@ public class MinFilterThresholdBoundingBoxGUI extends BoundingBoxGUI
 		gd.addMessage( "" );
 		gd.addSlider( "Downsampling", 1.0, 10.0, defaultDownsamplingAutomatic );
 		gd.addCheckbox( "Display_image_used for segmentation", defaultDisplaySegmentationImage );
+		gd.addCheckbox( "Memory-bounded (blockwise) estimation (ignored when displaying the image)", defaultBlockwise );
+		gd.addCheckbox( "Use_lowest_resolution_level (multiresolution datasets, blockwise only)", defaultUseLowestResolution );
 		gd.addMessage( "Image size: ???x???x??? pixels", GUIHelper.mediumstatusfont, GUIHelper.good );
 		Label l = (Label)gd.getMessage();
 
@@ -102,17 +107,31 @@ public class MinFilterThresholdBoundingBoxGUI extends BoundingBoxGUI
 
 		final int downsampling = defaultDownsamplingAutomatic = (int)Math.round( gd.getNextNumber() );
 		final boolean displaySegmentationImage = defaultDisplaySegmentationImage = gd.getNextBoolean();
-		
-		// compute approx bounding box
-		final BoundingBox bbEstimate = new BoundingBoxMinFilterThreshold(
-				spimData,
-				null,
-				viewIdsToProcess,
-				new CellImgFactory<>(),
-				background,
-				discardedObjectSize,
-				displaySegmentationImage,
-				downsampling ).estimate( "test" );
+		final boolean blockwise = defaultBlockwise = gd.getNextBoolean();
+		final boolean useLowestResolution = defaultUseLowestResolution = gd.getNextBoolean();
+
+		// compute approx bounding box, displaying the segmentation requires the entire fused image
+		final BoundingBox bbEstimate;
+
+		if ( blockwise && !displaySegmentationImage )
+			bbEstimate = new BoundingBoxMinFilterThresholdBlockwise(
+					spimData,
+					null,
+					viewIdsToProcess,
+					background,
+					discardedObjectSize,
+					downsampling,
+					useLowestResolution ).estimate( "test" );
+		else
+			bbEstimate = new BoundingBoxMinFilterThreshold(
+					spimData,
+					null,
+					viewIdsToProcess,
+					new CellImgFactory<>(),
+					background,
+					discardedObjectSize,
+					displaySegmentationImage,
+					downsampling ).estimate( "test" );
 
 		if ( bbEstimate == null )
 		{
@@ -62,6 +62,7 @@ import net.preibisch.mvrecon.process.cuda.CUDAFourierConvolution;
 import net.preibisch.mvrecon.process.cuda.CUDATools;
 import net.preibisch.mvrecon.process.cuda.NativeLibraryTools;
 import net.preibisch.mvrecon.process.deconvolution.DeconViewPSF.PSFTYPE;
+import net.preibisch.mvrecon.process.deconvolution.DeconvolutionConvergence;
 import net.preibisch.mvrecon.process.deconvolution.MultiViewDeconvolution;
 import net.preibisch.mvrecon.process.deconvolution.init.PsiInit.PsiInitType;
 import net.preibisch.mvrecon.process.deconvolution.init.PsiInitAvgApproxFactory;
@@ -146,13 +147,19 @@ public class DeconvolutionGUI implements FusionExportInterface
 	public static int defaultBB = 0;
 	public static int defaultInputImgCacheType = 1;
 	public static int defaultWeightCacheType = 1;
+	public static String defaultPreparedInputsN5 = "";
 	public static double defaultDownsampling = 1.0;
 	public static boolean defaultAdjustIntensities = false;
 	public static boolean defaultMul = false;
+	public static boolean defaultBlockMajor = false;
 	public static int defaultPSFType = 1;
 	public static int defaultPsiInit = 0;
 	public static double defaultOsemSpeedup = 1;
 	public static int defaultNumIterations = 10;
+	public static boolean defaultStopWhenConverged = false;
+	public static double defaultRelativeChange = DeconvolutionConvergence.defaultRelativeChange;
+	public static double defaultBlockRelativeChange = DeconvolutionConvergence.defaultBlockRelativeChange;
+	public static int defaultPatience = DeconvolutionConvergence.defaultPatience;
 	public static boolean defaultDebugMode = false;
 	public static int defaultDebugInterval = 1;
 	public static boolean defaultUseTikhonovRegularization = true;
@@ -180,12 +187,18 @@ public class DeconvolutionGUI implements FusionExportInterface
 	protected double downsampling = defaultDownsampling;
 	protected boolean adjustIntensities = defaultAdjustIntensities;
 	protected boolean mul = defaultMul;
+	protected boolean blockMajor = defaultBlockMajor;
 	protected int cacheTypeInputImg = defaultInputImgCacheType;
 	protected int cacheTypeWeights = defaultWeightCacheType;
+	protected String preparedInputsN5 = defaultPreparedInputsN5;
 	protected int psfType = defaultPSFType;
 	protected int psiInit = defaultPsiInit;
 	protected double osemSpeedup = defaultOsemSpeedup;
 	protected int numIterations = defaultNumIterations;
+	protected boolean stopWhenConverged = defaultStopWhenConverged;
+	protected double relativeChange = defaultRelativeChange;
+	protected double blockRelativeChange = defaultBlockRelativeChange;
+	protected int patience = defaultPatience;
 	protected boolean debugMode = defaultDebugMode;
 	protected int debugInterval = defaultDebugInterval;
 	protected boolean useTikhonov = defaultUseTikhonovRegularization;
@@ -288,9 +301,19 @@ public class DeconvolutionGUI implements FusionExportInterface
 
 	public ImgDataType getInputImgCacheType() { return ImgDataType.values()[ cacheTypeInputImg ]; }
 	public ImgDataType getWeightCacheType() { return ImgDataType.values()[ cacheTypeWeights ]; }
+	public String getPreparedInputsN5() { return preparedInputsN5 == null || preparedInputsN5.trim().length() == 0 ? null : preparedInputsN5.trim(); }
 	public PSFTYPE getPSFType() { return PSFTYPE.values()[ psfType ]; }
 	public double getOSEMSpeedUp() { return osemSpeedup; }
 	public int getNumIterations() { return numIterations; }
+	public boolean stopWhenConverged() { return stopWhenConverged; }
+
+	/**
+	 * @return a new convergence test (one per deconvolution, it keeps track of the iterations), or null if all iterations should be run
+	 */
+	public DeconvolutionConvergence createConvergence()
+	{
+		return stopWhenConverged ? new DeconvolutionConvergence( relativeChange, blockRelativeChange, patience ) : null;
+	}
 	public boolean getDebugMode() { return debugMode; }
 	public int getDebugInterval() { return debugInterval; }
 	public boolean getUseTikhonov() { return useTikhonov; }
@@ -304,6 +327,7 @@ public class DeconvolutionGUI implements FusionExportInterface
 	public ImgFactory< FloatType > getPsiFactory() { return psiFactory; }
 	public ImgFactory< FloatType > getCopyFactory() { return copyFactory; }
 	public ComputeBlockThreadFactory< ? > getComputeBlockThreadFactory() { return computeFactory; }
+	public boolean isBlockMajorSchedule() { return blockMajor; }
 	public boolean isMultiplicative() { return mul; } //TODO: maybe this actually multiplicative (cannot remove remove blocks, psf must be the same size)
 	public float getBlendingRange() { return blendingRange; }
 	public float getBlendingBorder() { return blendingBorder; }
@@ -358,6 +382,9 @@ public class DeconvolutionGUI implements FusionExportInterface
 		if ( !PluginHelper.isHeadless() ) inputCacheChoice = (Choice)gd.getChoices().lastElement();
 		gd.addChoice( "Weight image(s)", FusionTools.imgDataTypeChoice, FusionTools.imgDataTypeChoice[ defaultWeightCacheType ] );
 		if ( !PluginHelper.isHeadless() ) weightCacheChoice = (Choice)gd.getChoices().lastElement();
+		gd.addStringField( "Prepare_inputs_in_N5 (optional)", defaultPreparedInputsN5, 30 );
+		gd.addMessage( "Note: if a path is given, fused input images & weights are written blockwise into this N5\n"
+				+ "container and read back from disk during deconvolution (instead of caching them in RAM).", GUIHelper.smallStatusFont );
 
 		if ( enableNonRigid )
 		{
@@ -378,8 +405,10 @@ public class DeconvolutionGUI implements FusionExportInterface
 		gd.addChoice( "Initialize_with", psiInitChoice, psiInitChoice[ defaultPsiInit ] );
 		gd.addChoice( "Type_of_iteration", psfTypeChoice, psfTypeChoice[ defaultPSFType ] );
 		gd.addCheckbox( "Fast_sequential_iterations (OSEM)", !defaultMul );
+		gd.addCheckbox( "Block-major_iterations (OSEM, all views per block, less I/O)", defaultBlockMajor );
 		gd.addNumericField( "OSEM_acceleration", defaultOsemSpeedup, 1 );
 		gd.addNumericField( "Number_of_iterations", defaultNumIterations, 0 );
+		gd.addCheckbox( "Stop_when_converged (number of iterations is the maximum)", defaultStopWhenConverged );
 		gd.addCheckbox( "Debug_mode", defaultDebugMode );
 		gd.addCheckbox( "Use_Tikhonov_regularization", defaultUseTikhonovRegularization );
 		gd.addNumericField( "Tikhonov_parameter", defaultLambda, 4 );
@@ -435,6 +464,7 @@ public class DeconvolutionGUI implements FusionExportInterface
 
 		cacheTypeInputImg = defaultInputImgCacheType = gd.getNextChoiceIndex();
 		cacheTypeWeights = defaultWeightCacheType = gd.getNextChoiceIndex();
+		preparedInputsN5 = defaultPreparedInputsN5 = gd.getNextString().trim();
 
 		if ( hasIntensityAdjustments )
 			adjustIntensities = defaultAdjustIntensities = gd.getNextBoolean();
@@ -444,8 +474,10 @@ public class DeconvolutionGUI implements FusionExportInterface
 		psiInit = defaultPsiInit = gd.getNextChoiceIndex();
 		psfType = defaultPSFType = gd.getNextChoiceIndex();
 		mul = defaultMul = !gd.getNextBoolean();
+		blockMajor = defaultBlockMajor = gd.getNextBoolean();
 		osemSpeedup = defaultOsemSpeedup = gd.getNextNumber();
 		numIterations = defaultNumIterations = (int)Math.round( gd.getNextNumber() );
+		stopWhenConverged = defaultStopWhenConverged = gd.getNextBoolean();
 		debugMode = defaultDebugMode = gd.getNextBoolean();
 		useTikhonov = defaultUseTikhonovRegularization = gd.getNextBoolean();
 		lambda = defaultLambda = gd.getNextNumber();
@@ -459,6 +491,7 @@ public class DeconvolutionGUI implements FusionExportInterface
 		{
 			testEmptyBlocks = false;
 			osemSpeedup = 1.0;
+			blockMajor = false;
 		}
 		else
 		{
@@ -471,6 +504,9 @@ public class DeconvolutionGUI implements FusionExportInterface
 				return false;
 		}
 
+		if ( !getConvergence() )
+			return false;
+
 		if ( !getDebug() )
 			return false;
 
@@ -492,12 +528,16 @@ public class DeconvolutionGUI implements FusionExportInterface
 		IOFunctions.println( "Downsampled Bounding Box: " + getDownsampledBoundingBox() );
 		IOFunctions.println( "Input Image Cache Type: " + FusionTools.imgDataTypeChoice[ getInputImgCacheType().ordinal() ] );
 		IOFunctions.println( "Weight Cache Type: " + FusionTools.imgDataTypeChoice[ getWeightCacheType().ordinal() ] );
+		IOFunctions.println( "Prepare inputs in N5: " + ( getPreparedInputsN5() == null ? "no" : getPreparedInputsN5() ) );
 		IOFunctions.println( "Adjust intensities: " + adjustIntensities );
 		IOFunctions.println( "Multiplicative iterations: " + mul );
+		if ( !mul ) IOFunctions.println( "Block-major iterations: " + blockMajor );
 		IOFunctions.println( "PSF Type: " + psfTypeChoice[ getPSFType().ordinal() ] );
 		IOFunctions.println( "Psi Init: " + psiInitChoice[ psiInit ] );
 		IOFunctions.println( "OSEMSpeedup: " + osemSpeedup );
 		IOFunctions.println( "Num Iterations: " + numIterations );
+		IOFunctions.println( "Stop when converged: " + stopWhenConverged );
+		if ( stopWhenConverged ) IOFunctions.println( "Relative change (stop, freeze blocks, patience): " + relativeChange + ", " + blockRelativeChange + ", " + patience );
 		IOFunctions.println( "Debug Mode: " + debugMode );
 		if ( debugMode ) IOFunctions.println( "DebugInterval: " + debugInterval );
 		IOFunctions.println( "use Tikhonov: " + useTikhonov );
@@ -583,6 +623,29 @@ public class DeconvolutionGUI implements FusionExportInterface
 		return true;
 	}
 
+	protected boolean getConvergence()
+	{
+		if ( stopWhenConverged )
+		{
+			GenericDialog gdConvergence = new GenericDialog( "Convergence options" );
+			gdConvergence.addNumericField( "Stop_when_relative_change below", defaultRelativeChange, 5 );
+			gdConvergence.addNumericField( "Skip_blocks_when_relative_change below", defaultBlockRelativeChange, 5 );
+			gdConvergence.addNumericField( "Skip_blocks_after n iterations below, n = ", defaultPatience, 0 );
+			gdConvergence.addMessage( "Note: changes are relative to the change of the first iteration, skipping blocks\n"
+					+ "(e.g. empty background) requires identical blocks for all views.", GUIHelper.smallStatusFont );
+			gdConvergence.showDialog();
+
+			if ( gdConvergence.wasCanceled() )
+				return false;
+
+			defaultRelativeChange = relativeChange = gdConvergence.getNextNumber();
+			defaultBlockRelativeChange = blockRelativeChange = gdConvergence.getNextNumber();
+			defaultPatience = patience = (int)Math.round( gdConvergence.getNextNumber() );
+		}
+
+		return true;
+	}
+
 	protected boolean getDebug()
 	{
 		if ( debugMode )
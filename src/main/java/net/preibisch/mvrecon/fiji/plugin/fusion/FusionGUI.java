@@ -99,6 +99,8 @@ public class FusionGUI implements FusionExportInterface
 	public static boolean defaultUseContentBased = false;
 	public static boolean defaultAdjustIntensities = false;
 	public static boolean defaultPreserveAnisotropy = false;
+	public static boolean defaultFuseChannelsTogether = false;
+	public static int defaultMaxConcurrentGroups = 1;
 
 	public final static ArrayList< ImgExport > staticImgExportAlgorithms = new ArrayList< ImgExport >();
 	public final static String[] imgExportDescriptions;
@@ -117,6 +119,8 @@ public class FusionGUI implements FusionExportInterface
 	protected boolean useContentBased = defaultUseContentBased;
 	protected boolean adjustIntensities = defaultAdjustIntensities;
 	protected boolean preserveAnisotropy = defaultPreserveAnisotropy;
+	protected boolean fuseChannelsTogether = defaultFuseChannelsTogether;
+	protected int maxConcurrentGroups = defaultMaxConcurrentGroups;
 	protected double avgAnisoF;
 	protected int imgExport = defaultImgExportAlgorithm;
 
@@ -212,6 +216,16 @@ public class FusionGUI implements FusionExportInterface
 
 	public boolean adjustIntensities() { return adjustIntensities; }
 
+	/**
+	 * @return if all channels of a timepoint (and illumination) are fused in one pass sharing geometry and weights
+	 */
+	public boolean fuseChannelsTogether() { return fuseChannelsTogether; }
+
+	/**
+	 * @return how many fusion groups may be fused concurrently (1 == one after another)
+	 */
+	public int getMaxConcurrentGroups() { return maxConcurrentGroups; }
+
 	@Override
 	public double getAnisotropyFactor() { return avgAnisoF; }
 
@@ -361,6 +375,8 @@ public class FusionGUI implements FusionExportInterface
 
 		gd.addChoice( "Produce one fused image for", splittingTypes, splittingTypes[ defaultSplittingType ] );
 		splitChoice = PluginHelper.isHeadless() ? null : (Choice)gd.getChoices().lastElement();
+		gd.addCheckbox( "Fuse_all_channels_in_one_pass (affine, N5/ZARR/HDF5 export, splitting by channel only)", defaultFuseChannelsTogether );
+		gd.addNumericField( "Fuse_groups_concurrently (max number at a time, N5/ZARR/HDF5 export only)", defaultMaxConcurrentGroups, 0 );
 
 		gd.addChoice( "Fused_image", imgExportDescriptions, imgExportDescriptions[ defaultImgExportAlgorithm ] );
 
@@ -439,6 +455,8 @@ public class FusionGUI implements FusionExportInterface
 			avgAnisoF = Double.NaN;
 
 		splittingType = defaultSplittingType = gd.getNextChoiceIndex();
+		fuseChannelsTogether = defaultFuseChannelsTogether = gd.getNextBoolean();
+		maxConcurrentGroups = defaultMaxConcurrentGroups = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
 		imgExport = defaultImgExportAlgorithm = gd.getNextChoiceIndex();
 
 		if ( this.nrgui.isActive() && this.nrgui.userSelectedAdvancedParameters() )
@@ -477,6 +495,8 @@ public class FusionGUI implements FusionExportInterface
 		IOFunctions.println( "Content-based: " + useContentBased );
 		IOFunctions.println( "AnisotropyFactor: " + avgAnisoF );
 		IOFunctions.println( "Split by: " + splittingTypes[ getSplittingType() ] );
+		IOFunctions.println( "Fuse channels in one pass: " + fuseChannelsTogether );
+		IOFunctions.println( "Max concurrent groups: " + maxConcurrentGroups );
 		IOFunctions.println( "Image Export: " + imgExportDescriptions[ imgExport ] );
 		IOFunctions.println( "ImgLoader.isVirtual(): " + isImgLoaderVirtual() );
 		IOFunctions.println( "ImgLoader.isMultiResolution(): " + isMultiResolution() );
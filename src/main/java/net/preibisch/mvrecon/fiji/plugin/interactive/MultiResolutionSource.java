@@ -28,7 +28,6 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import bdv.util.Bdv;
-import bdv.util.BdvFunctions;
 import bdv.util.BdvOptions;
 import bdv.util.BdvStackSource;
 import bdv.viewer.Interpolation;
@@ -222,14 +221,14 @@ public class MultiResolutionSource implements Source< VolatileFloatType >
 
 		BdvOptions options = Bdv.options().numSourceGroups( 2 ).frameTitle( "Affine vs. NonRigid" );
 
-		BdvStackSource< ? > affine = BdvFunctions.show( new MultiResolutionSource( MultiResolutionTools.createVolatileRAIs( multiResAffine ), "affine" ), options );
+		BdvStackSource< ? > affine = MultiResolutionTools.show( multiResAffine, "affine", options );
 		final double[] minmax = FusionTools.minMaxApprox( multiResAffine.get( multiResAffine.size() - 1 ).getA() );
 		affine.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
 		affine.setColor( new ARGBType( ARGBType.rgba( 255, 0, 255, 0 ) ) );
 		MultiResolutionTools.updateBDV( affine );
 
 		options.addTo( affine );
-		BdvStackSource< ? > nr = BdvFunctions.show( new MultiResolutionSource( MultiResolutionTools.createVolatileRAIs( multiResNonRigid ), "nonrigid" ), options );
+		BdvStackSource< ? > nr = MultiResolutionTools.show( multiResNonRigid, "nonrigid", options );
 		nr.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
 		nr.setColor( new ARGBType( ARGBType.rgba( 0, 255, 0, 0 ) ) );
 		MultiResolutionTools.updateBDV( nr );
@@ -22,19 +22,30 @@
  */
 package net.preibisch.mvrecon.fiji.plugin.interactive;
 
+import java.awt.Window;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.swing.SwingUtilities;
 
 import bdv.util.Bdv;
 import bdv.util.BdvFunctions;
+import bdv.util.BdvHandle;
 import bdv.util.BdvOptions;
 import bdv.util.BdvPointsSource;
+import bdv.util.BdvStackSource;
+import bdv.util.volatiles.SharedQueue;
 import bdv.util.volatiles.VolatileViews;
 import mpicbg.models.AffineModel1D;
 import mpicbg.spim.data.generic.sequence.BasicImgLoader;
@@ -42,7 +53,10 @@ import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.type.volatiles.VolatileFloatType;
@@ -60,9 +74,62 @@ import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.CorrespondingIP
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonRigidTools;
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.SimpleReferenceIP;
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.ModelGrid;
+import util.Grid;
 
 public class MultiResolutionTools
 {
+	public static int defaultNumFetcherThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
+
+	// the fetcher queue and prefetcher of each open BDV window
+	protected static final Map< BdvHandle, PreviewWindow > windows = Collections.synchronizedMap( new HashMap<>() );
+
+	/**
+	 * Shows a multiresolution preview in BDV. All levels of all sources shown in the same BDV window (options.addTo())
+	 * share one fetcher queue that is registered as cache control, so BDV drops the requests of the previous frame and
+	 * fetches the visible cells first. The coarsest level of each source is prefetched by one background thread per
+	 * window, which stops when the window is closed.
+	 *
+	 * @param multiRes - the levels, finest first
+	 * @param name - the name of the source
+	 * @param options - the BDV options
+	 * @return the BDV source
+	 */
+	public static BdvStackSource< ? > show(
+			final List< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes,
+			final String name,
+			final BdvOptions options )
+	{
+		final Bdv addTo = options.values.addTo();
+		final PreviewWindow existing = addTo == null ? null : windows.get( addTo.getBdvHandle() );
+		final PreviewWindow window = existing != null ? existing : new PreviewWindow( multiRes.size() );
+
+		final BdvStackSource< ? > source = BdvFunctions.show( new MultiResolutionSource( createVolatileRAIs( multiRes, FusionGUI.maxCacheSize, FusionGUI.cellDim, window.queue, window.prefetcher ), name ), options );
+
+		if ( existing == null )
+		{
+			final BdvHandle bdv = source.getBdvHandle();
+			bdv.getCacheControls().addCacheControl( window.queue );
+			windows.put( bdv, window );
+
+			final Window frame = SwingUtilities.getWindowAncestor( bdv.getViewerPanel() );
+
+			if ( frame != null )
+			{
+				frame.addWindowListener( new WindowAdapter()
+				{
+					@Override
+					public void windowClosed( final WindowEvent e )
+					{
+						windows.remove( bdv );
+						window.close();
+					}
+				});
+			}
+		}
+
+		return source;
+	}
+
 	public static void updateBDV( final Bdv bdv )
 	{
 		final BdvOptions options = Bdv.options();
@@ -289,24 +356,128 @@ public class MultiResolutionTools
 			final List< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes,
 			final long maxCacheSize,
 			final int[] cellDim )
+	{
+		return createVolatileRAIs( multiRes, maxCacheSize, cellDim, new SharedQueue( defaultNumFetcherThreads, multiRes.size() ), null );
+	}
+
+	/**
+	 * Caches all levels and wraps them as volatile. Coarser levels are fetched with higher priority and the coarsest
+	 * level is optionally filled in the background right away, so a complete (coarse) preview is available first.
+	 *
+	 * @param multiRes - the levels, finest first
+	 * @param maxCacheSize - max number of cells, only used if the budgeted cache does not support the type
+	 * @param cellDim - the cell dimensions
+	 * @param queue - the fetcher queue shared by all levels, levels beyond its number of priorities share the lowest priority
+	 * @param prefetcher - loads the coarsest level in the background, stop it with shutdownNow() (can be null)
+	 * @return the volatile levels
+	 */
+	public static ArrayList< Pair< RandomAccessibleInterval< VolatileFloatType >, AffineTransform3D > > createVolatileRAIs(
+			final List< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes,
+			final long maxCacheSize,
+			final int[] cellDim,
+			final SharedQueue queue,
+			final ExecutorService prefetcher )
 	{
 		final ArrayList< Pair< RandomAccessibleInterval< VolatileFloatType >, AffineTransform3D > > volatileMultiRes = new ArrayList<>();
 
-		for ( final Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > virtualImg : multiRes )
+		RandomAccessibleInterval< FloatType > coarsest = null;
+
+		for ( int level = 0; level < multiRes.size(); ++level )
 		{
+			final Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > virtualImg = multiRes.get( level );
+
 			final RandomAccessibleInterval< FloatType > cachedImg = FusionTools.cacheRandomAccessibleInterval(
 					virtualImg.getA(),
-					FusionGUI.maxCacheSize,
+					maxCacheSize,
 					new FloatType(),
-					FusionGUI.cellDim );
+					cellDim );
 
-			final RandomAccessibleInterval< VolatileFloatType > volatileImg = VolatileViews.wrapAsVolatile( cachedImg );
+			// priority 0 is fetched first, so the coarsest level gets 0
+			final int priority = Math.min( multiRes.size() - 1 - level, queue.getNumPriorities() - 1 );
+			final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, priority, false );
+
+			final RandomAccessibleInterval< VolatileFloatType > volatileImg = VolatileViews.wrapAsVolatile( cachedImg, queue, hints );
 			//DisplayImage.getImagePlusInstance( virtual, true, "ds="+ds, 0, 255 ).show();
 			//ImageJFunctions.show( virtualVolatile );
 
 			volatileMultiRes.add( new ValuePair<>( volatileImg, virtualImg.getB() ) );
+
+			coarsest = cachedImg;
 		}
 
+		if ( coarsest != null && prefetcher != null )
+			prefetch( coarsest, cellDim, prefetcher );
+
 		return volatileMultiRes;
 	}
+
+	/**
+	 * Loads all cells of a cached image in the background, stops early if the prefetcher is shut down with shutdownNow()
+	 *
+	 * @param cachedImg - the cached image
+	 * @param cellDim - its cell dimensions (the last one is repeated if fewer are given)
+	 * @param prefetcher - runs the loading
+	 */
+	protected static void prefetch( final RandomAccessibleInterval< FloatType > cachedImg, final int[] cellDim, final ExecutorService prefetcher )
+	{
+		final int n = cachedImg.numDimensions();
+		final int[] blockSize = new int[ n ];
+
+		for ( int d = 0; d < n; ++d )
+			blockSize[ d ] = cellDim[ Math.min( d, cellDim.length - 1 ) ];
+
+		final List< long[][] > cells = Grid.create( cachedImg.dimensionsAsLongArray(), blockSize );
+
+		try
+		{
+			prefetcher.submit( () ->
+			{
+				final RandomAccess< FloatType > ra = cachedImg.randomAccess();
+				final long[] pos = new long[ n ];
+
+				// touching one pixel loads the entire cell
+				for ( final long[][] cell : cells )
+				{
+					if ( Thread.currentThread().isInterrupted() )
+						return;
+
+					for ( int d = 0; d < n; ++d )
+						pos[ d ] = cachedImg.min( d ) + cell[ 0 ][ d ];
+
+					ra.setPosition( pos );
+					ra.get();
+				}
+			});
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			// the window was closed in the meantime
+		}
+	}
+
+	/**
+	 * The fetcher queue and the prefetching thread shared by all sources shown in one BDV window
+	 */
+	protected static class PreviewWindow
+	{
+		final SharedQueue queue;
+		final ExecutorService prefetcher;
+
+		public PreviewWindow( final int numPriorities )
+		{
+			this.queue = new SharedQueue( defaultNumFetcherThreads, numPriorities );
+			this.prefetcher = Executors.newSingleThreadExecutor( r ->
+			{
+				final Thread t = new Thread( r, "prefetch coarsest preview level" );
+				t.setDaemon( true );
+				return t;
+			});
+		}
+
+		public void close()
+		{
+			prefetcher.shutdownNow();
+			queue.shutdown();
+		}
+	}
 }
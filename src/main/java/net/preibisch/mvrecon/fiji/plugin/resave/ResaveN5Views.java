@@ -0,0 +1,661 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.plugin.resave;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ProgressWriter;
+import bdv.img.n5.BdvN5Format;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import util.Grid;
+
+/**
+ * Resaves views into a BDV-compatible N5 container. Several views are processed concurrently, each view is read
+ * in rows that are one block deep in z (one reader per view, which suits file-based loaders with synchronized readers),
+ * the downsampled levels are accumulated plane by plane from these rows in memory, and the blocks are written by a
+ * separate pool of threads while the next row is read. Views that are already marked with {@link N5Parameters#finishedAttrib}
+ * are skipped. Use {@link #fitsInMemory(AbstractSequenceDescription, Collection, Map)} to check if the row buffers of a
+ * single view fit into memory, otherwise the blockwise WriteSequenceToN5 is the better choice.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class ResaveN5Views
+{
+	// how many rows of each level of one view can be in flight (one is filled while the other one is written)
+	public static int numRowBuffers = 2;
+
+	// which fraction of the heap the row buffers of all concurrently processed views may use
+	public static double maxMemoryFraction = 0.5;
+
+	/**
+	 * @param seq - the sequence description providing the images
+	 * @param viewsToResave - which views to resave
+	 * @param proposedMipmaps - resolutions and block sizes per setup
+	 * @param compression - the N5 compression
+	 * @param n5File - the N5 container
+	 * @param numThreads - the number of threads for reading/downsampling (views) and for writing (blocks) each
+	 * @param setFinishedAttribute - mark each view with {@link N5Parameters#finishedAttrib} once it is written
+	 * @param progressWriter - where to report progress
+	 * @return true if all views were resaved successfully
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static boolean resaveN5(
+			final AbstractSequenceDescription< ?, ? extends BasicViewDescription< ? >, ? > seq,
+			final Collection< ? extends ViewId > viewsToResave,
+			final Map< Integer, ExportMipmapInfo > proposedMipmaps,
+			final Compression compression,
+			final File n5File,
+			final int numThreads,
+			final boolean setFinishedAttribute,
+			final ProgressWriter progressWriter )
+	{
+		final N5Writer n5 = new N5FSWriter( n5File.getAbsolutePath() );
+
+		final ArrayList< ViewId > views = new ArrayList<>();
+
+		for ( final ViewId viewId : viewsToResave )
+		{
+			final BasicViewDescription< ? > vd = seq.getViewDescriptions().get( viewId );
+
+			if ( vd == null || !vd.isPresent() )
+				continue;
+
+			if ( isFinished( n5, viewId ) )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): View " + Group.pvid( viewId ) + " was already resaved, skipping." );
+			else
+				views.add( viewId );
+		}
+
+		if ( views.size() == 0 )
+			return true;
+
+		// the setup attributes are shared by all timepoints, write them once before the views run in parallel
+		final HashSet< Integer > setups = new HashSet<>();
+		long maxBytesPerView = 1;
+
+		for ( final ViewId viewId : views )
+		{
+			final ExportMipmapInfo mipmapInfo = proposedMipmaps.get( viewId.getViewSetupId() );
+			final BasicSetupImgLoader< ? > setupImgLoader = seq.getImgLoader().getSetupImgLoader( viewId.getViewSetupId() );
+			final RealType< ? > type = (RealType< ? >)setupImgLoader.getImageType();
+
+			if ( setups.add( viewId.getViewSetupId() ) )
+			{
+				final String setupPath = BdvN5Format.getPathName( viewId.getViewSetupId() );
+
+				n5.createGroup( setupPath );
+				n5.setAttribute( setupPath, BdvN5Format.DATA_TYPE_KEY, N5Utils.dataType( (NativeType)type ) );
+				n5.setAttribute( setupPath, BdvN5Format.DOWNSAMPLING_FACTORS_KEY, mipmapInfo.getExportResolutions() );
+			}
+
+			final long[] dim = seq.getViewDescriptions().get( viewId ).getViewSetup().getSize().dimensionsAsLongArray();
+			final int bytesPerPixel = Math.max( 1, type.getBitsPerPixel() / 8 );
+
+			maxBytesPerView = Math.max( maxBytesPerView, bytesPerView( dim, mipmapInfo, bytesPerPixel ) );
+		}
+
+		final long maxMemory = (long)( Runtime.getRuntime().maxMemory() * maxMemoryFraction );
+		final int numViewThreads = (int)Math.max( 1, Math.min( Math.min( numThreads, views.size() ), maxMemory / maxBytesPerView ) );
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Resaving " + views.size() + " views, " + numViewThreads + " concurrently, " + (maxBytesPerView / (1024*1024)) + " MB of row buffers per view." );
+
+		final ExecutorService viewService = Executors.newFixedThreadPool( numViewThreads );
+		final ExecutorService writeService = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
+
+		final AtomicInteger finished = new AtomicInteger();
+		final ArrayList< Callable< Boolean > > tasks = new ArrayList<>();
+
+		for ( final ViewId viewId : views )
+		{
+			tasks.add( () ->
+			{
+				try
+				{
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Resaving view " + Group.pvid( viewId ) );
+
+					resaveView( seq, viewId, proposedMipmaps.get( viewId.getViewSetupId() ), compression, n5, writeService );
+
+					if ( setFinishedAttribute )
+						n5.setAttribute( BdvN5Format.getPathName( viewId.getViewSetupId(), viewId.getTimePointId() ), N5Parameters.finishedAttrib, true );
+
+					return true;
+				}
+				catch ( Exception e )
+				{
+					IOFunctions.println( "Resaving view " + Group.pvid( viewId ) + " failed: " + e );
+					e.printStackTrace();
+					return false;
+				}
+				finally
+				{
+					progressWriter.setProgress( (double)finished.incrementAndGet() / (double)views.size() );
+				}
+			});
+		}
+
+		boolean success = true;
+
+		try
+		{
+			// invokeAll() returns when all tasks are complete
+			for ( final Future< Boolean > future : viewService.invokeAll( tasks ) )
+				success &= future.get();
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Failed to resave views: " + e );
+			e.printStackTrace();
+			success = false;
+		}
+
+		viewService.shutdown();
+		writeService.shutdown();
+
+		return success;
+	}
+
+	public static boolean isFinished( final N5Writer n5, final ViewId viewId )
+	{
+		try
+		{
+			final String path = BdvN5Format.getPathName( viewId.getViewSetupId(), viewId.getTimePointId() );
+
+			if ( !n5.exists( path ) )
+				return false;
+
+			final Boolean saved = n5.getAttribute( path, N5Parameters.finishedAttrib, Boolean.class );
+
+			return saved != null && saved;
+		}
+		catch ( Exception e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @param seq - the sequence description providing the images
+	 * @param viewsToResave - which views to resave
+	 * @param proposedMipmaps - resolutions and block sizes per setup
+	 * @return true if the row buffers of every single view fit into the memory budget and into an ArrayImg
+	 */
+	public static boolean fitsInMemory(
+			final AbstractSequenceDescription< ?, ? extends BasicViewDescription< ? >, ? > seq,
+			final Collection< ? extends ViewId > viewsToResave,
+			final Map< Integer, ExportMipmapInfo > proposedMipmaps )
+	{
+		final long maxMemory = (long)( Runtime.getRuntime().maxMemory() * maxMemoryFraction );
+
+		for ( final ViewId viewId : viewsToResave )
+		{
+			final BasicViewDescription< ? > vd = seq.getViewDescriptions().get( viewId );
+
+			if ( vd == null || !vd.isPresent() )
+				continue;
+
+			final ExportMipmapInfo mipmapInfo = proposedMipmaps.get( viewId.getViewSetupId() );
+			final RealType< ? > type = (RealType< ? >)seq.getImgLoader().getSetupImgLoader( viewId.getViewSetupId() ).getImageType();
+			final long[] dim = vd.getViewSetup().getSize().dimensionsAsLongArray();
+
+			if ( maxRowPixels( dim, mipmapInfo ) > Integer.MAX_VALUE || bytesPerView( dim, mipmapInfo, Math.max( 1, type.getBitsPerPixel() / 8 ) ) > maxMemory )
+			{
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Rows of view " + Group.pvid( viewId ) + " do not fit into memory." );
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	protected static < T extends RealType< T > & NativeType< T > > void resaveView(
+			final AbstractSequenceDescription< ?, ? extends BasicViewDescription< ? >, ? > seq,
+			final ViewId viewId,
+			final ExportMipmapInfo mipmapInfo,
+			final Compression compression,
+			final N5Writer n5,
+			final ExecutorService writeService ) throws Exception
+	{
+		final BasicSetupImgLoader< T > setupImgLoader = (BasicSetupImgLoader< T >)seq.getImgLoader().getSetupImgLoader( viewId.getViewSetupId() );
+		final RandomAccessibleInterval< T > img = Views.zeroMin( setupImgLoader.getImage( viewId.getTimePointId() ) );
+		final T type = setupImgLoader.getImageType();
+
+		final int[][] resolutions = mipmapInfo.getExportResolutions();
+		final int[][] subdivisions = mipmapInfo.getSubdivisions();
+		final int numLevels = resolutions.length;
+		final int n = img.numDimensions();
+
+		final long[][] dims = levelDimensions( img.dimensionsAsLongArray(), resolutions );
+		final DataType dataType = N5Utils.dataType( type );
+
+		n5.createGroup( BdvN5Format.getPathName( viewId.getViewSetupId(), viewId.getTimePointId() ) );
+
+		final ArrayList< Level< T > > levels = new ArrayList<>();
+
+		for ( int level = 0; level < numLevels; ++level )
+		{
+			final String dataset = BdvN5Format.getPathName( viewId.getViewSetupId(), viewId.getTimePointId(), level );
+			final DatasetAttributes attributes = new DatasetAttributes( dims[ level ], subdivisions[ level ], dataType, compression );
+
+			n5.createDataset( dataset, attributes );
+			n5.setAttribute( dataset, BdvN5Format.DOWNSAMPLING_FACTORS_KEY, resolutions[ level ] );
+
+			// downsample from the previous level if the factors are nested, otherwise from full resolution
+			int src = level - 1;
+
+			if ( level > 0 )
+				for ( int d = 0; d < n; ++d )
+					if ( resolutions[ level ][ d ] % resolutions[ src ][ d ] != 0 )
+						src = 0;
+
+			final int[] factor = new int[ n ];
+
+			if ( level > 0 )
+				for ( int d = 0; d < n; ++d )
+					factor[ d ] = resolutions[ level ][ d ] / resolutions[ src ][ d ];
+
+			final Level< T > l = new Level<>( dims[ level ], subdivisions[ level ], dataset, attributes, src < 0 ? null : levels.get( src ), factor, type, n5, writeService );
+			levels.add( l );
+
+			if ( src >= 0 )
+				levels.get( src ).children.add( l );
+		}
+
+		// read full resolution one row at a time, all other levels are filled while its planes are completed
+		final Level< T > level0 = levels.get( 0 );
+		final long depth = dims[ 0 ][ n - 1 ];
+
+		for ( long z0 = 0; z0 < depth; z0 += level0.rowDepth )
+		{
+			final long z1 = Math.min( depth, z0 + level0.rowDepth );
+
+			final long[] min = new long[ n ];
+			final long[] max = dims[ 0 ].clone();
+
+			for ( int d = 0; d < n; ++d )
+				--max[ d ];
+
+			min[ n - 1 ] = z0;
+			max[ n - 1 ] = z1 - 1;
+
+			final long[] maxRow = max.clone();
+			maxRow[ n - 1 ] = z1 - z0 - 1;
+
+			copy( Views.interval( img, min, max ), Views.interval( level0.row(), new long[ n ], maxRow ) );
+
+			for ( long z = z0; z < z1; ++z )
+				level0.planeDone();
+		}
+
+		// the last (incomplete) planes and rows, sources are finished before the levels computed from them
+		for ( final Level< T > level : levels )
+			level.finish();
+
+		for ( final Level< T > level : levels )
+			level.waitForWrites();
+	}
+
+	/**
+	 * One mipmap level of a view that is written in rows which are one block deep in z. The downsampled levels are
+	 * computed plane by plane from their source level, so only one (pending) row per level needs to be in memory.
+	 */
+	protected static class Level< T extends RealType< T > & NativeType< T > >
+	{
+		final long[] dim;
+		final int[] blockSize;
+		final String dataset;
+		final DatasetAttributes attributes;
+		final Level< T > src;
+		final int[] factor; // relative to the source level
+		final T type;
+		final N5Writer n5;
+		final ExecutorService writeService;
+
+		final int n, rowDepth;
+		final boolean round;
+		final ArrayList< Level< T > > children = new ArrayList<>();
+
+		final ArrayList< ArrayImg< T, ? > > buffers = new ArrayList<>();
+		final ArrayList< List< Future< ? > > > writes = new ArrayList<>();
+		int currentBuffer = -1;
+		long rowStart = 0; // first plane of the current row
+		int rowFill = 0; // number of completed planes in the current row
+
+		// sums of the source planes that make up the next plane (only for downsampled levels)
+		final double[] sum;
+		final int[] count;
+		int accumulated = 0;
+		long nextPlane = 0;
+
+		public Level(
+				final long[] dim,
+				final int[] blockSize,
+				final String dataset,
+				final DatasetAttributes attributes,
+				final Level< T > src,
+				final int[] factor,
+				final T type,
+				final N5Writer n5,
+				final ExecutorService writeService ) throws Exception
+		{
+			this.dim = dim;
+			this.blockSize = blockSize;
+			this.dataset = dataset;
+			this.attributes = attributes;
+			this.src = src;
+			this.factor = factor;
+			this.type = type;
+			this.n5 = n5;
+			this.writeService = writeService;
+
+			this.n = dim.length;
+			this.rowDepth = (int)Math.min( dim[ n - 1 ], blockSize[ n - 1 ] );
+			this.round = type instanceof IntegerType;
+
+			if ( src == null )
+			{
+				this.sum = null;
+				this.count = null;
+			}
+			else
+			{
+				this.sum = new double[ (int)planeSize( dim ) ];
+				this.count = new int[ sum.length ];
+			}
+
+			nextRow();
+		}
+
+		public ArrayImg< T, ? > row() { return buffers.get( currentBuffer ); }
+
+		/**
+		 * A plane of the current row was filled, hand it to the levels computed from it and write the row once it is complete.
+		 */
+		public void planeDone() throws Exception
+		{
+			final RandomAccessibleInterval< T > plane = Views.hyperSlice( row(), n - 1, rowFill );
+
+			++rowFill;
+
+			for ( final Level< T > child : children )
+				child.add( plane );
+
+			if ( rowFill == rowDepth || rowStart + rowFill == dim[ n - 1 ] )
+				flush();
+		}
+
+		/**
+		 * Adds a plane of the source level, every plane of this level is the average of factor[z] source planes.
+		 */
+		protected void add( final RandomAccessibleInterval< T > srcPlane ) throws Exception
+		{
+			final Cursor< T > cursor = Views.flatIterable( srcPlane ).localizingCursor();
+
+			while ( cursor.hasNext() )
+			{
+				final double value = cursor.next().getRealDouble();
+
+				// the last pixels are dropped if the size is not divisible by the downsampling (except for levels that are one pixel wide)
+				int i = 0;
+				long stride = 1;
+				boolean inside = true;
+
+				for ( int d = 0; d < n - 1; ++d )
+				{
+					final long t = cursor.getLongPosition( d ) / factor[ d ];
+
+					if ( t >= dim[ d ] )
+						inside = false;
+
+					i += t * stride;
+					stride *= dim[ d ];
+				}
+
+				if ( inside )
+				{
+					sum[ i ] += value;
+					++count[ i ];
+				}
+			}
+
+			if ( ++accumulated == factor[ n - 1 ] )
+				emit();
+		}
+
+		protected void emit() throws Exception
+		{
+			if ( nextPlane < dim[ n - 1 ] )
+			{
+				final Cursor< T > cursor = Views.flatIterable( Views.hyperSlice( row(), n - 1, rowFill ) ).cursor();
+
+				for ( int i = 0; i < sum.length; ++i )
+				{
+					final double avg = count[ i ] == 0 ? 0 : sum[ i ] / count[ i ];
+					cursor.next().setReal( round ? Math.round( avg ) : avg );
+				}
+
+				++nextPlane;
+				planeDone();
+			}
+
+			Arrays.fill( sum, 0 );
+			Arrays.fill( count, 0 );
+			accumulated = 0;
+		}
+
+		/**
+		 * Submits the writes of the current row and continues with the next buffer.
+		 */
+		protected void flush() throws Exception
+		{
+			if ( rowFill == 0 )
+				return;
+
+			final long[] max = dim.clone();
+
+			for ( int d = 0; d < n; ++d )
+				--max[ d ];
+
+			max[ n - 1 ] = rowFill - 1;
+
+			// rows start at block boundaries, so their blocks map onto whole N5 blocks
+			final RandomAccessibleInterval< T > rowView = Views.interval( row(), new long[ n ], max );
+			final long gridOffsetZ = rowStart / blockSize[ n - 1 ];
+			final List< Future< ? > > pending = writes.get( currentBuffer );
+
+			for ( final long[][] gridBlock : Grid.create( rowView.dimensionsAsLongArray(), blockSize ) )
+			{
+				final long[] gridPosition = gridBlock[ 2 ].clone();
+				gridPosition[ n - 1 ] += gridOffsetZ;
+
+				pending.add( writeService.submit( () ->
+				{
+					N5Utils.saveBlock( Views.offsetInterval( rowView, gridBlock[ 0 ], gridBlock[ 1 ] ), n5, dataset, attributes, gridPosition );
+					return null;
+				}) );
+			}
+
+			rowStart += rowFill;
+			rowFill = 0;
+
+			nextRow();
+		}
+
+		/**
+		 * Switches to the next buffer, which can only be re-used once all of its blocks are written.
+		 */
+		protected void nextRow() throws Exception
+		{
+			currentBuffer = ( currentBuffer + 1 ) % numRowBuffers;
+
+			if ( buffers.size() <= currentBuffer )
+			{
+				final long[] bufferDim = dim.clone();
+				bufferDim[ n - 1 ] = rowDepth;
+
+				buffers.add( new ArrayImgFactory<>( type ).create( bufferDim ) );
+				writes.add( new ArrayList<>() );
+			}
+			else
+			{
+				for ( final Future< ? > future : writes.get( currentBuffer ) )
+					future.get();
+
+				writes.get( currentBuffer ).clear();
+			}
+		}
+
+		/**
+		 * Computes the last plane from the remaining source planes (if it is not dropped) and writes the last row.
+		 */
+		public void finish() throws Exception
+		{
+			if ( src != null && accumulated > 0 )
+				emit();
+
+			flush();
+		}
+
+		public void waitForWrites() throws Exception
+		{
+			for ( final List< Future< ? > > pending : writes )
+				for ( final Future< ? > future : pending )
+					future.get();
+		}
+	}
+
+	/**
+	 * @param dim - full resolution dimensions
+	 * @param resolutions - downsampling factors per level
+	 * @return the dimensions of each level (at least 1 pixel)
+	 */
+	public static long[][] levelDimensions( final long[] dim, final int[][] resolutions )
+	{
+		final long[][] dims = new long[ resolutions.length ][ dim.length ];
+
+		for ( int level = 0; level < resolutions.length; ++level )
+			for ( int d = 0; d < dim.length; ++d )
+				dims[ level ][ d ] = Math.max( 1, dim[ d ] / resolutions[ level ][ d ] );
+
+		return dims;
+	}
+
+	/**
+	 * @param dim - full resolution dimensions
+	 * @param mipmapInfo - resolutions and block sizes
+	 * @param bytesPerPixel - bytes per pixel
+	 * @return the memory needed for the row buffers and plane accumulators of all levels of one view
+	 */
+	public static long bytesPerView( final long[] dim, final ExportMipmapInfo mipmapInfo, final int bytesPerPixel )
+	{
+		final long[][] dims = levelDimensions( dim, mipmapInfo.getExportResolutions() );
+		final int[][] subdivisions = mipmapInfo.getSubdivisions();
+		final int z = dim.length - 1;
+
+		long bytes = 0;
+
+		for ( int level = 0; level < dims.length; ++level )
+		{
+			final long planeSize = planeSize( dims[ level ] );
+
+			bytes += numRowBuffers * bytesPerPixel * planeSize * Math.min( dims[ level ][ z ], subdivisions[ level ][ z ] );
+
+			// double sums and int counts
+			if ( level > 0 )
+				bytes += planeSize * 12;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * @param dim - full resolution dimensions
+	 * @param mipmapInfo - resolutions and block sizes
+	 * @return the number of pixels of the largest row buffer
+	 */
+	public static long maxRowPixels( final long[] dim, final ExportMipmapInfo mipmapInfo )
+	{
+		final long[][] dims = levelDimensions( dim, mipmapInfo.getExportResolutions() );
+		final int[][] subdivisions = mipmapInfo.getSubdivisions();
+		final int z = dim.length - 1;
+
+		long max = 0;
+
+		for ( int level = 0; level < dims.length; ++level )
+			max = Math.max( max, planeSize( dims[ level ] ) * Math.min( dims[ level ][ z ], subdivisions[ level ][ z ] ) );
+
+		return max;
+	}
+
+	protected static long planeSize( final long[] dim )
+	{
+		long size = 1;
+
+		for ( int d = 0; d < dim.length - 1; ++d )
+			size *= dim[ d ];
+
+		return size;
+	}
+
+	protected static < T extends RealType< T > > void copy( final RandomAccessibleInterval< T > source, final RandomAccessibleInterval< T > target )
+	{
+		final Cursor< T > cursorSource = Views.flatIterable( source ).cursor();
+		final Cursor< T > cursorTarget = Views.flatIterable( target ).cursor();
+
+		while ( cursorTarget.hasNext() )
+			cursorTarget.next().set( cursorSource.next() );
+	}
+}
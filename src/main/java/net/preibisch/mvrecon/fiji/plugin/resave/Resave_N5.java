@@ -123,29 +123,48 @@ public class Resave_N5 implements PlugIn
 
 			final Map< Integer, ExportMipmapInfo > proposedMipmaps = n5Params.proposedMipmaps;
 
-			try
+			if ( ResaveN5Views.fitsInMemory( sdReduced.getSequenceDescription(), vidsToResave, proposedMipmaps ) )
 			{
-				WriteSequenceToN5.writeN5File(
+				// views are resaved concurrently in rows, views that are marked as finished already are skipped
+				if ( !ResaveN5Views.resaveN5(
 						sdReduced.getSequenceDescription(),
+						vidsToResave,
 						proposedMipmaps,
-						n5Params.compression, //new GzipCompression()
+						n5Params.compression,
 						n5Params.n5File,
-						new bdv.export.ExportScalePyramid.DefaultLoopbackHeuristic(),
-						null,
-						n5Params.numCellCreatorThreads, // Runtime.getRuntime().availableProcessors()
-						progressWriter );
+						n5Params.numCellCreatorThreads,
+						n5Params.setFinishedAttributeInN5,
+						progressWriter ) )
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Not all views were resaved successfully, see log." );
+			}
+			else
+			{
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Resaving blockwise." );
 
-				if ( n5Params.setFinishedAttributeInN5 )
+				try
 				{
-					final N5FSWriter n5 = new N5FSWriter( n5Params.n5File.getAbsolutePath() );
+					WriteSequenceToN5.writeN5File(
+							sdReduced.getSequenceDescription(),
+							proposedMipmaps,
+							n5Params.compression, //new GzipCompression()
+							n5Params.n5File,
+							new bdv.export.ExportScalePyramid.DefaultLoopbackHeuristic(),
+							null,
+							n5Params.numCellCreatorThreads, // Runtime.getRuntime().availableProcessors()
+							progressWriter );
+
+					if ( n5Params.setFinishedAttributeInN5 )
+					{
+						final N5FSWriter n5 = new N5FSWriter( n5Params.n5File.getAbsolutePath() );
 
-					for (ViewId vid : vidsToResave)
-						n5.setAttribute( BdvN5Format.getPathName( vid.getViewSetupId(), vid.getTimePointId() ), N5Parameters.finishedAttrib, true);
+						for (ViewId vid : vidsToResave)
+							n5.setAttribute( BdvN5Format.getPathName( vid.getViewSetupId(), vid.getTimePointId() ), N5Parameters.finishedAttrib, true);
+					}
+				}
+				catch ( IOException e )
+				{
+					e.printStackTrace();
 				}
-			}
-			catch ( IOException e )
-			{
-				e.printStackTrace();
 			}
 		}
 
@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.splitting;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+
+/**
+ * Remembers the images opened from the underlying (unsplit) imgloader, so all split views of one
+ * original ViewSetup and timepoint share the same image (and therefore the same cell cache) instead
+ * of each opening and caching the full original tile again. Images are only softly referenced, i.e.
+ * they are dropped (and re-opened on request) when memory gets low.
+ *
+ * @author stephan.preibisch@gmx.de
+ *
+ */
+public class SplitImageCache
+{
+	public enum Kind { IMAGE, VOLATILE }
+
+	private final ConcurrentHashMap< List< Object >, SoftReference< Object > > images = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap< List< Object >, Object > locks = new ConcurrentHashMap<>();
+
+	/**
+	 * @param oldSetupId - the ViewSetupId of the underlying imgloader
+	 * @param timepointId - the timepoint
+	 * @param level - the mipmap level (0 for non-multiresolution imgloaders)
+	 * @param kind - which kind of image
+	 * @param hints - the hints used to open the image
+	 * @param loader - opens the image from the underlying imgloader if it is not present
+	 * @param <R> - the image type
+	 * @return the shared image
+	 */
+	@SuppressWarnings("unchecked")
+	public < R > R get(
+			final int oldSetupId,
+			final int timepointId,
+			final int level,
+			final Kind kind,
+			final ImgLoaderHint[] hints,
+			final Supplier< R > loader )
+	{
+		final List< Object > key = Arrays.asList( oldSetupId, timepointId, level, kind, hints == null ? Collections.emptyList() : Arrays.asList( hints ) );
+
+		Object img = dereference( images.get( key ) );
+
+		if ( img != null )
+			return (R)img;
+
+		// only one thread opens a certain image, the others wait and re-use it
+		synchronized ( locks.computeIfAbsent( key, k -> new Object() ) )
+		{
+			img = dereference( images.get( key ) );
+
+			if ( img == null )
+			{
+				img = loader.get();
+				images.put( key, new SoftReference<>( img ) );
+			}
+		}
+
+		return (R)img;
+	}
+
+	public void clear()
+	{
+		images.clear();
+		locks.clear();
+	}
+
+	private static final Object dereference( final SoftReference< Object > ref )
+	{
+		return ref == null ? null : ref.get();
+	}
+}
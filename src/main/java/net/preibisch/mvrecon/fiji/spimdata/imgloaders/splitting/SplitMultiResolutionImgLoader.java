@@ -53,6 +53,11 @@ public class SplitMultiResolutionImgLoader implements MultiResolutionImgLoader
 	 */
 	private final HashMap< Integer, SplitMultiResolutionSetupImgLoader< ? > > splitSetupImgLoaders;
 
+	/**
+	 * The images of the underlying imgloader, shared by all splits of the same ViewSetup
+	 */
+	private final SplitImageCache sharedImages;
+
 	public SplitMultiResolutionImgLoader(
 			final MultiResolutionImgLoader underlyingImgLoader,
 			final HashMap< Integer, Integer > new2oldSetupId,
@@ -63,6 +68,7 @@ public class SplitMultiResolutionImgLoader implements MultiResolutionImgLoader
 		this.new2oldSetupId = new2oldSetupId;
 		this.newSetupId2Interval = newSetupId2Interval;
 		this.splitSetupImgLoaders = new HashMap<>();
+		this.sharedImages = new SplitImageCache();
 		this.oldSD = oldSD;
 	}
 
@@ -77,14 +83,14 @@ public class SplitMultiResolutionImgLoader implements MultiResolutionImgLoader
 		SplitMultiResolutionSetupImgLoader< ? > sil = splitSetupImgLoaders.get( newSetupId );
 		if ( sil == null )
 		{
-			sil = createNewSetupImgLoader( underlyingImgLoader.getSetupImgLoader( oldSetupId ), interval );
+			sil = createNewSetupImgLoader( underlyingImgLoader.getSetupImgLoader( oldSetupId ), oldSetupId, interval );
 			splitSetupImgLoaders.put( newSetupId, sil );
 		}
 		return sil;
 	}
 
-	private final synchronized < T > SplitMultiResolutionSetupImgLoader< ? > createNewSetupImgLoader( final MultiResolutionSetupImgLoader< T > setupImgLoader, final Interval interval )
+	private final synchronized < T > SplitMultiResolutionSetupImgLoader< ? > createNewSetupImgLoader( final MultiResolutionSetupImgLoader< T > setupImgLoader, final int oldSetupId, final Interval interval )
 	{
-		return new SplitMultiResolutionSetupImgLoader< T >( setupImgLoader, interval );
+		return new SplitMultiResolutionSetupImgLoader< T >( setupImgLoader, oldSetupId, interval, sharedImages );
 	}
 }
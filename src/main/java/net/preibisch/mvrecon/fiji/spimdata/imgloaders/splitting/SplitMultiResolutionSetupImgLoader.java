@@ -31,15 +31,18 @@ import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
-import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.splitting.SplitImageCache.Kind;
 import util.ImgLib2Tools;
 
 public class SplitMultiResolutionSetupImgLoader< T > implements MultiResolutionSetupImgLoader< T >
 {
 	final MultiResolutionSetupImgLoader< T > underlyingSetupImgLoader;
+	final int oldSetupId;
 	final Interval interval;
+	final SplitImageCache sharedImages;
 	final Dimensions size;
 	final int n;
 
@@ -51,9 +54,22 @@ public class SplitMultiResolutionSetupImgLoader< T > implements MultiResolutionS
 	private boolean[] isUpdated;
 
 	public SplitMultiResolutionSetupImgLoader( final MultiResolutionSetupImgLoader< T > underlyingSetupImgLoader, final Interval interval )
+	{
+		this( underlyingSetupImgLoader, 0, interval, new SplitImageCache() );
+	}
+
+	/**
+	 * @param underlyingSetupImgLoader - the setup imgloader of the original ViewSetup
+	 * @param oldSetupId - the id of the original ViewSetup
+	 * @param interval - the interval of this split inside the original ViewSetup
+	 * @param sharedImages - shared by all splits of the same underlying imgloader, so every original image is only opened once
+	 */
+	public SplitMultiResolutionSetupImgLoader( final MultiResolutionSetupImgLoader< T > underlyingSetupImgLoader, final int oldSetupId, final Interval interval, final SplitImageCache sharedImages )
 	{
 		this.underlyingSetupImgLoader = underlyingSetupImgLoader;
+		this.oldSetupId = oldSetupId;
 		this.interval = interval;
+		this.sharedImages = sharedImages;
 		this.n = interval.numDimensions();
 
 		final long[] dim = new long[ interval.numDimensions() ];
@@ -77,9 +93,10 @@ public class SplitMultiResolutionSetupImgLoader< T > implements MultiResolutionS
 	@Override
 	public RandomAccessibleInterval< T > getImage( final int timepointId, final ImgLoaderHint... hints )
 	{
-		IOFunctions.println( "requesting full size: " );
+		// full resolution is level 0 of the underlying pyramid, so it shares the image (and cache) with getImage( timepointId, 0, hints )
+		final RandomAccessibleInterval< T > full = sharedImages.get( oldSetupId, timepointId, 0, Kind.IMAGE, hints, () -> underlyingSetupImgLoader.getImage( timepointId, 0, hints ) );
 
-		return Views.zeroMin( Views.interval( underlyingSetupImgLoader.getImage( timepointId, hints ), interval ) );
+		return Views.zeroMin( Views.interval( full, interval ) );
 	}
 
 	@Override
@@ -89,9 +106,16 @@ public class SplitMultiResolutionSetupImgLoader< T > implements MultiResolutionS
 	}
 
 	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final boolean normalize, final ImgLoaderHint... hints )
 	{
-		final RandomAccessibleInterval< FloatType > img = Views.zeroMin( Views.interval( underlyingSetupImgLoader.getFloatImage( timepointId, false, hints ), interval ) );
+		final RandomAccessibleInterval< FloatType > img;
+
+		// convert only the split interval of the shared image instead of a full float copy of the original image
+		if ( getImageType() instanceof RealType )
+			img = ImgLib2Tools.convertVirtualRAI( (RandomAccessibleInterval)getImage( timepointId, hints ) );
+		else
+			img = Views.zeroMin( Views.interval( underlyingSetupImgLoader.getFloatImage( timepointId, false, hints ), interval ) );
 
 		// TODO: this is stupid, remove capablitity to get FloatType images!
 		if ( normalize )
@@ -143,7 +167,7 @@ public class SplitMultiResolutionSetupImgLoader< T > implements MultiResolutionS
 			//IOFunctions.println( "size: " + Util.printInterval( img ) );
 			//IOFunctions.println( "interval: " + Util.printInterval( scaledIntervals[ level ] ) );
 
-			final RandomAccessibleInterval< T > full = underlyingSetupImgLoader.getImage( timepointId, level, hints );
+			final RandomAccessibleInterval< T > full = sharedImages.get( oldSetupId, timepointId, level, Kind.IMAGE, hints, () -> underlyingSetupImgLoader.getImage( timepointId, level, hints ) );
 
 			updateScaledIntervals( this.scaledIntervals, level, n, full );
 
@@ -29,20 +29,37 @@ import net.imglib2.Dimensions;
 import net.imglib2.FinalDimensions;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.splitting.SplitImageCache.Kind;
 import util.ImgLib2Tools;
 
 public class SplitSetupImgLoader< T > implements SetupImgLoader< T >
 {
 	final SetupImgLoader< T > underlyingSetupImgLoader;
+	final int oldSetupId;
 	final Interval interval;
 	final Dimensions size;
+	final SplitImageCache sharedImages;
 
 	public SplitSetupImgLoader( final SetupImgLoader< T > underlyingSetupImgLoader, final Interval interval )
+	{
+		this( underlyingSetupImgLoader, 0, interval, new SplitImageCache() );
+	}
+
+	/**
+	 * @param underlyingSetupImgLoader - the setup imgloader of the original ViewSetup
+	 * @param oldSetupId - the id of the original ViewSetup
+	 * @param interval - the interval of this split inside the original ViewSetup
+	 * @param sharedImages - shared by all splits of the same underlying imgloader, so every original image is only opened once
+	 */
+	public SplitSetupImgLoader( final SetupImgLoader< T > underlyingSetupImgLoader, final int oldSetupId, final Interval interval, final SplitImageCache sharedImages )
 	{
 		this.underlyingSetupImgLoader = underlyingSetupImgLoader;
+		this.oldSetupId = oldSetupId;
 		this.interval = interval;
+		this.sharedImages = sharedImages;
 
 		final long[] dim = new long[ interval.numDimensions() ];
 		interval.dimensions( dim );
@@ -53,7 +70,9 @@ public class SplitSetupImgLoader< T > implements SetupImgLoader< T >
 	@Override
 	public RandomAccessibleInterval< T > getImage( final int timepointId, final ImgLoaderHint... hints )
 	{
-		return Views.zeroMin( Views.interval( underlyingSetupImgLoader.getImage( timepointId, hints ), interval ) );
+		final RandomAccessibleInterval< T > full = sharedImages.get( oldSetupId, timepointId, 0, Kind.IMAGE, hints, () -> underlyingSetupImgLoader.getImage( timepointId, hints ) );
+
+		return Views.zeroMin( Views.interval( full, interval ) );
 	}
 
 	@Override
@@ -63,9 +82,16 @@ public class SplitSetupImgLoader< T > implements SetupImgLoader< T >
 	}
 
 	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final boolean normalize, final ImgLoaderHint... hints )
 	{
-		final RandomAccessibleInterval< FloatType > img = Views.zeroMin( Views.interval( underlyingSetupImgLoader.getFloatImage( timepointId, false, hints ), interval ) );
+		final RandomAccessibleInterval< FloatType > img;
+
+		// convert only the split interval of the shared image instead of a full float copy of the original image
+		if ( getImageType() instanceof RealType )
+			img = ImgLib2Tools.convertVirtualRAI( (RandomAccessibleInterval)getImage( timepointId, hints ) );
+		else
+			img = Views.zeroMin( Views.interval( underlyingSetupImgLoader.getFloatImage( timepointId, false, hints ), interval ) );
 
 		// TODO: this is stupid, remove capablitity to get FloatType images!
 		if ( normalize )
@@ -23,18 +23,13 @@
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders.splitting;
 
 import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.Callable;
 
 import bdv.ViewerImgLoader;
 import bdv.ViewerSetupImgLoader;
 import bdv.cache.CacheControl;
-import bdv.img.cache.VolatileGlobalCellCache;
-import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
 import mpicbg.spim.data.sequence.SequenceDescription;
 import net.imglib2.Interval;
-import net.imglib2.cache.queue.BlockingFetchQueues;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.volatiles.VolatileUnsignedShortType;
 
@@ -63,9 +58,9 @@ public class SplitViewerImgLoader implements ViewerImgLoader, MultiResolutionImg
 	private final HashMap< Integer, SplitViewerSetupImgLoader > splitSetupImgLoaders;
 
 	/**
-	 * Its own cell cache
+	 * The images of the underlying imgloader, shared by all splits of the same ViewSetup
 	 */
-	protected VolatileGlobalCellCache cache;
+	private final SplitImageCache sharedImages;
 
 	public SplitViewerImgLoader(
 			final ViewerImgLoader underlyingImgLoader,
@@ -78,10 +73,9 @@ public class SplitViewerImgLoader implements ViewerImgLoader, MultiResolutionImg
 		this.newSetupId2Interval = newSetupId2Interval;
 		this.oldSD = oldSD;
 		this.splitSetupImgLoaders = new HashMap<>();
+		this.sharedImages = new SplitImageCache();
 	}
 
-	private boolean isOpen = false;
-
 	@Override
 	public SplitViewerSetupImgLoader getSetupImgLoader( final int setupId )
 	{
@@ -100,7 +94,7 @@ public class SplitViewerImgLoader implements ViewerImgLoader, MultiResolutionImg
 			if ( !imgType.getClass().isInstance( new UnsignedShortType() ) || !volTyoe.getClass().isInstance( new VolatileUnsignedShortType() ) )
 				throw new RuntimeException( "The underlying ViewerSetupImgLoader is not typed for <UnsignedShortType, VolatileUnsignedShortType>, cannot split up for BDV." );
 
-			sil = createNewSetupImgLoader( (ViewerSetupImgLoader)underlyingImgLoader.getSetupImgLoader( oldSetupId ), interval );
+			sil = createNewSetupImgLoader( (ViewerSetupImgLoader)underlyingImgLoader.getSetupImgLoader( oldSetupId ), oldSetupId, interval );
 			splitSetupImgLoaders.put( newSetupId, sil );
 		}
 		return sil;
@@ -108,43 +102,16 @@ public class SplitViewerImgLoader implements ViewerImgLoader, MultiResolutionImg
 
 	private final synchronized SplitViewerSetupImgLoader createNewSetupImgLoader(
 			final ViewerSetupImgLoader< UnsignedShortType, VolatileUnsignedShortType > setupImgLoader,
+			final int oldSetupId,
 			final Interval interval )
 	{
-		return new SplitViewerSetupImgLoader( setupImgLoader, interval );
-	}
-
-	private void open()
-	{
-		if ( !isOpen )
-		{
-			synchronized ( this )
-			{
-				if ( isOpen )
-					return;
-
-				isOpen = true;
-
-				int maxNumLevels = 1;
-				final List< ? extends BasicViewSetup > setups = oldSD.getViewSetupsOrdered();
-				for ( final BasicViewSetup setup : setups )
-				{
-					final double[][] resolutions = underlyingImgLoader.getSetupImgLoader( setup.getId() ).getMipmapResolutions();
-
-					if ( resolutions.length > maxNumLevels )
-						maxNumLevels = resolutions.length;
-				}
-
-				final int numFetcherThreads = 1;
-				final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, numFetcherThreads );
-				cache = new VolatileGlobalCellCache( queue );
-			}
-		}
+		return new SplitViewerSetupImgLoader( setupImgLoader, oldSetupId, interval, sharedImages );
 	}
 
 	@Override
 	public CacheControl getCacheControl()
 	{
-		open();
-		return cache;
+		// all volatile images come from the cell cache of the underlying imgloader
+		return underlyingImgLoader.getCacheControl();
 	}
 }
@@ -49,13 +49,15 @@ import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.type.volatiles.VolatileUnsignedShortType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
-import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.splitting.SplitImageCache.Kind;
 import util.ImgLib2Tools;
 
 public class SplitViewerSetupImgLoader implements ViewerSetupImgLoader< UnsignedShortType, VolatileUnsignedShortType >, MultiResolutionSetupImgLoader< UnsignedShortType >
 {
 	final ViewerSetupImgLoader< UnsignedShortType, VolatileUnsignedShortType > underlyingSetupImgLoader;
+	final int oldSetupId;
 	final Interval interval;
+	final SplitImageCache sharedImages;
 	final Dimensions size;
 	final int n;
 
@@ -67,9 +69,26 @@ public class SplitViewerSetupImgLoader implements ViewerSetupImgLoader< Unsigned
 	private boolean[] isUpdated;
 
 	public SplitViewerSetupImgLoader( final ViewerSetupImgLoader< UnsignedShortType, VolatileUnsignedShortType > underlyingSetupImgLoader, final Interval interval )
+	{
+		this( underlyingSetupImgLoader, 0, interval, new SplitImageCache() );
+	}
+
+	/**
+	 * @param underlyingSetupImgLoader - the setup imgloader of the original ViewSetup
+	 * @param oldSetupId - the id of the original ViewSetup
+	 * @param interval - the interval of this split inside the original ViewSetup
+	 * @param sharedImages - shared by all splits of the same underlying imgloader, so every original image is only opened once
+	 */
+	public SplitViewerSetupImgLoader(
+			final ViewerSetupImgLoader< UnsignedShortType, VolatileUnsignedShortType > underlyingSetupImgLoader,
+			final int oldSetupId,
+			final Interval interval,
+			final SplitImageCache sharedImages )
 	{
 		this.underlyingSetupImgLoader = underlyingSetupImgLoader;
+		this.oldSetupId = oldSetupId;
 		this.interval = interval;
+		this.sharedImages = sharedImages;
 		this.n = interval.numDimensions();
 
 		final long[] dim = new long[ interval.numDimensions() ];
@@ -141,9 +160,10 @@ public class SplitViewerSetupImgLoader implements ViewerSetupImgLoader< Unsigned
 	@Override
 	public RandomAccessibleInterval< UnsignedShortType > getImage( final int timepointId, final ImgLoaderHint... hints )
 	{
-		IOFunctions.println( "requesting full size: " );
+		// full resolution is level 0 of the underlying pyramid, so it shares the image (and cache) with getImage( timepointId, 0, hints )
+		final RandomAccessibleInterval< UnsignedShortType > full = sharedImages.get( oldSetupId, timepointId, 0, Kind.IMAGE, hints, () -> underlyingSetupImgLoader.getImage( timepointId, 0, hints ) );
 
-		return Views.zeroMin( Views.interval( underlyingSetupImgLoader.getImage( timepointId, hints ), interval ) );
+		return Views.zeroMin( Views.interval( full, interval ) );
 	}
 
 	@Override
@@ -205,7 +225,7 @@ public class SplitViewerSetupImgLoader implements ViewerSetupImgLoader< Unsigned
 		System.out.println( "size: " + Util.printInterval( img ) );
 		System.out.println( "interval: " + Util.printInterval( scaledIntervals[ level ] ) ); */
 
-		final RandomAccessibleInterval< UnsignedShortType > full = underlyingSetupImgLoader.getImage( timepointId, level, hints );
+		final RandomAccessibleInterval< UnsignedShortType > full = sharedImages.get( oldSetupId, timepointId, level, Kind.IMAGE, hints, () -> underlyingSetupImgLoader.getImage( timepointId, level, hints ) );
 
 		updateScaledIntervals( this.scaledIntervals, level, n, full );
 
@@ -257,11 +277,11 @@ public class SplitViewerSetupImgLoader implements ViewerSetupImgLoader< Unsigned
 	@Override
 	public RandomAccessibleInterval< VolatileUnsignedShortType > getVolatileImage( final int timepointId, final int level, final ImgLoaderHint... hints )
 	{
-		final RandomAccessibleInterval< VolatileUnsignedShortType > full = underlyingSetupImgLoader.getVolatileImage( timepointId, level, hints );
+		final RandomAccessibleInterval< VolatileUnsignedShortType > full = sharedImages.get( oldSetupId, timepointId, level, Kind.VOLATILE, hints, () -> underlyingSetupImgLoader.getVolatileImage( timepointId, level, hints ) );
 
 		updateScaledIntervals( this.scaledIntervals, level, n, full );
 
-		return Views.zeroMin( Views.interval( underlyingSetupImgLoader.getVolatileImage( timepointId, level, hints ), scaledIntervals[ level ] ) );
+		return Views.zeroMin( Views.interval( full, scaledIntervals[ level ] ) );
 	}
 
 	@Override
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * Minimal benchmark harness: warmup, repeated measurement, reports ms/op, ns/voxel and allocated bytes/op.
+ *
+ * Allocations are summed over all live threads (using com.sun.management.ThreadMXBean if available), threads that
+ * terminate during an operation are not counted, so it is a lower bound when the operation creates its own threads.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class BenchmarkTools
+{
+	public static int defaultWarmup = 2;
+	public static int defaultIterations = 5;
+
+	public static class Result
+	{
+		final String name;
+		final long voxelsPerOp;
+		final double minMs, meanMs;
+		final long bytesPerOp;
+
+		public Result( final String name, final long voxelsPerOp, final double minMs, final double meanMs, final long bytesPerOp )
+		{
+			this.name = name;
+			this.voxelsPerOp = voxelsPerOp;
+			this.minMs = minMs;
+			this.meanMs = meanMs;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		public String getName() { return name; }
+		public double getMinMs() { return minMs; }
+		public double getMeanMs() { return meanMs; }
+		public long getBytesPerOp() { return bytesPerOp; }
+
+		/**
+		 * @return ns per voxel based on the fastest run, NaN if the operation does not process voxels
+		 */
+		public double getNsPerVoxel() { return voxelsPerOp > 0 ? ( minMs * 1000000.0 ) / voxelsPerOp : Double.NaN; }
+
+		@Override
+		public String toString()
+		{
+			return String.format( Locale.US, "%-45s %10.2f ms/op (min) %10.2f ms/op (mean) %10.3f ns/voxel %12.2f MB/op",
+					name, minMs, meanMs, getNsPerVoxel(), bytesPerOp / ( 1024.0 * 1024.0 ) );
+		}
+	}
+
+	public static Result run( final String name, final long voxelsPerOp, final Runnable op )
+	{
+		return run( name, voxelsPerOp, defaultWarmup, defaultIterations, op );
+	}
+
+	public static Result run( final String name, final long voxelsPerOp, final int warmup, final int iterations, final Runnable op )
+	{
+		IOFunctions.println( "Benchmarking '" + name + "' (" + warmup + " warmup, " + iterations + " iterations)" );
+
+		for ( int i = 0; i < warmup; ++i )
+			op.run();
+
+		double minMs = Double.MAX_VALUE, sumMs = 0;
+		long sumBytes = 0;
+
+		for ( int i = 0; i < iterations; ++i )
+		{
+			System.gc();
+
+			final long bytesBefore = allocatedBytes();
+			final long start = System.nanoTime();
+
+			op.run();
+
+			final double ms = ( System.nanoTime() - start ) / 1000000.0;
+			final long bytesAfter = allocatedBytes();
+
+			minMs = Math.min( minMs, ms );
+			sumMs += ms;
+			sumBytes += Math.max( 0, bytesAfter - bytesBefore );
+		}
+
+		final Result result = new Result( name, voxelsPerOp, minMs, sumMs / iterations, sumBytes / iterations );
+		IOFunctions.println( result.toString() );
+
+		return result;
+	}
+
+	public static void print( final ArrayList< Result > results )
+	{
+		IOFunctions.println( "" );
+		IOFunctions.println( "Results:" );
+
+		for ( final Result result : results )
+			IOFunctions.println( result.toString() );
+	}
+
+	/**
+	 * @return the bytes allocated by all currently live threads, or 0 if not supported by the JVM
+	 */
+	public static long allocatedBytes()
+	{
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if ( !( bean instanceof com.sun.management.ThreadMXBean ) )
+			return 0;
+
+		final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+
+		if ( !sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled() )
+			return 0;
+
+		long sum = 0;
+
+		for ( final long bytes : sunBean.getThreadAllocatedBytes( sunBean.getAllThreadIds() ) )
+			if ( bytes > 0 )
+				sum += bytes;
+
+		return sum;
+	}
+}
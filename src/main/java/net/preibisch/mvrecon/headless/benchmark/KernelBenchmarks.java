@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import mpicbg.models.AffineModel3D;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.headless.benchmark.BenchmarkTools.Result;
+import net.preibisch.mvrecon.headless.boundingbox.TestBoundingBox;
+import net.preibisch.mvrecon.headless.registration.TestRegistration;
+import net.preibisch.mvrecon.process.cuda.Block;
+import net.preibisch.mvrecon.process.deconvolution.DeconView;
+import net.preibisch.mvrecon.process.deconvolution.iteration.sequential.ComputeBlockSeqThreadCPU;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyFusedDownsample2x;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyFusedDownsample2x.Kernel;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyHalfPixelDownsample2x;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
+import net.preibisch.mvrecon.process.fusion.transformed.weights.BlendingRealRandomAccessible;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoGImgLib2;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.lazygauss.LazyGauss;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac.RANSACParameters;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.rgldm.RGLDMPairwise;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.rgldm.RGLDMParameters;
+import net.preibisch.simulation.imgloader.SimulatedBeadsImgLoader;
+
+/**
+ * Benchmarks the performance-critical kernels and the whole detect, register and fuse pipeline on reproducible,
+ * simulated bead data (in memory). Run the main method, optionally with the names of the benchmarks to run as
+ * arguments (e.g. "fusion dog"), the results are printed as ms/op, ns/voxel and MB allocated/op.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class KernelBenchmarks
+{
+	public static int[] angles = new int[]{ 0, 90, 135 };
+	public static long[] cropSize = new long[]{ 128, 128, 128 };
+	public static int[] blockSize = new int[]{ 64, 64, 64 };
+	public static long seed = 42;
+
+	final ExecutorService service;
+
+	// registered simulated dataset and its bounding box
+	final SpimData2 spimData;
+	final Interval boundingBox;
+	final List< ViewId > viewIds;
+
+	// a crop of the first view
+	final Img< FloatType > img;
+
+	public KernelBenchmarks( final ExecutorService service )
+	{
+		this.service = service;
+		this.spimData = SpimData2.convert( SimulatedBeadsImgLoader.spimdataExample( angles ) );
+		this.boundingBox = TestBoundingBox.testBoundingBox( spimData, false );
+
+		this.viewIds = new ArrayList<>( spimData.getSequenceDescription().getViewDescriptions().values() );
+		Collections.sort( viewIds );
+		SpimData2.filterMissingViews( spimData, viewIds );
+
+		final ViewId viewId = viewIds.get( 0 );
+		final RandomAccessibleInterval< FloatType > input =
+				spimData.getSequenceDescription().getImgLoader().getSetupImgLoader( viewId.getViewSetupId() ).getFloatImage( viewId.getTimePointId(), true );
+
+		final long[] max = new long[ input.numDimensions() ];
+
+		for ( int d = 0; d < max.length; ++d )
+			max[ d ] = input.min( d ) + Math.min( cropSize[ d ], input.dimension( d ) ) - 1;
+
+		this.img = copy( Views.interval( input, new FinalInterval( input.minAsLongArray(), max ) ) );
+	}
+
+	protected Img< FloatType > copy( final RandomAccessibleInterval< FloatType > input )
+	{
+		final Img< FloatType > out = new ArrayImgFactory<>( new FloatType() ).create( input );
+		FusionTools.copyImg( Views.zeroMin( input ), out, service );
+		return out;
+	}
+
+	/**
+	 * FusedRandomAccess including BlendingRealRandomAccess of all views into the bounding box
+	 */
+	public Result fusion()
+	{
+		final HashMap< ViewId, AffineTransform3D > registrations =
+				TransformVirtual.adjustAllTransforms( viewIds, spimData.getViewRegistrations().getViewRegistrations(), Double.NaN, Double.NaN );
+
+		return BenchmarkTools.run( "fusion (FusedRandomAccess, blending)", Intervals.numElements( boundingBox ), () ->
+			copy( FusionTools.fuseVirtual(
+					spimData.getSequenceDescription().getImgLoader(),
+					registrations,
+					spimData.getSequenceDescription().getViewDescriptions(),
+					viewIds,
+					boundingBox ) ) );
+	}
+
+	public Result blending()
+	{
+		final BlendingRealRandomAccessible blending = new BlendingRealRandomAccessible( img, new int[]{ 0, 0, 0 }, new int[]{ 40, 40, 40 } );
+
+		return BenchmarkTools.run( "BlendingRealRandomAccess", img.size(), () ->
+		{
+			double sum = 0;
+
+			for ( final FloatType t : Views.flatIterable( Views.interval( Views.raster( blending ), img ) ) )
+				sum += t.get();
+
+			if ( sum < 0 )
+				throw new RuntimeException( "blending weights cannot be negative" );
+		});
+	}
+
+	public Result lazyGauss()
+	{
+		return BenchmarkTools.run( "LazyGauss (sigma=2)", img.size(), () ->
+			copy( LazyGauss.init( Views.extendMirrorSingle( img ), img, new FloatType(), new double[]{ 2, 2, 2 }, blockSize ) ) );
+	}
+
+	public Result findPeaks()
+	{
+		final Pair< double[][], Float > sigmas = DoGImgLib2.computeSigmas( 1.8f, 3 );
+		final float k = sigmas.getB();
+
+		final RandomAccessibleInterval< FloatType > g1 = LazyGauss.init( Views.extendMirrorSingle( img ), img, new FloatType(), sigmas.getA()[ 0 ], blockSize );
+		final RandomAccessibleInterval< FloatType > g2 = LazyGauss.init( Views.extendMirrorSingle( img ), img, new FloatType(), sigmas.getA()[ 1 ], blockSize );
+
+		final Img< FloatType > dog = copy( Converters.convert( g2, g1, ( a, b, o ) -> o.set( ( a.get() - b.get() ) * k ), new FloatType() ) );
+
+		return BenchmarkTools.run( "DoGImgLib2.findPeaks", dog.size(), () -> DoGImgLib2.findPeaks( dog, null, 0.005f, service ) );
+	}
+
+	public Result downsampling()
+	{
+		return BenchmarkTools.run( "LazyHalfPixelDownsample2x (x)", img.size(), () ->
+			copy( LazyHalfPixelDownsample2x.init( Views.extendBorder( img ), img, new FloatType(), blockSize, 0 ) ) );
+	}
+
+	public Result fusedDownsampling()
+	{
+		return BenchmarkTools.run( "LazyFusedDownsample2x (xyz)", img.size(), () ->
+			copy( LazyFusedDownsample2x.init( img, img, new FloatType(), blockSize, new boolean[] { true, true, true }, Kernel.HALF_PIXEL ) ) );
+	}
+
+	public Result rgldm()
+	{
+		final Random rnd = new Random( seed );
+		final int numPoints = 2000;
+
+		final ArrayList< InterestPoint > listA = new ArrayList<>();
+		final ArrayList< InterestPoint > listB = new ArrayList<>();
+
+		final AffineTransform3D t = new AffineTransform3D();
+		t.rotate( 2, Math.toRadians( 10 ) );
+		t.translate( 20, -10, 5 );
+
+		final double[] p = new double[ 3 ];
+
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			for ( int d = 0; d < 3; ++d )
+				p[ d ] = rnd.nextDouble() * 500;
+
+			listA.add( new InterestPoint( i, p.clone() ) );
+
+			t.apply( p, p );
+
+			for ( int d = 0; d < 3; ++d )
+				p[ d ] += rnd.nextGaussian() * 0.2;
+
+			listB.add( new InterestPoint( i, p.clone() ) );
+		}
+
+		Collections.shuffle( listB, rnd );
+
+		final RGLDMPairwise< InterestPoint > matcher = new RGLDMPairwise<>( new RANSACParameters(), new RGLDMParameters( new AffineModel3D() ) );
+		matcher.setPrintResult( false );
+
+		return BenchmarkTools.run( "RGLDMPairwise (" + numPoints + " points)", 0, () -> matcher.match( listA, listB ) );
+	}
+
+	public Result deconvolution()
+	{
+		final ArrayImg< FloatType, FloatArray > kernel = gaussianKernel( 15, 2.0 );
+		final DeconView view = new DeconView( service, img, Views.interval( Views.extendValue( img, new FloatType( 1 ) ), img ), kernel, Intervals.dimensionsAsIntArray( img ) );
+		final Block block = view.getNonInterferingBlocks().get( 0 ).get( 0 );
+
+		final ComputeBlockSeqThreadCPU thread =
+				new ComputeBlockSeqThreadCPU( service, 0.0001f, 0.006f, 0, view.getBlockSize(), new ArrayImgFactory<>( new FloatType() ) );
+
+		final RandomAccessibleInterval< FloatType > imgBlock = Views.zeroMin( Views.interval( Views.extendZero( view.getImage() ), block ) );
+		final RandomAccessibleInterval< FloatType > weightBlock = Views.zeroMin( Views.interval( Views.extendZero( view.getWeight() ), block ) );
+
+		return BenchmarkTools.run( "ComputeBlockSeqThreadCPU (one iteration)", thread.getPsiBlockTmp().size(), () ->
+		{
+			for ( final FloatType t : thread.getPsiBlockTmp() )
+				t.set( 0.5f );
+
+			thread.runIteration( view, block, imgBlock, weightBlock, 1.0f, view.getPSF().getKernel1(), view.getPSF().getKernel2() );
+		});
+	}
+
+	/**
+	 * detection (DoG), registration (geometric hashing, global optimization), bounding box and fusion of freshly simulated data
+	 */
+	public Result endToEnd()
+	{
+		return BenchmarkTools.run( "end-to-end (detect, register, fuse)", Intervals.numElements( boundingBox ), 0, 3, () ->
+		{
+			final SpimData2 data = SpimData2.convert( SimulatedBeadsImgLoader.spimdataExample( angles ) );
+
+			// runs the DoG detection and registers all views using the detections
+			TestRegistration.testRegistration( data, false );
+
+			final Interval bb = TestBoundingBox.testBoundingBox( data, false );
+
+			final List< ViewId > views = new ArrayList<>( data.getSequenceDescription().getViewDescriptions().values() );
+			SpimData2.filterMissingViews( data, views );
+
+			copy( FusionTools.fuseVirtual(
+					data.getSequenceDescription().getImgLoader(),
+					TransformVirtual.adjustAllTransforms( views, data.getViewRegistrations().getViewRegistrations(), Double.NaN, Double.NaN ),
+					data.getSequenceDescription().getViewDescriptions(),
+					views,
+					bb ) );
+		});
+	}
+
+	public static ArrayImg< FloatType, FloatArray > gaussianKernel( final int size, final double sigma )
+	{
+		final ArrayImg< FloatType, FloatArray > kernel = ArrayImgs.floats( size, size, size );
+		final Cursor< FloatType > c = kernel.localizingCursor();
+		final double center = ( size - 1 ) / 2.0;
+
+		while ( c.hasNext() )
+		{
+			c.fwd();
+
+			double sqDist = 0;
+
+			for ( int d = 0; d < 3; ++d )
+				sqDist += ( c.getDoublePosition( d ) - center ) * ( c.getDoublePosition( d ) - center );
+
+			c.get().set( (float)Math.exp( -sqDist / ( 2 * sigma * sigma ) ) );
+		}
+
+		return kernel;
+	}
+
+	public static void main( String[] args )
+	{
+		final List< String > toRun = new ArrayList<>();
+
+		for ( final String arg : args )
+			toRun.add( arg.toLowerCase() );
+
+		final ExecutorService service = Threads.createFixedExecutorService();
+		final KernelBenchmarks b = new KernelBenchmarks( service );
+		final ArrayList< Result > results = new ArrayList<>();
+
+		if ( toRun.isEmpty() || toRun.contains( "fusion" ) ) results.add( b.fusion() );
+		if ( toRun.isEmpty() || toRun.contains( "blending" ) ) results.add( b.blending() );
+		if ( toRun.isEmpty() || toRun.contains( "gauss" ) ) results.add( b.lazyGauss() );
+		if ( toRun.isEmpty() || toRun.contains( "dog" ) ) results.add( b.findPeaks() );
+		if ( toRun.isEmpty() || toRun.contains( "downsampling" ) ) results.add( b.downsampling() );
+		if ( toRun.isEmpty() || toRun.contains( "downsampling" ) ) results.add( b.fusedDownsampling() );
+		if ( toRun.isEmpty() || toRun.contains( "rgldm" ) ) results.add( b.rgldm() );
+		if ( toRun.isEmpty() || toRun.contains( "deconvolution" ) ) results.add( b.deconvolution() );
+		if ( toRun.isEmpty() || toRun.contains( "endtoend" ) ) results.add( b.endToEnd() );
+
+		BenchmarkTools.print( results );
+
+		service.shutdown();
+	}
+}
@@ -62,6 +62,9 @@ public class CreateN5Scripts
 	 * Tar archive (without compression)
 	 * cd /fast/AG_Preibisch/Stephan/n5/
 	 * tar -cf n5.tar dataset.n5 dataset-n5.xml
+	 * 
+	 * Without a cluster scheduler (one or several nodes sharing the storage), start ResaveN5Worker as often as desired instead
+	 * ./java -cp multiview-reconstruction-0.3.6-SNAPSHOT.jar net.preibisch.mvrecon.headless.cluster.ResaveN5Worker -i /fast/AG_Preibisch/Stephan/n5/dataset.xml -t 4
 	 */
 
 	public static String submitScript = "submitAll.sh";
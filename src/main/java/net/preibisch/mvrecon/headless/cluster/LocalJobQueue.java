@@ -0,0 +1,321 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A simple task queue shared by several processes (JVMs) on one or more machines that see the same filesystem,
+ * e.g. stored next to the dataset XML. Every modification happens while holding a file lock and the state file is
+ * replaced atomically, so workers can claim tasks, mark them complete or failed (and retry them) without an external
+ * scheduler. A worker keeps its lease by calling {@link #renew(String)} regularly (see {@link #keepAlive(String, ScheduledExecutorService)}),
+ * tasks whose lease was not renewed within the lease time (e.g. because the worker was killed) are handed out again.
+ * Only the current owner of a task can complete it or mark it as failed.
+ *
+ * Note: file locks require a filesystem that supports them across machines (e.g. NFSv4, Lustre, GPFS).
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class LocalJobQueue
+{
+	public enum State { PENDING, RUNNING, DONE, FAILED };
+
+	public static class Task
+	{
+		final String id;
+		State state = State.PENDING;
+		int attempts = 0;
+		String owner = "-";
+		long time = 0;
+
+		public Task( final String id ) { this.id = id; }
+
+		public String getId() { return id; }
+		public State getState() { return state; }
+		public int getAttempts() { return attempts; }
+		public String getOwner() { return owner; }
+	}
+
+	// file locks are held per JVM, threads of the same JVM must not request it twice
+	final private static Object jvmLock = new Object();
+
+	final File stateFile, lockFile;
+	final int maxAttempts;
+	final long leaseMillis;
+	final String owner;
+
+	/**
+	 * @param directory - directory for the queue files (must be shared by all workers)
+	 * @param name - name of the queue, several queues can live in the same directory
+	 * @param maxAttempts - how often a task is tried before it is marked as FAILED
+	 * @param leaseMillis - after which time a RUNNING task is considered abandoned and is handed out again
+	 */
+	public LocalJobQueue( final File directory, final String name, final int maxAttempts, final long leaseMillis )
+	{
+		this.stateFile = new File( directory, name + ".queue" );
+		this.lockFile = new File( directory, name + ".queue.lock" );
+		this.maxAttempts = maxAttempts;
+		this.leaseMillis = leaseMillis;
+		this.owner = ManagementFactory.getRuntimeMXBean().getName() + ":" + Thread.currentThread().getId(); // pid@host:thread
+	}
+
+	/**
+	 * Adds all tasks that are not part of the queue yet as PENDING, existing tasks keep their state.
+	 * Can safely be called by every worker.
+	 *
+	 * @param ids - the task ids (must not contain whitespace)
+	 */
+	public void init( final Collection< String > ids ) throws IOException
+	{
+		modify( tasks -> {
+			for ( final String id : ids )
+				tasks.putIfAbsent( id, new Task( id ) );
+			return null;
+		} );
+	}
+
+	/**
+	 * @return the id of the next task this worker should process (marked as RUNNING), or null if there is none
+	 */
+	public String claim() throws IOException
+	{
+		return modify( tasks -> {
+			final long now = System.currentTimeMillis();
+
+			for ( final Task task : tasks.values() )
+			{
+				if ( task.state == State.PENDING || ( task.state == State.RUNNING && now - task.time > leaseMillis ) )
+				{
+					if ( task.state == State.RUNNING )
+						++task.attempts; // abandoned by its previous owner
+
+					if ( task.attempts >= maxAttempts )
+					{
+						task.state = State.FAILED;
+						continue;
+					}
+
+					task.state = State.RUNNING;
+					task.owner = owner;
+					task.time = now;
+
+					return task.id;
+				}
+			}
+
+			return null;
+		} );
+	}
+
+	/**
+	 * Extends the lease of a RUNNING task owned by this worker.
+	 *
+	 * @param id - the task
+	 * @return false if this worker does not own the task anymore (e.g. the lease expired and it was handed out again)
+	 */
+	public boolean renew( final String id ) throws IOException
+	{
+		return modify( tasks -> {
+			final Task task = tasks.get( id );
+
+			if ( !isOwner( task ) )
+				return false;
+
+			task.time = System.currentTimeMillis();
+			return true;
+		} );
+	}
+
+	/**
+	 * Renews the lease of a task periodically (four times per lease time) until the returned future is cancelled.
+	 *
+	 * @param id - the task
+	 * @param service - executes the renewals
+	 * @return the future to cancel once the task is completed or failed
+	 */
+	public ScheduledFuture< ? > keepAlive( final String id, final ScheduledExecutorService service )
+	{
+		final long period = Math.max( 1, leaseMillis / 4 );
+
+		return service.scheduleAtFixedRate( () -> {
+			try
+			{
+				if ( !renew( id ) )
+					System.out.println( "Lost the lease of task '" + id + "', it was handed out to another worker." );
+			}
+			catch ( final IOException e )
+			{
+				// an exception would cancel all further renewals
+				System.out.println( "Failed to renew the lease of task '" + id + "': " + e );
+			}
+		}, period, period, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * @param id - the task that was successfully processed
+	 * @return false if this worker does not own the task (anymore), the task is not changed in this case
+	 */
+	public boolean complete( final String id ) throws IOException
+	{
+		return modify( tasks -> {
+			final Task task = tasks.get( id );
+
+			if ( !isOwner( task ) )
+				return false;
+
+			task.state = State.DONE;
+			task.time = System.currentTimeMillis();
+			return true;
+		} );
+	}
+
+	/**
+	 * @param id - the task that failed, it is retried unless it failed maxAttempts times
+	 * @return false if this worker does not own the task (anymore), the task is not changed in this case
+	 */
+	public boolean fail( final String id ) throws IOException
+	{
+		return modify( tasks -> {
+			final Task task = tasks.get( id );
+
+			if ( !isOwner( task ) )
+				return false;
+
+			task.state = ( ++task.attempts >= maxAttempts ) ? State.FAILED : State.PENDING;
+			task.time = System.currentTimeMillis();
+			return true;
+		} );
+	}
+
+	/**
+	 * @return a snapshot of all tasks
+	 */
+	public List< Task > tasks() throws IOException
+	{
+		return query( tasks -> new ArrayList<>( tasks.values() ) );
+	}
+
+	/**
+	 * @return true if all tasks are DONE
+	 */
+	public boolean isComplete() throws IOException
+	{
+		return query( tasks -> tasks.values().stream().allMatch( t -> t.state == State.DONE ) );
+	}
+
+	/**
+	 * @param state - the state
+	 * @return how many tasks are in this state
+	 */
+	public int count( final State state ) throws IOException
+	{
+		return query( tasks -> (int)tasks.values().stream().filter( t -> t.state == state ).count() );
+	}
+
+	protected boolean isOwner( final Task task )
+	{
+		return task != null && task.state == State.RUNNING && task.owner.equals( owner );
+	}
+
+	/**
+	 * Reads the state, applies the modification and writes it back atomically, all while holding the lock.
+	 */
+	protected < R > R modify( final Function< LinkedHashMap< String, Task >, R > modification ) throws IOException
+	{
+		synchronized ( jvmLock )
+		{
+			try ( final FileChannel channel = FileChannel.open( lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+				  final FileLock lock = channel.lock() )
+			{
+				final LinkedHashMap< String, Task > tasks = read();
+				final R result = modification.apply( tasks );
+				write( tasks );
+
+				return result;
+			}
+		}
+	}
+
+	/**
+	 * Reads the state without modifying it, the state file is replaced atomically so no lock is necessary.
+	 */
+	protected < R > R query( final Function< LinkedHashMap< String, Task >, R > query ) throws IOException
+	{
+		return query.apply( read() );
+	}
+
+	protected LinkedHashMap< String, Task > read() throws IOException
+	{
+		final LinkedHashMap< String, Task > tasks = new LinkedHashMap<>();
+
+		if ( !stateFile.exists() )
+			return tasks;
+
+		for ( final String line : Files.readAllLines( stateFile.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			final String[] entries = line.trim().split( "\t" );
+
+			if ( entries.length != 5 )
+				continue;
+
+			final Task task = new Task( entries[ 0 ] );
+			task.state = State.valueOf( entries[ 1 ] );
+			task.attempts = Integer.parseInt( entries[ 2 ] );
+			task.owner = entries[ 3 ];
+			task.time = Long.parseLong( entries[ 4 ] );
+
+			tasks.put( task.id, task );
+		}
+
+		return tasks;
+	}
+
+	protected void write( final LinkedHashMap< String, Task > tasks ) throws IOException
+	{
+		final ArrayList< String > lines = new ArrayList<>();
+
+		for ( final Task task : tasks.values() )
+			lines.add( task.id + "\t" + task.state + "\t" + task.attempts + "\t" + task.owner + "\t" + task.time );
+
+		// readers never see a partially written state
+		final File tmp = new File( stateFile.getAbsolutePath() + ".tmp" );
+		Files.write( tmp.toPath(), lines, StandardCharsets.UTF_8 );
+		Files.move( tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+}
@@ -0,0 +1,274 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import bdv.img.n5.BdvN5Format;
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.mvrecon.fiji.plugin.resave.N5Parameters;
+import net.preibisch.mvrecon.fiji.plugin.resave.Resave_N5;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+/**
+ * Resaves a dataset as N5 using any number of worker processes that coordinate through a {@link LocalJobQueue}
+ * next to the output XML, an alternative to {@link CreateN5Scripts} that does not need a cluster scheduler.
+ * Simply start the same command several times (on one node or several nodes sharing the storage):
+ *
+ * ./java -cp multiview-reconstruction.jar net.preibisch.mvrecon.headless.cluster.ResaveN5Worker -i /path/dataset.xml -t 4
+ *
+ * Each worker claims one view after another, failed views are retried, and the worker that completes the last view
+ * writes the XML. Views that were already resaved completely (e.g. by a previous run) are not processed again.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class ResaveN5Worker
+{
+	public static String viewQueueName = "resave-n5-views";
+	public static String xmlQueueName = "resave-n5-xml";
+
+	public static void main( String[] args ) throws SpimDataException, IOException
+	{
+		final Arguments arg = new Arguments( args );
+
+		final String outXML = arg.outputXMLPath != null ? arg.outputXMLPath : arg.inputXMLPath.replace( ".xml", "-n5.xml" );
+		final String outN5 = arg.outputContainerPath != null ? arg.outputContainerPath : arg.inputXMLPath.replace( ".xml", ".n5" );
+
+		System.out.println( "Loading input XML: " + arg.inputXMLPath );
+		final SpimData2 data = new XmlIoSpimData2( "" ).load( arg.inputXMLPath );
+
+		final ArrayList< ViewId > views = new ArrayList<>( data.getSequenceDescription().getViewDescriptions().keySet() );
+		views.removeAll( data.getSequenceDescription().getMissingViews().getMissingViews() );
+		Collections.sort( views );
+
+		final File queueDir = new File( outXML ).getAbsoluteFile().getParentFile();
+		final LocalJobQueue viewQueue = new LocalJobQueue( queueDir, viewQueueName, arg.maxAttempts, arg.leaseMinutes * 60L * 1000L );
+		final LocalJobQueue xmlQueue = new LocalJobQueue( queueDir, xmlQueueName, arg.maxAttempts, arg.leaseMinutes * 60L * 1000L );
+
+		final ArrayList< String > viewIds = new ArrayList<>();
+		views.forEach( v -> viewIds.add( taskId( v ) ) );
+
+		viewQueue.init( viewIds );
+		xmlQueue.init( Arrays.asList( "xml" ) );
+
+		// renews the leases of the claimed tasks while they are processed
+		final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor( r -> {
+			final Thread t = new Thread( r, "ResaveN5Worker-heartbeat" );
+			t.setDaemon( true );
+			return t;
+		} );
+
+		String id;
+
+		while ( ( id = viewQueue.claim() ) != null )
+		{
+			final ViewId view = viewId( id );
+
+			if ( isResaved( outN5, view ) )
+			{
+				System.out.println( new Date( System.currentTimeMillis() ) + ": View " + Group.pvid( view ) + " was already resaved, skipping." );
+				viewQueue.complete( id );
+				continue;
+			}
+
+			System.out.println( new Date( System.currentTimeMillis() ) + ": Resaving view " + Group.pvid( view ) );
+
+			final ScheduledFuture< ? > lease = viewQueue.keepAlive( id, heartbeat );
+
+			try
+			{
+				// new parameters for every view since resaveN5() proposes the mipmaps only for the setups it resaves
+				Resave_N5.resaveN5( data, Arrays.asList( view ), createParameters( outXML, outN5, arg.numThreads, true, false ) );
+			}
+			catch ( Exception e )
+			{
+				System.out.println( "Resaving view " + Group.pvid( view ) + " failed: " + e );
+				e.printStackTrace();
+			}
+			finally
+			{
+				lease.cancel( false );
+			}
+
+			// resaveN5() reports errors but does not throw them, the finished attribute tells if it worked
+			final boolean owner;
+
+			if ( isResaved( outN5, view ) )
+			{
+				owner = viewQueue.complete( id );
+			}
+			else
+			{
+				System.out.println( "View " + Group.pvid( view ) + " was not resaved completely, it will be retried (max " + arg.maxAttempts + " attempts)." );
+				owner = viewQueue.fail( id );
+			}
+
+			if ( !owner )
+				System.out.println( "View " + Group.pvid( view ) + " was handed out to another worker in the meantime (lease expired), leaving it to that worker." );
+		}
+
+		final int failed = viewQueue.count( LocalJobQueue.State.FAILED );
+
+		if ( failed > 0 )
+		{
+			System.out.println( failed + " views could not be resaved, not writing the XML. Check the log, remove or fix '" + new File( queueDir, viewQueueName + ".queue" ) + "' and restart." );
+		}
+		else if ( !viewQueue.isComplete() )
+		{
+			System.out.println( "No more views to claim, the remaining views are processed by other workers." );
+		}
+		else if ( ( id = xmlQueue.claim() ) != null )
+		{
+			System.out.println( new Date( System.currentTimeMillis() ) + ": All views resaved, writing '" + outXML + "'." );
+
+			final ScheduledFuture< ? > lease = xmlQueue.keepAlive( id, heartbeat );
+
+			try
+			{
+				Resave_N5.resaveN5( data, views, createParameters( outXML, outN5, arg.numThreads, false, true ) );
+			}
+			finally
+			{
+				lease.cancel( false );
+			}
+
+			if ( new File( outXML ).exists() )
+				xmlQueue.complete( id );
+			else
+				xmlQueue.fail( id );
+		}
+
+		heartbeat.shutdown();
+
+		System.out.println( "done" );
+	}
+
+	public static N5Parameters createParameters(
+			final String outXML,
+			final String outN5,
+			final int numThreads,
+			final boolean saveData,
+			final boolean saveXML )
+	{
+		final N5Parameters n5params = new N5Parameters();
+
+		n5params.xmlFile = new File( outXML );
+		n5params.n5File = new File( outN5 );
+		n5params.compression = new GzipCompression();
+		n5params.numCellCreatorThreads = Math.max( 1, numThreads );
+		n5params.saveData = saveData;
+		n5params.saveXML = saveXML;
+		n5params.setFinishedAttributeInN5 = true;
+		n5params.proposedMipmaps = null;
+
+		return n5params;
+	}
+
+	public static boolean isResaved( final String n5Path, final ViewId view )
+	{
+		if ( !new File( n5Path ).exists() )
+			return false;
+
+		try
+		{
+			final N5FSReader n5 = new N5FSReader( n5Path );
+			final Boolean saved = n5.getAttribute( BdvN5Format.getPathName( view.getViewSetupId(), view.getTimePointId() ), N5Parameters.finishedAttrib, Boolean.class );
+
+			return saved != null && saved;
+		}
+		catch ( Exception e )
+		{
+			return false;
+		}
+	}
+
+	public static String taskId( final ViewId view ) { return view.getTimePointId() + "_" + view.getViewSetupId(); }
+
+	public static ViewId viewId( final String taskId )
+	{
+		final String[] entries = taskId.split( "_" );
+		return new ViewId( Integer.parseInt( entries[ 0 ] ), Integer.parseInt( entries[ 1 ] ) );
+	}
+
+	private static class Arguments implements Serializable
+	{
+		private static final long serialVersionUID = -1467734459169624759L;
+
+		@Option(name = "-i", aliases = { "--inputXMLPath" }, required = true,
+				usage = "Path to an input SpimData XML")
+		private String inputXMLPath;
+
+		@Option(name = "-x", aliases = { "--outputXMLPath" }, required = false,
+				usage = "Path to the output SpimData XML, the job queue is stored in the same directory (default: input-n5.xml)")
+		private String outputXMLPath = null;
+
+		@Option(name = "-o", aliases = { "--outputContainerPath" }, required = false,
+				usage = "Path to the N5 container (default: input.n5)")
+		private String outputContainerPath = null;
+
+		@Option(name = "-t", aliases = { "--numThreads" }, required = false,
+				usage = "Number of threads used by this worker for saving (default: 1)")
+		private int numThreads = 1;
+
+		@Option(name = "-m", aliases = { "--maxAttempts" }, required = false,
+				usage = "How often a view is tried before it is considered failed (default: 3)")
+		private int maxAttempts = 3;
+
+		@Option(name = "-l", aliases = { "--leaseMinutes" }, required = false,
+				usage = "After how many minutes a view that is still running is considered abandoned and handed to another worker (default: 240)")
+		private int leaseMinutes = 240;
+
+		public Arguments( final String... args ) throws IllegalArgumentException
+		{
+			final CmdLineParser parser = new CmdLineParser( this );
+			try
+			{
+				parser.parseArgument( args );
+			}
+			catch ( final CmdLineException e )
+			{
+				System.err.println( e.getMessage() );
+				parser.printUsage( System.err );
+				System.exit( 1 );
+			}
+		}
+	}
+}
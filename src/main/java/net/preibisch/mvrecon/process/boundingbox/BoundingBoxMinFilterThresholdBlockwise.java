@@ -0,0 +1,611 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.boundingbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.spim.data.sequence.ImgLoader;
+import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
+
+/**
+ * Computes the same bounding box as {@link BoundingBoxMinFilterThreshold}, but never materializes the
+ * fused image. The lazily fused, downsampled image is traversed block by block twice: the first pass
+ * only keeps the min and max intensity of every block, the second pass computes the min filter just
+ * for blocks that are neither empty nor completely occupied according to these summaries. Memory is
+ * therefore bounded by one block (plus the min filter radius) per thread.
+ *
+ * @author stephan.preibisch@gmx.de
+ *
+ */
+public class BoundingBoxMinFilterThresholdBlockwise implements BoundingBoxEstimation
+{
+	public static int defaultBlockSize = 64;
+
+	final SpimData2 spimData;
+	final ExecutorService service;
+	final Collection< ViewId > views;
+
+	final double background;
+	final int radiusMin;
+	final int downsampling;
+	final boolean useLowestResolution;
+
+	int blockSize = defaultBlockSize;
+	double extraSpaceFactor = 3;
+	float[] minmax;
+	int usedDownsampling;
+
+	/**
+	 * @param spimData - the spimdata
+	 * @param service - the executorservice to use, or null (a temporary one is created)
+	 * @param views - which views to use
+	 * @param background - background intensity in percent of the intensity range
+	 * @param discardedObjectSize - size of objects to be discarded (diameter of the min filter)
+	 * @param downsampling - the requested downsampling
+	 * @param useLowestResolution - increase the downsampling so that the lowest available mipmap level of a MultiResolutionImgLoader is used
+	 */
+	public BoundingBoxMinFilterThresholdBlockwise(
+			final SpimData2 spimData,
+			final ExecutorService service,
+			final Collection< ? extends ViewId > views,
+			final double background,
+			final int discardedObjectSize,
+			final int downsampling,
+			final boolean useLowestResolution )
+	{
+		this.spimData = spimData;
+		this.service = service;
+		this.views = new ArrayList<>();
+
+		this.background = background;
+		this.radiusMin = discardedObjectSize / 2;
+		this.downsampling = downsampling;
+		this.useLowestResolution = useLowestResolution;
+
+		this.views.addAll( views );
+		SpimData2.filterMissingViews( spimData, this.views );
+	}
+
+	@Override
+	public BoundingBox estimate( final String title )
+	{
+		// defines the range for the BDV bounding box
+		final BoundingBox maxBB = new BoundingBoxMaximal( views, spimData ).estimate( "Maximum bounding box used for initalization" );
+		IOFunctions.println( maxBB );
+
+		final int ds;
+
+		if ( useLowestResolution )
+			ds = Math.max( downsampling, lowestResolutionDownsampling( spimData.getSequenceDescription().getImgLoader(), views ) );
+		else
+			ds = downsampling;
+
+		if ( ds != downsampling )
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Using the lowest resolution level, downsampling increased from " + downsampling + " to " + ds );
+
+		this.usedDownsampling = ds;
+
+		// adjust bounding box
+		final Interval maxBBDS = FusionTools.createDownsampledBoundingBox( maxBB, ds ).getA();
+
+		// adjust registrations
+		final HashMap< ViewId, AffineTransform3D > registrations =
+				TransformVirtual.adjustAllTransforms(
+						views,
+						spimData.getViewRegistrations().getViewRegistrations(),
+						Double.NaN,
+						ds );
+
+		// lazily fused dataset, every pixel is only computed when a block requests it
+		final RandomAccessibleInterval< FloatType > fused = Views.zeroMin(
+				FusionTools.fuseVirtual(
+						spimData.getSequenceDescription().getImgLoader(),
+						registrations,
+						spimData.getSequenceDescription().getViewDescriptions(),
+						views, true, false, 1, maxBBDS, null ) );
+
+		final int n = fused.numDimensions();
+		final int effR = Math.max( radiusMin / ds, 1 );
+
+		// the min filter must not reach further than into the directly neighboring blocks
+		final int[] blockDim = new int[ n ];
+		final int[] numBlocks = new int[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			blockDim[ d ] = (int)Math.min( fused.dimension( d ), Math.max( blockSize, effR ) );
+			numBlocks[ d ] = (int)( ( fused.dimension( d ) + blockDim[ d ] - 1 ) / blockDim[ d ] );
+		}
+
+		int totalBlocks = 1;
+		for ( int d = 0; d < n; ++d )
+			totalBlocks *= numBlocks[ d ];
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Estimating bounding box blockwise, image size: " + Util.printInterval( fused ) +
+				", downsampling=" + ds + ", blocks: " + Util.printCoordinates( numBlocks ) + " of " + Util.printCoordinates( blockDim ) );
+
+		final ExecutorService taskExecutor = ( service == null ) ? Executors.newFixedThreadPool( Threads.numThreads() ) : service;
+		final int numThreads = Threads.numThreads();
+
+		// pass 1: min & max of every block
+		final float[] blockMin = new float[ totalBlocks ];
+		final float[] blockMax = new float[ totalBlocks ];
+
+		final int nBlocks = totalBlocks;
+		final AtomicInteger ai = new AtomicInteger();
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numThreads; ++t )
+			tasks.add( () ->
+			{
+				int b;
+
+				while ( ( b = ai.getAndIncrement() ) < nBlocks )
+				{
+					float min = Float.MAX_VALUE;
+					float max = -Float.MAX_VALUE;
+
+					final Cursor< FloatType > c = Views.flatIterable( Views.interval( fused, blockInterval( b, blockDim, numBlocks, fused, 0 ) ) ).cursor();
+
+					while ( c.hasNext() )
+					{
+						final float v = c.next().get();
+						min = Math.min( min, v );
+						max = Math.max( max, v );
+					}
+
+					blockMin[ b ] = min;
+					blockMax[ b ] = max;
+				}
+
+				return null;
+			});
+
+		FusionTools.execTasks( tasks, taskExecutor, "compute block intensity summaries" );
+
+		final float[] minmax = new float[]{ Float.MAX_VALUE, -Float.MAX_VALUE };
+
+		for ( int b = 0; b < totalBlocks; ++b )
+		{
+			minmax[ 0 ] = Math.min( minmax[ 0 ], blockMin[ b ] );
+			minmax[ 1 ] = Math.max( minmax[ 1 ], blockMax[ b ] );
+		}
+
+		final double threshold = (minmax[ 1 ] - minmax[ 0 ]) * ( background / 100.0 ) + minmax[ 0 ];
+
+		IOFunctions.println( "Fused image minimum: " + minmax[ 0 ] );
+		IOFunctions.println( "Fused image maximum: " + minmax[ 1 ] );
+		IOFunctions.println( "Threshold: " + threshold );
+
+		IOFunctions.println( "Computing minimum filter with effective radius of " + effR + " (downsampling=" + ds + ")" );
+
+		// the min filter sees zeros outside of the image, just like BoundingBoxMinFilterThreshold
+		final boolean outsideAbove = 0 > threshold;
+
+		final int[] min = new int[ n ];
+		final int[] max = new int[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = (int)fused.dimension( d );
+			max[ d ] = 0;
+		}
+
+		// pass 2: blocks that cannot be decided from their summaries are min filtered individually
+		final RandomAccessible< FloatType > fusedExt = Views.extendZero( fused );
+		final AtomicInteger ai2 = new AtomicInteger();
+		final AtomicInteger numFull = new AtomicInteger();
+		final AtomicInteger numFiltered = new AtomicInteger();
+
+		tasks.clear();
+
+		for ( int t = 0; t < numThreads; ++t )
+			tasks.add( () ->
+			{
+				final long[] bMin = new long[ n ];
+				final long[] bMax = new long[ n ];
+				final int[] size = new int[ n ];
+
+				float[] values = null;
+				boolean[] mask = null;
+				int[] line = null;
+
+				int b;
+
+				while ( ( b = ai2.getAndIncrement() ) < nBlocks )
+				{
+					// nothing in this block survives thresholding
+					if ( blockMax[ b ] <= threshold )
+						continue;
+
+					final Interval block = blockInterval( b, blockDim, numBlocks, fused, 0 );
+					block.min( bMin );
+					block.max( bMax );
+
+					// the block cannot change the bounding box anymore
+					if ( isInside( bMin, bMax, min, max ) )
+						continue;
+
+					// all pixels (including the filter radius) are above threshold
+					if ( isFullyOccupied( b, blockMin, numBlocks, threshold, outsideAbove ) )
+					{
+						numFull.incrementAndGet();
+
+						synchronized ( min )
+						{
+							for ( int d = 0; d < n; ++d )
+							{
+								min[ d ] = (int)Math.min( min[ d ], bMin[ d ] );
+								max[ d ] = (int)Math.max( max[ d ], bMax[ d ] );
+							}
+						}
+
+						continue;
+					}
+
+					numFiltered.incrementAndGet();
+
+					final Interval halo = blockInterval( b, blockDim, numBlocks, fused, effR );
+					int numPixels = 1;
+
+					for ( int d = 0; d < n; ++d )
+					{
+						size[ d ] = (int)halo.dimension( d );
+						numPixels *= size[ d ];
+					}
+
+					if ( values == null || values.length < numPixels )
+					{
+						values = new float[ numPixels ];
+						mask = new boolean[ numPixels ];
+					}
+
+					int maxSize = 0;
+					for ( int d = 0; d < n; ++d )
+						maxSize = Math.max( maxSize, size[ d ] );
+
+					if ( line == null || line.length < maxSize + 1 )
+						line = new int[ maxSize + 1 ];
+
+					final Cursor< FloatType > c = Views.flatIterable( Views.interval( fusedExt, halo ) ).cursor();
+
+					for ( int i = 0; i < numPixels; ++i )
+						mask[ i ] = c.next().get() > threshold;
+
+					// a min filter followed by thresholding is a binary erosion with a cube
+					for ( int d = 0; d < n; ++d )
+						erode( mask, size, d, effR, line );
+
+					final int[] blockMinL = new int[ n ];
+					final int[] blockMaxL = new int[ n ];
+					boolean found = false;
+
+					for ( int d = 0; d < n; ++d )
+					{
+						blockMinL[ d ] = Integer.MAX_VALUE;
+						blockMaxL[ d ] = Integer.MIN_VALUE;
+					}
+
+					// only the core of the block is valid, the halo was only needed for the filter
+					final int[] pos = new int[ n ];
+
+					for ( int i = 0; i < numPixels; ++i )
+					{
+						if ( i > 0 )
+							for ( int d = 0; d < n; ++d )
+								if ( ++pos[ d ] < size[ d ] )
+									break;
+								else
+									pos[ d ] = 0;
+
+						if ( !mask[ i ] )
+							continue;
+
+						boolean inCore = true;
+
+						for ( int d = 0; d < n && inCore; ++d )
+						{
+							final long p = pos[ d ] + halo.min( d );
+							inCore = p >= bMin[ d ] && p <= bMax[ d ];
+						}
+
+						if ( !inCore )
+							continue;
+
+						found = true;
+
+						for ( int d = 0; d < n; ++d )
+						{
+							final int p = (int)( pos[ d ] + halo.min( d ) );
+							blockMinL[ d ] = Math.min( blockMinL[ d ], p );
+							blockMaxL[ d ] = Math.max( blockMaxL[ d ], p );
+						}
+					}
+
+					if ( found )
+					{
+						synchronized ( min )
+						{
+							for ( int d = 0; d < n; ++d )
+							{
+								min[ d ] = Math.min( min[ d ], blockMinL[ d ] );
+								max[ d ] = Math.max( max[ d ], blockMaxL[ d ] );
+							}
+						}
+					}
+				}
+
+				return null;
+			});
+
+		FusionTools.execTasks( tasks, taskExecutor, "compute blockwise bounding box" );
+
+		if ( service == null )
+			taskExecutor.shutdown();
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Blocks occupied: " + numFull.get() + ", min filtered: " + numFiltered.get() + " of " + totalBlocks );
+
+		for ( int d = 0; d < n; ++d )
+			if ( min[ d ] > max[ d ] )
+			{
+				IOFunctions.println( "No pixel above threshold after min filtering, cannot compute bounding box." );
+				return null;
+			}
+
+		IOFunctions.println( "Bounding box dim scaled: [" + Util.printCoordinates( min ) + "] >> [" + Util.printCoordinates( max ) + "]" );
+
+		// adjust bounding box for downsampling and global coordinates
+		for ( int d = 0; d < n; ++d )
+		{
+			// downsampling
+			min[ d ] *= ds;
+			max[ d ] *= ds;
+
+			// global coordinates
+			min[ d ] += maxBB.getMin()[ d ];
+			max[ d ] += maxBB.getMin()[ d ];
+
+			// effect of the min filter + extra space
+			min[ d ] -= radiusMin * extraSpaceFactor;
+			max[ d ] += radiusMin * extraSpaceFactor;
+		}
+
+		IOFunctions.println( "Bounding box dim global: [" + Util.printCoordinates( min ) + "] >> [" + Util.printCoordinates( max ) + "]" );
+
+		// maybe reuse it
+		this.minmax = minmax.clone();
+
+		return new BoundingBox( title, min, max );
+	}
+
+	public double getExtraSpaceFactor() { return extraSpaceFactor; }
+	public void setExtraSpaceFactor( final double esf ) { this.extraSpaceFactor = esf; }
+	public int getBlockSize() { return blockSize; }
+	public void setBlockSize( final int blockSize ) { this.blockSize = blockSize; }
+
+	/**
+	 * @return the downsampling that was actually used in the last call of estimate()
+	 */
+	public int getUsedDownsampling() { return usedDownsampling; }
+
+	public float getMinIntensity()
+	{
+		if ( minmax != null && minmax.length == 2 )
+			return minmax[ 0 ];
+		else
+			return Float.NaN;
+	}
+
+	public float getMaxIntensity()
+	{
+		if ( minmax != null && minmax.length == 2 )
+			return minmax[ 1 ];
+		else
+			return Float.NaN;
+	}
+
+	/**
+	 * The largest isotropic downsampling (in xy) at which every view can be read from its lowest stored resolution level.
+	 *
+	 * @param imgLoader - the imgloader
+	 * @param views - the views
+	 * @return the downsampling, 1 if the imgloader is not a MultiResolutionImgLoader
+	 */
+	public static int lowestResolutionDownsampling( final ImgLoader imgLoader, final Collection< ? extends ViewId > views )
+	{
+		if ( !MultiResolutionImgLoader.class.isInstance( imgLoader ) || views.size() == 0 )
+			return 1;
+
+		final MultiResolutionImgLoader mrImgLoader = ( MultiResolutionImgLoader )imgLoader;
+
+		double ds = Double.MAX_VALUE;
+
+		for ( final ViewId viewId : views )
+		{
+			final double[][] mipmapResolutions = mrImgLoader.getSetupImgLoader( viewId.getViewSetupId() ).getMipmapResolutions();
+			final double[] factors = mipmapResolutions[ DownsampleTools.findLowestResolutionLevel( mrImgLoader, viewId ) ];
+
+			// z is often not downsampled for anisotropic data
+			ds = Math.min( ds, Math.min( factors[ 0 ], factors[ 1 ] ) );
+		}
+
+		return Math.max( 1, (int)Math.floor( ds ) );
+	}
+
+	protected static Interval blockInterval( final int b, final int[] blockDim, final int[] numBlocks, final Interval img, final int halo )
+	{
+		final int n = blockDim.length;
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+
+		int index = b;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			final int g = index % numBlocks[ d ];
+			index /= numBlocks[ d ];
+
+			min[ d ] = img.min( d ) + (long)g * blockDim[ d ];
+			max[ d ] = Math.min( img.max( d ), min[ d ] + blockDim[ d ] - 1 );
+
+			min[ d ] -= halo;
+			max[ d ] += halo;
+		}
+
+		return new FinalInterval( min, max );
+	}
+
+	protected static boolean isInside( final long[] bMin, final long[] bMax, final int[] min, final int[] max )
+	{
+		synchronized ( min )
+		{
+			for ( int d = 0; d < bMin.length; ++d )
+				if ( bMin[ d ] < min[ d ] || bMax[ d ] > max[ d ] )
+					return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Tests if the block and all its direct neighbors are entirely above threshold,
+	 * which requires that the filter radius is not larger than the block size.
+	 */
+	protected static boolean isFullyOccupied( final int b, final float[] blockMin, final int[] numBlocks, final double threshold, final boolean outsideAbove )
+	{
+		final int n = numBlocks.length;
+		final int[] g = new int[ n ];
+
+		int index = b;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			g[ d ] = index % numBlocks[ d ];
+			index /= numBlocks[ d ];
+		}
+
+		final int[] offset = new int[ n ];
+		Arrays.fill( offset, -1 );
+
+		while ( true )
+		{
+			int nb = 0;
+			boolean outside = false;
+
+			for ( int d = n - 1; d >= 0; --d )
+			{
+				final int p = g[ d ] + offset[ d ];
+
+				if ( p < 0 || p >= numBlocks[ d ] )
+					outside = true;
+
+				nb = nb * numBlocks[ d ] + p;
+			}
+
+			if ( outside )
+			{
+				if ( !outsideAbove )
+					return false;
+			}
+			else if ( blockMin[ nb ] <= threshold )
+			{
+				return false;
+			}
+
+			// next neighbor offset
+			int d = 0;
+
+			while ( d < n && offset[ d ] == 1 )
+				offset[ d++ ] = -1;
+
+			if ( d == n )
+				return true;
+
+			++offset[ d ];
+		}
+	}
+
+	/**
+	 * Binary erosion of the mask along one dimension with a window of 2*radius+1,
+	 * positions closer than radius to the border of the mask are not valid afterwards.
+	 */
+	protected static void erode( final boolean[] mask, final int[] size, final int d, final int radius, final int[] falseCount )
+	{
+		final int n = size.length;
+		final int len = size[ d ];
+
+		int stride = 1;
+		for ( int e = 0; e < d; ++e )
+			stride *= size[ e ];
+
+		int numPixels = 1;
+		for ( int e = 0; e < n; ++e )
+			numPixels *= size[ e ];
+
+		final int lineStep = stride * len;
+
+		for ( int outer = 0; outer < numPixels; outer += lineStep )
+			for ( int inner = 0; inner < stride; ++inner )
+			{
+				final int start = outer + inner;
+
+				falseCount[ 0 ] = 0;
+
+				for ( int i = 0; i < len; ++i )
+					falseCount[ i + 1 ] = falseCount[ i ] + ( mask[ start + i * stride ] ? 0 : 1 );
+
+				for ( int i = 0; i < len; ++i )
+				{
+					final int from = Math.max( 0, i - radius );
+					final int to = Math.min( len, i + radius + 1 );
+
+					mask[ start + i * stride ] = falseCount[ to ] - falseCount[ from ] == 0;
+				}
+			}
+	}
+}
@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.LoaderCache;
+
+/**
+ * A {@link LoaderCache} whose values count against the global memory budget of the {@link CacheManager},
+ * a drop-in replacement for SoftRefLoaderCache (e.g. new BudgetedLoaderCache&lt;&gt;().withLoader( ... )).
+ *
+ * Concurrent requests for the same key load the value only once.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class BudgetedLoaderCache< K, V > implements LoaderCache< K, V >
+{
+	/**
+	 * Weak reference to a cache, once the cache (i.e. its image) is garbage collected the {@link CacheManager}
+	 * releases all of its values.
+	 */
+	static class OwnerRef extends WeakReference< BudgetedLoaderCache< ?, ? > >
+	{
+		volatile boolean collected = false; // guarded by CacheManager
+
+		OwnerRef( final BudgetedLoaderCache< ?, ? > cache )
+		{
+			super( cache, CacheManager.collectedCaches );
+		}
+	}
+
+	static class Entry< K, V >
+	{
+		final K key;
+		final OwnerRef owner;
+
+		volatile V value = null;
+		volatile boolean referenced = true;
+		volatile boolean removed = false;
+		long bytes = 0;
+		boolean added = false; // guarded by CacheManager
+
+		Entry( final K key, final OwnerRef owner )
+		{
+			this.key = key;
+			this.owner = owner;
+		}
+
+		// called by the CacheManager (eviction) or invalidation
+		void remove()
+		{
+			removed = true;
+			value = null;
+
+			final BudgetedLoaderCache< ?, ? > cache = owner.get();
+
+			if ( cache != null )
+				cache.map.remove( key, this );
+		}
+	}
+
+	final ConcurrentHashMap< K, Entry< K, V > > map = new ConcurrentHashMap<>();
+	final OwnerRef ownerRef = new OwnerRef( this );
+	final ToLongFunction< V > weigher;
+
+	public BudgetedLoaderCache()
+	{
+		this( CacheManager::estimateBytes );
+	}
+
+	/**
+	 * @param weigher - estimates the size of a value in bytes
+	 */
+	public BudgetedLoaderCache( final ToLongFunction< V > weigher )
+	{
+		this.weigher = weigher;
+	}
+
+	@Override
+	public V getIfPresent( final K key )
+	{
+		final Entry< K, V > entry = map.get( key );
+
+		if ( entry == null )
+			return null;
+
+		final V value = entry.value;
+
+		if ( value != null )
+			entry.referenced = true;
+
+		return value;
+	}
+
+	@Override
+	public V get( final K key, final CacheLoader< ? super K, ? extends V > loader ) throws ExecutionException
+	{
+		while ( true )
+		{
+			final Entry< K, V > entry = map.computeIfAbsent( key, k -> new Entry<>( k, ownerRef ) );
+
+			V value = entry.value;
+
+			if ( value != null )
+			{
+				entry.referenced = true;
+				CacheManager.hit();
+				return value;
+			}
+
+			boolean loaded = false;
+
+			synchronized ( entry )
+			{
+				if ( entry.removed )
+					continue; // evicted or invalidated in the meantime, try again with a new entry
+
+				value = entry.value;
+
+				if ( value == null )
+				{
+					try
+					{
+						value = loader.get( key );
+					}
+					catch ( final Exception e )
+					{
+						map.remove( key, entry );
+						throw new ExecutionException( e );
+					}
+
+					entry.bytes = weigher.applyAsLong( value );
+					entry.value = value;
+					loaded = true;
+				}
+			}
+
+			// outside of the entry lock, the CacheManager may evict other entries
+			if ( loaded )
+			{
+				CacheManager.miss();
+				CacheManager.add( entry );
+			}
+			else
+			{
+				CacheManager.hit();
+			}
+
+			return value;
+		}
+	}
+
+	@Override
+	public void invalidate( final K key )
+	{
+		final Entry< K, V > entry = map.get( key );
+
+		if ( entry != null )
+			invalidate( entry );
+	}
+
+	@Override
+	public void invalidateIf( final long parallelismThreshold, final Predicate< K > condition )
+	{
+		map.values().forEach( entry -> {
+			if ( condition.test( entry.key ) )
+				invalidate( entry );
+		} );
+	}
+
+	@Override
+	public void invalidateAll( final long parallelismThreshold )
+	{
+		map.values().forEach( this::invalidate );
+	}
+
+	protected void invalidate( final Entry< K, V > entry )
+	{
+		CacheManager.remove( entry );
+	}
+}
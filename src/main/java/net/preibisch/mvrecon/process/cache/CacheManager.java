@@ -0,0 +1,219 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+
+/**
+ * One memory budget (in bytes) shared by all {@link BudgetedLoaderCache}s, i.e. by all lazily computed and cached images.
+ * Every cached value is weighed when it is added, if the sum exceeds the budget the least recently used values are evicted
+ * (CLOCK / second chance, an approximation of LRU that does not need a lock when a cached value is accessed).
+ *
+ * The budget defaults to half of the maximal heap size, it can be set using the system property "mvrecon.cache.maxbytes"
+ * or {@link #setMaxBytes(long)}. Hits, misses and evictions are counted for all caches together.
+ *
+ * Compared to soft references, memory is released predictably and without relying on the garbage collector
+ * under memory pressure (which causes long full GC pauses and can still end in an OutOfMemoryError).
+ *
+ * The CacheManager only references the caches weakly. Once an image (and thus its cache) is garbage collected,
+ * e.g. after a plugin finished, its values are released with the next cache operation (adding a value, changing
+ * the budget, querying the size). {@link #clear()} releases all values immediately.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class CacheManager
+{
+	private static volatile long maxBytes = Long.getLong( "mvrecon.cache.maxbytes", Runtime.getRuntime().maxMemory() / 2 );
+
+	private static final ArrayDeque< BudgetedLoaderCache.Entry< ?, ? > > clock = new ArrayDeque<>();
+	static final ReferenceQueue< BudgetedLoaderCache< ?, ? > > collectedCaches = new ReferenceQueue<>();
+	private static long currentBytes = 0;
+
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private static final LongAdder evictions = new LongAdder();
+
+	private CacheManager() {}
+
+	public static long getMaxBytes() { return maxBytes; }
+	public static synchronized long getCurrentBytes() { purgeCollected(); return currentBytes; }
+	public static long getHits() { return hits.sum(); }
+	public static long getMisses() { return misses.sum(); }
+	public static long getEvictions() { return evictions.sum(); }
+
+	/**
+	 * @param bytes - the new budget, values are evicted immediately if the cache is larger
+	 */
+	public static synchronized void setMaxBytes( final long bytes )
+	{
+		maxBytes = bytes;
+		purgeCollected();
+		evict();
+	}
+
+	/**
+	 * Evicts everything from all caches
+	 */
+	public static synchronized void clear()
+	{
+		while ( !clock.isEmpty() )
+			remove( clock.poll() );
+	}
+
+	public static String statistics()
+	{
+		final long h = getHits(), m = getMisses();
+
+		return "cache: " + ( getCurrentBytes() / ( 1024 * 1024 ) ) + "/" + ( maxBytes / ( 1024 * 1024 ) ) + " MB" +
+				", hits=" + h + ", misses=" + m + ", evictions=" + getEvictions() +
+				", hit rate=" + ( h + m == 0 ? 0 : Math.round( 100.0 * h / ( h + m ) ) ) + "%";
+	}
+
+	static void hit() { hits.increment(); }
+	static void miss() { misses.increment(); }
+
+	static synchronized void add( final BudgetedLoaderCache.Entry< ?, ? > entry )
+	{
+		// invalidated before it was added
+		if ( entry.removed )
+			return;
+
+		entry.added = true;
+		clock.add( entry );
+		currentBytes += entry.bytes;
+
+		purgeCollected();
+		evict();
+	}
+
+	/**
+	 * Releases the values of all caches that were garbage collected
+	 */
+	private static void purgeCollected()
+	{
+		boolean collected = false;
+		Reference< ? > ref;
+
+		while ( ( ref = collectedCaches.poll() ) != null )
+		{
+			( (BudgetedLoaderCache.OwnerRef)ref ).collected = true;
+			collected = true;
+		}
+
+		if ( !collected )
+			return;
+
+		final Iterator< BudgetedLoaderCache.Entry< ?, ? > > it = clock.iterator();
+
+		while ( it.hasNext() )
+		{
+			final BudgetedLoaderCache.Entry< ?, ? > entry = it.next();
+
+			if ( entry.removed || entry.owner.collected )
+			{
+				remove( entry );
+				it.remove();
+			}
+		}
+	}
+
+	private static void evict()
+	{
+		// the newest entry is never evicted by its own insertion unless it is larger than the budget
+		int checked = 0;
+
+		while ( currentBytes > maxBytes && !clock.isEmpty() )
+		{
+			final BudgetedLoaderCache.Entry< ?, ? > entry = clock.poll();
+
+			if ( entry.removed )
+				continue;
+
+			// second chance for recently used values, unless every entry was given one already
+			if ( entry.referenced && checked++ < clock.size() + 1 )
+			{
+				entry.referenced = false;
+				clock.add( entry );
+				continue;
+			}
+
+			remove( entry );
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Removes an entry from its cache, it stays in the clock until it is reached but does not count anymore
+	 */
+	static synchronized void remove( final BudgetedLoaderCache.Entry< ?, ? > entry )
+	{
+		if ( !entry.removed )
+		{
+			if ( entry.added )
+				currentBytes -= entry.bytes;
+
+			entry.remove();
+		}
+	}
+
+	/**
+	 * @param value - a cached value, usually a {@link Cell} with a primitive array
+	 * @return the estimated size in bytes
+	 */
+	public static long estimateBytes( final Object value )
+	{
+		if ( value instanceof Cell )
+		{
+			final Object data = ( (Cell< ? >)value ).getData();
+
+			if ( data instanceof ArrayDataAccess )
+			{
+				final ArrayDataAccess< ? > access = (ArrayDataAccess< ? >)data;
+				return 64 + (long)access.getArrayLength() * bytesPerElement( access.getCurrentStorageArray() );
+			}
+
+			return 64 + ( (Cell< ? >)value ).size() * 8;
+		}
+
+		return 1024;
+	}
+
+	private static int bytesPerElement( final Object array )
+	{
+		if ( array instanceof byte[] || array instanceof boolean[] )
+			return 1;
+		else if ( array instanceof short[] || array instanceof char[] )
+			return 2;
+		else if ( array instanceof int[] || array instanceof float[] )
+			return 4;
+		else
+			return 8;
+	}
+}
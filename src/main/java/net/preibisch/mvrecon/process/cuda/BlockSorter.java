@@ -24,6 +24,7 @@ package net.preibisch.mvrecon.process.cuda;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -141,4 +142,75 @@ public class BlockSorter
 
 		return noninterferingBlocks;
 	}
+
+	/**
+	 * Orders the blocks inside each batch along a serpentine (boustrophedon) path, so that consecutive blocks
+	 * are direct neighbors. Blocks within one batch do not interfere, hence this does not change the result,
+	 * but image data that is cached lazily (input images, weights) can be re-used by the next block.
+	 *
+	 * @param batches - the output of sortBlocksBySmallestFootprint, sorted in place
+	 * @return - the same list of block-lists
+	 */
+	public static List< List< Block > > sortBlocksByLocality( final List< List< Block > > batches )
+	{
+		for ( final List< Block > batch : batches )
+		{
+			if ( batch.size() <= 1 )
+				continue;
+
+			final int n = batch.get( 0 ).numDimensions();
+			final long[] effectiveBlockSize = batch.get( 0 ).getEffectiveSize();
+			final long[] minOffset = new long[ n ];
+
+			for ( int d = 0; d < n; ++d )
+			{
+				minOffset[ d ] = Long.MAX_VALUE;
+
+				for ( final Block block : batch )
+					minOffset[ d ] = Math.min( minOffset[ d ], block.min( d ) );
+			}
+
+			final HashMap< Block, long[] > gridPosition = new HashMap<>();
+
+			for ( final Block block : batch )
+			{
+				final long[] pos = new long[ n ];
+
+				for ( int d = 0; d < n; ++d )
+					pos[ d ] = ( block.min( d ) - minOffset[ d ] ) / effectiveBlockSize[ d ];
+
+				gridPosition.put( block, pos );
+			}
+
+			Collections.sort( batch, new Comparator< Block >()
+			{
+				@Override
+				public int compare( final Block o1, final Block o2 )
+				{
+					return compareSerpentine( gridPosition.get( o1 ), gridPosition.get( o2 ) );
+				}
+			});
+		}
+
+		return batches;
+	}
+
+	/**
+	 * Compares two grid positions along a serpentine path, the last dimension is the slowest one,
+	 * the direction of each faster dimension flips whenever the position in the slower dimensions changes.
+	 */
+	protected static int compareSerpentine( final long[] a, final long[] b )
+	{
+		long parity = 0;
+
+		for ( int d = a.length - 1; d >= 0; --d )
+		{
+			if ( a[ d ] != b[ d ] )
+				return ( parity % 2 == 0 ) ? Long.compare( a[ d ], b[ d ] ) : Long.compare( b[ d ], a[ d ] );
+
+			parity += a[ d ];
+		}
+
+		return 0;
+	}
 }
@@ -173,6 +173,9 @@ public class DeconView
 
 			this.nonInterferingBlocks = BlockSorter.sortBlocksBySmallestFootprint( blocks, new FinalInterval( image ), minRequiredBlocks );
 
+			// neighboring blocks are processed one after another, so lazily cached input data can be re-used
+			BlockSorter.sortBlocksByLocality( nonInterferingBlocks );
+
 			if ( filterBlocksForContent )
 			{
 				final Pair< Integer, Integer > removed = filterBlocksForContent( nonInterferingBlocks, weight, service );
@@ -0,0 +1,200 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.deconvolution;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThread.IterationStatistics;
+
+/**
+ * Decides when the deconvolution has converged globally, and which blocks have converged individually
+ * (e.g. empty background) so they can be skipped in all following iterations.
+ *
+ * All changes are measured relative to the change of the first iteration. The change of a block is its
+ * average change per pixel, which (unlike the maximal change per pixel) is not dominated by few noisy pixels.
+ *
+ * @author stephan.preibisch@gmx.de
+ *
+ */
+public class DeconvolutionConvergence
+{
+	public static double defaultRelativeChange = 0.001;
+	public static double defaultBlockRelativeChange = 0.0001;
+	public static int defaultPatience = 2;
+
+	final double relativeChange, blockRelativeChange;
+	final int patience;
+
+	// the change of the first iteration, all others are relative to it
+	double referenceChange = Double.NaN;
+	boolean converged = false;
+
+	// the change of each block (view, block id) in the current iteration
+	final HashMap< Long, Double > currentChange = new HashMap<>();
+
+	// the largest change of blocks that cannot be frozen in the current iteration (only used to test global convergence)
+	double currentGlobalChange = -1;
+
+	// for how many consecutive iterations a block was below the threshold
+	final HashMap< Long, Integer > numBelowThreshold = new HashMap<>();
+
+	// blocks that will not be computed anymore
+	final HashSet< Long > frozen = new HashSet<>();
+
+	public DeconvolutionConvergence()
+	{
+		this( defaultRelativeChange, defaultBlockRelativeChange, defaultPatience );
+	}
+
+	/**
+	 * @param relativeChange - stop once the change of an iteration relative to the first one drops below this value
+	 * @param blockRelativeChange - freeze a block once its change relative to the first iteration drops below this value
+	 * @param patience - for how many consecutive iterations a block has to be below blockRelativeChange to be frozen
+	 */
+	public DeconvolutionConvergence( final double relativeChange, final double blockRelativeChange, final int patience )
+	{
+		this.relativeChange = relativeChange;
+		this.blockRelativeChange = blockRelativeChange;
+		this.patience = Math.max( 1, patience );
+	}
+
+	/**
+	 * @param view - the index of the view (use 0 if all views are processed together)
+	 * @param blockId - the id of the block within the view
+	 * @return true if this block has converged and does not need to be computed anymore
+	 */
+	public synchronized boolean isFrozen( final int view, final int blockId )
+	{
+		return frozen.contains( key( view, blockId ) );
+	}
+
+	/**
+	 * Record the statistics of one block in the current iteration, thread-safe
+	 *
+	 * @param view - the index of the view (use 0 if all views are processed together)
+	 * @param blockId - the id of the block within the view
+	 * @param stats - the statistics of this block
+	 * @param numPixels - the number of pixels of the block
+	 */
+	public synchronized void recordBlock( final int view, final int blockId, final IterationStatistics stats, final long numPixels )
+	{
+		final double change = change( stats, numPixels );
+		final Long key = key( view, blockId );
+
+		// the same block might be updated several times per iteration (e.g. by all views), keep the largest change
+		final Double previous = currentChange.get( key );
+
+		if ( previous == null || previous < change )
+			currentChange.put( key, change );
+	}
+
+	/**
+	 * Record the statistics of one block in the current iteration that only contributes to the global convergence
+	 * and is never frozen (e.g. if blocks are not identical for all views), thread-safe
+	 *
+	 * @param stats - the statistics of this block
+	 * @param numPixels - the number of pixels of the block
+	 */
+	public synchronized void recordGlobal( final IterationStatistics stats, final long numPixels )
+	{
+		currentGlobalChange = Math.max( currentGlobalChange, change( stats, numPixels ) );
+	}
+
+	/**
+	 * Evaluates all blocks recorded since the last call
+	 *
+	 * @param iteration - the iteration that just finished
+	 * @return true if the deconvolution has converged and can stop
+	 */
+	public synchronized boolean endIteration( final int iteration )
+	{
+		if ( currentChange.size() == 0 && currentGlobalChange < 0 )
+		{
+			IOFunctions.println( "iteration: " + iteration + " --- all blocks have converged." );
+			return converged = true;
+		}
+
+		double change = Math.max( 0, currentGlobalChange );
+
+		for ( final double c : currentChange.values() )
+			change = Math.max( change, c );
+
+		if ( Double.isNaN( referenceChange ) )
+			referenceChange = change;
+
+		// nothing changed in the first iteration
+		if ( referenceChange == 0 )
+			return converged = true;
+
+		final double relative = change / referenceChange;
+
+		int newlyFrozen = 0;
+
+		for ( final Entry< Long, Double > entry : currentChange.entrySet() )
+		{
+			if ( entry.getValue() / referenceChange < blockRelativeChange )
+			{
+				Integer count = numBelowThreshold.get( entry.getKey() );
+				count = ( count == null ) ? 1 : count + 1;
+				numBelowThreshold.put( entry.getKey(), count );
+
+				if ( count >= patience && frozen.add( entry.getKey() ) )
+					++newlyFrozen;
+			}
+			else
+			{
+				numBelowThreshold.remove( entry.getKey() );
+			}
+		}
+
+		currentChange.clear();
+		currentGlobalChange = -1;
+
+		IOFunctions.println( "iteration: " + iteration + " --- relative change: " + relative + ", froze " + newlyFrozen + " converged block(s), " + frozen.size() + " in total." );
+
+		converged = relative < relativeChange;
+
+		return converged;
+	}
+
+	public synchronized boolean hasConverged() { return converged; }
+	public synchronized int numFrozenBlocks() { return frozen.size(); }
+
+	/**
+	 * @param stats - the statistics of a block
+	 * @param numPixels - the number of pixels of the block
+	 * @return the average change per pixel of the block
+	 */
+	protected static double change( final IterationStatistics stats, final long numPixels )
+	{
+		return Math.abs( stats.sumChange ) / Math.max( 1, numPixels );
+	}
+
+	protected static final Long key( final int view, final int blockId )
+	{
+		return ( (long)view << 32 ) | ( blockId & 0xffffffffL );
+	}
+}
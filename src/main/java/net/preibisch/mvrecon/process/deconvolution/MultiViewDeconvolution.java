@@ -24,6 +24,7 @@ package net.preibisch.mvrecon.process.deconvolution;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Vector;
 
 import ij.CompositeImage;
@@ -76,6 +77,9 @@ public abstract class MultiViewDeconvolution< C extends ComputeBlockThread >
 	boolean debug = false;
 	int debugInterval = 1;
 
+	// optional, stops early and skips converged blocks
+	DeconvolutionConvergence convergence = null;
+
 	// the thread that will compute the iteration for each block independently
 	final ComputeBlockThreadFactory< C > computeBlockFactory;
 
@@ -139,6 +143,9 @@ public abstract class MultiViewDeconvolution< C extends ComputeBlockThread >
 	public void setDebug( final boolean debug ) { this.debug = debug; }
 	public CompositeImage getDebugImage() { return ci; }
 	public void setDebugInterval( final int debugInterval ) { this.debugInterval = debugInterval; }
+	public void setConvergence( final DeconvolutionConvergence convergence ) { this.convergence = convergence; }
+	public DeconvolutionConvergence getConvergence() { return convergence; }
+	public int getNumIterationsRun() { return it; }
 
 	public void runIterations()
 	{
@@ -190,6 +197,12 @@ public abstract class MultiViewDeconvolution< C extends ComputeBlockThread >
 			}
 
 			runNextIteration();
+
+			if ( convergence != null && convergence.endIteration( it ) )
+			{
+				IOFunctions.println( "Converged after " + it + " of " + numIterations + " iterations, stopping." );
+				break;
+			}
 		}
 
 		// TODO: IOFunctions.println( "Masking never updated pixels." );
@@ -200,6 +213,91 @@ public abstract class MultiViewDeconvolution< C extends ComputeBlockThread >
 
 	public abstract void runNextIteration();
 
+	/**
+	 * Tests if all views are divided into identical blocks (same batches, same order, same sizes and offsets),
+	 * which is required to process all views of one block while it is resident in memory
+	 *
+	 * @return true if all views share the same block layout
+	 */
+	public boolean testBlockIntegrity()
+	{
+		final int totalNumBlocks = views.getViews().get( 0 ).getNumBlocks();
+		final List< List< Block > > blocks = views.getViews().get( 0 ).getNonInterferingBlocks();
+
+		for ( final DeconView view : views.getViews() )
+		{
+			if ( view.getNumBlocks() != totalNumBlocks )
+			{
+				IOFunctions.println( "only a constant number of blocks is supported." );
+				return false;
+			}
+
+			if ( view.getNonInterferingBlocks().size() != blocks.size() )
+			{
+				IOFunctions.println( "only a constant number of block batches is supported." );
+				return false;
+			}
+
+			for ( int i = 0; i < blocks.size(); ++i )
+			{
+				if ( blocks.get( i ).size() != view.getNonInterferingBlocks().get( i ).size() )
+				{
+					IOFunctions.println( "only a constant number of blocks within batches is supported." );
+					return false;
+				}
+
+				for ( int j = 0; j < blocks.get( i ).size(); ++j )
+				{
+					final Block blockA = blocks.get( i ).get( j );
+					final Block blockB = view.getNonInterferingBlocks().get( i ).get( j );
+
+					for ( int d = 0; d < blockA.numDimensions(); ++d )
+					{
+						if (
+								blockA.getBlockSize()[ d ] != blockB.getBlockSize()[ d ] ||
+								blockA.getEffectiveSize()[ d ] != blockB.getEffectiveSize()[ d ] ||
+								blockA.min( d ) != blockB.min( d ) ||
+								blockA.max( d ) != blockB.max( d ) )
+						{
+							IOFunctions.println( "Block dimensions/offset/effective sizes not compatible, stopping." );
+							return false;
+						}
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Prints the amount of memory that one iteration streamed through psi and the input images
+	 *
+	 * @param schedule - the name of the block schedule
+	 * @param psiRead - number of pixels read from psi
+	 * @param psiWritten - number of pixels written to psi
+	 * @param inputRead - number of pixels read from input images and weights
+	 */
+	protected void reportMemoryTraffic( final String schedule, final long psiRead, final long psiWritten, final long inputRead )
+	{
+		final double bytesPerPixel = 4;
+		final double mb = 1024.0 * 1024.0;
+
+		IOFunctions.println(
+				"iteration: " + it + " --- memory traffic (" + schedule + "): psi read " + Math.round( psiRead * bytesPerPixel / mb ) + " MB, psi written " +
+				Math.round( psiWritten * bytesPerPixel / mb ) + " MB, input & weights read " + Math.round( inputRead * bytesPerPixel / mb ) + " MB" );
+	}
+
+	protected static final long numPixels( final long[] size )
+	{
+		long n = 1;
+
+		for ( int d = 0; d < size.length; ++d )
+			n *= size[ d ];
+
+		return n;
+	}
+
 	protected static final void writeBack( final Img< FloatType > psi, final Vector< Pair< Pair< Integer, Block >, Img< FloatType > > > blockWritebackQueue )
 	{
 		for ( final Pair< Pair< Integer, Block >, Img< FloatType > > writeBackBlock : blockWritebackQueue )
@@ -44,6 +44,9 @@ import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThread.
 import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThreadFactory;
 import net.preibisch.mvrecon.process.deconvolution.iteration.mul.ComputeBlockMulThread;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 
 public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBlockMulThread >
 {
@@ -62,57 +65,6 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 		return max != null && testBlockIntegrity();
 	}
 
-	public boolean testBlockIntegrity()
-	{
-		final int totalNumBlocks = views.getViews().get( 0 ).getNumBlocks();
-		final List< List< Block > > blocks = views.getViews().get( 0 ).getNonInterferingBlocks();
-
-		for ( final DeconView view : views.getViews() )
-		{
-			if ( view.getNumBlocks() != totalNumBlocks )
-			{
-				IOFunctions.println( "only a constant number of blocks is supported." );
-				return false;
-			}
-
-			if ( view.getNonInterferingBlocks().size() != blocks.size() )
-			{
-				IOFunctions.println( "only a constant number of block batches is supported." );
-				return false;
-			}
-
-			for ( int i = 0; i < blocks.size(); ++i )
-			{
-				if ( blocks.get( i ).size() != view.getNonInterferingBlocks().get( i ).size() )
-				{
-					IOFunctions.println( "only a constant number of blocks within batches is supported." );
-					return false;
-				}
-
-				for ( int j = 0; j < blocks.get( i ).size(); ++j )
-				{
-					final Block blockA = blocks.get( i ).get( j );
-					final Block blockB = view.getNonInterferingBlocks().get( i ).get( j );
-
-					for ( int d = 0; d < blockA.numDimensions(); ++d )
-					{
-						if (
-								blockA.getBlockSize()[ d ] != blockB.getBlockSize()[ d ] ||
-								blockA.getEffectiveSize()[ d ] != blockB.getEffectiveSize()[ d ] ||
-								blockA.min( d ) != blockB.min( d ) ||
-								blockA.max( d ) != blockB.max( d ) )
-						{
-							IOFunctions.println( "Block dimensions/offset/effective sizes not compatible, stopping." );
-							return false;
-						}
-					}
-				}
-			}
-		}
-
-		return true;
-	}
-
 	public void runNextIteration()
 	{
 		if ( this.max == null )
@@ -122,6 +74,14 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 
 		IOFunctions.println( "iteration: " + it + " (" + new Date(System.currentTimeMillis()) + ")" );
 
+		try ( final Timer.Context time = Metrics.time( Stage.DECONVOLVE, null ) )
+		{
+			runNextIterationBlocks();
+		}
+	}
+
+	protected void runNextIterationBlocks()
+	{
 		final int totalNumBlocks = views.getViews().get( 0 ).getNumBlocks();
 		final List< List< Block > > blocks = views.getViews().get( 0 ).getNonInterferingBlocks();
 
@@ -162,6 +122,9 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 						{
 							final int blockIdOut = blockId + numBlocksBefore;
 
+							if ( convergence != null && convergence.isFrozen( 0, blockIdOut ) )
+								continue;
+
 							final Block blockStruct = blocksBatch.get( blockId );
 							System.out.println( " block " + blockIdOut + ", " + Util.printInterval( blockStruct ) );
 
@@ -187,13 +150,22 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 							}
 
 							time = System.currentTimeMillis();
-							stats.add( blockThread.runIteration(
-									view,
-									imgBlock,//imgBlock,
-									weightBlock,//weightBlock,
-									maxIntensityView,
-									kernel1,
-									kernel2 ) );
+							final IterationStatistics blockStats;
+
+							try ( final Timer.Context blockTime = Metrics.time( Stage.DECONVOLVE, "block", null ) )
+							{
+								blockStats = blockThread.runIteration(
+										view,
+										imgBlock,//imgBlock,
+										weightBlock,//weightBlock,
+										maxIntensityView,
+										kernel1,
+										kernel2 );
+							}
+							stats.add( blockStats );
+
+							if ( convergence != null )
+								convergence.recordBlock( 0, blockIdOut, blockStats, numPixels( blockStruct.getBlockSize() ) );
 							System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): compute " + (System.currentTimeMillis() - time) );
 
 							time = System.currentTimeMillis();
@@ -242,5 +214,16 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 
 		IOFunctions.println( "iteration: " + it + " --- sum change: " + is.sumChange + " --- max change per pixel: " + is.maxChange );
 
+		// every block of psi is read and written once, the inputs of all views are read once per block
+		long psiRead = 0, psiWritten = 0;
+
+		for ( final List< Block > blocksBatch : blocks )
+			for ( final Block block : blocksBatch )
+			{
+				psiRead += numPixels( block.getBlockSize() );
+				psiWritten += numPixels( block.getEffectiveSize() );
+			}
+
+		reportMemoryTraffic( "block-major", psiRead, psiWritten, psiRead * 2 * views.getViews().size() );
 	}
 }
@@ -22,6 +22,8 @@
  */
 package net.preibisch.mvrecon.process.deconvolution;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Vector;
@@ -41,9 +43,17 @@ import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThread.
 import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThreadFactory;
 import net.preibisch.mvrecon.process.deconvolution.iteration.sequential.ComputeBlockSeqThread;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 
 public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBlockSeqThread >
 {
+	boolean blockMajor = false;
+
+	// if all views share the same blocks (tested once, only if necessary)
+	Boolean identicalBlocks = null;
+
 	public MultiViewDeconvolutionSeq(
 			final DeconViews views,
 			final int numIterations,
@@ -54,6 +64,30 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 		super( views, numIterations, psiInitFactory, computeBlockFactory, psiFactory );
 	}
 
+	/**
+	 * By default, each view is applied to all blocks of psi before the next view is processed (view-major),
+	 * which streams the entire psi once per view and iteration. The block-major schedule instead copies one
+	 * block of psi and applies all views sequentially (ordered subsets) while it is resident, so psi is only
+	 * streamed once per iteration. Since the surrounding of a block is not updated in between views, the result
+	 * is slightly different close to block borders. Requires all views to share the same block layout.
+	 *
+	 * @param blockMajor - true to process all views for each block, false to process all blocks for each view
+	 */
+	public void setBlockMajorSchedule( final boolean blockMajor )
+	{
+		if ( blockMajor && !( identicalBlocks = testBlockIntegrity() ) )
+		{
+			IOFunctions.println( "Block-major schedule requires identical blocks for all views, using view-major schedule." );
+			this.blockMajor = false;
+		}
+		else
+		{
+			this.blockMajor = blockMajor;
+		}
+	}
+
+	public boolean isBlockMajorSchedule() { return blockMajor; }
+
 	@Override
 	public void runNextIteration()
 	{
@@ -64,6 +98,26 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 
 		IOFunctions.println( "iteration: " + it + " (" + new Date(System.currentTimeMillis()) + ")" );
 
+		try ( final Timer.Context time = Metrics.time( Stage.DECONVOLVE, null ) )
+		{
+			if ( blockMajor )
+				runNextIterationBlockMajor();
+			else
+				runNextIterationViewMajor();
+		}
+	}
+
+	protected void runNextIterationViewMajor()
+	{
+		long psiRead = 0, psiWritten = 0, inputRead = 0;
+
+		// a block can only be skipped once the updates of all views are small, since every view changes psi within the
+		// block (a block skipped for one view would keep changing by the others). This requires identical blocks for all views.
+		if ( convergence != null && identicalBlocks == null )
+			identicalBlocks = testBlockIntegrity();
+
+		final boolean freezeBlocks = convergence != null && identicalBlocks;
+
 		int v = 0;
 
 		for ( final DeconView view : views.getViews() )
@@ -108,39 +162,14 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 							{
 								final int blockIdOut = blockId + numBlocksBefore;
 
-								final Block blockStruct = blocksBatch.get( blockId );
-								System.out.println( " block " + blockIdOut + ", " + Util.printInterval( blockStruct ) );
-
-								long time = System.currentTimeMillis();
-								blockStruct.copyBlock( Views.extendMirrorSingle( psi ), blockThread.getPsiBlockTmp() );
-								System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): copy " + (System.currentTimeMillis() - time) );
-
-								time = System.currentTimeMillis();
-								stats.add( blockThread.runIteration(
-										view,
-										blockStruct,
-										Views.zeroMin( Views.interval( Views.extendZero( view.getImage() ), blockStruct ) ),//imgBlock,
-										Views.zeroMin( Views.interval( Views.extendZero( view.getWeight() ), blockStruct ) ),//weightBlock,
-										max[ viewNum ],
-										view.getPSF().getKernel1(),
-										view.getPSF().getKernel2() ) );
-								System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): compute " + (System.currentTimeMillis() - time) );
-	
-								time = System.currentTimeMillis();
-								if ( totalNumBlocks == 1 )
-								{
-									blockStruct.pasteBlock( psi, blockThread.getPsiBlockTmp() );
-									System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): paste " + (System.currentTimeMillis() - time) );
-								}
-								else
-								{
-									// copy to the writequeue
-									final Img< FloatType > tmp = blockThread.getPsiBlockTmp().factory().create( blockThread.getPsiBlockTmp(), new FloatType() );
-									FusionTools.copyImg( blockThread.getPsiBlockTmp(), tmp, views.getExecutorService(), false );
-									currentBlockWritebackQueue.add( new ValuePair<>( new ValuePair<>( blockIdOut, blockStruct ), tmp ) );
-
-									System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): saving for later pasting " + (System.currentTimeMillis() - time) );
-								}
+								if ( freezeBlocks && convergence.isFrozen( 0, blockIdOut ) )
+									continue;
+
+								runBlock(
+										blockThread, threadId, threads.length,
+										blocksBatch.get( blockId ), blockIdOut, totalNumBlocks,
+										Arrays.asList( viewNum ), Arrays.asList( stats ),
+										freezeBlocks, currentBlockWritebackQueue );
 							}
 						}
 					});
@@ -175,7 +204,206 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 			else
 				IOFunctions.println( "iteration: " + it + ", view: " + viewNum + " --- sum change: " + is.sumChange + " --- max change per pixel: " + is.maxChange );
 
+			for ( final List< Block > blocksBatch : view.getNonInterferingBlocks() )
+				for ( final Block block : blocksBatch )
+				{
+					psiRead += numPixels( block.getBlockSize() );
+					psiWritten += numPixels( block.getEffectiveSize() );
+					inputRead += 2 * numPixels( block.getBlockSize() );
+				}
+
 			++v;
 		}// finish view
+
+		reportMemoryTraffic( "view-major", psiRead, psiWritten, inputRead );
+	}
+
+	protected void runNextIterationBlockMajor()
+	{
+		final int numViews = views.getViews().size();
+		final int totalNumBlocks = views.getViews().get( 0 ).getNumBlocks();
+		final List< List< Block > > blocks = views.getViews().get( 0 ).getNonInterferingBlocks();
+
+		final ArrayList< Integer > allViews = new ArrayList<>();
+		final ArrayList< Vector< IterationStatistics > > stats = new ArrayList<>();
+
+		for ( int i = 0; i < numViews; ++i )
+		{
+			allViews.add( i );
+			stats.add( new Vector<>() );
+		}
+
+		int currentTotalBlock = 0;
+
+		// keep thelast blocks to be written back to the global psi image once it is not overlapping anymore
+		final Vector< Pair< Pair< Integer, Block >, Img< FloatType > > > previousBlockWritebackQueue = new Vector<>();
+		final Vector< Pair< Pair< Integer, Block >, Img< FloatType > > > currentBlockWritebackQueue = new Vector<>();
+
+		int batch = 0;
+		for ( final List< Block > blocksBatch : blocks )
+		{
+			final int numBlocksBefore = currentTotalBlock;
+			final int numBlocksBatch = blocksBatch.size();
+			currentTotalBlock += numBlocksBatch;
+
+			System.out.println( "Processing " + numBlocksBatch + " blocks from batch " + (++batch) + "/" + blocks.size() );
+
+			final AtomicInteger ai = new AtomicInteger();
+			final Thread[] threads = new Thread[ computeBlockThreads.size() ];
+
+			for ( int t = 0; t < computeBlockThreads.size(); ++t )
+			{
+				final int threadId = t;
+
+				threads[ threadId ] = new Thread( new Runnable()
+				{
+					public void run()
+					{
+						// one ComputeBlockThread creates a temporary image for I/O, valid throughout the whole cycle
+						final ComputeBlockSeqThread blockThread = computeBlockThreads.get( threadId );
+
+						int blockId;
+
+						while ( ( blockId = ai.getAndIncrement() ) < numBlocksBatch )
+						{
+							final int blockIdOut = blockId + numBlocksBefore;
+
+							if ( convergence != null && convergence.isFrozen( 0, blockIdOut ) )
+								continue;
+
+							// apply all views sequentially to the resident block, it converges as a whole
+							runBlock(
+									blockThread, threadId, threads.length,
+									blocksBatch.get( blockId ), blockIdOut, totalNumBlocks,
+									allViews, stats,
+									convergence != null, currentBlockWritebackQueue );
+						}
+					}
+				});
+			}
+
+			// run the threads that process all blocks of this batch in parallel (often, this will be just one thread)
+			FusionTools.runThreads( threads );
+
+			// write back previous list of blocks
+			writeBack( psi, previousBlockWritebackQueue );
+
+			previousBlockWritebackQueue.clear();
+			previousBlockWritebackQueue.addAll( currentBlockWritebackQueue );
+			currentBlockWritebackQueue.clear();
+
+		} // finish one block batch
+
+		// write back last list of blocks
+		writeBack( psi, previousBlockWritebackQueue );
+
+		// accumulate the results from the individual blocks for each view
+		for ( int viewNum = 0; viewNum < numViews; ++viewNum )
+		{
+			final IterationStatistics is = new IterationStatistics();
+
+			for ( final IterationStatistics blockStats : stats.get( viewNum ) )
+			{
+				is.sumChange += blockStats.sumChange;
+				is.maxChange = Math.max( is.maxChange, blockStats.maxChange );
+			}
+
+			final DeconView view = views.getViews().get( viewNum );
+
+			if ( view.getTitle() != null )
+				IOFunctions.println( "iteration: " + it + ", view: " + viewNum + " [" + view + "] --- sum change: " + is.sumChange + " --- max change per pixel: " + is.maxChange );
+			else
+				IOFunctions.println( "iteration: " + it + ", view: " + viewNum + " --- sum change: " + is.sumChange + " --- max change per pixel: " + is.maxChange );
+		}
+
+		// every block of psi is read and written once, the inputs of all views are read once per block
+		long psiRead = 0, psiWritten = 0;
+
+		for ( final List< Block > blocksBatch : blocks )
+			for ( final Block block : blocksBatch )
+			{
+				psiRead += numPixels( block.getBlockSize() );
+				psiWritten += numPixels( block.getEffectiveSize() );
+			}
+
+		reportMemoryTraffic( "block-major", psiRead, psiWritten, psiRead * 2 * numViews );
+	}
+	/**
+	 * Processes one block of psi: copies it from psi, applies the given views sequentially, records the
+	 * convergence and pastes it back into psi (or queues it for writing back once it does not overlap anymore).
+	 *
+	 * @param blockThread - the thread-local temporary images
+	 * @param threadId - the index of the thread (for logging)
+	 * @param numThreads - the number of threads (for logging)
+	 * @param blockStruct - the block
+	 * @param blockIdOut - the id of the block
+	 * @param totalNumBlocks - the total number of blocks, if it is one the block is pasted directly
+	 * @param viewNums - the indices of the views to apply
+	 * @param stats - where to add the statistics of each view (same order as viewNums)
+	 * @param freezeBlocks - if the block can be frozen (i.e. all views share the same blocks)
+	 * @param writebackQueue - where to add the block to be written back later
+	 */
+	protected void runBlock(
+			final ComputeBlockSeqThread blockThread,
+			final int threadId,
+			final int numThreads,
+			final Block blockStruct,
+			final int blockIdOut,
+			final int totalNumBlocks,
+			final List< Integer > viewNums,
+			final List< ? extends List< IterationStatistics > > stats,
+			final boolean freezeBlocks,
+			final List< Pair< Pair< Integer, Block >, Img< FloatType > > > writebackQueue )
+	{
+		System.out.println( " block " + blockIdOut + ", " + Util.printInterval( blockStruct ) );
+
+		long time = System.currentTimeMillis();
+		blockStruct.copyBlock( Views.extendMirrorSingle( psi ), blockThread.getPsiBlockTmp() );
+		System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + numThreads + "), (CPU): copy " + (System.currentTimeMillis() - time) );
+
+		for ( int i = 0; i < viewNums.size(); ++i )
+		{
+			final int viewNum = viewNums.get( i );
+			final DeconView view = views.getViews().get( viewNum );
+
+			time = System.currentTimeMillis();
+			final IterationStatistics blockStats;
+
+			try ( final Timer.Context blockTime = Metrics.time( Stage.DECONVOLVE, "block", null ) )
+			{
+				blockStats = blockThread.runIteration(
+						view,
+						blockStruct,
+						Views.zeroMin( Views.interval( Views.extendZero( view.getImage() ), blockStruct ) ),//imgBlock,
+						Views.zeroMin( Views.interval( Views.extendZero( view.getWeight() ), blockStruct ) ),//weightBlock,
+						max[ viewNum ],
+						view.getPSF().getKernel1(),
+						view.getPSF().getKernel2() );
+			}
+			stats.get( i ).add( blockStats );
+
+			// the largest change of all views is kept for each block
+			if ( freezeBlocks )
+				convergence.recordBlock( 0, blockIdOut, blockStats, numPixels( blockStruct.getBlockSize() ) );
+			else if ( convergence != null )
+				convergence.recordGlobal( blockStats, numPixels( blockStruct.getBlockSize() ) );
+			System.out.println( " block " + blockIdOut + ", view " + viewNum + ", thread (" + (threadId+1) + "/" + numThreads + "), (CPU): compute " + (System.currentTimeMillis() - time) );
+		}
+
+		time = System.currentTimeMillis();
+		if ( totalNumBlocks == 1 )
+		{
+			blockStruct.pasteBlock( psi, blockThread.getPsiBlockTmp() );
+			System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + numThreads + "), (CPU): paste " + (System.currentTimeMillis() - time) );
+		}
+		else
+		{
+			// copy to the writequeue
+			final Img< FloatType > tmp = blockThread.getPsiBlockTmp().factory().create( blockThread.getPsiBlockTmp(), new FloatType() );
+			FusionTools.copyImg( blockThread.getPsiBlockTmp(), tmp, views.getExecutorService(), false );
+			writebackQueue.add( new ValuePair<>( new ValuePair<>( blockIdOut, blockStruct ), tmp ) );
+
+			System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + numThreads + "), (CPU): saving for later pasting " + (System.currentTimeMillis() - time) );
+		}
 	}
 }
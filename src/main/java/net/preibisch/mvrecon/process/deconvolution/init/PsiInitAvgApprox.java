@@ -91,8 +91,7 @@ public class PsiInitAvgApprox implements PsiInit
 		{
 			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Setting image to average intensity: " + avg );
 	
-			for ( final FloatType t : psi )
-				t.set( (float)avg );
+			return PsiInitTools.fill( psi, (float)avg, service );
 		}
 
 		return true;
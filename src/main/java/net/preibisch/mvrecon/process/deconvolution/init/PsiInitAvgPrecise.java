@@ -25,11 +25,11 @@ package net.preibisch.mvrecon.process.deconvolution.init;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Vector;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.type.numeric.real.FloatType;
@@ -37,8 +37,6 @@ import net.imglib2.util.RealSum;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Triple;
 import net.preibisch.mvrecon.process.deconvolution.DeconView;
-import net.preibisch.mvrecon.process.fusion.FusionTools;
-import net.preibisch.mvrecon.process.fusion.ImagePortion;
 
 public class PsiInitAvgPrecise implements PsiInit
 {
@@ -53,8 +51,7 @@ public class PsiInitAvgPrecise implements PsiInit
 	{
 		this.max = new float[ views.size() ];
 
-		// split up into many parts for multithreading
-		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( psi.size() );
+		// split up into cell-aligned blocks for multithreading, one streaming pass over all views computes sum, count and max
 		final ArrayList< Callable< Triple< RealSum, Long, float[] > > > tasks = new ArrayList< Callable< Triple< RealSum, Long, float[] > > >();
 
 		final ArrayList< RandomAccessibleInterval< FloatType > > imgs = new ArrayList< RandomAccessibleInterval< FloatType > >();
@@ -62,8 +59,8 @@ public class PsiInitAvgPrecise implements PsiInit
 		for ( final DeconView mvdecon : views )
 			imgs.add( mvdecon.getImage() );
 
-		for ( final ImagePortion portion : portions )
-			tasks.add( new PsiInitAvgPreciseThread( portion, psi, imgs ) );
+		for ( final Interval block : PsiInitTools.blocks( psi ) )
+			tasks.add( new PsiInitAvgPreciseThread( block, psi, imgs ) );
 
 		final RealSum s = new RealSum();
 		long count = 0;
@@ -104,8 +101,7 @@ public class PsiInitAvgPrecise implements PsiInit
 		{
 			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Setting image to average intensity: " + avg );
 	
-			for ( final FloatType t : psi )
-				t.set( (float)avg );
+			return PsiInitTools.fill( psi, (float)avg, service );
 		}
 
 		return true;
@@ -26,10 +26,12 @@ import java.util.ArrayList;
 import java.util.concurrent.Callable;
 
 import net.imglib2.Cursor;
+import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.RealSum;
 import net.imglib2.view.Views;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Triple;
@@ -81,6 +83,31 @@ public class PsiInitAvgPreciseThread implements Callable< Triple< RealSum, Long,
 		}
 	}
 
+	/**
+	 * Processes one block of psi, which is typically aligned with the cells of the (cached) input images
+	 *
+	 * @param block - the block
+	 * @param psi - the deconvolved image
+	 * @param imgs - the input images
+	 */
+	public PsiInitAvgPreciseThread(
+			final Interval block,
+			final RandomAccessibleInterval< FloatType > psi,
+			final ArrayList< RandomAccessibleInterval< FloatType > > imgs )
+	{
+		this( new ImagePortion( 0, Intervals.numElements( block ) ), Views.interval( psi, block ), intervals( imgs, block ) );
+	}
+
+	private static ArrayList< RandomAccessibleInterval< FloatType > > intervals( final ArrayList< RandomAccessibleInterval< FloatType > > imgs, final Interval block )
+	{
+		final ArrayList< RandomAccessibleInterval< FloatType > > blocks = new ArrayList<>();
+
+		for ( final RandomAccessibleInterval< FloatType > img : imgs )
+			blocks.add( Views.interval( img, block ) );
+
+		return blocks;
+	}
+
 	@Override
 	public Triple< RealSum, Long, float[] > call()
 	{
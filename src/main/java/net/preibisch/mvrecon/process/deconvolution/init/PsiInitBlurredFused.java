@@ -25,22 +25,29 @@ package net.preibisch.mvrecon.process.deconvolution.init;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import net.imglib2.util.Util;
+import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.gauss3.Gauss3;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.RealSum;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.process.deconvolution.DeconView;
 import net.preibisch.mvrecon.process.deconvolution.util.FusedNonZeroRandomAccess;
 import net.preibisch.mvrecon.process.deconvolution.util.FusedNonZeroRandomAccessibleInterval;
-import net.preibisch.mvrecon.process.fusion.FusionTools;
 
 public class PsiInitBlurredFused implements PsiInit
 {
@@ -71,25 +78,43 @@ public class PsiInitBlurredFused implements PsiInit
 			weights.add( view.getWeight() );
 		}
 
-		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Setting virtually fused image" );
+		final double[] sigmas = Util.getArrayFromValue( sigma, psi.numDimensions() );
+		final int[] halfKernelSizes = Gauss3.halfkernelsizes( sigmas );
 
-		final FusedNonZeroRandomAccessibleInterval fused = new FusedNonZeroRandomAccessibleInterval( new FinalInterval( psi ), images, weights );
+		// the virtually fused image outside of each block (to blur across block borders), mirrored at the border of psi like before
+		final RandomAccessible< FloatType > fusedExtended =
+				Views.extendMirrorSingle( new FusedNonZeroRandomAccessibleInterval( new FinalInterval( psi ), images, weights ) );
 
-		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing estimate of deconvolved image ..." );
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing & blurring (sigma = " + sigma + ") estimate of deconvolved image blockwise ..." );
 
-		FusionTools.copyImg( fused, psi, service, true );
+		final ArrayList< Callable< FusedNonZeroRandomAccess > > tasks = new ArrayList<>();
+
+		for ( final Interval block : PsiInitTools.blocks( psi ) )
+			tasks.add( () -> fuseAndBlurBlock( block, psi, images, weights, fusedExtended, sigmas, halfKernelSizes ) );
 
 		final RealSum s = new RealSum();
 		long count = 0;
 		this.max = new float[ views.size() ];
 
-		for ( final FusedNonZeroRandomAccess ra : fused.getAllAccesses() )
+		try
 		{
-			for ( int i = 0; i < max.length; ++i )
-				max[ i ] = Math.max( max[ i ], ra.getMax()[ i ] );
+			// invokeAll() returns when all tasks are complete
+			for ( final Future< FusedNonZeroRandomAccess > future : service.invokeAll( tasks ) )
+			{
+				final FusedNonZeroRandomAccess ra = future.get();
 
-			s.add( ra.getRealSum().getSum() );
-			count += ra.numContributingPixels();
+				for ( int i = 0; i < max.length; ++i )
+					max[ i ] = Math.max( max[ i ], ra.getMax()[ i ] );
+
+				s.add( ra.getRealSum().getSum() );
+				count += ra.numContributingPixels();
+			}
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): ERROR, Couldn't fuse & convolve image: " + e );
+			return false;
 		}
 
 		if ( count == 0 )
@@ -108,22 +133,62 @@ public class PsiInitBlurredFused implements PsiInit
 
 		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Average intensity in overlapping area: " + avg );
 
-		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Blurring input image with sigma = " + sigma + " to use as input");
+		//DisplayImage.getImagePlusInstance( psi, false, "psi", Double.NaN, Double.NaN ).show();
 
-		try
-		{
-			Gauss3.gauss( Util.getArrayFromValue( sigma, psi.numDimensions() ), Views.extendMirrorSingle( psi ), psi, service );
-		}
-		catch ( IncompatibleTypeException e )
+		return true;
+	}
+
+	/*
+	 * Fuses one block of psi plus the border needed for the gaussian into a temporary image and
+	 * writes the blurred block into psi. Only the pixels inside the block contribute to the
+	 * statistics (avg, max), so every pixel is counted exactly once.
+	 *
+	 * @return the access that was used to fuse the block itself, contains its statistics
+	 */
+	protected static FusedNonZeroRandomAccess fuseAndBlurBlock(
+			final Interval block,
+			final RandomAccessibleInterval< FloatType > psi,
+			final List< RandomAccessibleInterval< FloatType > > images,
+			final List< RandomAccessibleInterval< FloatType > > weights,
+			final RandomAccessible< FloatType > fusedExtended,
+			final double[] sigmas,
+			final int[] halfKernelSizes ) throws IncompatibleTypeException
+	{
+		final int n = block.numDimensions();
+		final long[] border = new long[ n ];
+
+		for ( int d = 0; d < n; ++d )
+			border[ d ] = halfKernelSizes[ d ];
+
+		final Interval expanded = Intervals.expand( block, border );
+
+		final FusedNonZeroRandomAccess inside = new FusedNonZeroRandomAccess( n, images, weights );
+		final RandomAccess< FloatType > outside = fusedExtended.randomAccess();
+
+		final RandomAccessibleInterval< FloatType > tmp =
+				Views.translate( ArrayImgs.floats( Intervals.dimensionsAsLongArray( expanded ) ), Intervals.minAsLongArray( expanded ) );
+
+		final Cursor< FloatType > c = Views.flatIterable( tmp ).localizingCursor();
+
+		while ( c.hasNext() )
 		{
-			e.printStackTrace();
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): ERROR, Couldn't convolve image: " + e );
-			return false;
+			final FloatType t = c.next();
+
+			if ( Intervals.contains( block, c ) )
+			{
+				inside.setPosition( c );
+				t.set( inside.get() );
+			}
+			else
+			{
+				outside.setPosition( c );
+				t.set( outside.get() );
+			}
 		}
 
-		//DisplayImage.getImagePlusInstance( psi, false, "psi", Double.NaN, Double.NaN ).show();
+		Gauss3.gauss( sigmas, tmp, Views.interval( psi, block ) );
 
-		return true;
+		return inside;
 	}
 
 	@Override
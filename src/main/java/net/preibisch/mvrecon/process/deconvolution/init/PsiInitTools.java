@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.deconvolution.init;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.deconvolution.MultiViewDeconvolution;
+import util.Grid;
+
+/**
+ * Helpers to run the psi initializations block by block in parallel
+ *
+ * @author stephan.preibisch@gmx.de
+ *
+ */
+public class PsiInitTools
+{
+	/**
+	 * minimal edge length of a block, smaller cells are combined
+	 */
+	public static int minBlockSize = 128;
+
+	/**
+	 * Divides psi into blocks that are aligned with the cells of psi (if it is a CellImg) or else with the
+	 * cells of the cached input images and weights, so every block touches as few cells as possible.
+	 *
+	 * @param psi - the deconvolved image
+	 * @return list of blocks covering psi
+	 */
+	public static List< Interval > blocks( final RandomAccessibleInterval< FloatType > psi )
+	{
+		final int n = psi.numDimensions();
+		final int[] cellSize = new int[ n ];
+
+		if ( psi instanceof AbstractCellImg )
+			( ( AbstractCellImg< ?, ?, ?, ? > )psi ).getCellGrid().cellDimensions( cellSize );
+		else
+			for ( int d = 0; d < n; ++d )
+				cellSize[ d ] = MultiViewDeconvolution.cellDim;
+
+		// a multiple of the cell size that is at least minBlockSize
+		final int[] blockSize = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+			blockSize[ d ] = cellSize[ d ] * Math.max( 1, ( minBlockSize + cellSize[ d ] - 1 ) / cellSize[ d ] );
+
+		final long[] min = Intervals.minAsLongArray( psi );
+		final List< Interval > blocks = new ArrayList<>();
+
+		for ( final long[][] block : Grid.create( Intervals.dimensionsAsLongArray( psi ), blockSize ) )
+		{
+			final long[] bmin = new long[ n ];
+			final long[] bmax = new long[ n ];
+
+			for ( int d = 0; d < n; ++d )
+			{
+				bmin[ d ] = min[ d ] + block[ 0 ][ d ];
+				bmax[ d ] = bmin[ d ] + block[ 1 ][ d ] - 1;
+			}
+
+			blocks.add( new FinalInterval( bmin, bmax ) );
+		}
+
+		return blocks;
+	}
+
+	/**
+	 * Sets all pixels of psi to a value, block by block in parallel
+	 *
+	 * @param psi - the deconvolved image
+	 * @param value - the value
+	 * @param service - the executorservice
+	 * @return true if successful
+	 */
+	public static boolean fill( final RandomAccessibleInterval< FloatType > psi, final float value, final ExecutorService service )
+	{
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final Interval block : blocks( psi ) )
+		{
+			tasks.add( () ->
+			{
+				for ( final FloatType t : Views.flatIterable( Views.interval( psi, block ) ) )
+					t.set( value );
+
+				return null;
+			});
+		}
+
+		try
+		{
+			// invokeAll() returns when all tasks are complete
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Failed to set image to " + value + ": " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+}
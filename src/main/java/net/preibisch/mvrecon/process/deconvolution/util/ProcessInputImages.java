@@ -23,12 +23,22 @@
 package net.preibisch.mvrecon.process.deconvolution.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 
 import bdv.util.ConstantRandomAccessible;
 import mpicbg.models.AffineModel1D;
@@ -47,6 +57,7 @@ import net.imglib2.img.ImgFactory;
 import net.imglib2.img.cell.CellImgFactory;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
@@ -63,9 +74,14 @@ import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.Combin
 import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.CombineWeightsRandomAccessibleInterval.CombineType;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import util.Grid;
 
 public class ProcessInputImages< V extends ViewId >
 {
+	// attributes of the datasets written by storeRandomAccessibleInterval
+	public static String finishedAttribute = "finished";
+	public static String minAttribute = "min";
+
 	final AbstractSpimData< ? > spimData;
 	final ArrayList< Group< V > > groups;
 	final Interval bb;
@@ -183,6 +199,15 @@ public class ProcessInputImages< V extends ViewId >
 	public void copyNormalizedWeights( final ImgFactory< FloatType > imgFactory ) { copyRandomAccessibleInterval( groups, service, imgFactory, normalizedWeights ); }
 	public void copyNormalizedWeights() { copyNormalizedWeights( new CellImgFactory<>( MultiViewDeconvolution.cellDim ) ); }
 
+	public void storeImages( final N5Writer n5, final String dataset, final int cellDim, final int maxCacheSize ) { storeRandomAccessibleInterval( groups, service, n5, dataset + "/images", cellDim, maxCacheSize, images ); }
+	public void storeImages( final N5Writer n5, final String dataset ) { storeImages( n5, dataset, MultiViewDeconvolution.cellDim, MultiViewDeconvolution.maxCacheSize ); }
+
+	public void storeUnnormalizedWeights( final N5Writer n5, final String dataset, final int cellDim, final int maxCacheSize ) { storeRandomAccessibleInterval( groups, service, n5, dataset + "/unnormalizedWeights", cellDim, maxCacheSize, unnormalizedWeights ); }
+	public void storeUnnormalizedWeights( final N5Writer n5, final String dataset ) { storeUnnormalizedWeights( n5, dataset, MultiViewDeconvolution.cellDim, MultiViewDeconvolution.maxCacheSize ); }
+
+	public void storeNormalizedWeights( final N5Writer n5, final String dataset, final int cellDim, final int maxCacheSize ) { storeRandomAccessibleInterval( groups, service, n5, dataset + "/normalizedWeights", cellDim, maxCacheSize, normalizedWeights ); }
+	public void storeNormalizedWeights( final N5Writer n5, final String dataset ) { storeNormalizedWeights( n5, dataset, MultiViewDeconvolution.cellDim, MultiViewDeconvolution.maxCacheSize ); }
+
 	public void normalizeWeights() { normalizeWeights( 1.0 ); }
 	public void normalizeWeights( final double osemspeedup )
 	{
@@ -274,6 +299,118 @@ public class ProcessInputImages< V extends ViewId >
 		}
 	}
 
+	/**
+	 * Writes the (virtual) images block by block in parallel into N5 datasets and replaces them with the
+	 * images opened from the N5, so only the blocks currently computed or cached are kept in memory.
+	 * Note: call this for the unnormalized weights before normalizeWeights(), so the normalization reads
+	 * them from disk as well.
+	 *
+	 * A dataset that was written completely before (see {@link #isStored(N5Writer, String, long[], long[], int[])})
+	 * is opened instead of written again. It is up to the caller to remove datasets that were computed with
+	 * different parameters.
+	 *
+	 * @param groups - the groups, one dataset is created for each group (baseDataset/group0, baseDataset/group1, ...)
+	 * @param service - executes the blocks in parallel
+	 * @param n5 - the N5 to write to
+	 * @param baseDataset - the parent dataset
+	 * @param cellDim - the N5 block size
+	 * @param maxCacheSize - the maximal number of blocks cached in memory for each image read back from the N5
+	 * @param images - the images, will be replaced
+	 * @param <V> - view id type
+	 */
+	public static < V extends ViewId > void storeRandomAccessibleInterval(
+			final List< Group< V > > groups,
+			final ExecutorService service,
+			final N5Writer n5,
+			final String baseDataset,
+			final int cellDim,
+			final int maxCacheSize,
+			final HashMap< Group< V >, RandomAccessibleInterval< FloatType > > images )
+	{
+		for ( int i = 0; i < groups.size(); ++i )
+		{
+			final Group< V > group = groups.get( i );
+
+			if ( !images.containsKey( group ) )
+				continue;
+
+			final RandomAccessibleInterval< FloatType > img = Views.zeroMin( images.get( group ) );
+			final long[] min = Intervals.minAsLongArray( images.get( group ) );
+			final long[] dim = Intervals.dimensionsAsLongArray( img );
+			final int[] blockSize = Util.getArrayFromValue( cellDim, dim.length );
+			final String dataset = baseDataset + "/group" + i;
+
+			if ( isStored( n5, dataset, min, dim, blockSize ) )
+			{
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Reusing '" + dataset + "', it was written completely before." );
+				images.put( group, Views.translate( N5Utils.openWithBoundedSoftRefCache( n5, dataset, maxCacheSize ), min ) );
+				continue;
+			}
+
+			n5.createDataset( dataset, dim, blockSize, DataType.FLOAT32, new RawCompression() );
+			n5.setAttribute( dataset, finishedAttribute, false );
+
+			final List< long[][] > grid = Grid.create( dim, blockSize );
+
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Writing '" + dataset + "', " + grid.size() + " blocks ... " );
+
+			final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+			for ( final long[][] gridBlock : grid )
+			{
+				tasks.add( () ->
+				{
+					N5Utils.saveBlock( Views.offsetInterval( img, gridBlock[ 0 ], gridBlock[ 1 ] ), n5, dataset, gridBlock[ 2 ] );
+					return null;
+				});
+			}
+
+			try
+			{
+				// invokeAll() returns when all tasks are complete
+				for ( final Future< Void > future : service.invokeAll( tasks ) )
+					future.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				IOFunctions.println( "Failed to write '" + dataset + "': " + e );
+				e.printStackTrace();
+				throw new RuntimeException( e );
+			}
+
+			n5.setAttribute( dataset, minAttribute, min );
+			n5.setAttribute( dataset, finishedAttribute, true );
+
+			images.put( group, Views.translate( N5Utils.openWithBoundedSoftRefCache( n5, dataset, maxCacheSize ), min ) );
+		}
+	}
+
+	/**
+	 * @param n5 - the N5
+	 * @param dataset - the dataset
+	 * @param min - the expected offset of the image
+	 * @param dim - the expected dimensions
+	 * @param blockSize - the expected block size
+	 * @return true if the dataset was written completely by storeRandomAccessibleInterval with the same offset, dimensions and block size
+	 */
+	public static boolean isStored( final N5Writer n5, final String dataset, final long[] min, final long[] dim, final int[] blockSize )
+	{
+		if ( !n5.datasetExists( dataset ) )
+			return false;
+
+		final Boolean finished = n5.getAttribute( dataset, finishedAttribute, Boolean.class );
+
+		if ( finished == null || !finished )
+			return false;
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes( dataset );
+
+		return
+				Arrays.equals( min, n5.getAttribute( dataset, minAttribute, long[].class ) ) &&
+				Arrays.equals( dim, attributes.getDimensions() ) &&
+				Arrays.equals( blockSize, attributes.getBlockSize() );
+	}
+
 	public static < V extends ViewId > Interval fuseGroups(
 			final AbstractSpimData< ? > spimData,
 			final HashMap< Group< V >, RandomAccessibleInterval< FloatType > > tImgs,
@@ -33,7 +33,8 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
-import net.preibisch.mvrecon.process.downsampling.lazy.LazyDownsample2x;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyFusedDownsample2x;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyFusedDownsample2x.Kernel;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoGImgLib2;
 
 public class Downsample
@@ -46,14 +47,9 @@ public class Downsample
 		long dsy = downsampleFactors[1];
 		long dsz = (downsampleFactors.length > 2) ? downsampleFactors[ 2 ] : 1;
 
-		for ( ;dsx > 1; dsx /= 2 )
-			input = Downsample.simple2x( input, new boolean[]{ true, false, false } );
-
-		for ( ;dsy > 1; dsy /= 2 )
-			input = Downsample.simple2x( input, new boolean[]{ false, true, false } );
-
-		for ( ;dsz > 1; dsz /= 2 )
-			input = Downsample.simple2x( input, new boolean[]{ false, false, true } );
+		// all dimensions that still need downsampling are downsampled 2x at once
+		for ( ; dsx > 1 || dsy > 1 || dsz > 1; dsx /= 2, dsy /= 2, dsz /= 2 )
+			input = Downsample.simple2x( input, new boolean[]{ dsx > 1, dsy > 1, dsz > 1 } );
 
 		return input;
 	}
@@ -70,21 +66,16 @@ public class Downsample
 
 	public static < T extends RealType< T >& NativeType<T> > RandomAccessibleInterval< T > simple2x( final RandomAccessibleInterval<T> input, final boolean[] downsampleInDim )
 	{
-		RandomAccessibleInterval<T> downsampled = input;
-
 		final T type = Util.getTypeFromInterval( input );
 
-		// downsample in all dimensions
-		for ( int d = 0; d < input.numDimensions(); ++d )
-			if ( downsampleInDim[ d ] )
-				downsampled = LazyDownsample2x.init(
-						Views.extendBorder( downsampled ),
-						downsampled,
-						type,
-						DoGImgLib2.blockSize,
-						d);
-
-		return downsampled;
+		// downsample in all requested dimensions at once
+		return LazyFusedDownsample2x.init(
+				Views.extendBorder( input ),
+				input,
+				type,
+				DoGImgLib2.blockSize,
+				downsampleInDim,
+				Kernel.QUASI_GAUSS );
 	}
 
 	/*
@@ -41,8 +41,13 @@ import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
-import net.preibisch.mvrecon.process.downsampling.lazy.LazyDownsample2x;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyFusedDownsample2x;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyFusedDownsample2x.Kernel;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoGImgLib2;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 
 public class DownsampleTools
 {
@@ -410,7 +415,13 @@ public class DownsampleTools
 	{
 		final AffineTransform3D mipMapTransform = new AffineTransform3D();
 
-		final RandomAccessibleInterval img = openAndDownsample(imgLoader, vd, mipMapTransform, downsampleFactors, false, virtualDownsampling );
+		final RandomAccessibleInterval img;
+
+		// with non-virtual downsampling this includes reading the entire image
+		try ( final Timer.Context t = Metrics.time( Stage.LOAD, Group.pvid( vd ) ) )
+		{
+			img = openAndDownsample(imgLoader, vd, mipMapTransform, downsampleFactors, false, virtualDownsampling );
+		}
 
 		return new ValuePair<RandomAccessibleInterval, AffineTransform3D>( img, mipMapTransform );
 	}
@@ -509,26 +520,15 @@ public class DownsampleTools
 		{
 			if ( virtualDownsampling )
 			{
-				for ( ;dsx > 1; dsx /= 2 )
-					input = LazyDownsample2x.init( Views.extendBorder( input ), input, new FloatType(), DoGImgLib2.blockSize, 0 );
-
-				for ( ;dsy > 1; dsy /= 2 )
-					input = LazyDownsample2x.init( Views.extendBorder( input ), input, new FloatType(), DoGImgLib2.blockSize, 1 );
-
-				for ( ;dsz > 1; dsz /= 2 )
-					input = LazyDownsample2x.init( Views.extendBorder( input ), input, new FloatType(), DoGImgLib2.blockSize, 2 );
+				// all dimensions that still need downsampling are downsampled 2x at once
+				for ( ; dsx > 1 || dsy > 1 || dsz > 1; dsx /= 2, dsy /= 2, dsz /= 2 )
+					input = LazyFusedDownsample2x.init( Views.extendBorder( input ), input, new FloatType(), DoGImgLib2.blockSize, new boolean[]{ dsx > 1, dsy > 1, dsz > 1 }, Kernel.QUASI_GAUSS );
 			}
 			else
 			{
 				// note: every pixel is read exactly once, therefore caching the virtual input would not give any advantages
-				for ( ;dsx > 1; dsx /= 2 )
-					input = Downsample.simple2x( input, new boolean[]{ true, false, false } );
-
-				for ( ;dsy > 1; dsy /= 2 )
-					input = Downsample.simple2x( input, new boolean[]{ false, true, false } );
-
-				for ( ;dsz > 1; dsz /= 2 )
-					input = Downsample.simple2x( input, new boolean[]{ false, false, true } );
+				for ( ; dsx > 1 || dsy > 1 || dsz > 1; dsx /= 2, dsy /= 2, dsz /= 2 )
+					input = Downsample.simple2x( input, new boolean[]{ dsx > 1, dsy > 1, dsz > 1 } );
 			}
 		}
 
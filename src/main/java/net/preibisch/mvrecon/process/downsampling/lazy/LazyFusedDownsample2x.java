@@ -0,0 +1,286 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.downsampling.lazy;
+
+import java.util.function.Consumer;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import util.Lazy;
+
+/**
+ * Downsamples by 2x in several dimensions at once. Every output cell reads its input neighborhood
+ * exactly once into a float buffer, which is then reduced one dimension after another in memory,
+ * so no intermediate (cached) images are created as when chaining {@link LazyHalfPixelDownsample2x}
+ * or {@link LazyDownsample2x} for each dimension. UnsignedByteType, UnsignedShortType and FloatType
+ * are read and written directly, all other RealTypes go through getRealFloat/setReal.
+ *
+ * @author stephan.preibisch@gmx.de
+ *
+ * @param <T> pixel type
+ */
+public class LazyFusedDownsample2x<T extends RealType<T> & NativeType<T>> implements Consumer<RandomAccessibleInterval<T>>
+{
+	public enum Kernel
+	{
+		/** average of 2 pixels, the output pixel sits in between them (same as {@link LazyHalfPixelDownsample2x}) */
+		HALF_PIXEL,
+		/** weights 0.25, 0.5, 0.25 centered on every second pixel (same as {@link LazyDownsample2x}) */
+		QUASI_GAUSS
+	}
+
+	final T type;
+	final private RandomAccessible<T> source;
+	final boolean[] downsampleInDim;
+	final Kernel kernel;
+	final int n;
+	final long[] globalMin;
+
+	public LazyFusedDownsample2x(
+			final long[] min,
+			final RandomAccessible<T> source,
+			final boolean[] downsampleInDim,
+			final Kernel kernel,
+			final T type )
+	{
+		this.globalMin = min;
+		this.source = source;
+		this.downsampleInDim = downsampleInDim;
+		this.kernel = kernel;
+		this.type = type;
+		this.n = source.numDimensions();
+	}
+
+	// Note: the output RAI typically sits at 0,0...0 because it usually is a CachedCellImage
+	// (but the actual interval to process in many blocks sits somewhere else)
+	@Override
+	public void accept( final RandomAccessibleInterval<T> output )
+	{
+		// the input neighborhood of this output cell
+		final long[] inMin = new long[ n ];
+		final long[] inMax = new long[ n ];
+		final int[] dim = new int[ n ];
+
+		long numPixels = 1;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			if ( downsampleInDim[ d ] )
+			{
+				inMin[ d ] = globalMin[ d ] + output.min( d ) * 2 - ( kernel == Kernel.QUASI_GAUSS ? 1 : 0 );
+				inMax[ d ] = globalMin[ d ] + output.max( d ) * 2 + 1;
+			}
+			else
+			{
+				inMin[ d ] = globalMin[ d ] + output.min( d );
+				inMax[ d ] = globalMin[ d ] + output.max( d );
+			}
+
+			dim[ d ] = (int)( inMax[ d ] - inMin[ d ] + 1 );
+			numPixels *= dim[ d ];
+		}
+
+		if ( numPixels > Integer.MAX_VALUE )
+			throw new RuntimeException( "Input neighborhood of a block is too large (" + numPixels + " px), use a smaller blocksize." );
+
+		float[] data = read( Views.flatIterable( Views.interval( source, inMin, inMax ) ).cursor(), (int)numPixels, type );
+
+		for ( int d = 0; d < n; ++d )
+			if ( downsampleInDim[ d ] )
+				data = reduce( data, dim, d, kernel ); // updates dim[ d ]
+
+		write( data, Views.flatIterable( output ).cursor(), type );
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static final <T extends RealType<T>> float[] read( final Cursor<T> cursor, final int numPixels, final T type )
+	{
+		final float[] data = new float[ numPixels ];
+
+		if ( type instanceof UnsignedByteType )
+		{
+			final Cursor< UnsignedByteType > c = (Cursor< UnsignedByteType >)(Object)cursor;
+			for ( int i = 0; i < numPixels; ++i )
+				data[ i ] = c.next().get();
+		}
+		else if ( type instanceof UnsignedShortType )
+		{
+			final Cursor< UnsignedShortType > c = (Cursor< UnsignedShortType >)(Object)cursor;
+			for ( int i = 0; i < numPixels; ++i )
+				data[ i ] = c.next().get();
+		}
+		else if ( type instanceof FloatType )
+		{
+			final Cursor< FloatType > c = (Cursor< FloatType >)(Object)cursor;
+			for ( int i = 0; i < numPixels; ++i )
+				data[ i ] = c.next().get();
+		}
+		else
+		{
+			for ( int i = 0; i < numPixels; ++i )
+				data[ i ] = cursor.next().getRealFloat();
+		}
+
+		return data;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static final <T extends RealType<T>> void write( final float[] data, final Cursor<T> cursor, final T type )
+	{
+		if ( type instanceof UnsignedByteType )
+		{
+			final Cursor< UnsignedByteType > c = (Cursor< UnsignedByteType >)(Object)cursor;
+			for ( int i = 0; i < data.length; ++i )
+				c.next().set( Math.round( data[ i ] ) );
+		}
+		else if ( type instanceof UnsignedShortType )
+		{
+			final Cursor< UnsignedShortType > c = (Cursor< UnsignedShortType >)(Object)cursor;
+			for ( int i = 0; i < data.length; ++i )
+				c.next().set( Math.round( data[ i ] ) );
+		}
+		else if ( type instanceof FloatType )
+		{
+			final Cursor< FloatType > c = (Cursor< FloatType >)(Object)cursor;
+			for ( int i = 0; i < data.length; ++i )
+				c.next().set( data[ i ] );
+		}
+		else
+		{
+			for ( int i = 0; i < data.length; ++i )
+				cursor.next().setReal( data[ i ] );
+		}
+	}
+
+	/*
+	 * Downsamples a flat (x fastest) array by 2x in dimension d.
+	 *
+	 * @param in - the input data
+	 * @param dim - the dimensions of the input, dim[ d ] will be set to the output size
+	 * @param d - the dimension
+	 * @param kernel - which kernel
+	 * @return the downsampled data
+	 */
+	protected static final float[] reduce( final float[] in, final int[] dim, final int d, final Kernel kernel )
+	{
+		final int inSize = dim[ d ];
+		final int outSize = kernel == Kernel.QUASI_GAUSS ? ( inSize - 1 ) / 2 : inSize / 2;
+
+		// all pixels in lower dimensions are contiguous, the higher dimensions are independent lines
+		int stride = 1;
+		for ( int e = 0; e < d; ++e )
+			stride *= dim[ e ];
+
+		int numLines = 1;
+		for ( int e = d + 1; e < dim.length; ++e )
+			numLines *= dim[ e ];
+
+		final float[] out = new float[ stride * outSize * numLines ];
+
+		for ( int l = 0; l < numLines; ++l )
+		{
+			final int inLine = l * inSize * stride;
+			final int outLine = l * outSize * stride;
+
+			for ( int p = 0; p < outSize; ++p )
+			{
+				final int i0 = inLine + p * 2 * stride;
+				final int i1 = i0 + stride;
+				final int o = outLine + p * stride;
+
+				if ( kernel == Kernel.QUASI_GAUSS )
+				{
+					final int i2 = i1 + stride;
+
+					for ( int i = 0; i < stride; ++i )
+						out[ o + i ] = ( in[ i0 + i ] * 0.5f + in[ i1 + i ] + in[ i2 + i ] * 0.5f ) / 2.0f;
+				}
+				else
+				{
+					for ( int i = 0; i < stride; ++i )
+						out[ o + i ] = ( in[ i0 + i ] + in[ i1 + i ] ) / 2.0f;
+				}
+			}
+		}
+
+		dim[ d ] = outSize;
+
+		return out;
+	}
+
+	/*
+	 * Convenient set up of the Lazy Downsampling
+	 *
+	 * @param <T>
+	 * @param input - for QUASI_GAUSS this needs to be extended (e.g. Views.extendBorder)
+	 * @param downsampleInterval
+	 * @param type
+	 * @param blockSize
+	 * @param downsampleInDim - which dimensions to downsample 2x
+	 * @param kernel
+	 * @return
+	 */
+	public static final <T extends RealType<T> & NativeType<T>> RandomAccessibleInterval<T> init(
+			final RandomAccessible< T > input,
+			final Interval downsampleInterval,
+			final T type,
+			final int[] blockSize,
+			final boolean[] downsampleInDim,
+			final Kernel kernel )
+	{
+		final long dim[] = new long[ input.numDimensions() ];
+
+		for ( int e = 0; e < input.numDimensions(); ++e )
+		{
+			if ( downsampleInDim[ e ] )
+				dim[ e ] = downsampleInterval.dimension( e ) / 2;
+			else
+				dim[ e ] = downsampleInterval.dimension( e );
+		}
+
+		final long[] min = downsampleInterval.minAsLongArray();
+
+		final LazyFusedDownsample2x< T > downsampling =
+				new LazyFusedDownsample2x< T >(
+						min,
+						input,
+						downsampleInDim.clone(),
+						kernel,
+						type.createVariable() );
+
+		final RandomAccessibleInterval<T> downsampled =
+				Views.translate( Lazy.process( new FinalInterval( dim ), blockSize, type.createVariable(), AccessFlags.setOf(), downsampling ), min );
+
+		return downsampled;
+	}
+}
@@ -0,0 +1,467 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.export;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+
+import mpicbg.models.AffineModel1D;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RealInterval;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
+
+/**
+ * Fingerprints of the blocks of a fused image. The fingerprint of a block combines the fusion parameters with the id,
+ * transformation and intensity adjustment of every view that overlaps the block. It is stored as a small dataset next
+ * to the fused dataset, so a later fusion into the same container only needs to recompute blocks whose fingerprint changed.
+ * The fingerprint dataset has one chunk per row of blocks (along dimension 0), so an update only rewrites the rows that
+ * contain changed blocks. A missing row reads as 0, which never matches a computed fingerprint.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class BlockFingerprints
+{
+	public static String fingerprintDataset( final String dataset ) { return dataset + "_fingerprints"; }
+
+	/**
+	 * @param dim - the dimensions of the image
+	 * @param blockSize - the block size
+	 * @return the number of blocks in each dimension
+	 */
+	public static long[] gridDimensions( final long[] dim, final int[] blockSize )
+	{
+		final long[] gridDim = new long[ dim.length ];
+
+		for ( int d = 0; d < dim.length; ++d )
+			gridDim[ d ] = ( dim[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+
+		return gridDim;
+	}
+
+	/**
+	 * @param spimData - the spimdata
+	 * @param views - the views that are fused
+	 * @param bb - the (downsampled) bounding box of the fused image
+	 * @param downsampling - the downsampling, or Double.NaN
+	 * @param anisoF - the anisotropy factor, or Double.NaN
+	 * @param blockSize - the block size of the fused dataset
+	 * @param adjustIntensities - if intensity adjustments are applied
+	 * @param parameters - all other fusion parameters that influence the result
+	 * @return one fingerprint per block (flat index, dimension 0 is the fastest), or null if the image is not 3d
+	 */
+	public static long[] compute(
+			final SpimData2 spimData,
+			final Collection< ? extends ViewId > views,
+			final Interval bb,
+			final double downsampling,
+			final double anisoF,
+			final int[] blockSize,
+			final boolean adjustIntensities,
+			final String parameters )
+	{
+		final int n = bb.numDimensions();
+
+		if ( n != 3 )
+			return null;
+
+		final long[] gridDim = gridDimensions( bb.dimensionsAsLongArray(), blockSize );
+		final long[] fingerprints = new long[ (int)Intervals.numElements( gridDim ) ];
+
+		Arrays.fill( fingerprints, hash( parameters ) );
+
+		final HashMap< ViewId, AffineTransform3D > registrations =
+				TransformVirtual.adjustAllTransforms(
+						views,
+						spimData.getViewRegistrations().getViewRegistrations(),
+						anisoF,
+						downsampling );
+
+		final Map< ViewId, AffineModel1D > intensities = adjustIntensities ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null;
+
+		// the same inputs must always produce the same fingerprint
+		final ArrayList< ViewId > sortedViews = new ArrayList<>( views );
+		Collections.sort( sortedViews );
+
+		final long[] gridMin = new long[ n ];
+		final long[] gridMax = new long[ n ];
+
+		for ( final ViewId viewId : sortedViews )
+		{
+			final AffineTransform3D transform = registrations.get( viewId );
+
+			long h = combine( viewId.getTimePointId(), viewId.getViewSetupId() );
+
+			for ( int r = 0; r < 3; ++r )
+				for ( int c = 0; c < 4; ++c )
+					h = combine( h, Double.doubleToLongBits( transform.get( r, c ) ) );
+
+			if ( intensities != null && intensities.containsKey( viewId ) )
+			{
+				final double[] model = new double[ 2 ];
+				intensities.get( viewId ).toArray( model );
+
+				h = combine( combine( h, Double.doubleToLongBits( model[ 0 ] ) ), Double.doubleToLongBits( model[ 1 ] ) );
+			}
+
+			// the blocks the view can contribute to, plus one pixel for the interpolation
+			final Dimensions size = spimData.getSequenceDescription().getViewDescription( viewId ).getViewSetup().getSize();
+			final double[] min = new double[ n ];
+			final double[] max = new double[ n ];
+
+			for ( int d = 0; d < n; ++d )
+				max[ d ] = size.dimension( d ) - 1;
+
+			final RealInterval bounds = transform.estimateBounds( new FinalRealInterval( min, max ) );
+
+			boolean overlaps = true;
+
+			for ( int d = 0; d < n; ++d )
+			{
+				final long from = Math.max( 0, (long)Math.floor( bounds.realMin( d ) - 1 ) - bb.min( d ) );
+				final long to = Math.min( bb.dimension( d ) - 1, (long)Math.ceil( bounds.realMax( d ) + 1 ) - bb.min( d ) );
+
+				if ( from > to )
+					overlaps = false;
+
+				gridMin[ d ] = from / blockSize[ d ];
+				gridMax[ d ] = to / blockSize[ d ];
+			}
+
+			if ( !overlaps )
+				continue;
+
+			final LocalizingIntervalIterator it = new LocalizingIntervalIterator( gridMin, gridMax );
+			final long[] pos = new long[ n ];
+
+			while ( it.hasNext() )
+			{
+				it.fwd();
+				it.localize( pos );
+
+				final int i = (int)IntervalIndexer.positionToIndex( pos, gridDim );
+				fingerprints[ i ] = combine( fingerprints[ i ], h );
+			}
+		}
+
+		return fingerprints;
+	}
+
+	/**
+	 * @param previous - the stored fingerprints, or null
+	 * @param current - the new fingerprints
+	 * @return which blocks changed (all of them if there are no stored fingerprints)
+	 */
+	public static boolean[] changedBlocks( final long[] previous, final long[] current )
+	{
+		final boolean[] changed = new boolean[ current.length ];
+
+		for ( int i = 0; i < current.length; ++i )
+			changed[ i ] = previous == null || previous[ i ] != current[ i ];
+
+		return changed;
+	}
+
+	public static int count( final boolean[] changed )
+	{
+		int count = 0;
+
+		for ( final boolean c : changed )
+			if ( c )
+				++count;
+
+		return count;
+	}
+
+	/**
+	 * @param changed - the changed blocks of a level
+	 * @param gridDim - the grid dimensions of that level
+	 * @param ds - the relative downsampling to the next level
+	 * @param gridDimDS - the grid dimensions of the next level (same block size)
+	 * @return the changed blocks of the next level
+	 */
+	public static boolean[] downsampleChanged( final boolean[] changed, final long[] gridDim, final int[] ds, final long[] gridDimDS )
+	{
+		final int n = gridDim.length;
+		final boolean[] changedDS = new boolean[ (int)Intervals.numElements( gridDimDS ) ];
+		final long[] pos = new long[ n ];
+
+		A: for ( int i = 0; i < changed.length; ++i )
+		{
+			if ( !changed[ i ] )
+				continue;
+
+			IntervalIndexer.indexToPosition( i, gridDim, pos );
+
+			for ( int d = 0; d < n; ++d )
+			{
+				pos[ d ] /= ds[ d ];
+
+				// the last pixels of a level are dropped if its size is not divisible by the downsampling
+				if ( pos[ d ] >= gridDimDS[ d ] )
+					continue A;
+			}
+
+			changedDS[ (int)IntervalIndexer.positionToIndex( pos, gridDimDS ) ] = true;
+		}
+
+		return changedDS;
+	}
+
+	/**
+	 * @param changed - the changed blocks
+	 * @param gridDim - the grid dimensions
+	 * @param gridBlock - a compute block as created by {@link util.Grid} (offset, size, grid position)
+	 * @param blockSize - the block size
+	 * @return if any block inside the compute block changed
+	 */
+	public static boolean anyChanged( final boolean[] changed, final long[] gridDim, final long[][] gridBlock, final int[] blockSize )
+	{
+		final int n = gridDim.length;
+		final long[] min = gridBlock[ 2 ].clone();
+		final long[] max = new long[ n ];
+
+		for ( int d = 0; d < n; ++d )
+			max[ d ] = Math.min( gridDim[ d ] - 1, min[ d ] + ( gridBlock[ 1 ][ d ] + blockSize[ d ] - 1 ) / blockSize[ d ] - 1 );
+
+		final LocalizingIntervalIterator it = new LocalizingIntervalIterator( min, max );
+		final long[] pos = new long[ n ];
+
+		while ( it.hasNext() )
+		{
+			it.fwd();
+			it.localize( pos );
+
+			if ( changed[ (int)IntervalIndexer.positionToIndex( pos, gridDim ) ] )
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param n5 - the container
+	 * @param dataset - the fused dataset
+	 * @param gridDim - the expected grid dimensions
+	 * @return the stored fingerprints (0 for rows that are missing), or null if there are none or they do not match the grid
+	 */
+	public static long[] load( final N5Reader n5, final String dataset, final long[] gridDim )
+	{
+		final String fingerprintDataset = fingerprintDataset( dataset );
+
+		try
+		{
+			if ( !n5.datasetExists( fingerprintDataset ) )
+				return null;
+
+			final DatasetAttributes attributes = n5.getDatasetAttributes( fingerprintDataset );
+
+			if ( !isRowLayout( attributes, gridDim ) )
+				return null;
+
+			final int rowLength = (int)gridDim[ 0 ];
+			final long[] fingerprints = new long[ (int)Intervals.numElements( gridDim ) ];
+
+			for ( int row = 0; row < fingerprints.length / rowLength; ++row )
+			{
+				final DataBlock< ? > block = n5.readBlock( fingerprintDataset, attributes, rowPosition( row, gridDim ) );
+
+				if ( block != null )
+					System.arraycopy( (long[])block.getData(), 0, fingerprints, row * rowLength, rowLength );
+			}
+
+			return fingerprints;
+		}
+		catch ( Exception e )
+		{
+			IOFunctions.println( "Couldn't load block fingerprints '" + fingerprintDataset + "': " + e );
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the rows of fingerprints that contain changed blocks. If there is no fingerprint dataset with the same grid yet, it is
+	 * (re-)created and all rows are written.
+	 *
+	 * @param n5 - the container
+	 * @param dataset - the fused dataset
+	 * @param fingerprints - the fingerprints of all blocks
+	 * @param gridDim - the grid dimensions
+	 * @param changed - the changed blocks, or null if all changed
+	 */
+	public static void save( final N5Writer n5, final String dataset, final long[] fingerprints, final long[] gridDim, final boolean[] changed )
+	{
+		final String fingerprintDataset = fingerprintDataset( dataset );
+
+		boolean all = changed == null;
+
+		if ( !n5.datasetExists( fingerprintDataset ) || !isRowLayout( n5.getDatasetAttributes( fingerprintDataset ), gridDim ) )
+		{
+			remove( n5, dataset );
+			n5.createDataset( fingerprintDataset, gridDim, rowBlockSize( gridDim ), DataType.INT64, new RawCompression() );
+			all = true;
+		}
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes( fingerprintDataset );
+		final int rowLength = (int)gridDim[ 0 ];
+
+		for ( int row = 0; row < fingerprints.length / rowLength; ++row )
+			if ( all || rowChanged( changed, row, rowLength ) )
+				n5.writeBlock(
+						fingerprintDataset,
+						attributes,
+						new LongArrayDataBlock( attributes.getBlockSize(), rowPosition( row, gridDim ), Arrays.copyOfRange( fingerprints, row * rowLength, ( row + 1 ) * rowLength ) ) );
+	}
+
+	/**
+	 * Removes the fingerprints of all rows that contain changed blocks before a dataset is updated, so an interrupted update
+	 * recomputes them the next time. If the fingerprints do not match the grid, they are removed entirely.
+	 *
+	 * @param n5 - the container
+	 * @param dataset - the fused dataset
+	 * @param gridDim - the grid dimensions
+	 * @param changed - the blocks that will be updated
+	 */
+	public static void invalidate( final N5Writer n5, final String dataset, final long[] gridDim, final boolean[] changed )
+	{
+		final String fingerprintDataset = fingerprintDataset( dataset );
+
+		if ( !n5.datasetExists( fingerprintDataset ) || !isRowLayout( n5.getDatasetAttributes( fingerprintDataset ), gridDim ) )
+		{
+			remove( n5, dataset );
+			return;
+		}
+
+		final int rowLength = (int)gridDim[ 0 ];
+
+		for ( int row = 0; row < changed.length / rowLength; ++row )
+			if ( rowChanged( changed, row, rowLength ) )
+				n5.deleteBlock( fingerprintDataset, rowPosition( row, gridDim ) );
+	}
+
+	/**
+	 * Removes the fingerprints of a dataset entirely.
+	 *
+	 * @param n5 - the container
+	 * @param dataset - the fused dataset
+	 */
+	public static void remove( final N5Writer n5, final String dataset )
+	{
+		final String fingerprintDataset = fingerprintDataset( dataset );
+
+		if ( n5.exists( fingerprintDataset ) )
+			n5.remove( fingerprintDataset );
+	}
+
+	/**
+	 * @param gridDim - the grid dimensions
+	 * @return the chunk size of the fingerprint dataset, one row of blocks along dimension 0
+	 */
+	protected static int[] rowBlockSize( final long[] gridDim )
+	{
+		final int[] blockSize = new int[ gridDim.length ];
+
+		Arrays.fill( blockSize, 1 );
+		blockSize[ 0 ] = (int)gridDim[ 0 ];
+
+		return blockSize;
+	}
+
+	protected static boolean isRowLayout( final DatasetAttributes attributes, final long[] gridDim )
+	{
+		return attributes != null &&
+				attributes.getDataType() == DataType.INT64 &&
+				Arrays.equals( attributes.getDimensions(), gridDim ) &&
+				Arrays.equals( attributes.getBlockSize(), rowBlockSize( gridDim ) );
+	}
+
+	/**
+	 * @param row - the index of the row (dimension 1 is the fastest)
+	 * @param gridDim - the grid dimensions
+	 * @return the grid position of the row in the fingerprint dataset
+	 */
+	protected static long[] rowPosition( final int row, final long[] gridDim )
+	{
+		final int n = gridDim.length;
+		final long[] position = new long[ n ];
+
+		if ( n > 1 )
+		{
+			final long[] rowPos = new long[ n - 1 ];
+			IntervalIndexer.indexToPosition( row, Arrays.copyOfRange( gridDim, 1, n ), rowPos );
+			System.arraycopy( rowPos, 0, position, 1, n - 1 );
+		}
+
+		return position;
+	}
+
+	protected static boolean rowChanged( final boolean[] changed, final int row, final int rowLength )
+	{
+		for ( int i = row * rowLength; i < ( row + 1 ) * rowLength; ++i )
+			if ( changed[ i ] )
+				return true;
+
+		return false;
+	}
+
+	protected static long hash( final String s )
+	{
+		long h = 0;
+
+		for ( int i = 0; i < s.length(); ++i )
+			h = combine( h, s.charAt( i ) );
+
+		return h;
+	}
+
+	protected static long combine( final long h, final long value )
+	{
+		long x = h * 0x9e3779b97f4a7c15L + value;
+
+		// finalizer of splitmix64
+		x = ( x ^ ( x >>> 30 ) ) * 0xbf58476d1ce4e5b9L;
+		x = ( x ^ ( x >>> 27 ) ) * 0x94d049bb133111ebL;
+
+		return x ^ ( x >>> 31 );
+	}
+}
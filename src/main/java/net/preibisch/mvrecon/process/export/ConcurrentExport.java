@@ -0,0 +1,50 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.export;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+/**
+ * Exporters that can export several fused images at the same time (i.e. exportImage() may be called
+ * concurrently from different threads) and can run their block-parallel work on a shared pool.
+ */
+public interface ConcurrentExport
+{
+	/**
+	 * @param pool - the pool that runs the block-parallel parts of all exports, or null to use an own pool per export
+	 */
+	public void setWorkerPool( final ForkJoinPool pool );
+	public ForkJoinPool getWorkerPool();
+
+	/**
+	 * Assigns the output identity (e.g. the ViewId of a BDV export) of all groups in the given order, must be
+	 * called before the groups are exported concurrently so the result does not depend on which export starts first.
+	 *
+	 * @param fusionGroups - all groups that will be exported, in the order of a sequential export
+	 */
+	public void assignOutputIds( final List< ? extends Group< ? extends ViewId > > fusionGroups );
+}
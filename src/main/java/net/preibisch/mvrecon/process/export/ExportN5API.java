@@ -24,19 +24,27 @@ package net.preibisch.mvrecon.process.export;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
+import org.janelia.saalfeldlab.n5.Bzip2Compression;
 import org.janelia.saalfeldlab.n5.Compression;
 import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
 import org.janelia.saalfeldlab.n5.N5FSWriter;
 import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.XzCompression;
 import org.janelia.saalfeldlab.n5.hdf5.N5HDF5Writer;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.janelia.saalfeldlab.n5.zarr.N5ZarrWriter;
@@ -61,15 +69,21 @@ import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.plugin.fusion.FusionExportInterface;
+import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI;
 import net.preibisch.mvrecon.fiji.plugin.resave.PluginHelper;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.process.deconvolution.DeconViews;
-import net.preibisch.mvrecon.process.downsampling.lazy.LazyHalfPixelDownsample2x;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyFusedDownsample2x;
+import net.preibisch.mvrecon.process.downsampling.lazy.LazyFusedDownsample2x.Kernel;
 import net.preibisch.mvrecon.process.export.ExportTools.InstantiateViewSetupBigStitcher;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 import util.Grid;
 
-public class ExportN5API implements ImgExport
+public class ExportN5API implements ImgExport, ConcurrentExport
 {
 	public enum StorageType { N5, ZARR, HDF5 }
 
@@ -95,6 +109,15 @@ public class ExportN5API implements ImgExport
 
 	public static boolean defaultAdvancedBlockSize = false;
 
+	// Gzip is by far the most expensive part of writing, Lz4 or Raw trade disk space for write throughput
+	public static String[] compressionOptions = new String[] { "Raw (no compression)", "Lz4", "Gzip (level 1)", "Xz", "Bzip2" };
+	public static int defaultCompression = 2;
+
+	// groups the chunks of each compute block into one shard file (N5 only), the compute block factors define the shard size
+	public static boolean defaultSharding = false;
+	public static boolean defaultUpdateExisting = false;
+	public static int[] defaultShardSize = new int[] { 8, 8, 4 };
+
 	public static int defaultBlocksizeFactorX_N5 = 1;
 	public static int defaultBlocksizeFactorY_N5 = 1;
 	public static int defaultBlocksizeFactorZ_N5 = 1;
@@ -125,11 +148,18 @@ public class ExportN5API implements ImgExport
 	int bsFactorY = defaultBlocksizeFactorY_N5;
 	int bsFactorZ = defaultBlocksizeFactorZ_N5;
 
-	final Compression compression = new GzipCompression( 1 );
+	Compression compression = createCompression( defaultCompression );
+	int[] shardSize = null; // number of chunks per shard file, null if not sharded
+	boolean updateExisting = defaultUpdateExisting; // re-fuse only blocks of existing datasets whose fingerprint changed
+	FusionExportInterface fusion = null;
 	N5Writer driverVolumeWriter = null;
 
 	InstantiateViewSetupBigStitcher instantiate;
 	final HashMap<Integer, Integer> countViewIds = new HashMap<>();
+	final HashMap<Group<? extends ViewId>, ViewId> assignedViewIds = new HashMap<>(); // see assignOutputIds()
+
+	// shared pool for the block-parallel export when several images are exported concurrently, can be null
+	ForkJoinPool workerPool = null;
 
 	@Override
 	public boolean finish()
@@ -158,34 +188,35 @@ public class ExportN5API implements ImgExport
 			final String title,
 			final Group<? extends ViewId> fusionGroup)
 	{
-		if ( driverVolumeWriter == null )
-		{
-			IOFunctions.println( "Creating " + storageType + " container '" + path + "' (assuming it doesn't already exist) ... " );
+		return exportImages( Arrays.asList( imgInterval ), bb, downsampling, anisoF, Arrays.asList( title ), Arrays.asList( fusionGroup ) );
+	}
 
-			try
-			{
-				if ( storageType == StorageType.N5 )
-					driverVolumeWriter = new N5FSWriter(path);
-				else if ( storageType == StorageType.ZARR )
-					driverVolumeWriter = new N5ZarrWriter(path);
-				else if ( storageType == StorageType.HDF5 )
-				{
-					final File dir = new File( path ).getParentFile();
-					if ( !dir.exists() )
-						dir.mkdirs();
-					driverVolumeWriter = new N5HDF5Writer(path);
-				}
-				else
-					throw new RuntimeException( "storageType " + storageType + " not supported." );
-			}
-			catch ( Exception e )
-			{
-				IOFunctions.println( "Couldn't create " + storageType + " container '" + path + "': " + e );
-				return false;
-			}
-		}
+	/**
+	 * Exports several images of identical size (e.g. the channels of a multi-channel fusion) into separate datasets.
+	 * The full resolution data is written block-interleaved, i.e. the same block of all images is saved one after another,
+	 * so lazily computed images that compute all of them together (see LazyMultiChannelAffineFusion) only compute each block once.
+	 *
+	 * @param imgIntervals - the images
+	 * @param bb - the bounding box
+	 * @param downsampling - the downsampling
+	 * @param anisoF - the anisotropy factor
+	 * @param titles - one title per image
+	 * @param fusionGroups - one fusion group per image
+	 * @param <T> pixel type
+	 * @return true if successful
+	 */
+	public <T extends RealType<T> & NativeType<T>> boolean exportImages(
+			final List<RandomAccessibleInterval<T>> imgIntervals,
+			final Interval bb,
+			final double downsampling,
+			final double anisoF,
+			final List<String> titles,
+			final List<? extends Group<? extends ViewId>> fusionGroups)
+	{
+		if ( !openContainer() )
+			return false;
 
-		final T type = Views.iterable( imgInterval ).firstElement().createVariable();
+		final T type = Views.iterable( imgIntervals.get( 0 ) ).firstElement().createVariable();
 		final DataType dataType;
 
 		if ( UnsignedByteType.class.isInstance( type ) )
@@ -207,87 +238,131 @@ public class ExportN5API implements ImgExport
 		else
 			throw new RuntimeException( "dataType " + type.getClass().getSimpleName() + " not supported." );
 
-		final RandomAccessibleInterval< T > img = Views.zeroMin( imgInterval );
+		final List< RandomAccessibleInterval< T > > imgs = new ArrayList<>();
+		final List< String > datasets = new ArrayList<>();
 
-		final String dataset;
-		final ViewId viewId;
+		// per image the block fingerprints (null if unknown) and which blocks need to be written (null if all, new dataset)
+		final long[] gridDim = BlockFingerprints.gridDimensions( bb.dimensionsAsLongArray(), blocksize() );
+		final List< long[] > allFingerprints = new ArrayList<>();
+		final List< boolean[] > changed = new ArrayList<>();
 
-		//
-		// define dataset name
-		//
-		if ( !bdv )
-		{
-			viewId = null;
-			dataset = new File( new File( baseDataset , title ).toString(), datasetExtension ).toString();
-		}
-		else
+		for ( int i = 0; i < imgIntervals.size(); ++i )
 		{
-			if ( manuallyAssignViewId )
-				viewId = new ViewId( tpId, vsId );
+			imgs.add( Views.zeroMin( imgIntervals.get( i ) ) );
+	
+			final String dataset;
+			final ViewId viewId;
+
+			//
+			// define dataset name
+			//
+			if ( !bdv )
+			{
+				viewId = null;
+				dataset = new File( new File( baseDataset , titles.get( i ) ).toString(), datasetExtension ).toString();
+			}
 			else
-				viewId = getViewIdForGroup( fusionGroup, splittingType );
+			{
+				if ( manuallyAssignViewId )
+					viewId = new ViewId( tpId, vsId );
+				else
+					viewId = getAssignedViewId( fusionGroups.get( i ) );
 
-			IOFunctions.println( "Assigning ViewId " + Group.pvid( viewId ) );
+				IOFunctions.println( "Assigning ViewId " + Group.pvid( viewId ) );
 
-			dataset = ExportTools.createBDVPath( viewId, this.storageType );
-		}
+				dataset = ExportTools.createBDVPath( viewId, this.storageType );
+			}
 
-		//
-		// create dataset
-		//
-		if ( driverVolumeWriter.exists( dataset ) )
-		{
-			IOFunctions.println( "Dataset '" + dataset + "' exists. STOPPING!" );
-			return false;
-		}
+			//
+			// create dataset
+			//
+			final long[] fingerprints = computeFingerprints( fusionGroups == null ? null : fusionGroups.get( i ), bb, downsampling, anisoF );
+			final boolean update = driverVolumeWriter.exists( dataset );
 
-		IOFunctions.println( "Creating dataset '" + dataset + "' ... " );
+			if ( update && !( updateExisting && isCompatible( dataset, bb, dataType ) ) )
+			{
+				IOFunctions.println( "Dataset '" + dataset + "' exists" + ( updateExisting ? " but has a different size, block size or data type" : "" ) + ". STOPPING!" );
+				return false;
+			}
+			else if ( update )
+			{
+				final long[] previous = BlockFingerprints.load( driverVolumeWriter, dataset, gridDim );
 
-		try
-		{
-			driverVolumeWriter.createDataset(
-					dataset,
-					bb.dimensionsAsLongArray(),
-					blocksize(),
-					dataType,
-					compression );
-
-			driverVolumeWriter.setAttribute( dataset, "offset", bb.minAsLongArray() );
-		}
-		catch ( Exception e )
-		{
-			IOFunctions.println( "Couldn't create " + storageType + " container '" + path + "': " + e );
-			return false;
-		}
+				// without fingerprints nothing is known about the existing blocks
+				final boolean[] changedBlocks =
+						fingerprints == null ? BlockFingerprints.changedBlocks( null, new long[ (int)Intervals.numElements( gridDim ) ] ) : BlockFingerprints.changedBlocks( previous, fingerprints );
+
+				IOFunctions.println( "Updating dataset '" + dataset + "', " + BlockFingerprints.count( changedBlocks ) + " of " + changedBlocks.length + " blocks changed." );
+
+				// if the update is interrupted, the fingerprints must not claim the old blocks are still valid
+				BlockFingerprints.invalidate( driverVolumeWriter, dataset, gridDim, changedBlocks );
+
+				datasets.add( dataset );
+				allFingerprints.add( fingerprints );
+				changed.add( changedBlocks );
+
+				continue;
+			}
+
+			IOFunctions.println( "Creating dataset '" + dataset + "' ... " );
 
-		//
-		// write bdv-metadata into dataset
-		//
-		if ( bdv )
-		{
 			try
 			{
-				// TODO: the first time the XML does not exist, thus instantiate is not called
-				if ( !ExportTools.writeBDVMetaData(
-						driverVolumeWriter,
-						storageType,
-						dataType,
+				driverVolumeWriter.createDataset(
+						dataset,
 						bb.dimensionsAsLongArray(),
-						compression,
 						blocksize(),
-						this.downsampling,
-						viewId,
-						path,
-						xmlOut,
-						instantiate ) )
-					return false;
+						dataType,
+						compression );
+
+				if ( shardSize != null )
+					((N5ShardedFSWriter)driverVolumeWriter).setShardSize( dataset, shardSize );
+
+				driverVolumeWriter.setAttribute( dataset, "offset", bb.minAsLongArray() );
 			}
-			catch (SpimDataException | IOException e)
+			catch ( Exception e )
 			{
-				e.printStackTrace();
-				IOFunctions.println( "Failed to write metadata for '" + dataset + "': " + e );
+				IOFunctions.println( "Couldn't create " + storageType + " container '" + path + "': " + e );
 				return false;
 			}
+
+			//
+			// write bdv-metadata into dataset
+			//
+			if ( bdv )
+			{
+				try
+				{
+					// TODO: the first time the XML does not exist, thus instantiate is not called
+					// the XML is shared by all exports, so concurrent exports must not write it at the same time
+					synchronized ( this )
+					{
+						if ( !ExportTools.writeBDVMetaData(
+								driverVolumeWriter,
+								storageType,
+								dataType,
+								bb.dimensionsAsLongArray(),
+								compression,
+								blocksize(),
+								this.downsampling,
+								viewId,
+								path,
+								xmlOut,
+								instantiate ) )
+							return false;
+					}
+				}
+				catch (SpimDataException | IOException e)
+				{
+					e.printStackTrace();
+					IOFunctions.println( "Failed to write metadata for '" + dataset + "': " + e );
+					return false;
+				}
+			}
+
+			datasets.add( dataset );
+			allFingerprints.add( fingerprints );
+			changed.add( null );
 		}
 
 		//
@@ -298,8 +373,8 @@ public class ExportN5API implements ImgExport
 						bb.dimensionsAsLongArray(),
 						new int[] {
 								blocksize()[0] * computeBlocksizeFactor()[ 0 ],
-								blocksize()[1] * computeBlocksizeFactor()[ 0 ],
-								blocksize()[2] * computeBlocksizeFactor()[ 0 ]
+								blocksize()[1] * computeBlocksizeFactor()[ 1 ],
+								blocksize()[2] * computeBlocksizeFactor()[ 2 ]
 						},
 						blocksize() );
 
@@ -307,12 +382,14 @@ public class ExportN5API implements ImgExport
 		IOFunctions.println( "num compute blocks = " + grid.size() + ", size = " + bsX*bsFactorX + "x" + bsY*bsFactorY + "x" + bsZ*bsFactorZ );
 
 		long time = System.currentTimeMillis();
-		final ExecutorService ex = DeconViews.createExecutorService();
+
+		final T zero = type.createVariable();
+		zero.setZero();
 
 		//
 		// save full-resolution data (s0)
 		//
-		ex.submit(() ->
+		if ( !runAndWait( () ->
 			grid.parallelStream().forEach(
 					gridBlock -> {
 						try {
@@ -322,10 +399,25 @@ public class ExportN5API implements ImgExport
 											new FinalInterval( gridBlock[1] ), // blocksize
 											gridBlock[0] ); // block offset
 	
-							final RandomAccessibleInterval< T > source = Views.interval( img, block );
-	
-							final RandomAccessibleInterval sourceGridBlock = Views.offsetInterval(source, gridBlock[0], gridBlock[1]);
-							N5Utils.saveBlock(sourceGridBlock, driverVolumeWriter, dataset, gridBlock[2]);
+							// the same block of all images one after another
+							for ( int i = 0; i < imgs.size(); ++i )
+							{
+								if ( changed.get( i ) != null && !BlockFingerprints.anyChanged( changed.get( i ), gridDim, gridBlock, blocksize() ) )
+									continue;
+
+								final RandomAccessibleInterval< T > source = Views.interval( imgs.get( i ), block );
+
+								final RandomAccessibleInterval sourceGridBlock = Views.offsetInterval(source, gridBlock[0], gridBlock[1]);
+
+								// includes computing the (lazy) block, chunks that are entirely zero (e.g. outside the sample)
+								// are not written at all since all N5 backends return the fill value (0) for missing chunks
+								try ( final Timer.Context t = Metrics.time( Stage.WRITE, datasets.get( i ) ) )
+								{
+									saveBlock( sourceGridBlock, datasets.get( i ), gridBlock[2], zero, changed.get( i ) != null );
+								}
+
+								Metrics.count( Stage.WRITE, "blocks", datasets.get( i ), 1 );
+							}
 						}
 						catch (Exception e) 
 						{
@@ -333,19 +425,8 @@ public class ExportN5API implements ImgExport
 							e.printStackTrace();
 						}
 					} )
-			);
-
-		try
-		{
-			ex.shutdown();
-			ex.awaitTermination( Long.MAX_VALUE, TimeUnit.HOURS);
-		}
-		catch (InterruptedException e)
-		{
-			IOFunctions.println( "Failed to write HDF5/N5/ZARR. Error: " + e );
-			e.printStackTrace();
+			) )
 			return false;
-		}
 
 		//System.out.println( "Saved, e.g. view with './n5-view -i " + n5Path + " -d " + n5Dataset );
 		IOFunctions.println( "Saved full resolution, took: " + (System.currentTimeMillis() - time ) + " ms." );
@@ -353,11 +434,35 @@ public class ExportN5API implements ImgExport
 		//
 		// save multiresolution pyramid (s1 ... sN)
 		//
+		for ( int i = 0; i < datasets.size(); ++i )
+		{
+			if ( !saveMultiResolutionPyramid( datasets.get( i ), bb, dataType, changed.get( i ) ) )
+				return false;
+
+			// only once everything is written, so an interrupted export is never mistaken as up-to-date
+			if ( allFingerprints.get( i ) != null )
+				BlockFingerprints.save( driverVolumeWriter, datasets.get( i ), allFingerprints.get( i ), gridDim, changed.get( i ) );
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param dataset - the full resolution dataset
+	 * @param bb - the bounding box
+	 * @param dataType - the data type
+	 * @param changed - the changed full resolution blocks if an existing dataset is updated, null for a new dataset
+	 * @return true if successful
+	 */
+	protected boolean saveMultiResolutionPyramid( final String dataset, final Interval bb, final DataType dataType, final boolean[] changed )
+	{
+		long time;
 
 		if ( this.downsampling != null )
 		{
 			long[] previousDim = bb.dimensionsAsLongArray();
 			String previousDataset = dataset;
+			boolean[] previousChanged = changed;
 
 			for ( int level = 1; level < this.downsampling.length; ++level )
 			{
@@ -375,14 +480,25 @@ public class ExportN5API implements ImgExport
 				final String datasetDownsampling =
 						bdv ? ExportTools.createDownsampledBDVPath(dataset, level, storageType) : dataset.substring(0, dataset.length() - 3) + "/s" + level;
 
+				// the changed blocks of this level are the ones that contain changed blocks of the previous level
+				final long[] gridDimDS = BlockFingerprints.gridDimensions( dim, blocksize() );
+				final boolean[] changedDS =
+						changed == null ? null : BlockFingerprints.downsampleChanged( previousChanged, BlockFingerprints.gridDimensions( previousDim, blocksize() ), ds, gridDimDS );
+
 				try
 				{
-					driverVolumeWriter.createDataset(
-							datasetDownsampling,
-							dim, // dimensions
-							blocksize(),
-							dataType,
-							compression );
+					if ( changed == null || !driverVolumeWriter.exists( datasetDownsampling ) )
+					{
+						driverVolumeWriter.createDataset(
+								datasetDownsampling,
+								dim, // dimensions
+								blocksize(),
+								dataType,
+								compression );
+
+						if ( shardSize != null )
+							((N5ShardedFSWriter)driverVolumeWriter).setShardSize( datasetDownsampling, shardSize );
+					}
 				}
 				catch ( Exception e )
 				{
@@ -390,77 +506,84 @@ public class ExportN5API implements ImgExport
 					return false;
 				}
 
+				// when sharded, each compute block is one shard so every shard file is written by a single thread
+				final int[] shards = shardSize == null ? new int[] { 1, 1, 1 } : shardSize;
+
 				final List<long[][]> gridDS = Grid.create(
 						dim,
 						new int[] {
-								blocksize()[0],
-								blocksize()[1],
-								blocksize()[2]
+								blocksize()[0] * shards[ 0 ],
+								blocksize()[1] * shards[ 1 ],
+								blocksize()[2] * shards[ 2 ]
 						},
 						blocksize());
 
 				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": s" + level + " num blocks=" + gridDS.size() );
 
 				final String datasetPrev = previousDataset;
-				final ExecutorService e = DeconViews.createExecutorService();
+
+				// all dimensions are downsampled at once, each output block reads its input neighborhood only once
+				final boolean[] downsampleInDim = new boolean[ ds.length ];
+				for ( int d = 0; d < ds.length; ++d )
+					downsampleInDim[ d ] = ds[ d ] > 1;
 
 				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Loading '" + datasetPrev + "', downsampled will be written as '" + datasetDownsampling + "'." );
 
 				time = System.currentTimeMillis();
 
-				e.submit(() ->
+				if ( !runAndWait( () ->
 					gridDS.parallelStream().forEach(
 							gridBlock ->
 							{
+								if ( changedDS != null && !BlockFingerprints.anyChanged( changedDS, gridDimDS, gridBlock, blocksize() ) )
+									return;
+
 								try
 								{
 									if ( dataType == DataType.UINT16 )
 									{
 										RandomAccessibleInterval<UnsignedShortType> downsampled = N5Utils.open(driverVolumeWriter, datasetPrev);
 
-										for ( int d = 0; d < downsampled.numDimensions(); ++d )
-											if ( ds[ d ] > 1 )
-												downsampled = LazyHalfPixelDownsample2x.init(
-													downsampled,
-													new FinalInterval( downsampled ),
-													new UnsignedShortType(),
-													blocksize(),
-													d);
+										downsampled = LazyFusedDownsample2x.init(
+												downsampled,
+												new FinalInterval( downsampled ),
+												new UnsignedShortType(),
+												blocksize(),
+												downsampleInDim,
+												Kernel.HALF_PIXEL );
 
 										final RandomAccessibleInterval<UnsignedShortType> sourceGridBlock = Views.offsetInterval(downsampled, gridBlock[0], gridBlock[1]);
-										N5Utils.saveNonEmptyBlock(sourceGridBlock, driverVolumeWriter, datasetDownsampling, gridBlock[2], new UnsignedShortType());
+										saveBlock( sourceGridBlock, datasetDownsampling, gridBlock[2], new UnsignedShortType(), changedDS != null );
 									}
 									else if ( dataType == DataType.UINT8 )
 									{
 										RandomAccessibleInterval<UnsignedByteType> downsampled = N5Utils.open(driverVolumeWriter, datasetPrev);
 
-										for ( int d = 0; d < downsampled.numDimensions(); ++d )
-											if ( ds[ d ] > 1 )
-												downsampled = LazyHalfPixelDownsample2x.init(
-													downsampled,
-													new FinalInterval( downsampled ),
-													new UnsignedByteType(),
-													blocksize(),
-													d);
+										downsampled = LazyFusedDownsample2x.init(
+												downsampled,
+												new FinalInterval( downsampled ),
+												new UnsignedByteType(),
+												blocksize(),
+												downsampleInDim,
+												Kernel.HALF_PIXEL );
 
 										final RandomAccessibleInterval<UnsignedByteType> sourceGridBlock = Views.offsetInterval(downsampled, gridBlock[0], gridBlock[1]);
-										N5Utils.saveNonEmptyBlock(sourceGridBlock, driverVolumeWriter, datasetDownsampling, gridBlock[2], new UnsignedByteType());
+										saveBlock( sourceGridBlock, datasetDownsampling, gridBlock[2], new UnsignedByteType(), changedDS != null );
 									}
 									else if ( dataType == DataType.FLOAT32 )
 									{
 										RandomAccessibleInterval<FloatType> downsampled = N5Utils.open(driverVolumeWriter, datasetPrev);
 
-										for ( int d = 0; d < downsampled.numDimensions(); ++d )
-											if ( ds[ d ] > 1 )
-												downsampled = LazyHalfPixelDownsample2x.init(
-													downsampled,
-													new FinalInterval( downsampled ),
-													new FloatType(),
-													blocksize(),
-													d);
+										downsampled = LazyFusedDownsample2x.init(
+												downsampled,
+												new FinalInterval( downsampled ),
+												new FloatType(),
+												blocksize(),
+												downsampleInDim,
+												Kernel.HALF_PIXEL );
 
 										final RandomAccessibleInterval<FloatType> sourceGridBlock = Views.offsetInterval(downsampled, gridBlock[0], gridBlock[1]);
-										N5Utils.saveNonEmptyBlock(sourceGridBlock, driverVolumeWriter, datasetDownsampling, gridBlock[2], new FloatType());
+										saveBlock( sourceGridBlock, datasetDownsampling, gridBlock[2], new FloatType(), changedDS != null );
 									}
 									// this can be removed because of: https://github.com/bigdataviewer/bigdataviewer-core/pull/157
 									/*
@@ -476,14 +599,13 @@ public class ExportN5API implements ImgExport
 														(i,o)->o.set( i.getShort() ),
 														new UnsignedShortType());
 
-										for ( int d = 0; d < downsampled.numDimensions(); ++d )
-											if ( ds[ d ] > 1 )
-												downsampled = LazyHalfPixelDownsample2x.init(
-													downsampled,
-													new FinalInterval( downsampled ),
-													new UnsignedShortType(),
-													blocksize(),
-													d);
+										downsampled = LazyFusedDownsample2x.init(
+												downsampled,
+												new FinalInterval( downsampled ),
+												new UnsignedShortType(),
+												blocksize(),
+												downsampleInDim,
+												Kernel.HALF_PIXEL );
 
 										final RandomAccessibleInterval<ShortType> sourceGridBlock =
 												Converters.convertRAI( Views.offsetInterval(downsampled, gridBlock[0], gridBlock[1]), (i,o)->o.set( i.getShort() ), new ShortType() );
@@ -501,34 +623,211 @@ public class ExportN5API implements ImgExport
 									exc.printStackTrace();
 								}
 							} )
-					);
-
-				try
-				{
-					e.shutdown();
-					e.awaitTermination( Long.MAX_VALUE, TimeUnit.HOURS);
-				}
-				catch (InterruptedException exc)
-				{
-					IOFunctions.println( "Failed to write HDF5/N5/ZARR. Error: " + exc );
-					exc.printStackTrace();
+					) )
 					return false;
-				}
 
 				IOFunctions.println( "Saved level s " + level + ", took: " + (System.currentTimeMillis() - time ) + " ms." );
 
 				// for next downsampling level
 				previousDim = dim.clone();
 				previousDataset = datasetDownsampling;
+				previousChanged = changedDS;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Saves one block. New datasets skip blocks that are entirely zero, updated datasets always write them
+	 * since they might overwrite a block that contained data before.
+	 *
+	 * @param block - the block
+	 * @param dataset - the dataset
+	 * @param gridPosition - the position in the block grid
+	 * @param zero - zero of the pixel type
+	 * @param overwrite - if an existing dataset is updated
+	 * @param <T> pixel type
+	 */
+	protected < T extends NativeType< T > > void saveBlock(
+			final RandomAccessibleInterval< T > block,
+			final String dataset,
+			final long[] gridPosition,
+			final T zero,
+			final boolean overwrite )
+	{
+		if ( overwrite )
+			N5Utils.saveBlock( block, driverVolumeWriter, dataset, gridPosition );
+		else
+			N5Utils.saveNonEmptyBlock( block, driverVolumeWriter, dataset, gridPosition, zero );
+	}
+
+	/**
+	 * @param dataset - an existing dataset
+	 * @param bb - the bounding box of the new export
+	 * @param dataType - the data type of the new export
+	 * @return if the new export can be written into the existing dataset
+	 */
+	protected boolean isCompatible( final String dataset, final Interval bb, final DataType dataType )
+	{
+		try
+		{
+			final DatasetAttributes attributes = driverVolumeWriter.getDatasetAttributes( dataset );
+
+			return attributes != null &&
+					Arrays.equals( attributes.getDimensions(), bb.dimensionsAsLongArray() ) &&
+					Arrays.equals( attributes.getBlockSize(), blocksize() ) &&
+					attributes.getDataType() == dataType;
+		}
+		catch ( Exception e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Fingerprints are only known for plain (affine) fusions run from the fusion dialog.
+	 *
+	 * @param fusionGroup - the views fused into one image
+	 * @param bb - the bounding box
+	 * @param downsampling - the downsampling
+	 * @param anisoF - the anisotropy factor
+	 * @return the block fingerprints, or null if they cannot be determined
+	 */
+	protected long[] computeFingerprints( final Group< ? extends ViewId > fusionGroup, final Interval bb, final double downsampling, final double anisoF )
+	{
+		if ( fusionGroup == null || !FusionGUI.class.isInstance( fusion ) )
+			return null;
+
+		final FusionGUI fusionGUI = (FusionGUI)fusion;
+
+		if ( fusionGUI.getNonRigidParameters().isActive() )
+			return null;
+
+		final String parameters =
+				"pixelType=" + fusionGUI.getPixelType() + ", min=" + fusionGUI.minIntensity() + ", max=" + fusionGUI.maxIntensity() +
+				", interpolation=" + fusionGUI.getInterpolation() + ", blending=" + fusionGUI.useBlending() + ", contentBased=" + fusionGUI.useContentBased() +
+				", blendingRange=" + FusionTools.defaultBlendingRange + ", blendingBorder=" + FusionTools.defaultBlendingBorder +
+				", adjustIntensities=" + fusionGUI.adjustIntensities() + ", downsampling=" + downsampling + ", anisotropy=" + anisoF +
+				", bb=" + Util.printInterval( bb ) + ", pyramid=" + Arrays.deepToString( this.downsampling );
+
+		return BlockFingerprints.compute(
+				fusionGUI.getSpimData(),
+				fusionGroup.getViews(),
+				bb,
+				downsampling,
+				anisoF,
+				blocksize(),
+				fusionGUI.adjustIntensities(),
+				parameters );
+	}
+
+	/**
+	 * Creates the container on first use, synchronized since several images might be exported concurrently.
+	 *
+	 * @return true if the container exists or could be created
+	 */
+	protected synchronized boolean openContainer()
+	{
+		if ( driverVolumeWriter == null )
+		{
+			IOFunctions.println( "Creating " + storageType + " container '" + path + "' (assuming it doesn't already exist) ... " );
+
+			try
+			{
+				if ( storageType == StorageType.N5 && shardSize != null )
+					driverVolumeWriter = new N5ShardedFSWriter(path);
+				else if ( storageType == StorageType.N5 )
+					driverVolumeWriter = new N5FSWriter(path);
+				else if ( storageType == StorageType.ZARR )
+					driverVolumeWriter = new N5ZarrWriter(path);
+				else if ( storageType == StorageType.HDF5 )
+				{
+					final File dir = new File( path ).getParentFile();
+					if ( !dir.exists() )
+						dir.mkdirs();
+					driverVolumeWriter = new N5HDF5Writer(path);
+				}
+				else
+					throw new RuntimeException( "storageType " + storageType + " not supported." );
+			}
+			catch ( Exception e )
+			{
+				IOFunctions.println( "Couldn't create " + storageType + " container '" + path + "': " + e );
+				return false;
 			}
 		}
 
 		return true;
 	}
 
+	/**
+	 * Runs a block-parallel task (a parallel stream) either on the shared worker pool or, if there is none,
+	 * on a new pool, and waits until it is finished.
+	 *
+	 * @param task - the task
+	 * @return true if successful
+	 */
+	protected boolean runAndWait( final Runnable task )
+	{
+		try
+		{
+			if ( workerPool != null )
+			{
+				// a parallel stream started from inside a ForkJoinPool runs on that pool
+				workerPool.submit( task ).get();
+			}
+			else
+			{
+				final ExecutorService ex = DeconViews.createExecutorService();
+				ex.submit( task );
+				ex.shutdown();
+				ex.awaitTermination( Long.MAX_VALUE, TimeUnit.HOURS);
+			}
+
+			return true;
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			IOFunctions.println( "Failed to write HDF5/N5/ZARR. Error: " + e );
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	@Override
+	public void setWorkerPool( final ForkJoinPool pool ) { this.workerPool = pool; }
+
+	@Override
+	public ForkJoinPool getWorkerPool() { return workerPool; }
+
+	@Override
+	public synchronized void assignOutputIds( final List< ? extends Group< ? extends ViewId > > fusionGroups )
+	{
+		if ( !bdv || manuallyAssignViewId )
+			return;
+
+		for ( final Group< ? extends ViewId > group : fusionGroups )
+			if ( !assignedViewIds.containsKey( group ) )
+				assignedViewIds.put( group, getViewIdForGroup( group, splittingType ) );
+	}
+
+	/**
+	 * @param group - the fusion group
+	 * @return the ViewId assigned by assignOutputIds(), or the next free one if the group was not assigned before
+	 */
+	private synchronized ViewId getAssignedViewId( final Group< ? extends ViewId > group )
+	{
+		final ViewId viewId = assignedViewIds.get( group );
+
+		return viewId != null ? viewId : getViewIdForGroup( group, splittingType );
+	}
+
 	@Override
 	public boolean queryParameters( final FusionExportInterface fusion)
 	{
+		this.fusion = fusion;
+
 		//
 		// Initial dialog
 		//
@@ -547,7 +846,7 @@ public class ExportN5API implements ImgExport
 		gdInit.addMessage(
 				"Note: you can always add new datasets to an existing HDF5/N5/ZARR container, so you can specify\n"
 				+ "existing N5/ZARR-directories or HDF5-files. If a dataset inside a container already exists\n"
-				+ "export will stop and NOT overwrite existing datasets.", GUIHelper.smallStatusFont, GUIHelper.neutral );
+				+ "export will stop and NOT overwrite existing datasets (unless you choose to update them).", GUIHelper.smallStatusFont, GUIHelper.neutral );
 
 		gdInit.addCheckbox( "Create a BDV/BigStitcher compatible export (HDF5/N5 are supported)", defaultBDV );
 
@@ -697,6 +996,10 @@ public class ExportN5API implements ImgExport
 					" (factor: "+defaultBlocksizeFactorX_N5+"x"+defaultBlocksizeFactorY_N5+"x"+defaultBlocksizeFactorZ_N5+")", GUIHelper.mediumstatusNonItalicfont, GUIHelper.neutral );
 		}
 
+		gd.addChoice( "Compression", compressionOptions, compressionOptions[ defaultCompression ] );
+		gd.addMessage( "Note: ZARR supports Raw, Gzip & Bzip2; HDF5 supports Raw & Gzip.", GUIHelper.smallStatusFont, GUIHelper.neutral );
+		gd.addCheckbox( "Group_chunks_into_shard_files (N5 without BDV only, one shard per compute block)", defaultSharding );
+		gd.addCheckbox( "Update_existing_datasets (re-fuse only blocks affected by changed registrations)", defaultUpdateExisting );
 		gd.addCheckbox( "Show_advanced_block_size_options (in a new dialog, current values above)", defaultAdvancedBlockSize );
 
 		gd.showDialog();
@@ -727,6 +1030,19 @@ public class ExportN5API implements ImgExport
 			this.datasetExtension = defaultDatasetExtension = gd.getNextString().trim();
 		}
 
+		this.compression = createCompression( defaultCompression = gd.getNextChoiceIndex() );
+
+		// ZARR only knows raw, gzip, bzip2 (and blosc), HDF5 only raw and gzip (deflate)
+		if ( ( storageType == StorageType.ZARR && ( defaultCompression == 1 || defaultCompression == 3 ) ) ||
+			 ( storageType == StorageType.HDF5 && defaultCompression != 0 && defaultCompression != 2 ) )
+		{
+			IOFunctions.println( compressionOptions[ defaultCompression ] + " is not supported by " + storageType + ", using " + compressionOptions[ 2 ] + " instead." );
+			this.compression = createCompression( 2 );
+		}
+
+		final boolean sharding = defaultSharding = gd.getNextBoolean();
+		this.updateExisting = defaultUpdateExisting = gd.getNextBoolean();
+
 		if ( defaultAdvancedBlockSize = gd.getNextBoolean() )
 		{
 			final GenericDialog gd2 = new GenericDialog( "Compute block sizes" );
@@ -782,6 +1098,31 @@ public class ExportN5API implements ImgExport
 			}
 		}
 
+		if ( sharding )
+		{
+			if ( storageType != StorageType.N5 || bdv )
+			{
+				IOFunctions.println( "Sharding is only supported for N5 exports that are not BDV/BigStitcher compatible (BDV cannot read shards). Stopping." );
+				return false;
+			}
+
+			// compute blocks are shards, without compute block factors use the default shard size
+			if ( bsFactorX == 1 && bsFactorY == 1 && bsFactorZ == 1 )
+			{
+				bsFactorX = defaultShardSize[ 0 ];
+				bsFactorY = defaultShardSize[ 1 ];
+				bsFactorZ = defaultShardSize[ 2 ];
+			}
+
+			this.shardSize = new int[] { bsFactorX, bsFactorY, bsFactorZ };
+
+			IOFunctions.println( "Grouping " + bsFactorX + "x" + bsFactorY + "x" + bsFactorZ + " chunks into one shard file." );
+		}
+		else
+		{
+			this.shardSize = null;
+		}
+
 		if ( multiRes )
 		{
 			if ( !bdv && !this.datasetExtension.endsWith("/s0") )
@@ -826,7 +1167,7 @@ public class ExportN5API implements ImgExport
 		return true;
 	}
 
-	private ViewId getViewIdForGroup(
+	private synchronized ViewId getViewIdForGroup(
 			final Group< ? extends ViewId > group,
 			final int splittingType )
 	{
@@ -865,4 +1206,22 @@ public class ExportN5API implements ImgExport
 
 		return new ViewId(tpId, vsId);
 	}
+
+	/**
+	 * @param index - index into {@link #compressionOptions}
+	 * @return the corresponding N5 compression
+	 */
+	public static Compression createCompression( final int index )
+	{
+		if ( index == 0 ) // "Raw (no compression)", "Lz4", "Gzip (level 1)", "Xz", "Bzip2"
+			return new RawCompression();
+		else if ( index == 1 )
+			return new Lz4Compression();
+		else if ( index == 3 )
+			return new XzCompression();
+		else if ( index == 4 )
+			return new Bzip2Compression();
+		else
+			return new GzipCompression( 1 );
+	}
 }
@@ -0,0 +1,404 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+
+/**
+ * An N5 filesystem writer (and reader) that groups the chunks of a dataset into shard files. Each shard holds
+ * shardSize[0] x shardSize[1] x ... chunks, which reduces the number of files (and therefore metadata operations
+ * on parallel filesystems) by that factor.
+ *
+ * A shard file starts with an index of (offset, length) pairs, one per chunk, followed by the compressed chunks
+ * in the order they were written. Reading a chunk requires one read of the index entry and one read of the data,
+ * missing chunks have an offset of -1. Writing a chunk appends it and updates its index entry, locked within the
+ * JVM and across processes (reading takes a shared lock, so it never sees a partially written chunk).
+ *
+ * A re-written chunk replaces its previous data in place if it fits (or if it is the last chunk of the shard),
+ * otherwise it is appended and the previous data becomes unreferenced. Once the unreferenced data of a shard
+ * exceeds the referenced data, the shard is compacted, so it is never larger than about twice its content.
+ *
+ * Datasets without the shard attribute are read and written as regular N5 datasets. Note that sharded datasets
+ * can only be read by this class (e.g. using N5Utils.open( new N5ShardedFSWriter( path ), dataset )).
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class N5ShardedFSWriter extends N5FSWriter
+{
+	final public static String shardSizeKey = "shardSize";
+	final public static String shardDirectory = "shards";
+
+	final private static int[] notSharded = new int[ 0 ];
+	final private static Object[] locks = new Object[ 1024 ];
+
+	static
+	{
+		for ( int i = 0; i < locks.length; ++i )
+			locks[ i ] = new Object();
+	}
+
+	final String basePath;
+	final ConcurrentHashMap< String, int[] > shardSizes = new ConcurrentHashMap<>();
+
+	public N5ShardedFSWriter( final String basePath )
+	{
+		super( basePath );
+
+		this.basePath = basePath;
+	}
+
+	/**
+	 * Defines that the chunks of an existing dataset are stored in shards, must be called before any chunk is written.
+	 *
+	 * @param pathName - the dataset
+	 * @param shardSize - number of chunks per shard in each dimension
+	 */
+	public void setShardSize( final String pathName, final int[] shardSize )
+	{
+		setAttribute( pathName, shardSizeKey, shardSize );
+		shardSizes.put( pathName, shardSize.clone() );
+	}
+
+	/**
+	 * @param pathName - the dataset
+	 * @return number of chunks per shard in each dimension, or null if the dataset is not sharded
+	 */
+	public int[] getShardSize( final String pathName )
+	{
+		final int[] shardSize = shardSizes.computeIfAbsent( pathName, p -> {
+			final int[] s = getAttribute( p, shardSizeKey, int[].class );
+			return s == null ? notSharded : s;
+		} );
+
+		return shardSize.length == 0 ? null : shardSize;
+	}
+
+	@Override
+	public < T > void writeBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final DataBlock< T > dataBlock ) throws N5Exception
+	{
+		final int[] shardSize = getShardSize( pathName );
+
+		if ( shardSize == null )
+		{
+			super.writeBlock( pathName, datasetAttributes, dataBlock );
+			return;
+		}
+
+		try
+		{
+			// serialize & compress outside of the lock
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DefaultBlockWriter.writeBlock( out, datasetAttributes, dataBlock );
+			final byte[] data = out.toByteArray();
+			Metrics.count( Stage.WRITE, "bytes", pathName, data.length );
+
+			final Path shard = shardPath( pathName, dataBlock.getGridPosition(), shardSize );
+			final long indexPosition = indexPosition( dataBlock.getGridPosition(), shardSize );
+
+			synchronized ( lock( shard ) )
+			{
+				Files.createDirectories( shard.getParent() );
+
+				try ( final FileChannel channel = FileChannel.open( shard, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+					  final FileLock fileLock = channel.lock() )
+				{
+					final long indexSize = numChunks( shardSize ) * 16;
+
+					if ( channel.size() < indexSize )
+						initIndex( channel, indexSize );
+
+					final ByteBuffer entry = ByteBuffer.allocate( 16 );
+					readFully( channel, entry, indexPosition );
+
+					final long oldOffset = entry.getLong();
+					final long oldLength = entry.getLong();
+					final long size = channel.size();
+					final boolean isLast = oldOffset >= 0 && oldOffset + oldLength == size;
+
+					// re-use the space of the previous version of the chunk if possible
+					final long offset = oldOffset >= 0 && ( data.length <= oldLength || isLast ) ? oldOffset : size;
+
+					writeFully( channel, ByteBuffer.wrap( data ), offset );
+
+					entry.clear();
+					entry.putLong( offset ).putLong( data.length ).flip();
+					writeFully( channel, entry, indexPosition );
+
+					if ( isLast && offset == oldOffset && data.length < oldLength )
+						channel.truncate( offset + data.length );
+					else if ( oldOffset >= 0 && offset != oldOffset )
+						compactIfNecessary( channel, indexSize );
+				}
+			}
+		}
+		catch ( final IOException e )
+		{
+			throw new N5Exception.N5IOException( "Failed to write chunk " + Arrays.toString( dataBlock.getGridPosition() ) + " into shard of '" + pathName + "'", e );
+		}
+	}
+
+	@Override
+	public DataBlock< ? > readBlock(
+			final String pathName,
+			final DatasetAttributes datasetAttributes,
+			final long... gridPosition ) throws N5Exception
+	{
+		final int[] shardSize = getShardSize( pathName );
+
+		if ( shardSize == null )
+			return super.readBlock( pathName, datasetAttributes, gridPosition );
+
+		final Path shard = shardPath( pathName, gridPosition, shardSize );
+
+		if ( !Files.exists( shard ) )
+			return null;
+
+		try
+		{
+			final ByteBuffer data;
+
+			// a JVM cannot hold overlapping file locks, so reads within the JVM are serialized as well (decompression is not)
+			synchronized ( lock( shard ) )
+			{
+				try ( final FileChannel channel = FileChannel.open( shard, StandardOpenOption.READ );
+					  final FileLock fileLock = channel.lock( 0, Long.MAX_VALUE, true ) )
+				{
+					if ( channel.size() < numChunks( shardSize ) * 16 )
+						return null;
+
+					final ByteBuffer entry = ByteBuffer.allocate( 16 );
+					readFully( channel, entry, indexPosition( gridPosition, shardSize ) );
+
+					final long offset = entry.getLong();
+					final int length = (int)entry.getLong();
+
+					if ( offset < 0 )
+						return null;
+
+					data = ByteBuffer.allocate( length );
+					readFully( channel, data, offset );
+				}
+			}
+
+			return DefaultBlockReader.readBlock( new ByteArrayInputStream( data.array() ), datasetAttributes, gridPosition );
+		}
+		catch ( final IOException e )
+		{
+			throw new N5Exception.N5IOException( "Failed to read chunk " + Arrays.toString( gridPosition ) + " from shard of '" + pathName + "'", e );
+		}
+	}
+
+	@Override
+	public boolean deleteBlock( final String pathName, final long... gridPosition ) throws N5Exception
+	{
+		final int[] shardSize = getShardSize( pathName );
+
+		if ( shardSize == null )
+			return super.deleteBlock( pathName, gridPosition );
+
+		final Path shard = shardPath( pathName, gridPosition, shardSize );
+
+		if ( !Files.exists( shard ) )
+			return true;
+
+		try
+		{
+			synchronized ( lock( shard ) )
+			{
+				try ( final FileChannel channel = FileChannel.open( shard, StandardOpenOption.READ, StandardOpenOption.WRITE );
+					  final FileLock fileLock = channel.lock() )
+				{
+					final long indexSize = numChunks( shardSize ) * 16;
+
+					if ( channel.size() < indexSize )
+						return true;
+
+					final ByteBuffer entry = ByteBuffer.allocate( 16 );
+					entry.putLong( -1 ).putLong( 0 ).flip();
+					writeFully( channel, entry, indexPosition( gridPosition, shardSize ) );
+
+					compactIfNecessary( channel, indexSize );
+				}
+			}
+
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			throw new N5Exception.N5IOException( "Failed to delete chunk " + Arrays.toString( gridPosition ) + " from shard of '" + pathName + "'", e );
+		}
+	}
+
+	protected Path shardPath( final String pathName, final long[] gridPosition, final int[] shardSize )
+	{
+		final String[] shardPosition = new String[ gridPosition.length ];
+
+		for ( int d = 0; d < gridPosition.length; ++d )
+			shardPosition[ d ] = Long.toString( gridPosition[ d ] / shardSize[ d ] );
+
+		return Paths.get( basePath, pathName, shardDirectory ).resolve( Paths.get( "", shardPosition ) );
+	}
+
+	protected static long indexPosition( final long[] gridPosition, final int[] shardSize )
+	{
+		long index = 0;
+
+		for ( int d = gridPosition.length - 1; d >= 0; --d )
+			index = index * shardSize[ d ] + ( gridPosition[ d ] % shardSize[ d ] );
+
+		return index * 16;
+	}
+
+	protected static long numChunks( final int[] shardSize )
+	{
+		long n = 1;
+
+		for ( final int s : shardSize )
+			n *= s;
+
+		return n;
+	}
+
+	protected static void initIndex( final FileChannel channel, final long indexSize ) throws IOException
+	{
+		final ByteBuffer index = ByteBuffer.allocate( (int)indexSize );
+
+		while ( index.hasRemaining() )
+			index.putLong( -1 ).putLong( 0 );
+
+		index.flip();
+		writeFully( channel, index, 0 );
+	}
+
+	/**
+	 * Moves all referenced chunks to the front of the shard (in the order they are stored) and truncates it,
+	 * if the unreferenced data exceeds the referenced data. Must be called while holding the lock of the shard.
+	 *
+	 * @param channel - the shard, open for reading and writing
+	 * @param indexSize - size of the index in bytes
+	 * @throws IOException
+	 */
+	protected static void compactIfNecessary( final FileChannel channel, final long indexSize ) throws IOException
+	{
+		final ByteBuffer index = ByteBuffer.allocate( (int)indexSize );
+		readFully( channel, index, 0 );
+
+		final int numChunks = (int)( indexSize / 16 );
+		final long[] offsets = new long[ numChunks ];
+		final long[] lengths = new long[ numChunks ];
+		final ArrayList< Integer > stored = new ArrayList<>();
+
+		long referenced = 0;
+
+		for ( int i = 0; i < numChunks; ++i )
+		{
+			offsets[ i ] = index.getLong();
+			lengths[ i ] = index.getLong();
+
+			if ( offsets[ i ] >= 0 )
+			{
+				stored.add( i );
+				referenced += lengths[ i ];
+			}
+		}
+
+		final long unreferenced = channel.size() - indexSize - referenced;
+
+		if ( unreferenced <= referenced )
+			return;
+
+		stored.sort( ( a, b ) -> Long.compare( offsets[ a ], offsets[ b ] ) );
+
+		long position = indexSize;
+
+		// chunks only move towards the beginning, i.e. they never overwrite a chunk that was not moved yet
+		for ( final int i : stored )
+		{
+			if ( offsets[ i ] != position )
+			{
+				final ByteBuffer data = ByteBuffer.allocate( (int)lengths[ i ] );
+				readFully( channel, data, offsets[ i ] );
+				writeFully( channel, data, position );
+
+				final ByteBuffer entry = ByteBuffer.allocate( 16 );
+				entry.putLong( position ).putLong( lengths[ i ] ).flip();
+				writeFully( channel, entry, i * 16l );
+			}
+
+			position += lengths[ i ];
+		}
+
+		channel.truncate( position );
+	}
+
+	protected static void readFully( final FileChannel channel, final ByteBuffer buffer, long position ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+		{
+			final int read = channel.read( buffer, position );
+
+			if ( read < 0 )
+				throw new IOException( "Unexpected end of shard file." );
+
+			position += read;
+		}
+
+		buffer.flip();
+	}
+
+	protected static void writeFully( final FileChannel channel, final ByteBuffer buffer, long position ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			position += channel.write( buffer, position );
+	}
+
+	protected static Object lock( final Path shard )
+	{
+		return locks[ Math.floorMod( shard.hashCode(), locks.length ) ];
+	}
+}
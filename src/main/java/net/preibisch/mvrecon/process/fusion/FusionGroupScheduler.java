@@ -0,0 +1,225 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.cache.CacheManager;
+
+/**
+ * Runs several independent fusion jobs (e.g. one per group or timepoint) at the same time. All jobs share one
+ * worker pool for their block-parallel work, so the total number of busy threads stays bounded, and a job is only
+ * started once its estimated memory fits into the global memory budget. The lazily fused images of all jobs share
+ * the global cache ({@link CacheManager}), which is limited to the cache budget while the jobs are running.
+ * Progress and throughput are reported per job.
+ *
+ * @author Stephan Preibisch
+ */
+public class FusionGroupScheduler
+{
+	public static double defaultMemoryFraction = 0.5;
+	public static double defaultCacheFraction = 0.25;
+
+	// memory is accounted in MB so the semaphore does not overflow
+	final static long MB = 1024 * 1024;
+
+	final ForkJoinPool workerPool;
+	final int maxConcurrentGroups;
+	final long memoryBudgetMB, cacheBudget;
+	final Semaphore memory;
+
+	final ArrayList< Job > jobs = new ArrayList<>();
+
+	/**
+	 * @param numWorkers - number of threads shared by all jobs
+	 * @param maxConcurrentGroups - how many jobs may run at the same time
+	 * @param memoryBudget - the global memory budget in bytes for all running jobs (excluding the cache)
+	 * @param cacheBudget - the budget in bytes of the cache shared by all running jobs
+	 */
+	public FusionGroupScheduler( final int numWorkers, final int maxConcurrentGroups, final long memoryBudget, final long cacheBudget )
+	{
+		this.workerPool = new ForkJoinPool( numWorkers );
+		this.maxConcurrentGroups = Math.max( 1, maxConcurrentGroups );
+		this.memoryBudgetMB = Math.max( 1, memoryBudget / MB );
+		this.cacheBudget = cacheBudget;
+		this.memory = new Semaphore( (int)Math.min( Integer.MAX_VALUE, memoryBudgetMB ), true );
+	}
+
+	public FusionGroupScheduler( final int maxConcurrentGroups )
+	{
+		this(
+				Threads.numThreads(),
+				maxConcurrentGroups,
+				(long)( Runtime.getRuntime().maxMemory() * defaultMemoryFraction ),
+				(long)( Runtime.getRuntime().maxMemory() * defaultCacheFraction ) );
+	}
+
+	/**
+	 * @return the pool that all jobs should use for their block-parallel work
+	 */
+	public ForkJoinPool getWorkerPool() { return workerPool; }
+
+	/**
+	 * Since all running jobs share the worker pool, each of them computes only its share of the blocks at the same time.
+	 *
+	 * @param numJobs - the number of jobs that will be added
+	 * @return the number of workers that compute blocks for one job at the same time
+	 */
+	public int workersPerJob( final int numJobs )
+	{
+		final int concurrentJobs = Math.max( 1, Math.min( maxConcurrentGroups, numJobs ) );
+
+		return ( workerPool.getParallelism() + concurrentJobs - 1 ) / concurrentJobs;
+	}
+
+	/**
+	 * Estimates the memory of one fusion job, i.e. the output blocks that can be computed at the same time plus
+	 * the 32-bit intermediate result; lazily cached blocks are limited by the cache budget and thus not accounted for.
+	 *
+	 * @param blockSize - the (compute) block size
+	 * @param bytesPerPixel - bytes per output pixel
+	 * @param numWorkers - number of workers that compute blocks of this job in parallel (see {@link #workersPerJob(int)})
+	 * @return estimated bytes
+	 */
+	public static long estimateMemory( final int[] blockSize, final int bytesPerPixel, final int numWorkers )
+	{
+		long blockPixels = 1;
+
+		for ( final int s : blockSize )
+			blockPixels *= s;
+
+		return blockPixels * ( bytesPerPixel + 4 ) * numWorkers;
+	}
+
+	/**
+	 * @param name - name of the job (for progress reporting)
+	 * @param estimatedMemory - estimated memory in bytes while running
+	 * @param numPixels - number of output pixels (for throughput reporting)
+	 * @param job - the job, returns true if successful
+	 */
+	public void add( final String name, final long estimatedMemory, final long numPixels, final Callable< Boolean > job )
+	{
+		jobs.add( new Job( name, estimatedMemory, numPixels, job ) );
+	}
+
+	/**
+	 * Runs all jobs and waits until they are finished (in the order they were added, at most maxConcurrentGroups at a time).
+	 *
+	 * @return true if all jobs were successful
+	 */
+	public boolean run()
+	{
+		final ExecutorService groupExecutor = Executors.newFixedThreadPool( Math.min( maxConcurrentGroups, Math.max( 1, jobs.size() ) ) );
+		final AtomicInteger finished = new AtomicInteger();
+		final long startTime = System.currentTimeMillis();
+
+		// all jobs share the global cache, limit it while they are running
+		final long previousCacheBytes = CacheManager.getMaxBytes();
+		CacheManager.setMaxBytes( cacheBudget );
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Running " + jobs.size() + " fusion jobs, max " + maxConcurrentGroups +
+				" at a time, " + workerPool.getParallelism() + " shared workers, memory budget " + memoryBudgetMB + " MB, cache budget " + ( cacheBudget / MB ) + " MB." );
+
+		final ArrayList< Future< Boolean > > futures = new ArrayList<>();
+
+		for ( final Job job : jobs )
+		{
+			futures.add( groupExecutor.submit( () ->
+			{
+				// a single job that exceeds the budget runs on its own
+				final int permits = (int)Math.min( memoryBudgetMB, Math.max( 1, job.estimatedMemory / MB ) );
+
+				memory.acquire( permits );
+
+				try
+				{
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Started '" + job.name + "' (estimated memory " + permits + " MB)" );
+
+					final long t = System.currentTimeMillis();
+					final boolean success = job.job.call();
+					final double seconds = Math.max( 1, System.currentTimeMillis() - t ) / 1000.0;
+
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Finished '" + job.name + "' " + ( success ? "" : "(FAILED) " ) +
+							"in " + seconds + " s, " + String.format( "%.2f", job.numPixels / seconds / 1000000.0 ) + " MPixels/s, " +
+							finished.incrementAndGet() + "/" + jobs.size() + " jobs done." );
+
+					return success;
+				}
+				finally
+				{
+					memory.release( permits );
+				}
+			}));
+		}
+
+		boolean success = true;
+
+		for ( final Future< Boolean > future : futures )
+		{
+			try
+			{
+				success &= future.get();
+			}
+			catch ( Exception e )
+			{
+				IOFunctions.println( "Fusion job failed: " + e );
+				e.printStackTrace();
+				success = false;
+			}
+		}
+
+		groupExecutor.shutdown();
+		workerPool.shutdown();
+
+		CacheManager.setMaxBytes( previousCacheBytes );
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): All fusion jobs finished, took " + ( System.currentTimeMillis() - startTime ) + " ms." );
+
+		return success;
+	}
+
+	protected static class Job
+	{
+		final String name;
+		final long estimatedMemory, numPixels;
+		final Callable< Boolean > job;
+
+		public Job( final String name, final long estimatedMemory, final long numPixels, final Callable< Boolean > job )
+		{
+			this.name = name;
+			this.estimatedMemory = estimatedMemory;
+			this.numPixels = numPixels;
+			this.job = job;
+		}
+	}
+}
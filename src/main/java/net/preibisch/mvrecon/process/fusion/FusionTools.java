@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -64,7 +65,9 @@ import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.Cache;
 import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
 import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
 import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
 import net.imglib2.cache.img.SingleCellArrayImg;
@@ -73,6 +76,9 @@ import net.imglib2.converter.Converters;
 import net.imglib2.converter.RealFloatConverter;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.imageplus.ImagePlusImgFactory;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
@@ -90,6 +96,8 @@ import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.ViewSetupUtils;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.popup.DisplayFusedImagesPopup;
 import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMaximal;
+import net.preibisch.mvrecon.process.cache.BudgetedLoaderCache;
+import net.preibisch.mvrecon.process.cache.CacheManager;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.export.DisplayImage;
 import net.preibisch.mvrecon.process.fusion.intensityadjust.IntensityAdjuster;
@@ -103,6 +111,7 @@ import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.Combin
 import net.preibisch.mvrecon.process.fusion.transformed.weights.ContentBasedRealRandomAccessible;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import util.Lazy;
 
 public class FusionTools
 {
@@ -771,6 +780,17 @@ public class FusionTools
 		return cacheRandomAccessibleInterval( input, -1, type, cellDim );
 	}
 
+	/**
+	 * Caches a (virtual) image in cells. The cells of all cached images share the global memory budget of the
+	 * {@link CacheManager}, so the maxCacheSize is only used for pixel types that the budgeted cache does not support.
+	 *
+	 * @param input - the image to cache
+	 * @param maxCacheSize - max number of cells (&lt;=0 uses soft references), only used as a fallback
+	 * @param type - the pixel type
+	 * @param cellDim - the cell dimensions (the last one is repeated if fewer are given)
+	 * @param <T> pixel type
+	 * @return the cached image
+	 */
 	public static < T extends NativeType< T > > RandomAccessibleInterval< T > cacheRandomAccessibleInterval(
 			final RandomAccessibleInterval< T > input,
 			final long maxCacheSize,
@@ -783,15 +803,6 @@ public class FusionTools
 			in = input;
 		else
 			in = Views.zeroMin( input );
-		
-		final ReadOnlyCachedCellImgOptions options;
-
-		if ( maxCacheSize > 0 )
-			options = new ReadOnlyCachedCellImgOptions().cellDimensions( cellDim ).maxCacheSize( maxCacheSize );
-		else
-			options = new ReadOnlyCachedCellImgOptions().cellDimensions( cellDim ).cacheType( CacheType.SOFTREF );
-
-		final ReadOnlyCachedCellImgFactory factory = new ReadOnlyCachedCellImgFactory( options );
 
 		final CellLoader< T > loader = new CellLoader< T >()
 		{
@@ -813,6 +824,33 @@ public class FusionTools
 		final long[] dim = new long[ in.numDimensions() ];
 		in.dimensions( dim );
 
+		final int[] cellDimensions = new int[ dim.length ];
+		for ( int d = 0; d < dim.length; ++d )
+			cellDimensions[ d ] = cellDim[ Math.min( d, cellDim.length - 1 ) ];
+
+		// volatile accesses like the ReadOnlyCachedCellImgFactory so they can be wrapped as volatile for BDV
+		final Set< AccessFlags > accessFlags = AccessFlags.setOf( AccessFlags.VOLATILE );
+		final CellGrid grid = new CellGrid( dim, cellDimensions );
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final Cache< Long, Cell< ? > > cache =
+				new BudgetedLoaderCache().withLoader( LoadedCellCacheLoader.get( grid, loader, type, accessFlags ) );
+
+		final RandomAccessibleInterval< T > img = Lazy.createImg( grid, cache, type, accessFlags );
+
+		if ( img != null )
+			return translateIfNecessary( input, img );
+
+		// pixel types not supported by Lazy
+		final ReadOnlyCachedCellImgOptions options;
+
+		if ( maxCacheSize > 0 )
+			options = new ReadOnlyCachedCellImgOptions().cellDimensions( cellDim ).maxCacheSize( maxCacheSize );
+		else
+			options = new ReadOnlyCachedCellImgOptions().cellDimensions( cellDim ).cacheType( CacheType.SOFTREF );
+
+		final ReadOnlyCachedCellImgFactory factory = new ReadOnlyCachedCellImgFactory( options );
+
 		return translateIfNecessary( input, factory.create( dim, type, loader ) );
 	}
 
@@ -28,14 +28,16 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import mpicbg.models.Affine1D;
 import mpicbg.models.AffineModel1D;
 import mpicbg.models.IllDefinedDataPointsException;
 import mpicbg.models.Model;
 import mpicbg.models.NotEnoughDataPointsException;
-import mpicbg.models.Point;
 import mpicbg.models.PointMatch;
 import mpicbg.models.Tile;
 import mpicbg.models.TileConfiguration;
@@ -44,23 +46,29 @@ import mpicbg.spim.data.generic.sequence.BasicImgLoader;
 import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.converter.Converters;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformView;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import util.Grid;
 
 public class IntensityAdjustmentTools
 {
@@ -73,6 +81,9 @@ public class IntensityAdjustmentTools
 		return false;
 	}
 
+	public static int defaultSeed = 344;
+	public static int defaultSamplingBlockSize = 64;
+
 	public static < M extends Model< M > & Affine1D< M > > HashMap< ViewId, AffineModel1D > computeIntensityAdjustment(
 			final AbstractSpimData< ? > spimData,
 			final List< ? extends ViewId > viewIds,
@@ -81,6 +92,35 @@ public class IntensityAdjustmentTools
 			double downsampling,
 			final int maxMatches,
 			final Map< ? extends ViewId, AffineModel1D > existingAdjustments )
+	{
+		return computeIntensityAdjustment( spimData, viewIds, intensityModel, bb, downsampling, maxMatches, existingAdjustments, defaultSeed );
+	}
+
+	/**
+	 * Samples corresponding intensities of all overlapping pairs of views and computes a global intensity adjustment.
+	 * The bounding box is processed in parallel blocks, only views that overlap a block are queried, and every pair of
+	 * views keeps a random sample of at most maxMatches corresponding intensities. The result only depends on the seed.
+	 *
+	 * @param spimData - the SpimData
+	 * @param viewIds - the views to adjust
+	 * @param intensityModel - the 1d model
+	 * @param bb - the bounding box
+	 * @param downsampling - downsampling used for sampling or NaN
+	 * @param maxMatches - maximal number of corresponding intensities per pair of views
+	 * @param existingAdjustments - existing intensity adjustments that are applied first, can be null
+	 * @param seed - the seed for the random sampling
+	 * @param <M> - which model type
+	 * @return the adjustments
+	 */
+	public static < M extends Model< M > & Affine1D< M > > HashMap< ViewId, AffineModel1D > computeIntensityAdjustment(
+			final AbstractSpimData< ? > spimData,
+			final List< ? extends ViewId > viewIds,
+			final M intensityModel,
+			Interval bb,
+			double downsampling,
+			final int maxMatches,
+			final Map< ? extends ViewId, AffineModel1D > existingAdjustments,
+			final long seed )
 	{
 		if ( !Double.isNaN( downsampling ) )
 			bb = TransformVirtual.scaleBoundingBox( bb, 1.0 / downsampling );
@@ -89,6 +129,7 @@ public class IntensityAdjustmentTools
 		bb.dimensions( dim );
 
 		final ArrayList< RandomAccessibleInterval< FloatType > > images = new ArrayList<>();
+		final ArrayList< Interval > viewBoxes = new ArrayList<>();
 
 		for ( final ViewId viewId : viewIds )
 		{
@@ -116,62 +157,75 @@ public class IntensityAdjustmentTools
 
 			// fuse with nearest neighbor and -1 are intensities outside
 			images.add( TransformView.transformView( inputImg, model, bb, -1, 1 ) );
+
+			// the area this view covers inside the (zero-min) bounding box
+			viewBoxes.add( localBoundingBox( model.estimateBounds( inputImg ), bb ) );
 		}
 
 		final int m = images.size();
 
 		final HashMap< Integer, ViewId > viewMap = new HashMap<>();
-		final Cursor< FloatType > cursor = Views.iterable( images.get( 0 ) ).localizingCursor();
-		final ArrayList< RandomAccess< FloatType > > accesses = new ArrayList<>();
 
 		for ( int i = 0; i < m; ++i )
-		{
-			accesses.add( images.get( i ).randomAccess() );
 			viewMap.put( i, viewIds.get( i ) );
-		}
 
-		final HashMap< Pair< Integer, Integer >, ArrayList< PointMatch > > intensityMatches = new HashMap<>();
+		// one reservoir per pair of views, pairs are indexed as i * m + j
+		final HashMap< Integer, IntensityReservoir > reservoirs = new HashMap<>();
 
 		for ( int i = 0; i < m - 1; ++i )
 			for ( int j = i + 1; j < m; ++j )
-				intensityMatches.put( new ValuePair< Integer, Integer >( i, j ), new ArrayList<>() );
+				reservoirs.put( i * m + j, new IntensityReservoir( maxMatches ) );
 
-		final ArrayList< Pair< Integer, Float > > values = new ArrayList<>();
+		final List< long[][] > blocks = Grid.create( dim, new int[] { defaultSamplingBlockSize, defaultSamplingBlockSize, defaultSamplingBlockSize } );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
 
-		while ( cursor.hasNext() )
+		for ( final long[][] block : blocks )
 		{
-			cursor.fwd();
+			final Interval blockInterval = Intervals.translate( new FinalInterval( block[ 1 ] ), block[ 0 ] );
 
-			values.clear();
+			// only views that overlap this block are queried
+			final ArrayList< Integer > active = new ArrayList<>();
 
 			for ( int i = 0; i < m; ++i )
+				if ( !Intervals.isEmpty( Intervals.intersect( viewBoxes.get( i ), blockInterval ) ) )
+					active.add( i );
+
+			if ( active.size() < 2 )
+				continue;
+
+			tasks.add( () ->
 			{
-				final RandomAccess< FloatType > r = accesses.get( i );
-				r.setPosition( cursor );
+				sampleBlock( images, active, blockInterval, dim, m, seed, maxMatches, reservoirs );
+				return null;
+			});
+		}
 
-				final float value = r.get().get();
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Sampling intensities in " + tasks.size() + "/" + blocks.size() + " blocks where views overlap ... " );
 
-				if ( value >= 0 )
-					values.add( new ValuePair< Integer, Float >( i, value ) );
-			}
+		final ExecutorService taskExecutor = Threads.createFixedExecutorService();
 
-			// there are corresponding intensities
-			if ( values.size() > 1 )
-				for ( int i = 0; i < values.size() - 1; ++i )
-					for ( int j = i + 1; j < values.size(); ++j )
-					{
-						final ArrayList< PointMatch > matches = intensityMatches.get( new ValuePair< Integer, Integer >( values.get( i ).getA(), values.get( j ).getA() ) );
-						matches.add( new PointMatch( new Point( new double[] { values.get( i ).getB() } ), new Point( new double[] { values.get( j ).getB() } ) ) );
-					}
+		try
+		{
+			for ( final Future< Void > future : taskExecutor.invokeAll( tasks ) )
+				future.get();
 		}
-
-		final Random rnd = new Random( 344 );
-		for ( final ArrayList< PointMatch > matches : intensityMatches.values() )
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			IOFunctions.println( "Failed to sample intensities, no intensity adjustments computed: " + e );
+			e.printStackTrace();
+			return new HashMap<>();
+		}
+		finally
 		{
-			while ( matches.size() >= maxMatches )
-				matches.remove( rnd.nextInt( matches.size() ) );
+			taskExecutor.shutdown();
 		}
 
+		final HashMap< Pair< Integer, Integer >, ArrayList< PointMatch > > intensityMatches = new HashMap<>();
+
+		for ( int i = 0; i < m - 1; ++i )
+			for ( int j = i + 1; j < m; ++j )
+				intensityMatches.put( new ValuePair< Integer, Integer >( i, j ), reservoirs.get( i * m + j ).toPointMatches() );
+
 		final HashMap< ViewId, AffineModel1D > newModels = runGlobal( intensityMatches, viewMap, intensityModel );
 
 		if ( existingAdjustments != null )
@@ -193,6 +247,108 @@ public class IntensityAdjustmentTools
 		return newModels;
 	}
 
+	/**
+	 * Samples one block, the samples are collected per block and merged into the shared reservoirs afterwards.
+	 */
+	protected static void sampleBlock(
+			final List< RandomAccessibleInterval< FloatType > > images,
+			final List< Integer > active,
+			final Interval block,
+			final long[] dim,
+			final int m,
+			final long seed,
+			final int maxMatches,
+			final Map< Integer, IntensityReservoir > reservoirs )
+	{
+		final int numActive = active.size();
+
+		final ArrayList< RandomAccess< FloatType > > accesses = new ArrayList<>();
+		for ( final int i : active )
+			accesses.add( images.get( i ).randomAccess() );
+
+		final IntensityReservoir[] local = new IntensityReservoir[ numActive * numActive ];
+		final float[] values = new float[ numActive ];
+		final long[] position = new long[ 3 ];
+
+		final Cursor< FloatType > cursor = Views.iterable( Views.interval( images.get( active.get( 0 ) ), block ) ).localizingCursor();
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.localize( position );
+
+			int count = 0;
+
+			for ( int a = 0; a < numActive; ++a )
+			{
+				final RandomAccess< FloatType > r = accesses.get( a );
+				r.setPosition( position );
+
+				values[ a ] = r.get().get();
+
+				if ( values[ a ] >= 0 )
+					++count;
+			}
+
+			// there are corresponding intensities
+			if ( count < 2 )
+				continue;
+
+			final long linearIndex = IntervalIndexer.positionToIndex( position, dim );
+
+			for ( int a = 0; a < numActive - 1; ++a )
+			{
+				if ( values[ a ] < 0 )
+					continue;
+
+				for ( int b = a + 1; b < numActive; ++b )
+				{
+					if ( values[ b ] < 0 )
+						continue;
+
+					final int pair = active.get( a ) * m + active.get( b );
+
+					if ( local[ a * numActive + b ] == null )
+						local[ a * numActive + b ] = new IntensityReservoir( maxMatches );
+
+					local[ a * numActive + b ].offer( IntensityReservoir.key( seed, pair, linearIndex ), values[ a ], values[ b ] );
+				}
+			}
+		}
+
+		// merging is order-independent, so the result does not depend on which thread finishes first
+		for ( int a = 0; a < numActive - 1; ++a )
+			for ( int b = a + 1; b < numActive; ++b )
+				if ( local[ a * numActive + b ] != null )
+				{
+					final IntensityReservoir reservoir = reservoirs.get( active.get( a ) * m + active.get( b ) );
+
+					synchronized ( reservoir )
+					{
+						reservoir.addAll( local[ a * numActive + b ] );
+					}
+				}
+	}
+
+	/**
+	 * @param bounds - transformed bounds of a view (global coordinates)
+	 * @param bb - the bounding box
+	 * @return the bounds relative to the bounding box (conservatively rounded), not clipped
+	 */
+	protected static Interval localBoundingBox( final RealInterval bounds, final Interval bb )
+	{
+		final long[] min = new long[ bb.numDimensions() ];
+		final long[] max = new long[ bb.numDimensions() ];
+
+		for ( int d = 0; d < min.length; ++d )
+		{
+			min[ d ] = (long)Math.floor( bounds.realMin( d ) ) - bb.min( d ) - 1;
+			max[ d ] = (long)Math.ceil( bounds.realMax( d ) ) - bb.min( d ) + 1;
+		}
+
+		return new FinalInterval( min, max );
+	}
+
 	/**
 	 * @param intensityMatches - all pointmatches for the pairs of images
 	 * @param viewMap - links images to ViewIds - integers need to be between 0 and viewMap.keySet().size() - 1
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.intensityadjust;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+
+/**
+ * A fixed-size random sample of corresponding intensities of a pair of views, stored in primitive arrays.
+ *
+ * Every offered sample comes with a (pseudo-)random key, the reservoir keeps the samples with the smallest keys
+ * (bottom-k sampling, organized as a max-heap). If the keys are derived from the sample's position and a seed
+ * (see {@link #key(long, long, long)}), the result is the same no matter in which order the samples are offered
+ * or how partial reservoirs are merged, i.e. it is deterministic for multi-threaded sampling.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class IntensityReservoir
+{
+	final int capacity;
+
+	long[] keys;
+	float[] valuesA, valuesB;
+	int size = 0;
+
+	public IntensityReservoir( final int capacity )
+	{
+		this.capacity = capacity;
+
+		final int initialSize = Math.max( 1, Math.min( capacity, 1024 ) );
+
+		this.keys = new long[ initialSize ];
+		this.valuesA = new float[ initialSize ];
+		this.valuesB = new float[ initialSize ];
+	}
+
+	public int size() { return size; }
+
+	public void offer( final long key, final float valueA, final float valueB )
+	{
+		if ( size < capacity )
+		{
+			if ( size == keys.length )
+				grow();
+
+			// add at the end and sift up
+			int i = size++;
+
+			while ( i > 0 )
+			{
+				final int parent = ( i - 1 ) / 2;
+
+				if ( keys[ parent ] >= key )
+					break;
+
+				set( i, keys[ parent ], valuesA[ parent ], valuesB[ parent ] );
+				i = parent;
+			}
+
+			set( i, key, valueA, valueB );
+		}
+		else if ( capacity > 0 && key < keys[ 0 ] )
+		{
+			// replace the largest key and sift down
+			int i = 0;
+
+			while ( true )
+			{
+				final int left = 2 * i + 1;
+
+				if ( left >= size )
+					break;
+
+				final int right = left + 1;
+				final int child = ( right < size && keys[ right ] > keys[ left ] ) ? right : left;
+
+				if ( keys[ child ] <= key )
+					break;
+
+				set( i, keys[ child ], valuesA[ child ], valuesB[ child ] );
+				i = child;
+			}
+
+			set( i, key, valueA, valueB );
+		}
+	}
+
+	public void addAll( final IntensityReservoir other )
+	{
+		for ( int i = 0; i < other.size; ++i )
+			offer( other.keys[ i ], other.valuesA[ i ], other.valuesB[ i ] );
+	}
+
+	/**
+	 * @return the samples as PointMatches, sorted by their key so the order is deterministic as well
+	 */
+	public ArrayList< PointMatch > toPointMatches()
+	{
+		final Integer[] order = new Integer[ size ];
+
+		for ( int i = 0; i < size; ++i )
+			order[ i ] = i;
+
+		Arrays.sort( order, ( a, b ) -> Long.compare( keys[ a ], keys[ b ] ) );
+
+		final ArrayList< PointMatch > matches = new ArrayList<>( size );
+
+		for ( final int i : order )
+			matches.add( new PointMatch( new Point( new double[] { valuesA[ i ] } ), new Point( new double[] { valuesB[ i ] } ) ) );
+
+		return matches;
+	}
+
+	protected void set( final int i, final long key, final float valueA, final float valueB )
+	{
+		keys[ i ] = key;
+		valuesA[ i ] = valueA;
+		valuesB[ i ] = valueB;
+	}
+
+	protected void grow()
+	{
+		final int newSize = (int)Math.min( capacity, keys.length * 2L );
+
+		keys = Arrays.copyOf( keys, newSize );
+		valuesA = Arrays.copyOf( valuesA, newSize );
+		valuesB = Arrays.copyOf( valuesB, newSize );
+	}
+
+	/**
+	 * @param seed - the seed
+	 * @param pair - index of the pair of views
+	 * @param position - linear index of the sample position
+	 * @return a well-mixed pseudo-random key (SplitMix64) that only depends on the arguments
+	 */
+	public static long key( final long seed, final long pair, final long position )
+	{
+		return mix( mix( seed + 0x9E3779B97F4A7C15L * ( pair + 1 ) ) + position );
+	}
+
+	private static long mix( long z )
+	{
+		z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+		return z ^ ( z >>> 31 );
+	}
+}
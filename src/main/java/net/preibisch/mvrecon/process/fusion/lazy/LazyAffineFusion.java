@@ -54,6 +54,9 @@ import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
 import net.preibisch.mvrecon.process.deconvolution.DeconViews;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 
 /**
  * BigStitcher Affine Fusion in blocks
@@ -129,20 +132,26 @@ public class LazyAffineFusion<T extends RealType<T> & NativeType<T>> implements
 		// in world coordinates
 		final Interval targetBlock = Intervals.translate( new FinalInterval( output ), globalMin );
 
-		// which views to process is now part of fuseVirtual
-		final RandomAccessibleInterval<FloatType> fused =
-				FusionTools.fuseVirtual(
-						imgloader,
-						viewRegistrations,
-						viewDescriptions,
-						viewIds,
-						useBlending, // use blending
-						useContentBased, // use content-based
-						interpolation, // linear interpolation
-						targetBlock,
-						intensityAdjustments ); // intensity adjustments
+		// one sample per block in a single histogram, tagging each block would create one metric per block
+		try ( final Timer.Context t = Metrics.time( Stage.FUSE, "block", null ) )
+		{
+			// which views to process is now part of fuseVirtual
+			final RandomAccessibleInterval<FloatType> fused =
+					FusionTools.fuseVirtual(
+							imgloader,
+							viewRegistrations,
+							viewDescriptions,
+							viewIds,
+							useBlending, // use blending
+							useContentBased, // use content-based
+							interpolation, // linear interpolation
+							targetBlock,
+							intensityAdjustments ); // intensity adjustments
+
+			finish( fused, output, converter, type );
+		}
 
-		finish( fused, output, converter, type );
+		Metrics.count( Stage.FUSE, "pixels", null, Intervals.numElements( output ) );
 	}
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
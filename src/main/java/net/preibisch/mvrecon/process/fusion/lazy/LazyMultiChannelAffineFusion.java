@@ -0,0 +1,509 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.lazy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import mpicbg.models.AffineModel1D;
+import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealTypeConverters;
+import net.imglib2.interpolation.InterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.intensityadjust.IntensityAdjuster;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformWeight;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformedInputRandomAccess;
+import net.preibisch.mvrecon.process.fusion.transformed.weights.ContentBasedRealRandomAccessible;
+
+/**
+ * BigStitcher Affine Fusion in blocks for several channels at once. The output is 4-dimensional (x,y,z,c) and
+ * each block contains all channels. Views of different channels that were acquired at the same position (identical
+ * registration, input dimensions and blending parameters) share the coordinate transformation, the intersection test
+ * and the blending weights, which are therefore evaluated only once per output pixel for all channels. Content-based
+ * weights depend on the image content and are still computed per channel.
+ *
+ * Every view is fused with the same intersection test (the strict test of {@link TransformedInputRandomAccess}, for
+ * linear and nearest neighbor interpolation), interpolation and weights as {@link FusionTools#fuseVirtual} uses in
+ * {@link LazyAffineFusion}. Without blending and content-based fusion, the weight of a view is 1 where this test
+ * passes, i.e. the same as the transformed constant weight image of fuseVirtual. Views of one channel might be
+ * summed in a different order (grouped by position), so results can differ by floating-point rounding. Only 3d
+ * views are supported (2d views are fused by {@link LazyAffineFusion}, which handles them separately).
+ *
+ * @author Stephan Preibisch
+ * @param <T> type of input and output
+ */
+public class LazyMultiChannelAffineFusion<T extends RealType<T> & NativeType<T>> implements Consumer<RandomAccessibleInterval<T>>
+{
+	final T type;
+	final long[] globalMin;
+
+	final Converter<FloatType, T> converter;
+	final BasicImgLoader imgloader;
+	final ArrayList< ViewId > viewIds;
+	final HashMap< ViewId, Integer > channelIndex;
+	final Map< ViewId, ? extends AffineTransform3D > viewRegistrations;
+	final Map< ViewId, ? extends BasicViewDescription< ? > > viewDescriptions;
+
+	final boolean useBlending;
+	final boolean useContentBased;
+	final int interpolation;
+	final Map< ViewId, AffineModel1D > intensityAdjustments;
+
+	/**
+	 * Creates a consumer that will fill the requested 4-dimensional RandomAccessibleInterval (x,y,z,c) single-threaded
+	 *
+	 * @param converter - if type is FloatType, converter can be null
+	 * @param imgloader - the imgloader to fetch raw data
+	 * @param channelViewIds - which viewids to fuse for each channel (the index in the list is the channel index in the output)
+	 * @param viewRegistrations - the registrations (must include anisotropy and downsampling if desired)
+	 * @param viewDescriptions - the viewdescriptions
+	 * @param useBlending - blend images when overlapping?
+	 * @param useContentBased - use content-based fusion?
+	 * @param interpolation - 1==linear, 0==nearest neighbor
+	 * @param intensityAdjustments - intensity adjustments, can be null
+	 * @param globalMin - the spatial (3d) minimum of the fusion interval in world coordinates
+	 * @param type - which type to fuse
+	 */
+	public LazyMultiChannelAffineFusion(
+			final Converter<FloatType, T> converter,
+			final BasicImgLoader imgloader,
+			final List< ? extends Collection< ? extends ViewId > > channelViewIds,
+			final Map< ViewId, ? extends AffineTransform3D > viewRegistrations,
+			final Map< ViewId, ? extends BasicViewDescription< ? > > viewDescriptions,
+			final boolean useBlending,
+			final boolean useContentBased,
+			final int interpolation,
+			final Map< ViewId, AffineModel1D > intensityAdjustments,
+			final long[] globalMin,
+			final T type )
+	{
+		this.globalMin = globalMin;
+		this.type = type;
+
+		this.converter = converter;
+		this.imgloader = imgloader;
+		this.viewRegistrations = viewRegistrations;
+		this.viewDescriptions = viewDescriptions;
+		this.useBlending = useBlending;
+		this.useContentBased = useContentBased;
+		this.interpolation = interpolation;
+		this.intensityAdjustments = intensityAdjustments;
+
+		this.viewIds = new ArrayList<>();
+		this.channelIndex = new HashMap<>();
+
+		for ( int c = 0; c < channelViewIds.size(); ++c )
+			for ( final ViewId viewId : channelViewIds.get( c ) )
+			{
+				viewIds.add( viewId );
+				channelIndex.put( viewId, c );
+			}
+	}
+
+	// Note: the output RAI typically sits at 0,0...0 because it usually is a CachedCellImage
+	// (but the actual interval to process in many blocks sits somewhere else)
+	@Override
+	public void accept( final RandomAccessibleInterval<T> output )
+	{
+		final int numChannels = (int)output.dimension( 3 );
+
+		// in world coordinates
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			min[ d ] = output.min( d ) + globalMin[ d ];
+			max[ d ] = output.max( d ) + globalMin[ d ];
+		}
+
+		final Interval targetBlock = new FinalInterval( min, max );
+
+		final ArrayList< ViewId > viewIdsToProcess =
+				LazyFusionTools.overlappingViewIds(
+						targetBlock,
+						viewIds,
+						viewRegistrations,
+						LazyFusionTools.assembleDimensions( viewIds, viewDescriptions ),
+						LazyFusionTools.defaultAffineExpansion );
+
+		// same order as in FusionTools.fuseVirtual
+		Collections.sort( viewIdsToProcess );
+
+		final List< SharedGeometry > geometries = assembleSharedGeometries( viewIdsToProcess, targetBlock );
+
+		final int sx = (int)targetBlock.dimension( 0 );
+		final int sy = (int)targetBlock.dimension( 1 );
+		final int sz = (int)targetBlock.dimension( 2 );
+		final int numPixels = sx * sy * sz;
+
+		final float[][] fused = new float[ numChannels ][ numPixels ];
+
+		final double[] sumI = new double[ numChannels ];
+		final double[] sumW = new double[ numChannels ];
+
+		final double[] s = new double[ 3 ];
+		final double[] t = new double[ 3 ];
+		final int[] local = new int[ 3 ];
+
+		int i = 0;
+
+		for ( int z = 0; z < sz; ++z )
+			for ( int y = 0; y < sy; ++y )
+				for ( int x = 0; x < sx; ++x )
+				{
+					Arrays.fill( sumI, 0 );
+					Arrays.fill( sumW, 0 );
+
+					local[ 0 ] = x;
+					local[ 1 ] = y;
+					local[ 2 ] = z;
+
+					s[ 0 ] = x + min[ 0 ];
+					s[ 1 ] = y + min[ 1 ];
+					s[ 2 ] = z + min[ 2 ];
+
+					for ( final SharedGeometry g : geometries )
+					{
+						// one coordinate transform and intersection test for all channels
+						g.model.applyInverse( t, s );
+						final boolean inside = g.intersects( t );
+
+						// one blending weight for all channels
+						final float sharedWeight;
+
+						if ( useBlending )
+						{
+							g.blending.setPosition( local );
+							sharedWeight = g.blending.get().get();
+						}
+						else
+						{
+							sharedWeight = ( useContentBased || inside ) ? 1.0f : 0.0f;
+						}
+
+						if ( sharedWeight == 0 )
+							continue;
+
+						for ( int m = 0; m < g.channels.size(); ++m )
+						{
+							final double weight;
+
+							if ( useContentBased )
+							{
+								final RandomAccess< FloatType > cb = g.contentBased.get( m );
+								cb.setPosition( local );
+								weight = useBlending ? sharedWeight * cb.get().get() : cb.get().get();
+							}
+							else
+							{
+								weight = sharedWeight;
+							}
+
+							if ( weight == 0 )
+								continue;
+
+							final double intensity;
+
+							if ( inside )
+							{
+								final RealRandomAccess< FloatType > ir = g.images.get( m );
+								ir.setPosition( t );
+								intensity = ir.get().get();
+							}
+							else
+							{
+								intensity = 0;
+							}
+
+							final int c = g.channels.get( m );
+							sumI[ c ] += intensity * weight;
+							sumW[ c ] += weight;
+						}
+					}
+
+					for ( int c = 0; c < numChannels; ++c )
+						fused[ c ][ i ] = sumW[ c ] > 0 ? (float)( sumI[ c ] / sumW[ c ] ) : 0;
+
+					++i;
+				}
+
+		finish( fused, output, converter, type );
+	}
+
+	protected List< SharedGeometry > assembleSharedGeometries( final List< ViewId > viewIdsToProcess, final Interval bb )
+	{
+		final ArrayList< SharedGeometry > geometries = new ArrayList<>();
+
+		final InterpolatorFactory< FloatType, RandomAccessible< FloatType > > interpolatorFactory;
+
+		if ( interpolation == 0 )
+			interpolatorFactory = new NearestNeighborInterpolatorFactory<>();
+		else
+			interpolatorFactory = new NLinearInterpolatorFactory<>();
+
+		for ( final ViewId viewId : viewIdsToProcess )
+		{
+			final AffineTransform3D model = viewRegistrations.get( viewId ).copy();
+
+			// this modifies the model so it maps from a smaller image to the global coordinate space
+			final double[] usedDownsampleFactors = new double[ 3 ];
+			RandomAccessibleInterval inputImg = DownsampleTools.openDownsampled( imgloader, viewId, model, usedDownsampleFactors );
+
+			if ( intensityAdjustments != null && intensityAdjustments.containsKey( viewId ) )
+				inputImg = Converters.convert(
+						FusionTools.convertInput( inputImg ),
+						new IntensityAdjuster( intensityAdjustments.get( viewId ) ),
+						new FloatType() );
+
+			// the blending depends on the view description (e.g. voxel size), so it is part of the shared geometry
+			final float[] blending, border;
+
+			if ( useBlending )
+			{
+				blending = Util.getArrayFromValue( FusionTools.defaultBlendingRange, 3 );
+				border = Util.getArrayFromValue( FusionTools.defaultBlendingBorder, 3 );
+
+				// adjust both for z-scaling (anisotropy), downsampling, and registrations itself
+				FusionTools.adjustBlending( viewDescriptions.get( viewId ), blending, border, model );
+			}
+			else
+			{
+				blending = border = null;
+			}
+
+			SharedGeometry geometry = null;
+
+			for ( final SharedGeometry g : geometries )
+				if ( g.matches( model, inputImg, blending, border ) )
+				{
+					geometry = g;
+					break;
+				}
+
+			if ( geometry == null )
+			{
+				geometry = new SharedGeometry( model, inputImg, blending, border );
+
+				if ( useBlending )
+					geometry.blending = TransformWeight.transformBlending( new FinalInterval( inputImg ), border, blending, model, bb ).randomAccess();
+
+				geometries.add( geometry );
+			}
+
+			geometry.channels.add( channelIndex.get( viewId ) );
+			geometry.images.add( Views.interpolate( toFloat( inputImg ), interpolatorFactory ).realRandomAccess() );
+
+			if ( useContentBased )
+			{
+				final double[] sigma1 = Util.getArrayFromValue( FusionTools.defaultContentBasedSigma1, 3 );
+				final double[] sigma2 = Util.getArrayFromValue( FusionTools.defaultContentBasedSigma2, 3 );
+
+				FusionTools.adjustContentBased( viewDescriptions.get( viewId ), sigma1, sigma2, usedDownsampleFactors );
+
+				geometry.contentBased.add(
+						TransformWeight.transformContentBased(
+								inputImg, sigma1, sigma2, LazyFusionTools.defaultBlockSize3d, ContentBasedRealRandomAccessible.defaultScale, model, bb ).randomAccess() );
+			}
+		}
+
+		return geometries;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static RandomAccessible< FloatType > toFloat( final RandomAccessibleInterval img )
+	{
+		if ( Util.getTypeFromInterval( img ) instanceof FloatType )
+			return img;
+		else
+			return RealTypeConverters.convert( img, new FloatType() );
+	}
+
+	@SuppressWarnings({ "unchecked" })
+	protected static final <T extends RealType<T>> void finish(
+			final float[][] fused,
+			final RandomAccessibleInterval<T> output,
+			final Converter<FloatType, T> converter,
+			final T type )
+	{
+		final boolean isFloat = converter == null && type.getClass().isInstance( new FloatType() );
+		final FloatType tmp = new FloatType();
+
+		// flat iteration order is x,y,z,c
+		final Cursor<T> cOut = Views.flatIterable( output ).cursor();
+
+		for ( int c = 0; c < fused.length; ++c )
+		{
+			final float[] channel = fused[ c ];
+
+			for ( int i = 0; i < channel.length; ++i )
+			{
+				if ( isFloat )
+				{
+					((FloatType)(Object)cOut.next()).set( channel[ i ] );
+				}
+				else
+				{
+					tmp.set( channel[ i ] );
+					converter.convert( tmp, cOut.next() );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Everything that is identical for views of different channels acquired at the same position.
+	 */
+	protected static class SharedGeometry
+	{
+		final AffineTransform3D model;
+		final Interval inputInterval;
+		final double[] rowPackedModel;
+		final float[] blendingRange, blendingBorder;
+		final long imgMinX, imgMinY, imgMinZ, imgMaxX, imgMaxY, imgMaxZ;
+
+		RandomAccess< FloatType > blending = null;
+
+		final ArrayList< Integer > channels = new ArrayList<>();
+		final ArrayList< RealRandomAccess< FloatType > > images = new ArrayList<>();
+		final ArrayList< RandomAccess< FloatType > > contentBased = new ArrayList<>();
+
+		public SharedGeometry( final AffineTransform3D model, final Interval inputInterval, final float[] blendingRange, final float[] blendingBorder )
+		{
+			this.model = model;
+			this.inputInterval = new FinalInterval( inputInterval );
+			this.rowPackedModel = model.getRowPackedCopy();
+			this.blendingRange = blendingRange;
+			this.blendingBorder = blendingBorder;
+
+			this.imgMinX = inputInterval.min( 0 );
+			this.imgMinY = inputInterval.min( 1 );
+			this.imgMinZ = inputInterval.min( 2 );
+			this.imgMaxX = inputInterval.max( 0 );
+			this.imgMaxY = inputInterval.max( 1 );
+			this.imgMaxZ = inputInterval.max( 2 );
+		}
+
+		public boolean matches( final AffineTransform3D model, final Interval inputInterval, final float[] blendingRange, final float[] blendingBorder )
+		{
+			return Intervals.equals( this.inputInterval, inputInterval ) &&
+					Arrays.equals( rowPackedModel, model.getRowPackedCopy() ) &&
+					Arrays.equals( this.blendingRange, blendingRange ) &&
+					Arrays.equals( this.blendingBorder, blendingBorder );
+		}
+
+		// same test as in AbstractTransformedIntervalRandomAccess.intersectsLinearInterpolation (used for all interpolations)
+		public boolean intersects( final double[] t )
+		{
+			return t[ 0 ] > imgMinX && t[ 1 ] > imgMinY && t[ 2 ] > imgMinZ && t[ 0 ] < imgMaxX && t[ 1 ] < imgMaxY && t[ 2 ] < imgMaxZ;
+		}
+	}
+
+	/**
+	 * @param converter - if type is FloatType, converter can be null
+	 * @param imgloader - the imgloader to fetch raw data
+	 * @param channelViewIds - which viewids to fuse for each channel
+	 * @param viewRegistrations - the registrations (must include anisotropy and downsampling if desired)
+	 * @param viewDescriptions - the viewdescriptions
+	 * @param useBlending - blend images when overlapping?
+	 * @param useContentBased - use content-based fusion?
+	 * @param interpolation - 1==linear, 0==nearest neighbor
+	 * @param intensityAdjustments - intensity adjustments, can be null
+	 * @param fusionInterval - the 3d interval to fuse
+	 * @param type - which type to fuse
+	 * @param blockSize - the 3d blocksize, every block contains all channels
+	 * @return a lazily fused 4d image (x,y,z,c), use Views.hyperSlice( img, 3, c ) to access a single channel
+	 */
+	public static final <T extends RealType<T> & NativeType<T>> RandomAccessibleInterval<T> init(
+			final Converter<FloatType, T> converter,
+			final BasicImgLoader imgloader,
+			final List< ? extends Collection< ? extends ViewId > > channelViewIds,
+			final Map< ViewId, ? extends AffineTransform3D > viewRegistrations,
+			final Map< ViewId, ? extends BasicViewDescription< ? > > viewDescriptions,
+			final boolean useBlending,
+			final boolean useContentBased,
+			final int interpolation,
+			final Map< ViewId, AffineModel1D > intensityAdjustments,
+			final Interval fusionInterval,
+			final T type,
+			final int[] blockSize )
+	{
+		final LazyMultiChannelAffineFusion< T > lazyFusion =
+				new LazyMultiChannelAffineFusion<>(
+						converter,
+						imgloader,
+						channelViewIds,
+						viewRegistrations,
+						viewDescriptions,
+						useBlending,
+						useContentBased,
+						interpolation,
+						intensityAdjustments,
+						fusionInterval.minAsLongArray(),
+						type.createVariable() );
+
+		final long[] min = new long[ 4 ];
+		final long[] max = new long[ 4 ];
+		final int[] blockSize4d = new int[ 4 ];
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			min[ d ] = fusionInterval.min( d );
+			max[ d ] = fusionInterval.max( d );
+			blockSize4d[ d ] = blockSize[ d ];
+		}
+
+		min[ 3 ] = 0;
+		max[ 3 ] = channelViewIds.size() - 1;
+		blockSize4d[ 3 ] = channelViewIds.size();
+
+		return LazyFusionTools.initLazy( lazyFusion, new FinalInterval( min, max ), blockSize4d, type );
+	}
+}
@@ -23,12 +23,12 @@
 package net.preibisch.mvrecon.process.fusion.transformed.nonrigid;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -724,6 +724,11 @@ public class NonRigidTools
 
 		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Found " + uniqueIPs.size() + " unique interest points." );
 
+		final int inconsistent = countInconsistentInterestPoints( uniqueIPs );
+
+		if ( inconsistent > 0 )
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": WARNING: " + inconsistent + " unique interest points are inconsistent (one view contributes more than one interest point)." );
+
 		// some statistics
 		final int[] count = uniqueInterestPointCounts( uniqueIPs );
 
@@ -735,49 +740,139 @@ public class NonRigidTools
 		return uniqueIPs;
 	}
 
+	/**
+	 * Groups all correspondences that are (transitively) connected through a common interest point, each group is one unique interest point.
+	 * Uses a union-find over integer ids of all interest points, which is near-linear in the number of correspondences. An interest point is
+	 * identified by its view and the interest point itself (detection id and location, which also distinguishes labels).
+	 *
+	 * @param pairs - all corresponding interest points
+	 * @return the groups, in the order of their first correspondence in pairs
+	 */
 	public static ArrayList< HashSet< CorrespondingIP > > findUniqueInterestPoints( final Collection< CorrespondingIP > pairs)
 	{
-		final ArrayList< HashSet< CorrespondingIP > > groups = new ArrayList<>();
-		final HashSet< CorrespondingIP > unassignedCorr = new HashSet<>( pairs );
+		// assign a primitive id to each interest point
+		final HashMap< Pair< ViewId, InterestPoint >, Integer > pointIds = new HashMap<>();
+		final int[] idA = new int[ pairs.size() ];
+		final int[] idB = new int[ pairs.size() ];
 
-		while ( unassignedCorr.size() > 0 )
-		{
-			final HashSet< CorrespondingIP > group = new HashSet<CorrespondingIP>();
-			final CorrespondingIP start = unassignedCorr.iterator().next();
-			group.add( start );
-			unassignedCorr.remove( start );
+		int i = 0;
 
-			final LinkedList< CorrespondingIP > potentialCorrespondences = new LinkedList<>();
-			potentialCorrespondences.add( start );
+		for ( final CorrespondingIP pair : pairs )
+		{
+			idA[ i ] = pointId( pointIds, pair.viewId, pair.ip );
+			idB[ i ] = pointId( pointIds, pair.corrViewId, pair.corrIp );
+			++i;
+		}
 
-			final HashSet< CorrespondingIP > visited = new HashSet<>();
+		// union-find with union by size and path halving
+		final int[] parent = new int[ pointIds.size() ];
+		final int[] size = new int[ pointIds.size() ];
 
-			while ( potentialCorrespondences.size() > 0 )
-			{
-				final CorrespondingIP pc = potentialCorrespondences.remove();
-				visited.add( pc );
+		for ( int j = 0; j < parent.length; ++j )
+		{
+			parent[ j ] = j;
+			size[ j ] = 1;
+		}
 
-				final ArrayList< CorrespondingIP > toRemove = new ArrayList<>();
+		for ( int j = 0; j < idA.length; ++j )
+		{
+			int rootA = find( parent, idA[ j ] );
+			int rootB = find( parent, idB[ j ] );
 
-				for ( final CorrespondingIP newCorr : unassignedCorr )
+			if ( rootA != rootB )
+			{
+				if ( size[ rootA ] < size[ rootB ] )
 				{
-					if ( pc.ip.equals( newCorr.ip ) || pc.ip.equals( newCorr.corrIp ) || pc.corrIp.equals( newCorr.ip ) || pc.corrIp.equals( newCorr.corrIp ))
-					{
-						group.add( newCorr );
-						toRemove.add( newCorr );
-						potentialCorrespondences.add( newCorr );
-					}
+					final int tmp = rootA;
+					rootA = rootB;
+					rootB = tmp;
 				}
 
-				unassignedCorr.removeAll( toRemove );
+				parent[ rootB ] = rootA;
+				size[ rootA ] += size[ rootB ];
 			}
+		}
+
+		// collect the correspondences per root
+		final ArrayList< HashSet< CorrespondingIP > > groups = new ArrayList<>();
+		final int[] groupIndex = new int[ parent.length ];
+		Arrays.fill( groupIndex, -1 );
+
+		i = 0;
+
+		for ( final CorrespondingIP pair : pairs )
+		{
+			final int root = find( parent, idA[ i++ ] );
 
-			groups.add( group );
+			if ( groupIndex[ root ] < 0 )
+			{
+				groupIndex[ root ] = groups.size();
+				groups.add( new HashSet<>() );
+			}
 
+			groups.get( groupIndex[ root ] ).add( pair );
 		}
+
 		return groups;
 	}
 
+	/**
+	 * @param groups - the unique interest points
+	 * @return the number of unique interest points where one view contributes more than one interest point
+	 */
+	public static int countInconsistentInterestPoints( final List< HashSet< CorrespondingIP > > groups )
+	{
+		int inconsistent = 0;
+
+		for ( final HashSet< CorrespondingIP > group : groups )
+		{
+			final HashMap< ViewId, InterestPoint > ipPerView = new HashMap<>();
+			boolean consistent = true;
+
+			for ( final CorrespondingIP pair : group )
+			{
+				consistent &= isConsistent( ipPerView, pair.viewId, pair.ip );
+				consistent &= isConsistent( ipPerView, pair.corrViewId, pair.corrIp );
+			}
+
+			if ( !consistent )
+				++inconsistent;
+		}
+
+		return inconsistent;
+	}
+
+	private static boolean isConsistent( final HashMap< ViewId, InterestPoint > ipPerView, final ViewId viewId, final InterestPoint ip )
+	{
+		final InterestPoint existing = ipPerView.putIfAbsent( viewId, ip );
+		return existing == null || existing.equals( ip );
+	}
+
+	private static int pointId( final HashMap< Pair< ViewId, InterestPoint >, Integer > pointIds, final ViewId viewId, final InterestPoint ip )
+	{
+		final Pair< ViewId, InterestPoint > key = new ValuePair<>( viewId, ip );
+		final Integer id = pointIds.get( key );
+
+		if ( id != null )
+			return id;
+
+		final int newId = pointIds.size();
+		pointIds.put( key, newId );
+
+		return newId;
+	}
+
+	private static int find( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+
+		return i;
+	}
+
 	public static ArrayList< CorrespondingIP > copyIPs( final List< CorrespondingIP > in )
 	{
 		final ArrayList< CorrespondingIP > out = new ArrayList<>();
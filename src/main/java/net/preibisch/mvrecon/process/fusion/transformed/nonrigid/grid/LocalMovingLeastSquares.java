@@ -0,0 +1,224 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import mpicbg.models.AffineModel3D;
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.NotEnoughDataPointsException;
+import net.imglib2.KDTree;
+import net.imglib2.RealPoint;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonrigidIP;
+
+/**
+ * Moving least squares fit of an {@link AffineModel3D} at arbitrary locations (same weighting as MovingLeastSquaresTransform2,
+ * w = 1 / (squared distance)^alpha), but only using the points that are close enough to have a relevant weight. The points are
+ * found using a KDTree: all points are used whose weight is at least weightCutoff times the weight of the nearest point, but at
+ * least the minNumNeighbors nearest points.
+ *
+ * Not thread-safe, use {@link #copy()} for each thread (the KDTree is shared).
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class LocalMovingLeastSquares
+{
+	public static double defaultWeightCutoff = 1e-4;
+	public static int defaultMinNumNeighbors = 16;
+
+	final double alpha, weightCutoff, radiusFactor;
+	final int minNumNeighbors, numPoints;
+
+	// p[ d ][ i ] ... target (world) locations, q[ d ][ i ] ... local locations
+	final double[][] allP, allQ;
+	final KDTree< Integer > tree;
+
+	final KNearestNeighborSearchOnKDTree< Integer > nearestSearch;
+	final RadiusNeighborSearchOnKDTree< Integer > radiusSearch;
+	final RealPoint reference = new RealPoint( 3 );
+
+	// temporary arrays for the fit, reallocated when the number of neighbors changes
+	double[][] p, q;
+	double[] w;
+
+	public LocalMovingLeastSquares(
+			final Collection< ? extends NonrigidIP > ips,
+			final double alpha,
+			final double weightCutoff,
+			final int minNumNeighbors )
+	{
+		this.alpha = alpha;
+		this.weightCutoff = weightCutoff;
+		this.numPoints = ips.size();
+		this.minNumNeighbors = Math.min( minNumNeighbors, numPoints );
+
+		// the weight of a point with squared distance s relative to the nearest point with s0 is (s0/s)^alpha,
+		// so it drops below the cutoff for a distance larger than sqrt(s0) * cutoff^(-1/(2*alpha))
+		this.radiusFactor = alpha > 0 && weightCutoff > 0 ? Math.pow( weightCutoff, -1.0 / ( 2.0 * alpha ) ) : Double.POSITIVE_INFINITY;
+
+		this.allP = new double[ 3 ][ numPoints ];
+		this.allQ = new double[ 3 ][ numPoints ];
+
+		final ArrayList< Integer > indices = new ArrayList<>( numPoints );
+		final ArrayList< RealPoint > positions = new ArrayList<>( numPoints );
+
+		int i = 0;
+
+		for ( final NonrigidIP ip : ips )
+		{
+			final double[] targetW = ip.getTargetW();
+			final double[] l = ip.getL();
+
+			for ( int d = 0; d < 3; ++d )
+			{
+				allP[ d ][ i ] = targetW[ d ];
+				allQ[ d ][ i ] = l[ d ];
+			}
+
+			indices.add( i++ );
+			positions.add( new RealPoint( targetW.clone() ) );
+		}
+
+		this.tree = numPoints > 0 ? new KDTree<>( indices, positions ) : null;
+		this.nearestSearch = tree == null ? null : new KNearestNeighborSearchOnKDTree<>( tree, Math.max( 1, this.minNumNeighbors ) );
+		this.radiusSearch = tree == null ? null : new RadiusNeighborSearchOnKDTree<>( tree );
+	}
+
+	public LocalMovingLeastSquares( final Collection< ? extends NonrigidIP > ips, final double alpha )
+	{
+		this( ips, alpha, defaultWeightCutoff, defaultMinNumNeighbors );
+	}
+
+	protected LocalMovingLeastSquares( final LocalMovingLeastSquares other )
+	{
+		this.alpha = other.alpha;
+		this.weightCutoff = other.weightCutoff;
+		this.radiusFactor = other.radiusFactor;
+		this.minNumNeighbors = other.minNumNeighbors;
+		this.numPoints = other.numPoints;
+		this.allP = other.allP;
+		this.allQ = other.allQ;
+		this.tree = other.tree;
+		this.nearestSearch = tree == null ? null : new KNearestNeighborSearchOnKDTree<>( tree, Math.max( 1, this.minNumNeighbors ) );
+		this.radiusSearch = tree == null ? null : new RadiusNeighborSearchOnKDTree<>( tree );
+	}
+
+	/**
+	 * @return a new instance for another thread, sharing the points and the KDTree
+	 */
+	public LocalMovingLeastSquares copy() { return new LocalMovingLeastSquares( this ); }
+
+	/**
+	 * Fits the model at a certain world location using the points in its neighborhood. If the local fit fails, all points are used.
+	 *
+	 * @param location - the world location
+	 * @param model - the model to fit
+	 * @throws NotEnoughDataPointsException
+	 * @throws IllDefinedDataPointsException
+	 */
+	public void fit( final double[] location, final AffineModel3D model ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		if ( tree == null )
+			throw new NotEnoughDataPointsException( "No points to compute a moving least squares fit." );
+
+		reference.setPosition( location );
+		nearestSearch.search( reference );
+
+		final int numNeighbors;
+
+		if ( Double.isInfinite( radiusFactor ) )
+		{
+			numNeighbors = -1;
+		}
+		else
+		{
+			final double radius = Math.sqrt( nearestSearch.getSquareDistance( 0 ) ) * radiusFactor;
+			radiusSearch.search( reference, radius, false );
+
+			if ( radiusSearch.numNeighbors() >= minNumNeighbors )
+			{
+				numNeighbors = radiusSearch.numNeighbors();
+				ensureCapacity( numNeighbors );
+
+				for ( int j = 0; j < numNeighbors; ++j )
+					set( j, radiusSearch.getSampler( j ).get(), location );
+			}
+			else
+			{
+				numNeighbors = minNumNeighbors;
+				ensureCapacity( numNeighbors );
+
+				for ( int j = 0; j < numNeighbors; ++j )
+					set( j, nearestSearch.getSampler( j ).get(), location );
+			}
+		}
+
+		if ( numNeighbors > 0 && numNeighbors < numPoints )
+		{
+			try
+			{
+				model.fit( p, q, w );
+				return;
+			}
+			catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e ) {}
+		}
+
+		// use all points
+		ensureCapacity( numPoints );
+
+		for ( int j = 0; j < numPoints; ++j )
+			set( j, j, location );
+
+		model.fit( p, q, w );
+	}
+
+	protected void set( final int j, final int i, final double[] location )
+	{
+		double s = 0;
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			p[ d ][ j ] = allP[ d ][ i ];
+			q[ d ][ j ] = allQ[ d ][ i ];
+
+			final double dx = allP[ d ][ i ] - location[ d ];
+			s += dx * dx;
+		}
+
+		w[ j ] = 1.0 / Math.pow( s, alpha );
+	}
+
+	protected void ensureCapacity( final int size )
+	{
+		// the model uses the length of the arrays as number of points
+		if ( w == null || w.length != size )
+		{
+			p = new double[ 3 ][ size ];
+			q = new double[ 3 ][ size ];
+			w = new double[ size ];
+		}
+	}
+}
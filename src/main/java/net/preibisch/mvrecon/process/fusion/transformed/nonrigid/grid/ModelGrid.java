@@ -22,24 +22,17 @@
  */
 package net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 
-import mpicbg.models.AffineModel3D;
 import mpicbg.models.IllDefinedDataPointsException;
-import mpicbg.models.MovingLeastSquaresTransform2;
 import mpicbg.models.NotEnoughDataPointsException;
-import mpicbg.models.Point;
-import mpicbg.models.PointMatch;
 import net.imglib2.Interval;
 import net.imglib2.Localizable;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealInterval;
 import net.imglib2.RealRandomAccess;
 import net.imglib2.RealRandomAccessible;
-import net.imglib2.img.list.ListImg;
-import net.imglib2.img.list.ListLocalizingCursor;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
@@ -96,44 +89,11 @@ public class ModelGrid implements RealRandomAccessible< NumericAffineModel3D >
 		}
 		else
 		{
-			final MovingLeastSquaresTransform2 transform = new MovingLeastSquaresTransform2();
-			final ArrayList< PointMatch > matches = new ArrayList<>();
-	
-			for ( final NonrigidIP ip : ips )
-				matches.add( new PointMatch( new Point( ip.getTargetW().clone() ), new Point( ip.getL().clone() ) ) );
-	
-			final AffineModel3D model = new AffineModel3D();
-	
-			transform.setAlpha( alpha );
-			transform.setModel( model );
-			transform.setMatches( matches );
-	
-	
-			// iterate over all control points
-			this.grid = new ListImg< NumericAffineModel3D >( dim, new NumericAffineModel3D( new AffineModel3D() ) );
-	
-			final ListLocalizingCursor< NumericAffineModel3D > it = ( (ListImg< NumericAffineModel3D >)grid ).localizingCursor();
-			final double[] pos = new double[ n ];
-	
-			long time = System.currentTimeMillis();
-	
-			while ( it.hasNext() )
-			{
-				it.fwd();
-	
-				//System.out.print( Util.printCoordinates( it ) + " >>> " );
-	
-				getWorldCoordinates( pos, it, min, controlPointDistance, n );
-	
-				//System.out.print( Util.printCoordinates( pos ) );
-	
-				transform.applyInPlace( pos ); // also modifies the model
-	
-				it.set( new NumericAffineModel3D( model.copy() ) );
-	
-				//System.out.println( " >>> " + Util.printCoordinates( pos ) + ": " + model );
-			}
-	
+			final long time = System.currentTimeMillis();
+
+			// all control points in parallel, each only using the points close enough to be relevant
+			this.grid = ModelGridTools.computeGrid( dim, min, controlPointDistance, alpha, ips );
+
 			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": computed grid [" + (System.currentTimeMillis() - time ) + " ms]." );
 		}
 	}
@@ -22,7 +22,88 @@
  */
 package net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid;
 
+import java.util.Collection;
+import java.util.Vector;
+
+import mpicbg.models.AffineModel3D;
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.NotEnoughDataPointsException;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayLocalizingCursor;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.ImagePortion;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonrigidIP;
+
 public class ModelGridTools
 {
+	/**
+	 * Computes the affine models of all control points of a grid in parallel using a locality-limited moving least squares
+	 * fit ({@link LocalMovingLeastSquares}), the 12 coefficients of each model are stored in a primitive double array.
+	 *
+	 * @param dim - number of control points in each dimension
+	 * @param min - world coordinates of the first control point
+	 * @param controlPointDistance - distance between control points
+	 * @param alpha - the alpha of the moving least squares
+	 * @param ips - the points
+	 * @return the grid of models
+	 * @throws NotEnoughDataPointsException
+	 * @throws IllDefinedDataPointsException
+	 */
+	public static ArrayImg< NumericAffineModel3D, DoubleArray > computeGrid(
+			final long[] dim,
+			final long[] min,
+			final long[] controlPointDistance,
+			final double alpha,
+			final Collection< ? extends NonrigidIP > ips ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final int n = dim.length;
+		final LocalMovingLeastSquares mls = new LocalMovingLeastSquares( ips, alpha );
+
+		@SuppressWarnings( "unchecked" )
+		final ArrayImg< NumericAffineModel3D, DoubleArray > grid =
+				(ArrayImg< NumericAffineModel3D, DoubleArray >)new ArrayImgFactory<>( new NumericAffineModel3D() ).create( dim );
+
+		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( grid.size() );
+
+		// the parallel stream is used since this is typically called from tasks that already run in an ExecutorService
+		final Exception[] failed = new Exception[ 1 ];
+
+		portions.parallelStream().forEach( portion ->
+		{
+			final LocalMovingLeastSquares localMls = mls.copy();
+			final AffineModel3D model = new AffineModel3D();
+			final ArrayLocalizingCursor< NumericAffineModel3D > it = grid.localizingCursor();
+			final double[] pos = new double[ n ];
+
+			it.jumpFwd( portion.getStartPosition() );
+
+			for ( long l = 0; l < portion.getLoopSize(); ++l )
+			{
+				it.fwd();
+
+				ModelGrid.getWorldCoordinates( pos, it, min, controlPointDistance, n );
+
+				try
+				{
+					localMls.fit( pos, model );
+				}
+				catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
+				{
+					synchronized ( failed ) { failed[ 0 ] = e; }
+					return;
+				}
+
+				it.get().setAffineModel( model );
+			}
+		});
+
+		if ( failed[ 0 ] instanceof NotEnoughDataPointsException )
+			throw (NotEnoughDataPointsException)failed[ 0 ];
+		else if ( failed[ 0 ] instanceof IllDefinedDataPointsException )
+			throw (IllDefinedDataPointsException)failed[ 0 ];
 
+		return grid;
+	}
 }
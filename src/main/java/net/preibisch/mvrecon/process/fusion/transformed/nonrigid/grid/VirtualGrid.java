@@ -37,6 +37,7 @@ public class VirtualGrid implements RandomAccessibleInterval< NumericAffineModel
 	final int n;
 	final double alpha;
 	final Collection< ? extends NonrigidIP > ips;
+	final LocalMovingLeastSquares mls;
 
 	public VirtualGrid(
 			final long[] dim,
@@ -51,12 +52,13 @@ public class VirtualGrid implements RandomAccessibleInterval< NumericAffineModel
 		this.n = dim.length;
 		this.alpha = alpha;
 		this.ips = ips;
+		this.mls = new LocalMovingLeastSquares( ips, alpha );
 	}
 
 	@Override
 	public RandomAccess< NumericAffineModel3D > randomAccess()
 	{
-		return new VirtualGridRandomAccess( min, controlPointDistance, alpha, ips, n );
+		return new VirtualGridRandomAccess( min, controlPointDistance, mls.copy(), n );
 	}
 
 	@Override
@@ -22,64 +22,34 @@
  */
 package net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid;
 
-import java.util.ArrayList;
-import java.util.Collection;
-
 import mpicbg.models.AffineModel3D;
 import mpicbg.models.IllDefinedDataPointsException;
-import mpicbg.models.MovingLeastSquaresTransform2;
 import mpicbg.models.NotEnoughDataPointsException;
-import mpicbg.models.Point;
-import mpicbg.models.PointMatch;
 import net.imglib2.AbstractLocalizableInt;
 import net.imglib2.Localizable;
 import net.imglib2.RandomAccess;
 import net.imglib2.Sampler;
-import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonrigidIP;
 
 public class VirtualGridRandomAccess extends AbstractLocalizableInt implements RandomAccess< NumericAffineModel3D >
 {
 	final double[] pos = new double[ n ];
 	final long[] min, controlPointDistance;
 
-	final double alpha;
-	final Collection< ? extends NonrigidIP > ips;
-
-	final MovingLeastSquaresTransform2 transform;
+	final LocalMovingLeastSquares mls;
 	final AffineModel3D model;
 
 	public VirtualGridRandomAccess(
 			final long[] min,
 			final long[] controlPointDistance,
-			final double alpha,
-			final Collection< ? extends NonrigidIP > ips,
+			final LocalMovingLeastSquares mls,
 			final int n )
 	{
 		super( n );
 
 		this.min = min;
 		this.controlPointDistance = controlPointDistance;
-		this.alpha = alpha;
-		this.ips = ips;
-		this.transform = new MovingLeastSquaresTransform2();
-		final ArrayList< PointMatch > matches = new ArrayList<>();
-
-		for ( final NonrigidIP ip : ips )
-			matches.add( new PointMatch( new Point( ip.getTargetW().clone() ), new Point( ip.getL().clone() ) ) );
-
+		this.mls = mls;
 		this.model = new AffineModel3D();
-
-		transform.setAlpha( alpha );
-		transform.setModel( model );
-		try
-		{
-			transform.setMatches( matches );
-		}
-		catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
-		{
-			e.printStackTrace();
-			throw new RuntimeException( "VirtualGridRandomAccess: Unable to compute non-rigid grid: " + e );
-		}
 	}
 
 	protected static final void getWorldCoordinates( final double[] pos, final int[] l, final long[] min, final long[] controlPointDistance, final int n )
@@ -97,7 +67,15 @@ public class VirtualGridRandomAccess extends AbstractLocalizableInt implements R
 
 		//System.out.print( Util.printCoordinates( pos ) );
 
-		transform.applyInPlace( pos ); // also modifies the model
+		try
+		{
+			mls.fit( pos, model );
+		}
+		catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
+		{
+			e.printStackTrace();
+			throw new RuntimeException( "VirtualGridRandomAccess: Unable to compute non-rigid grid: " + e );
+		}
 
 		//System.out.println( " >>> " + Util.printCoordinates( pos ) + ": " + model );
 
@@ -107,7 +85,7 @@ public class VirtualGridRandomAccess extends AbstractLocalizableInt implements R
 	@Override
 	public VirtualGridRandomAccess copy()
 	{
-		final VirtualGridRandomAccess r = new VirtualGridRandomAccess( min, controlPointDistance, alpha, ips, n );
+		final VirtualGridRandomAccess r = new VirtualGridRandomAccess( min, controlPointDistance, mls.copy(), n );
 		r.setPosition( this );
 		return r;
 	}
@@ -43,6 +43,10 @@ import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 
 public class DoG
 {
@@ -152,7 +156,11 @@ public class DoG
 								new long[] { dog.downsampleXY, dog.downsampleXY, dog.downsampleZ },
 								false );
 
-				List< InterestPoint > ips = DoGImgLib2.computeDoG(
+				List< InterestPoint > ips;
+
+				try ( final Timer.Context t = Metrics.time( Stage.DETECT, Group.pvid( vd ) ) )
+				{
+					ips = DoGImgLib2.computeDoG(
 							(RandomAccessible)Views.extendMirrorSingle( input.getA() ),
 							null, // mask
 							new FinalInterval( input.getA() ),
@@ -169,9 +177,12 @@ public class DoG
 							dog.deviceCUDA,
 							dog.accurateCUDA,
 							dog.percentGPUMem );
+				}
 
 				service.shutdown();
 
+				Metrics.count( Stage.DETECT, "interestpoints", Group.pvid( vd ), ips.size() );
+
 				if ( dog.limitDetections )
 					ips = InterestPointTools.limitList( dog.maxDetections, dog.maxDetectionsTypeIndex, ips );
 
@@ -43,6 +43,9 @@ import net.preibisch.mvrecon.process.interestpointregistration.global.convergenc
 import net.preibisch.mvrecon.process.interestpointregistration.global.linkremoval.LinkRemovalStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 
 public class GlobalOptIterative
 {
@@ -107,9 +110,14 @@ public class GlobalOptIterative
 				else
 					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
 
-				TileUtil.optimizeConcurrently(
-						new ErrorStatistic( ics.getMaxPlateauWidth() + 1 ),  ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth(), 1.0f,
-						tc, tc.getTiles(), tc.getFixedTiles(), Runtime.getRuntime().availableProcessors());
+				try ( final Timer.Context time = Metrics.time( Stage.OPTIMIZE, null ) )
+				{
+					TileUtil.optimizeConcurrently(
+							new ErrorStatistic( ics.getMaxPlateauWidth() + 1 ),  ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth(), 1.0f,
+							tc, tc.getTiles(), tc.getFixedTiles(), Runtime.getRuntime().availableProcessors());
+				}
+
+				Metrics.record( Stage.OPTIMIZE, "max_error", null, tc.getMaxError() );
 
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Global optimization of " + tc.getTiles().size());
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Avg Error: " + tc.getError() + "px" );
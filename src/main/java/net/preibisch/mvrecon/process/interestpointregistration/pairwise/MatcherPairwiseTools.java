@@ -44,6 +44,9 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.GroupedInterestPoint;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 
 public class MatcherPairwiseTools
 {
@@ -211,24 +214,27 @@ public class MatcherPairwiseTools
 
 	public static void assignLoggingDescriptions(
 			final Pair< ?, ? > p, PairwiseResult< ? > pwr )
+	{
+		pwr.setDescription( pairDescription( p ) );
+	}
+
+	public static String pairDescription( final Pair< ?, ? > p )
 	{
 		if ( ViewId.class.isInstance( p.getA() ) && ViewId.class.isInstance( p.getB() ) )
 		{
-			final String description =
+			return
 					"[TP=" + ((ViewId)p.getA()).getTimePointId() +
 					" ViewId=" + ((ViewId)p.getA()).getViewSetupId() +
 					" >>> TP=" + ((ViewId)p.getB()).getTimePointId() +
 					" ViewId=" + ((ViewId)p.getB()).getViewSetupId() + "]";
-
-			pwr.setDescription( description );
 		}
 		else if ( Group.class.isInstance( p.getA() ) && Group.class.isInstance( p.getB() ) )
 		{
-			pwr.setDescription( "[Group {" + p.getA() + "} >>> Group {" + p.getB() + "}]" );
+			return "[Group {" + p.getA() + "} >>> Group {" + p.getB() + "}]";
 		}
 		else
 		{
-			pwr.setDescription( "[" + p.getA() + " >>> " + p.getB() + "]" );
+			return "[" + p.getA() + " >>> " + p.getB() + "]";
 		}
 	}
 
@@ -281,7 +287,21 @@ public class MatcherPairwiseTools
 				@Override
 				public PairwiseResult< I > call() throws Exception
 				{
-					final PairwiseResult< I > pwr = matcher.match( listA, listB );
+					final PairwiseResult< I > pwr;
+					final String tag = pairDescription( pair );
+
+					// includes RANSAC, which is also timed separately
+					try ( final Timer.Context time = Metrics.time( Stage.MATCH, tag ) )
+					{
+						pwr = matcher.match( listA, listB );
+					}
+
+					if ( pwr.getCandidates() != null )
+						Metrics.count( Stage.RANSAC, "candidates", tag, pwr.getCandidates().size() );
+
+					if ( pwr.getInliers() != null )
+						Metrics.record( Stage.RANSAC, "inliers", tag, pwr.getInliers().size() );
+
 					assignLoggingDescriptions( pair, pwr );
 					return pwr;
 				}
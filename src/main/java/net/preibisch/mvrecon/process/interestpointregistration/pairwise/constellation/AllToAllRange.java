@@ -25,11 +25,13 @@ package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constel
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.RangeComparator;
 
 public class AllToAllRange< V extends Comparable< V >, R extends RangeComparator< V > > extends PairwiseSetup< V >
@@ -48,7 +50,7 @@ public class AllToAllRange< V extends Comparable< V >, R extends RangeComparator
 	@Override
 	protected List< Pair< V, V > > definePairsAbstract()
 	{
-		return allPairs( views, groups, rangeComparator );
+		return allPairs( views, groups, rangeComparator, overlapDetection );
 	}
 
 	@Override
@@ -59,9 +61,37 @@ public class AllToAllRange< V extends Comparable< V >, R extends RangeComparator
 			final Collection< ? extends Group< V > > groups,
 			final RangeComparator< V > rangeComparator )
 	{
+		return allPairs( views, groups, rangeComparator, null );
+	}
+
+	/**
+	 * @param views - all views
+	 * @param groups - groups of views, pairs within the same group are not compared
+	 * @param rangeComparator - which pairs are in range
+	 * @param overlapDetection - if not null, only overlapping pairs are considered (found using {@link OverlapDetection#overlappingPairs(List, RangeComparator)})
+	 * @param <V> - view id type
+	 * @return all pairs that need to be compared
+	 */
+	public static < V > List< Pair< V, V > > allPairs(
+			final List< ? extends V > views,
+			final Collection< ? extends Group< V > > groups,
+			final RangeComparator< V > rangeComparator,
+			final OverlapDetection< V > overlapDetection )
+	{
+		final Map< V, ArrayList< Group< V > > > memberships = Group.memberships( groups );
+
 		// all pairs that need to be compared
 		final ArrayList< Pair< V, V > > viewPairs = new ArrayList< Pair< V, V >>();
 
+		if ( overlapDetection != null )
+		{
+			for ( final Pair< V, V > pair : overlapDetection.overlappingPairs( views, rangeComparator ) )
+				if ( !Group.containsBoth( pair.getA(), pair.getB(), memberships ) )
+					viewPairs.add( pair );
+
+			return viewPairs;
+		}
+
 		for ( int a = 0; a < views.size() - 1; ++a )
 			for ( int b = a + 1; b < views.size(); ++b )
 			{
@@ -70,7 +100,7 @@ public class AllToAllRange< V extends Comparable< V >, R extends RangeComparator
 
 				// only compare those to views if not both are fixed and not
 				// part of the same group
-				if ( !Group.containsBoth( viewIdA, viewIdB, groups ) && rangeComparator.inRange( viewIdA, viewIdB ) )
+				if ( !Group.containsBoth( viewIdA, viewIdB, memberships ) && rangeComparator.inRange( viewIdA, viewIdB ) )
 					viewPairs.add( new ValuePair< V, V >( viewIdA, viewIdB ) );
 			}
 
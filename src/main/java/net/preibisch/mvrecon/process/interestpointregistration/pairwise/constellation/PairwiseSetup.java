@@ -26,9 +26,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import net.imglib2.util.Pair;
@@ -42,6 +45,7 @@ public abstract class PairwiseSetup< V extends Comparable< V > >
 	protected Set< Group< V > > groups;
 	protected List< Pair< V, V > > pairs;
 	protected ArrayList< Subset< V > > subsets;
+	protected OverlapDetection< V > overlapDetection = null; // if set, only overlapping pairs are defined
 
 	/**
 	 * Sets up all pairwise comparisons
@@ -93,6 +97,26 @@ public abstract class PairwiseSetup< V extends Comparable< V > >
 		return removed;
 	}
 
+	/**
+	 * Given a list of views and their grouping, identify all pairs that need to be compared and overlap. Implementations
+	 * that support it (all-to-all based setups) only look at overlapping pairs using a spatial search instead of
+	 * creating all pairs and removing the non-overlapping ones afterwards.
+	 * 
+	 * @param ovlp - implementation of {@link OverlapDetection}
+	 * @return - redundant pairs that were removed
+	 */
+	public ArrayList< Pair< V, V > > definePairs( final OverlapDetection< V > ovlp )
+	{
+		this.overlapDetection = ovlp;
+
+		final ArrayList< Pair< V, V > > removed = definePairs();
+
+		// for implementations that do not use the overlap detection
+		removeNonOverlappingPairs( ovlp );
+
+		return removed;
+	}
+
 	/**
 	 * abstract method called by the public definePairs method
 	 * @return - the list of pairs
@@ -210,55 +234,27 @@ public abstract class PairwiseSetup< V extends Comparable< V > >
 			final List< Pair< V, V > > pairs,
 			final Set< Group< V > > groups )
 	{
-		final ArrayList< Pair< V, V > > removed = new ArrayList<>();
+		// look up memberships and overlapping groups once instead of scanning all groups for every pair
+		final HashMap< V, ArrayList< Group< V > > > memberships = Group.memberships( groups );
+		final IdentityHashMap< Group< V >, Set< Group< V > > > overlappingGroups = Group.overlappingGroups( memberships );
 
-		for ( int i = pairs.size() - 1; i >= 0; --i )
+		return removePairs( pairs, pair ->
 		{
-			final Pair< V, V > pair = pairs.get( i );
-
-			final V viewA = pair.getA();
-			final V viewB = pair.getB();
-
-			// if both views of a pair are contained in the same group
-			// we can safely remove this pair
-
-			boolean removedPair = false;
-
-			for ( final Group< V > group : groups )
-			{
-				if ( group.contains( viewA ) && group.contains( viewB ) )
-				{
-					pairs.remove( i );
-					removed.add( pair );
-					removedPair = true;
+			final ArrayList< Group< V > > memberA = memberships.get( pair.getA() );
+			final ArrayList< Group< V > > memberB = memberships.get( pair.getB() );
 
-					break;
-				}
-			}
-			
-			// we removed pair on first test, nothing more to be done
+			if ( memberA == null || memberB == null )
+				return false;
 
-			if ( removedPair )
-				continue;
+			// if both views of a pair are contained in the same group or the groups that both views
+			// belong to overlap, there is no point in comparing this pair (a group overlaps with itself)
+			for ( final Group< V > groupA : memberA )
+				for ( final Group< V > groupB : memberB )
+					if ( overlappingGroups.get( groupA ).contains( groupB ) )
+						return true;
 
-			// now test if the groups that both views belong to overlap,
-			// because if they do, there is no point in comparing this pair
-			final ArrayList< Group< V > > memberA = Group.memberOf( viewA, groups );
-			final ArrayList< Group< V > > memberB = Group.memberOf( viewB, groups );
-
-			for ( int a = 0; a < memberA.size() && !removedPair; ++a )
-				for ( int b = 0; b < memberB.size() && !removedPair; ++b )
-				{
-					if ( Group.overlaps( memberA.get( a ), memberB.get( b ) ) )
-					{
-						pairs.remove( i );
-						removed.add( pair );
-						removedPair = true;
-					}
-				}
-		}
-
-		return removed;
+			return false;
+		});
 	}
 
 	/**
@@ -273,19 +269,37 @@ public abstract class PairwiseSetup< V extends Comparable< V > >
 			final List< Pair< V, V > > pairs,
 			final OverlapDetection< V > ovlp )
 	{
+		return removePairs( pairs, pair -> !ovlp.overlaps( pair.getA(), pair.getB() ) );
+	}
+
+	/**
+	 * Removes all pairs that match the predicate in one pass (instead of removing them one by one)
+	 * 
+	 * @param pairs - the pairs, will be modified
+	 * @param remove - which pairs to remove
+	 * @param <V> view id type
+	 * @return a list of pairs that were removed (in reverse order)
+	 */
+	protected static < V > ArrayList< Pair< V, V > > removePairs(
+			final List< Pair< V, V > > pairs,
+			final Predicate< Pair< V, V > > remove )
+	{
+		final ArrayList< Pair< V, V > > kept = new ArrayList<>();
 		final ArrayList< Pair< V, V > > removed = new ArrayList<>();
 
-		for ( int i = pairs.size() - 1; i >= 0; --i )
+		for ( final Pair< V, V > pair : pairs )
 		{
-			final Pair< V, V > pair = pairs.get( i );
-
-			if ( !ovlp.overlaps( pair.getA(), pair.getB() ) )
-			{
-				pairs.remove( i );
+			if ( remove.test( pair ) )
 				removed.add( pair );
-			}
+			else
+				kept.add( pair );
 		}
 
+		pairs.clear();
+		pairs.addAll( kept );
+
+		Collections.reverse( removed );
+
 		return removed;
 	}
 
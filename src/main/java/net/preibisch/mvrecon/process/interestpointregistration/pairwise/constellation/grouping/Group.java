@@ -28,6 +28,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -379,6 +380,76 @@ public class Group< V > implements Iterable< V >
 		return false;
 	}
 
+	/**
+	 * Same as {@link #containsBoth(Object, Object, Collection)}, but using precomputed memberships
+	 *
+	 * @param viewIdA - first view
+	 * @param viewIdB - second view
+	 * @param memberships - the groups of each view, see {@link #memberships(Collection)}
+	 * @param <V> - view id type
+	 * @return whether there is a group that contains both views
+	 */
+	public static < V > boolean containsBoth(
+			final V viewIdA,
+			final V viewIdB,
+			final Map< V, ArrayList< Group< V > > > memberships )
+	{
+		final ArrayList< Group< V > > groupsA = memberships.get( viewIdA );
+		final ArrayList< Group< V > > groupsB = memberships.get( viewIdB );
+
+		if ( groupsA == null || groupsB == null )
+			return false;
+
+		for ( final Group< V > groupA : groupsA )
+			for ( final Group< V > groupB : groupsB )
+				if ( groupA == groupB )
+					return true;
+
+		return false;
+	}
+
+	/**
+	 * Precomputes for every view which groups it is a member of, so it does not need to be looked up for every pair
+	 *
+	 * @param groups - all groups, can be null
+	 * @param <V> - view id type
+	 * @return map from view to the groups it is a member of
+	 */
+	public static < V > HashMap< V, ArrayList< Group< V > > > memberships( final Collection< ? extends Group< V > > groups )
+	{
+		final HashMap< V, ArrayList< Group< V > > > memberships = new HashMap<>();
+
+		if ( groups != null )
+			for ( final Group< V > group : groups )
+				for ( final V view : group )
+					memberships.computeIfAbsent( view, v -> new ArrayList<>() ).add( group );
+
+		return memberships;
+	}
+
+	/**
+	 * Precomputes for every group which groups it overlaps with (including itself), i.e. share at least one view
+	 *
+	 * @param memberships - the groups of each view, see {@link #memberships(Collection)}
+	 * @param <V> - view id type
+	 * @return map from group to the groups overlapping with it (compared by identity)
+	 */
+	public static < V > IdentityHashMap< Group< V >, Set< Group< V > > > overlappingGroups( final Map< V, ArrayList< Group< V > > > memberships )
+	{
+		final IdentityHashMap< Group< V >, Set< Group< V > > > overlapping = new IdentityHashMap<>();
+
+		for ( final ArrayList< Group< V > > groups : memberships.values() )
+			for ( final Group< V > groupA : groups )
+			{
+				final Set< Group< V > > set = overlapping.computeIfAbsent( groupA, g -> Collections.newSetFromMap( new IdentityHashMap<>() ) );
+
+				for ( final Group< V > groupB : groups )
+					set.add( groupB );
+			}
+
+		return overlapping;
+	}
+
 	public static < V > Group< V > isContained(
 			final V view,
 			final Collection< ? extends Group< V > > groupCollection )
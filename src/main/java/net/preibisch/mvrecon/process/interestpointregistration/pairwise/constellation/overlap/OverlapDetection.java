@@ -22,10 +22,50 @@
  */
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.imglib2.RealInterval;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.AllInRange;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.RangeComparator;
 
 public interface OverlapDetection< V >
 {
 	public boolean overlaps( final V view1, final V view2 );
 	public RealInterval getOverlapInterval( final V view1, final V view2 );
+
+	/**
+	 * All pairs of overlapping views, ordered like an all-to-all comparison (a &lt; b by index in the list).
+	 * Implementations that know where the views are should override this with a spatial search,
+	 * the default tests every pair.
+	 *
+	 * @param views - the views
+	 * @return overlapping pairs
+	 */
+	public default List< Pair< V, V > > overlappingPairs( final List< ? extends V > views )
+	{
+		return overlappingPairs( views, new AllInRange<>() );
+	}
+
+	/**
+	 * All pairs of overlapping views that are in range, ordered like an all-to-all comparison (a &lt; b by index in the list).
+	 * Implementations should only compare views that are in range, the default tests every pair.
+	 *
+	 * @param views - the views
+	 * @param rangeComparator - which pairs are in range
+	 * @return overlapping pairs that are in range
+	 */
+	public default List< Pair< V, V > > overlappingPairs( final List< ? extends V > views, final RangeComparator< V > rangeComparator )
+	{
+		final ArrayList< Pair< V, V > > pairs = new ArrayList<>();
+
+		for ( int a = 0; a < views.size() - 1; ++a )
+			for ( int b = a + 1; b < views.size(); ++b )
+				if ( rangeComparator.inRange( views.get( a ), views.get( b ) ) && overlaps( views.get( a ), views.get( b ) ) )
+					pairs.add( new ValuePair< V, V >( views.get( a ), views.get( b ) ) );
+
+		return pairs;
+	}
 }
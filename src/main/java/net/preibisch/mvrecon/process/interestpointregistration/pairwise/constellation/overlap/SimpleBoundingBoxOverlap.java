@@ -22,7 +22,11 @@
  */
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiPredicate;
 
 import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
@@ -35,7 +39,12 @@ import net.imglib2.Dimensions;
 import net.imglib2.FinalRealInterval;
 import net.imglib2.RealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.AllInRange;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.RangeComparator;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.TimepointRangeComparator;
 
 public class SimpleBoundingBoxOverlap< V extends ViewId > implements OverlapDetection< V >
 {
@@ -117,6 +126,124 @@ public class SimpleBoundingBoxOverlap< V extends ViewId > implements OverlapDete
 		}
 	}
 
+	@Override
+	public List< Pair< V, V > > overlappingPairs( final List< ? extends V > views )
+	{
+		return overlappingPairs( views, new AllInRange<>() );
+	}
+
+	/**
+	 * Finds all overlapping pairs that are in range using sweep-and-prune along x, i.e. O(n log n + k) instead of testing all n^2 pairs.
+	 * If the range only depends on the timepoints, the views are partitioned by timepoint and only timepoints that are
+	 * in range are swept together (e.g. O(n log n) instead of O(T^2 n) for individual timepoints).
+	 */
+	@Override
+	public List< Pair< V, V > > overlappingPairs( final List< ? extends V > views, final RangeComparator< V > rangeComparator )
+	{
+		final int n = views.size();
+		final BoundingBox[] boxes = new BoundingBox[ n ];
+
+		for ( int i = 0; i < n; ++i )
+		{
+			boxes[ i ] = getBoundingBox( vss.get( views.get( i ).getViewSetupId() ), vrs.get( views.get( i ) ) );
+
+			if ( boxes[ i ] == null )
+				throw new RuntimeException( "view " + views.get( i ) + " has no image size" );
+		}
+
+		final ArrayList< long[] > indexPairs = new ArrayList<>();
+
+		if ( rangeComparator instanceof TimepointRangeComparator )
+		{
+			final TimepointRangeComparator< ? > timepointRange = (TimepointRangeComparator< ? >)rangeComparator;
+			final TreeMap< Integer, ArrayList< Integer > > timepoints = new TreeMap<>();
+
+			for ( int i = 0; i < n; ++i )
+				timepoints.computeIfAbsent( views.get( i ).getTimePointId(), tp -> new ArrayList<>() ).add( i );
+
+			final ArrayList< Integer > tps = new ArrayList<>( timepoints.keySet() );
+
+			for ( int a = 0; a < tps.size(); ++a )
+				for ( int b = a; b < tps.size(); ++b )
+				{
+					final int tpA = tps.get( a );
+					final int tpB = tps.get( b );
+
+					if ( !timepointRange.inRange( tpA, tpB ) )
+						continue;
+
+					final ArrayList< Integer > indices = new ArrayList<>( timepoints.get( tpA ) );
+
+					if ( tpA == tpB )
+					{
+						sweep( indices, boxes, ( i, j ) -> true, indexPairs );
+					}
+					else
+					{
+						// pairs within each timepoint are found when sweeping it alone
+						indices.addAll( timepoints.get( tpB ) );
+						sweep( indices, boxes, ( i, j ) -> views.get( i ).getTimePointId() != views.get( j ).getTimePointId(), indexPairs );
+					}
+				}
+		}
+		else
+		{
+			final ArrayList< Integer > indices = new ArrayList<>( n );
+			for ( int i = 0; i < n; ++i )
+				indices.add( i );
+
+			sweep( indices, boxes, ( i, j ) -> rangeComparator.inRange( views.get( i ), views.get( j ) ), indexPairs );
+		}
+
+		// same order as comparing all pairs
+		indexPairs.sort( ( a, b ) -> a[ 0 ] == b[ 0 ] ? Long.compare( a[ 1 ], b[ 1 ] ) : Long.compare( a[ 0 ], b[ 0 ] ) );
+
+		final ArrayList< Pair< V, V > > pairs = new ArrayList<>( indexPairs.size() );
+
+		for ( final long[] p : indexPairs )
+			pairs.add( new ValuePair< V, V >( views.get( (int)p[ 0 ] ), views.get( (int)p[ 1 ] ) ) );
+
+		return pairs;
+	}
+
+	/**
+	 * Sweep-and-prune along x over a subset of the boxes
+	 *
+	 * @param indices - indices of the boxes to sweep, will be sorted
+	 * @param boxes - all boxes
+	 * @param test - only pairs (smaller index, larger index) passing this test are added
+	 * @param indexPairs - overlapping pairs are added here (smaller index, larger index)
+	 */
+	protected static void sweep(
+			final List< Integer > indices,
+			final BoundingBox[] boxes,
+			final BiPredicate< Integer, Integer > test,
+			final List< long[] > indexPairs )
+	{
+		indices.sort( ( a, b ) -> Integer.compare( boxes[ a ].getMin()[ 0 ], boxes[ b ].getMin()[ 0 ] ) );
+
+		final ArrayList< Integer > active = new ArrayList<>();
+
+		for ( final int i : indices )
+		{
+			final int minX = boxes[ i ].getMin()[ 0 ];
+
+			// boxes that end before this one starts cannot overlap with any of the following ones
+			active.removeIf( j -> boxes[ j ].getMax()[ 0 ] < minX );
+
+			for ( final int j : active )
+			{
+				final int a = Math.min( i, j );
+				final int b = Math.max( i, j );
+
+				if ( test.test( a, b ) && overlaps( boxes[ i ], boxes[ j ] ) )
+					indexPairs.add( new long[] { a, b } );
+			}
+
+			active.add( i );
+		}
+	}
+
 	public static boolean overlaps( final BoundingBox bb1, final BoundingBox bb2 )
 	{
 		for ( int d = 0; d < bb1.numDimensions(); ++d )
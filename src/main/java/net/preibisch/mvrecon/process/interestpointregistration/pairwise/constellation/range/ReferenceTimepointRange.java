@@ -25,7 +25,7 @@ package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constel
 import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.ViewId;
 
-public class ReferenceTimepointRange< V extends ViewId > implements RangeComparator< V >
+public class ReferenceTimepointRange< V extends ViewId > implements TimepointRangeComparator< V >
 {
 	final int referenceTimepoint;
 
@@ -39,10 +39,10 @@ public class ReferenceTimepointRange< V extends ViewId > implements RangeCompara
 	}
 
 	@Override
-	public boolean inRange( final V view1, final V view2 )
+	public boolean inRange( final int timepoint1, final int timepoint2 )
 	{
 		// if one of the views is a reference timepoint or if they are from the same timepoint (fixed views are discarded later)
-		if ( view1.getTimePointId() == referenceTimepoint || view2.getTimePointId() == referenceTimepoint || view1.getTimePointId() == view2.getTimePointId() )
+		if ( timepoint1 == referenceTimepoint || timepoint2 == referenceTimepoint || timepoint1 == timepoint2 )
 			return true;
 		else
 			return false;
@@ -24,16 +24,16 @@ package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constel
 
 import mpicbg.spim.data.sequence.ViewId;
 
-public class TimepointRange< V extends ViewId > implements RangeComparator< V >
+public class TimepointRange< V extends ViewId > implements TimepointRangeComparator< V >
 {
 	final int maxDistance;
 
 	public TimepointRange( final int maxDistance ) { this.maxDistance = maxDistance; }
 
 	@Override
-	public boolean inRange( final V view1, final V view2 )
+	public boolean inRange( final int timepoint1, final int timepoint2 )
 	{
-		if ( Math.abs( view2.getTimePointId() - view1.getTimePointId() ) <= maxDistance )
+		if ( Math.abs( timepoint2 - timepoint1 ) <= maxDistance )
 			return true;
 		else
 			return false;
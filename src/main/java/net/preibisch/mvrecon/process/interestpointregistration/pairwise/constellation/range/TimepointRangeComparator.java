@@ -0,0 +1,42 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range;
+
+import mpicbg.spim.data.sequence.ViewId;
+
+/**
+ * A range that only depends on the timepoints of two views, which allows to partition the views by timepoint
+ * (e.g. when searching for overlapping pairs) and skip all timepoints that are not in range.
+ *
+ * @param <V> - view id type
+ */
+public interface TimepointRangeComparator< V extends ViewId > extends RangeComparator< V >
+{
+	public boolean inRange( int timepoint1, int timepoint2 );
+
+	@Override
+	public default boolean inRange( final V view1, final V view2 )
+	{
+		return inRange( view1.getTimePointId(), view2.getTimePointId() );
+	}
+}
@@ -29,6 +29,9 @@ import net.preibisch.legacy.mpicbg.PointMatchGeneric;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.ValuePair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.metrics.Metrics.Stage;
+import net.preibisch.mvrecon.process.metrics.Timer;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.LinkedPoint;
 import mpicbg.models.Model;
 import mpicbg.models.NotEnoughDataPointsException;
@@ -87,7 +90,7 @@ public class RANSAC
 		
 		boolean modelFound = false;
 		
-		try
+		try ( final Timer.Context time = Metrics.time( Stage.RANSAC, null ) )
 		{
 			/*modelFound = m.ransac(
   					candidates,
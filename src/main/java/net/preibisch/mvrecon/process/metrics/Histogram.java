@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of recorded values in fixed exponential buckets (upper bounds 1, 2, 4, ..., 2^(numBuckets-2), +Inf), safe to update
+ * from many threads without locking.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class Histogram
+{
+	public static int numBuckets = 42;
+
+	final LongAdder[] buckets;
+	final LongAdder count = new LongAdder();
+	final DoubleAdderMax sum = new DoubleAdderMax();
+
+	public Histogram()
+	{
+		this.buckets = new LongAdder[ numBuckets ];
+
+		for ( int i = 0; i < buckets.length; ++i )
+			buckets[ i ] = new LongAdder();
+	}
+
+	public void record( final double value )
+	{
+		buckets[ bucket( value ) ].increment();
+		count.increment();
+		sum.add( value );
+	}
+
+	public long getCount() { return count.sum(); }
+	public double getSum() { return sum.getSum(); }
+	public double getMax() { return sum.getMax(); }
+	public double getMean() { final long c = getCount(); return c == 0 ? 0 : getSum() / c; }
+
+	public int numBuckets() { return buckets.length; }
+
+	/**
+	 * @param i - bucket index
+	 * @return the (inclusive) upper bound of the bucket
+	 */
+	public double getUpperBound( final int i ) { return i == buckets.length - 1 ? Double.POSITIVE_INFINITY : Math.pow( 2, i ); }
+
+	/**
+	 * @param i - bucket index
+	 * @return the number of values in this bucket (not cumulative)
+	 */
+	public long getBucketCount( final int i ) { return buckets[ i ].sum(); }
+
+	/**
+	 * @param q - the quantile [0...1]
+	 * @return an approximation of the quantile (the upper bound of the bucket it falls into)
+	 */
+	public double getQuantile( final double q )
+	{
+		final long total = getCount();
+
+		if ( total == 0 )
+			return 0;
+
+		final long target = (long)Math.ceil( q * total );
+		long cumulative = 0;
+
+		for ( int i = 0; i < buckets.length; ++i )
+		{
+			cumulative += buckets[ i ].sum();
+
+			if ( cumulative >= target )
+				return i == buckets.length - 1 ? getMax() : getUpperBound( i );
+		}
+
+		return getMax();
+	}
+
+	protected int bucket( final double value )
+	{
+		if ( value <= 1 )
+			return 0;
+
+		// smallest i with 2^i >= value
+		final int i = 64 - Long.numberOfLeadingZeros( (long)Math.ceil( value ) - 1 );
+
+		return Math.min( i, buckets.length - 1 );
+	}
+
+	/**
+	 * Sum and max of doubles without locking (stored as raw long bits)
+	 */
+	protected static class DoubleAdderMax
+	{
+		final AtomicLong sumBits = new AtomicLong( Double.doubleToRawLongBits( 0 ) );
+		final AtomicLong maxBits = new AtomicLong( Double.doubleToRawLongBits( Double.NEGATIVE_INFINITY ) );
+
+		public void add( final double value )
+		{
+			long prev, next;
+
+			do
+			{
+				prev = sumBits.get();
+				next = Double.doubleToRawLongBits( Double.longBitsToDouble( prev ) + value );
+			}
+			while ( !sumBits.compareAndSet( prev, next ) );
+
+			do
+			{
+				prev = maxBits.get();
+
+				if ( Double.longBitsToDouble( prev ) >= value )
+					break;
+			}
+			while ( !maxBits.compareAndSet( prev, Double.doubleToRawLongBits( value ) ) );
+		}
+
+		public double getSum() { return Double.longBitsToDouble( sumBits.get() ); }
+		public double getMax() { final double max = Double.longBitsToDouble( maxBits.get() ); return Double.isInfinite( max ) ? 0 : max; }
+	}
+}
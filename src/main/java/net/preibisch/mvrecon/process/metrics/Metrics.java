@@ -0,0 +1,412 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpServer;
+
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * Lightweight registry of counters, timers and histograms per pipeline stage, optionally tagged (e.g. by view or block).
+ * Everything is kept in memory, it can be written to a JSON file and served in the Prometheus text format on a local port.
+ *
+ * If the system property "mvrecon.metrics.json" is set, the metrics are written to that file when the JVM exits; if
+ * "mvrecon.metrics.port" is set, a Prometheus endpoint is started on localhost:port/metrics. Metrics can be disabled
+ * by setting {@link #enabled} to false, all calls are then no-ops.
+ *
+ * Tags are meant for a bounded set of things like views, pairs or datasets; per-block durations are recorded in one
+ * untagged histogram per stage. To bound memory, at most {@link #maxTagsPerStage} distinct tags are kept per stage,
+ * everything beyond is recorded under the tag "other". Compression is part of WRITE since the N5 writers compress
+ * while writing.
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class Metrics
+{
+	public enum Stage { LOAD, DETECT, MATCH, RANSAC, OPTIMIZE, FUSE, DECONVOLVE, WRITE }
+
+	public enum Kind { COUNTER, TIMER, HISTOGRAM }
+
+	public static boolean enabled = true;
+	public static int maxTagsPerStage = 1000;
+	public static String overflowTag = "other";
+
+	private static final ConcurrentHashMap< Key, Object > metrics = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap< Stage, Set< String > > tags = new ConcurrentHashMap<>();
+	private static HttpServer server = null;
+
+	static
+	{
+		final String json = System.getProperty( "mvrecon.metrics.json" );
+
+		if ( json != null )
+			Runtime.getRuntime().addShutdownHook( new Thread( () -> writeJSON( new File( json ) ) ) );
+
+		final String port = System.getProperty( "mvrecon.metrics.port" );
+
+		if ( port != null )
+		{
+			try
+			{
+				startPrometheusEndpoint( Integer.parseInt( port.trim() ) );
+			}
+			catch ( final NumberFormatException e )
+			{
+				IOFunctions.println( "Invalid port for metrics endpoint (mvrecon.metrics.port='" + port + "'), not serving metrics." );
+			}
+		}
+	}
+
+	public static Counter counter( final Stage stage, final String name ) { return counter( stage, name, null ); }
+	public static Counter counter( final Stage stage, final String name, final String tag ) { return get( stage, Kind.COUNTER, name, tag ); }
+
+	public static Timer timer( final Stage stage, final String name ) { return timer( stage, name, null ); }
+	public static Timer timer( final Stage stage, final String name, final String tag ) { return get( stage, Kind.TIMER, name, tag ); }
+
+	public static Histogram histogram( final Stage stage, final String name ) { return histogram( stage, name, null ); }
+	public static Histogram histogram( final Stage stage, final String name, final String tag ) { return get( stage, Kind.HISTOGRAM, name, tag ); }
+
+	/**
+	 * @param stage - the pipeline stage
+	 * @param tag - e.g. the view or block, can be null
+	 * @return a running timer for the stage (named "time"), stop it by calling close()
+	 */
+	public static Timer.Context time( final Stage stage, final String tag )
+	{
+		return time( stage, "time", tag );
+	}
+
+	/**
+	 * @param stage - the pipeline stage
+	 * @param name - name of the timer
+	 * @param tag - e.g. the view, can be null
+	 * @return a running timer, stop it by calling close()
+	 */
+	public static Timer.Context time( final Stage stage, final String name, final String tag )
+	{
+		if ( !enabled )
+			return Timer.Context.noop;
+
+		return timer( stage, name, tag ).start();
+	}
+
+	/**
+	 * Increments a counter if metrics are enabled
+	 *
+	 * @param stage - the pipeline stage
+	 * @param name - name of the counter
+	 * @param tag - e.g. the view or block, can be null
+	 * @param amount - amount to add
+	 */
+	public static void count( final Stage stage, final String name, final String tag, final long amount )
+	{
+		if ( enabled )
+			counter( stage, name, tag ).inc( amount );
+	}
+
+	/**
+	 * Records a value in a histogram if metrics are enabled
+	 *
+	 * @param stage - the pipeline stage
+	 * @param name - name of the histogram
+	 * @param tag - e.g. the view or block, can be null
+	 * @param value - the value
+	 */
+	public static void record( final Stage stage, final String name, final String tag, final double value )
+	{
+		if ( enabled )
+			histogram( stage, name, tag ).record( value );
+	}
+
+	public static void clear()
+	{
+		metrics.clear();
+		tags.clear();
+	}
+
+	@SuppressWarnings( "unchecked" )
+	protected static < T > T get( final Stage stage, final Kind kind, final String name, final String tag )
+	{
+		return (T)metrics.computeIfAbsent( new Key( stage, kind, name, limitTag( stage, tag ) ), key ->
+		{
+			switch ( kind )
+			{
+				case COUNTER: return new Counter();
+				case TIMER: return new Timer();
+				default: return new Histogram();
+			}
+		});
+	}
+
+	/**
+	 * @param stage - the pipeline stage
+	 * @param tag - the tag, can be null
+	 * @return the tag, or {@link #overflowTag} if the stage already has {@link #maxTagsPerStage} other tags
+	 */
+	protected static String limitTag( final Stage stage, final String tag )
+	{
+		if ( tag == null )
+			return null;
+
+		final Set< String > stageTags = tags.computeIfAbsent( stage, s -> ConcurrentHashMap.newKeySet() );
+
+		if ( stageTags.contains( tag ) )
+			return tag;
+
+		// the limit may be exceeded slightly by concurrent calls, which is fine
+		if ( stageTags.size() >= maxTagsPerStage )
+			return overflowTag;
+
+		stageTags.add( tag );
+
+		return tag;
+	}
+
+	/**
+	 * @return all metrics sorted by stage, name and tag, as nested maps that can be serialized
+	 */
+	public static List< Map< String, Object > > snapshot()
+	{
+		final ArrayList< Key > keys = new ArrayList<>( metrics.keySet() );
+		Collections.sort( keys, keyComparator );
+
+		final ArrayList< Map< String, Object > > list = new ArrayList<>();
+
+		for ( final Key key : keys )
+		{
+			final LinkedHashMap< String, Object > entry = new LinkedHashMap<>();
+			entry.put( "stage", key.stage.name() );
+			entry.put( "kind", key.kind.name() );
+			entry.put( "name", key.name );
+
+			if ( key.tag != null )
+				entry.put( "tag", key.tag );
+
+			final Object metric = metrics.get( key );
+
+			if ( key.kind == Kind.COUNTER )
+			{
+				entry.put( "count", ((Counter)metric).get() );
+			}
+			else
+			{
+				final Histogram h = key.kind == Kind.TIMER ? ((Timer)metric).getHistogram() : (Histogram)metric;
+
+				if ( key.kind == Kind.TIMER )
+					entry.put( "unit", "ms" );
+
+				entry.put( "count", h.getCount() );
+				entry.put( "sum", h.getSum() );
+				entry.put( "mean", h.getMean() );
+				entry.put( "p50", h.getQuantile( 0.5 ) );
+				entry.put( "p95", h.getQuantile( 0.95 ) );
+				entry.put( "max", h.getMax() );
+			}
+
+			list.add( entry );
+		}
+
+		return list;
+	}
+
+	public static boolean writeJSON( final File file )
+	{
+		final LinkedHashMap< String, Object > root = new LinkedHashMap<>();
+		root.put( "created", new Date( System.currentTimeMillis() ).toString() );
+		root.put( "metrics", snapshot() );
+
+		try ( final Writer writer = new FileWriter( file ) )
+		{
+			new GsonBuilder().setPrettyPrinting().create().toJson( root, writer );
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "Failed to write metrics to '" + file + "': " + e );
+			return false;
+		}
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text exposition format (timers and histograms as histograms with cumulative buckets)
+	 */
+	public static String toPrometheusText()
+	{
+		final ArrayList< Key > keys = new ArrayList<>( metrics.keySet() );
+		Collections.sort( keys, keyComparator );
+
+		final StringBuilder s = new StringBuilder();
+		String lastName = null;
+
+		for ( final Key key : keys )
+		{
+			final String name = "mvrecon_" + key.stage.name().toLowerCase() + "_" + sanitize( key.name ) +
+					( key.kind == Kind.COUNTER ? "_total" : key.kind == Kind.TIMER ? "_milliseconds" : "" );
+			final String tag = key.tag == null ? "" : "tag=\"" + key.tag.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" ) + "\"";
+
+			if ( !name.equals( lastName ) )
+			{
+				s.append( "# TYPE " ).append( name ).append( key.kind == Kind.COUNTER ? " counter\n" : " histogram\n" );
+				lastName = name;
+			}
+
+			final Object metric = metrics.get( key );
+
+			if ( key.kind == Kind.COUNTER )
+			{
+				s.append( name ).append( tag.length() > 0 ? "{" + tag + "}" : "" ).append( ' ' ).append( ((Counter)metric).get() ).append( '\n' );
+			}
+			else
+			{
+				final Histogram h = key.kind == Kind.TIMER ? ((Timer)metric).getHistogram() : (Histogram)metric;
+				final String sep = tag.length() > 0 ? tag + "," : "";
+
+				long cumulative = 0;
+
+				for ( int i = 0; i < h.numBuckets(); ++i )
+				{
+					cumulative += h.getBucketCount( i );
+					final double le = h.getUpperBound( i );
+					s.append( name ).append( "_bucket{" ).append( sep ).append( "le=\"" ).append( Double.isInfinite( le ) ? "+Inf" : Double.toString( le ) ).append( "\"} " ).append( cumulative ).append( '\n' );
+				}
+
+				s.append( name ).append( "_sum" ).append( tag.length() > 0 ? "{" + tag + "}" : "" ).append( ' ' ).append( h.getSum() ).append( '\n' );
+				s.append( name ).append( "_count" ).append( tag.length() > 0 ? "{" + tag + "}" : "" ).append( ' ' ).append( h.getCount() ).append( '\n' );
+			}
+		}
+
+		return s.toString();
+	}
+
+	/**
+	 * Serves {@link #toPrometheusText()} on http://localhost:port/metrics (only bound to the loopback interface)
+	 *
+	 * @param port - the port
+	 * @return true if the endpoint is running
+	 */
+	public static synchronized boolean startPrometheusEndpoint( final int port )
+	{
+		if ( server != null )
+			return true;
+
+		try
+		{
+			server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+			server.createContext( "/metrics", exchange ->
+			{
+				final byte[] bytes = toPrometheusText().getBytes( StandardCharsets.UTF_8 );
+				exchange.getResponseHeaders().set( "Content-Type", "text/plain; version=0.0.4; charset=utf-8" );
+				exchange.sendResponseHeaders( 200, bytes.length );
+
+				try ( final OutputStream os = exchange.getResponseBody() )
+				{
+					os.write( bytes );
+				}
+			});
+
+			// daemon thread so it does not keep the JVM alive
+			server.setExecutor( r -> { final Thread t = new Thread( r, "mvrecon-metrics" ); t.setDaemon( true ); t.start(); } );
+			server.start();
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Serving metrics on http://localhost:" + port + "/metrics" );
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "Failed to start metrics endpoint on port " + port + ": " + e );
+			server = null;
+			return false;
+		}
+	}
+
+	public static synchronized void stopPrometheusEndpoint()
+	{
+		if ( server != null )
+		{
+			server.stop( 0 );
+			server = null;
+		}
+	}
+
+	protected static String sanitize( final String name )
+	{
+		return name.replaceAll( "[^a-zA-Z0-9_]", "_" );
+	}
+
+	protected static final Comparator< Key > keyComparator =
+			Comparator.comparing( ( Key k ) -> k.stage ).thenComparing( k -> k.name ).thenComparing( k -> k.kind ).thenComparing( k -> k.tag == null ? "" : k.tag );
+
+	protected static class Key
+	{
+		final Stage stage;
+		final Kind kind;
+		final String name, tag;
+		final int hashCode;
+
+		public Key( final Stage stage, final Kind kind, final String name, final String tag )
+		{
+			this.stage = stage;
+			this.kind = kind;
+			this.name = name;
+			this.tag = tag;
+			this.hashCode = Objects.hash( stage, kind, name, tag );
+		}
+
+		@Override
+		public int hashCode() { return hashCode; }
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( this == obj )
+				return true;
+
+			if ( !( obj instanceof Key ) )
+				return false;
+
+			final Key other = (Key)obj;
+
+			return stage == other.stage && kind == other.kind && name.equals( other.name ) && Objects.equals( tag, other.tag );
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.metrics;
+
+/**
+ * Measures durations, the distribution is kept in milliseconds. Use as
+ *
+ * <pre>
+ * try ( final Timer.Context t = Metrics.time( Stage.DETECT, Group.pvid( viewId ) ) ) { ... }
+ * </pre>
+ *
+ * @author stephan.preibisch@gmx.de
+ */
+public class Timer
+{
+	final Histogram millis = new Histogram();
+
+	public void record( final long nanos ) { millis.record( nanos / 1000000.0 ); }
+
+	public Context start() { return new Context( this ); }
+
+	public long getCount() { return millis.getCount(); }
+	public double getTotalSeconds() { return millis.getSum() / 1000.0; }
+	public Histogram getHistogram() { return millis; }
+
+	public static class Context implements AutoCloseable
+	{
+		// used if metrics are disabled
+		protected static final Context noop = new Context( null );
+
+		final Timer timer;
+		final long start;
+
+		protected Context( final Timer timer )
+		{
+			this.timer = timer;
+			this.start = timer == null ? 0 : System.nanoTime();
+		}
+
+		/**
+		 * @return the elapsed time in ms
+		 */
+		public double stop()
+		{
+			if ( timer == null )
+				return 0;
+
+			final long nanos = System.nanoTime() - start;
+			timer.record( nanos );
+
+			return nanos / 1000000.0;
+		}
+
+		@Override
+		public void close() { stop(); }
+	}
+}
@@ -0,0 +1,381 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.psf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+
+/**
+ * Extracts the PSFs of many views at once. All bead locations are grouped by the image block they fall into,
+ * every block is loaded only once into a primitive array (including the neighborhood required by the PSF) and
+ * all beads inside are summed up from there. Each thread accumulates its own partial sums, which are merged in
+ * the end. The result is identical to {@link PSFExtraction#extractPSFLocal} with n-linear interpolation on a
+ * periodically extended image.
+ *
+ * @author stephan.preibisch@gmx.de
+ *
+ */
+public class BatchedPSFExtraction
+{
+	public static long[] defaultBlockSize = new long[]{ 128, 128, 128 };
+
+	/**
+	 * Extracts the (unnormalized) PSFs for a set of views of a SpimData2 object
+	 *
+	 * @param data - the SpimData2 object
+	 * @param viewIds - the views to extract PSFs for
+	 * @param label - the interest point label
+	 * @param useCorresponding - use only corresponding interest points
+	 * @param size - the size of the PSF in local pixel coordinates of the input views (should be odd)
+	 * @param service - the ExecutorService to use
+	 * @param numThreads - the number of threads (concurrent tasks with their own partial sums)
+	 * @return a map containing the PSF for every view that had detections
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static HashMap< ViewId, ArrayImg< FloatType, FloatArray > > extractPSFs(
+			final SpimData2 data,
+			final Collection< ? extends ViewId > viewIds,
+			final String label,
+			final boolean useCorresponding,
+			final long[] size,
+			final ExecutorService service,
+			final int numThreads )
+	{
+		final HashMap< ViewId, Pair< RandomAccessibleInterval< ? extends RealType< ? > >, Collection< ? extends RealLocalizable > > > inputs = new HashMap<>();
+
+		for ( final ViewId viewId : viewIds )
+		{
+			final ArrayList< RealLocalizable > points = PSFExtraction.getPoints( data, viewId, label, useCorresponding );
+
+			if ( points.size() == 0 )
+				continue;
+
+			final RandomAccessibleInterval img =
+					(RandomAccessibleInterval)data.getSequenceDescription().getImgLoader().getSetupImgLoader( viewId.getViewSetupId() ).getImage( viewId.getTimePointId() );
+
+			inputs.put( viewId, new ValuePair<>( img, points ) );
+		}
+
+		return extractPSFs( inputs, size, defaultBlockSize, service, numThreads );
+	}
+
+	/**
+	 * Extracts the (unnormalized) PSFs for a set of images
+	 *
+	 * @param inputs - for each key the image and the locations of the beads in pixel coordinates of the image
+	 * @param size - the size of the PSF (should be odd)
+	 * @param blockSize - the size of the image blocks that beads are grouped into
+	 * @param service - the ExecutorService to use
+	 * @param numThreads - the number of threads (concurrent tasks with their own partial sums)
+	 * @param <K> - the key type, e.g. ViewId
+	 * @return a map containing the summed PSF for every key that had at least one location
+	 */
+	public static < K > HashMap< K, ArrayImg< FloatType, FloatArray > > extractPSFs(
+			final Map< K, ? extends Pair< ? extends RandomAccessibleInterval< ? extends RealType< ? > >, ? extends Collection< ? extends RealLocalizable > > > inputs,
+			final long[] size,
+			final long[] blockSize,
+			final ExecutorService service,
+			final int numThreads )
+	{
+		final int n = size.length;
+
+		int psfSize = 1;
+		for ( int d = 0; d < n; ++d )
+			psfSize *= size[ d ];
+
+		final ArrayList< K > keys = new ArrayList<>( inputs.keySet() );
+
+		// one task per (view, block) that contains at least one bead
+		final ArrayList< BlockTask > blockTasks = new ArrayList<>();
+
+		for ( int i = 0; i < keys.size(); ++i )
+			blockTasks.addAll( groupByBlock( i, inputs.get( keys.get( i ) ).getB(), blockSize ) );
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Extracting PSFs for " + keys.size() + " views from " + blockTasks.size() + " image blocks." );
+
+		final AtomicInteger nextTask = new AtomicInteger();
+		final ArrayList< HashMap< Integer, double[] > > partialSums = new ArrayList<>();
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < Math.max( 1, numThreads ); ++t )
+		{
+			// every thread has its own partial sums, one per view it touched
+			final HashMap< Integer, double[] > sums = new HashMap<>();
+			partialSums.add( sums );
+
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					int taskId;
+
+					while ( ( taskId = nextTask.getAndIncrement() ) < blockTasks.size() )
+					{
+						final BlockTask task = blockTasks.get( taskId );
+
+						double[] sum = sums.get( task.view );
+
+						if ( sum == null )
+						{
+							sum = new double[ psfSize ];
+							sums.put( task.view, sum );
+						}
+
+						processBlock( inputs.get( keys.get( task.view ) ).getA(), task.locations, size, sum );
+					}
+
+					return null;
+				}
+			});
+		}
+
+		FusionTools.execTasks( tasks, service, "extract PSFs" );
+
+		// merge the partial sums
+		final HashMap< K, ArrayImg< FloatType, FloatArray > > psfs = new HashMap<>();
+
+		for ( int i = 0; i < keys.size(); ++i )
+		{
+			final double[] sum = new double[ psfSize ];
+			boolean hadData = false;
+
+			for ( final HashMap< Integer, double[] > sums : partialSums )
+			{
+				final double[] partial = sums.get( i );
+
+				if ( partial == null )
+					continue;
+
+				hadData = true;
+
+				for ( int j = 0; j < psfSize; ++j )
+					sum[ j ] += partial[ j ];
+			}
+
+			if ( !hadData )
+				continue;
+
+			final float[] psf = new float[ psfSize ];
+
+			for ( int j = 0; j < psfSize; ++j )
+				psf[ j ] = (float)sum[ j ];
+
+			psfs.put( keys.get( i ), ArrayImgs.floats( psf, size ) );
+		}
+
+		return psfs;
+	}
+
+	protected static class BlockTask
+	{
+		final int view;
+		final ArrayList< RealLocalizable > locations = new ArrayList<>();
+
+		public BlockTask( final int view ) { this.view = view; }
+	}
+
+	protected static List< BlockTask > groupByBlock( final int view, final Collection< ? extends RealLocalizable > locations, final long[] blockSize )
+	{
+		final int n = blockSize.length;
+		final HashMap< List< Long >, BlockTask > blocks = new HashMap<>();
+
+		for ( final RealLocalizable location : locations )
+		{
+			final ArrayList< Long > blockIndex = new ArrayList<>( n );
+
+			for ( int d = 0; d < n; ++d )
+				blockIndex.add( (long)Math.floor( location.getDoublePosition( d ) / blockSize[ d ] ) );
+
+			BlockTask task = blocks.get( blockIndex );
+
+			if ( task == null )
+			{
+				task = new BlockTask( view );
+				blocks.put( blockIndex, task );
+			}
+
+			task.locations.add( location );
+		}
+
+		return new ArrayList<>( blocks.values() );
+	}
+
+	/**
+	 * Loads the part of the image required by all locations of one block and adds their neighborhoods to the sum
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static void processBlock(
+			final RandomAccessibleInterval< ? extends RealType< ? > > img,
+			final List< RealLocalizable > locations,
+			final long[] size,
+			final double[] sum )
+	{
+		final int n = size.length;
+		final int numCorners = 1 << n;
+
+		final long[] sizeHalf = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			sizeHalf[ d ] = size[ d ] / 2;
+
+		// the interval that is required for all locations (n-linear interpolation needs one extra pixel)
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = Long.MAX_VALUE;
+			max[ d ] = Long.MIN_VALUE;
+		}
+
+		for ( final RealLocalizable location : locations )
+			for ( int d = 0; d < n; ++d )
+			{
+				final long floor = (long)Math.floor( location.getDoublePosition( d ) );
+				min[ d ] = Math.min( min[ d ], floor - sizeHalf[ d ] );
+				max[ d ] = Math.max( max[ d ], floor - sizeHalf[ d ] + size[ d ] );
+			}
+
+		final FinalInterval interval = new FinalInterval( min, max );
+		final float[] block = new float[ (int)Views.iterable( interval ).size() ];
+
+		// Mirror produces some artifacts ... so we use periodic (as PSFExtraction)
+		copyBlock( (RandomAccessibleInterval)img, interval, block );
+
+		final int[] strides = new int[ n ];
+		strides[ 0 ] = 1;
+		for ( int d = 1; d < n; ++d )
+			strides[ d ] = strides[ d - 1 ] * (int)interval.dimension( d - 1 );
+
+		// offset into the block for every pixel of the PSF
+		final int[] psfOffsets = new int[ sum.length ];
+		final long[] pos = new long[ n ];
+
+		for ( int i = 0; i < psfOffsets.length; ++i )
+		{
+			int offset = 0;
+			for ( int d = 0; d < n; ++d )
+				offset += pos[ d ] * strides[ d ];
+
+			psfOffsets[ i ] = offset;
+
+			for ( int d = 0; d < n; ++d )
+			{
+				if ( ++pos[ d ] < size[ d ] )
+					break;
+				pos[ d ] = 0;
+			}
+		}
+
+		final int[] cornerOffsets = new int[ numCorners ];
+		final double[] cornerWeights = new double[ numCorners ];
+		final double[] fraction = new double[ n ];
+
+		for ( final RealLocalizable location : locations )
+		{
+			// all PSF pixels of one location share the same fractional offset, hence the same interpolation weights
+			int base = 0;
+
+			for ( int d = 0; d < n; ++d )
+			{
+				final double p = location.getDoublePosition( d );
+				final long floor = (long)Math.floor( p );
+
+				fraction[ d ] = p - floor;
+				base += ( floor - sizeHalf[ d ] - min[ d ] ) * strides[ d ];
+			}
+
+			for ( int c = 0; c < numCorners; ++c )
+			{
+				double w = 1;
+				int offset = 0;
+
+				for ( int d = 0; d < n; ++d )
+				{
+					if ( ( c & ( 1 << d ) ) != 0 )
+					{
+						w *= fraction[ d ];
+						offset += strides[ d ];
+					}
+					else
+					{
+						w *= 1.0 - fraction[ d ];
+					}
+				}
+
+				cornerWeights[ c ] = w;
+				cornerOffsets[ c ] = base + offset;
+			}
+
+			for ( int c = 0; c < numCorners; ++c )
+			{
+				final double w = cornerWeights[ c ];
+
+				if ( w == 0 )
+					continue;
+
+				final int cornerOffset = cornerOffsets[ c ];
+
+				for ( int i = 0; i < psfOffsets.length; ++i )
+					sum[ i ] += w * block[ cornerOffset + psfOffsets[ i ] ];
+			}
+		}
+	}
+
+	protected static < T extends RealType< T > > void copyBlock(
+			final RandomAccessibleInterval< T > img,
+			final FinalInterval interval,
+			final float[] block )
+	{
+		final Cursor< T > cursor = Views.flatIterable( Views.interval( Views.extendPeriodic( img ), interval ) ).cursor();
+
+		int i = 0;
+
+		while ( cursor.hasNext() )
+			block[ i++ ] = cursor.next().getRealFloat();
+	}
+}
@@ -310,7 +310,7 @@ public class PSFExtraction< T extends RealType< T > & NativeType< T > >
 					int j = 0;
 					for ( final RealLocalizable position : locations )
 					{
-						if ( j % myTask == 0 )
+						if ( j % nPortions == myTask )
 						{
 							psfCursor.reset();
 							
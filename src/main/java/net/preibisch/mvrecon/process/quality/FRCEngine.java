@@ -0,0 +1,519 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2024 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.quality;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.process.FHT;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+
+/**
+ * Computes the fourier ring correlation for many locations at once, producing the same values as
+ * {@link FRCRealRandomAccessible#computeFRC} and {@link FRCRealRandomAccessible#computeRelativeFRC}.
+ *
+ * The locations are processed z-plane by z-plane, every required plane is read only once into a primitive
+ * array, and each thread re-uses one {@link Workspace} (tiles, FHT tables and power spectra) for all
+ * locations it computes, so nothing but the planes is allocated during the computation.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class FRCEngine
+{
+	/**
+	 * Computes the FRC quality for every location
+	 *
+	 * @param input - the image (out of bounds is mirror single)
+	 * @param locations - the locations (x,y,z) in image coordinates
+	 * @param length - the size of the square tiles
+	 * @param relative - compute the FRC relative to planes that are relativeFRCDist apart
+	 * @param relativeFRCDist - the z-distance for the relative FRC
+	 * @param service - the ExecutorService to use, or null (a temporary one will be created)
+	 * @return the quality for each location, in the order of the locations
+	 */
+	public static double[] computeFRC(
+			final RandomAccessibleInterval< FloatType > input,
+			final List< ? extends Localizable > locations,
+			final int length,
+			final boolean relative,
+			final int relativeFRCDist,
+			final ExecutorService service )
+	{
+		final ExecutorService taskExecutor = ( service == null ) ? Threads.createFixedExecutorService() : service;
+
+		final int numThreads;
+
+		if ( ThreadPoolExecutor.class.isInstance( taskExecutor ) )
+			numThreads = ((ThreadPoolExecutor)taskExecutor).getMaximumPoolSize();
+		else
+			numThreads = Threads.numThreads();
+
+		final double[] quality = new double[ locations.size() ];
+		final RandomAccessible< FloatType > extended = Views.extendMirrorSingle( input );
+
+		// group locations by z, process the z-planes in ascending order so the input is streamed once
+		final HashMap< Long, ArrayList< Integer > > zGroups = new HashMap<>();
+
+		for ( int i = 0; i < locations.size(); ++i )
+		{
+			final long z = locations.get( i ).getLongPosition( 2 );
+
+			ArrayList< Integer > group = zGroups.get( z );
+
+			if ( group == null )
+			{
+				group = new ArrayList<>();
+				zGroups.put( z, group );
+			}
+
+			group.add( i );
+		}
+
+		final ArrayList< Long > zLevels = new ArrayList<>( zGroups.keySet() );
+		Collections.sort( zLevels );
+
+		final Workspace[] workspaces = new Workspace[ numThreads ];
+		for ( int t = 0; t < numThreads; ++t )
+			workspaces[ t ] = new Workspace( length );
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Computing FRC for " + locations.size()  + " locations in " + zLevels.size() + " z-planes, length=" + length + ", relative=" + relative + ", threads=" + numThreads );
+
+		final AtomicInteger progress = new AtomicInteger( 0 );
+		IJ.showProgress( 0.01 );
+
+		for ( final long z : zLevels )
+		{
+			final ArrayList< Integer > group = zGroups.get( z );
+
+			// the xy-area that covers all tiles of this z-level
+			long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE, maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+
+			for ( final int i : group )
+			{
+				final long x = locations.get( i ).getLongPosition( 0 );
+				final long y = locations.get( i ).getLongPosition( 1 );
+
+				minX = Math.min( minX, x - length / 2 );
+				minY = Math.min( minY, y - length / 2 );
+				maxX = Math.max( maxX, x + length / 2 - 1 );
+				maxY = Math.max( maxY, y + length / 2 - 1 );
+			}
+
+			final TreeSet< Long > planeZ = new TreeSet<>();
+			planeZ.add( z - 1 );
+			planeZ.add( z + 1 );
+
+			if ( relative )
+			{
+				planeZ.add( z - relativeFRCDist );
+				planeZ.add( z + relativeFRCDist );
+			}
+
+			final Plane[] planes = loadPlanes( extended, planeZ, minX, minY, maxX, maxY, taskExecutor );
+			final Plane pD0 = relative ? find( planes, z - relativeFRCDist ) : null;
+			final Plane pD1 = relative ? find( planes, z + relativeFRCDist ) : null;
+			final Plane pA = find( planes, z - 1 );
+			final Plane pB = find( planes, z + 1 );
+
+			final AtomicInteger next = new AtomicInteger();
+			final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+			for ( int t = 0; t < numThreads; ++t )
+			{
+				final Workspace ws = workspaces[ t ];
+
+				tasks.add( new Callable< Void >()
+				{
+					@Override
+					public Void call() throws Exception
+					{
+						int j;
+
+						while ( ( j = next.getAndIncrement() ) < group.size() )
+						{
+							final int i = group.get( j );
+							final long x = locations.get( i ).getLongPosition( 0 );
+							final long y = locations.get( i ).getLongPosition( 1 );
+
+							if ( relative )
+								quality[ i ] = ws.relativeFRC( pA, pB, pD0, pD1, x, y );
+							else
+								quality[ i ] = FRCRealRandomAccessible.integral( ws.frcCurve( pA, pB, x, y ) );
+
+							IJ.showProgress( (double)progress.incrementAndGet() / locations.size() );
+						}
+
+						return null;
+					}
+				});
+			}
+
+			FusionTools.execTasks( tasks, taskExecutor, "frc" );
+		}
+
+		IJ.showProgress( 1.0 );
+
+		if ( service == null )
+			taskExecutor.shutdown();
+
+		return quality;
+	}
+
+	protected static Plane find( final Plane[] planes, final long z )
+	{
+		for ( final Plane p : planes )
+			if ( p.z == z )
+				return p;
+
+		return null;
+	}
+
+	protected static Plane[] loadPlanes(
+			final RandomAccessible< FloatType > extended,
+			final TreeSet< Long > planeZ,
+			final long minX,
+			final long minY,
+			final long maxX,
+			final long maxY,
+			final ExecutorService service )
+	{
+		final Plane[] planes = new Plane[ planeZ.size() ];
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		int i = 0;
+
+		for ( final long z : planeZ )
+		{
+			final Plane plane = planes[ i++ ] = new Plane( z, minX, minY, (int)( maxX - minX + 1 ), (int)( maxY - minY + 1 ) );
+
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					final Cursor< FloatType > c = Views.flatIterable(
+							Views.interval( extended, new FinalInterval( new long[]{ minX, minY, z }, new long[]{ maxX, maxY, z } ) ) ).cursor();
+
+					final float[] data = plane.data;
+					int j = 0;
+
+					while ( c.hasNext() )
+						data[ j++ ] = c.next().get();
+
+					return null;
+				}
+			});
+		}
+
+		FusionTools.execTasks( tasks, service, "load planes for frc" );
+
+		return planes;
+	}
+
+	/**
+	 * One xy-plane of the input, covering the tiles of all locations of one z-level
+	 */
+	public static class Plane
+	{
+		final long z, minX, minY;
+		final int width, height;
+		final float[] data;
+
+		public Plane( final long z, final long minX, final long minY, final int width, final int height )
+		{
+			this.z = z;
+			this.minX = minX;
+			this.minY = minY;
+			this.width = width;
+			this.height = height;
+			this.data = new float[ width * height ];
+		}
+	}
+
+	/**
+	 * Everything one thread needs to compute the FRC of two tiles, re-used for all locations
+	 */
+	public static class Workspace
+	{
+		final int length, paddedLength, fhtSize;
+		final float[] taper;
+		final float[] tile1, tile2, fht1, fht2;
+		final float[] numerator, abs1, abs2;
+		final double[] values = new double[ 3 ];
+		final FHT fht;
+		final FRC frc;
+
+		public Workspace( final int length )
+		{
+			this.length = length;
+
+			// FRC.pad() makes the size even
+			this.paddedLength = length % 2 == 0 ? length : length + 1;
+
+			// FRC.getSquareTaperedImage() pads to a power of 2
+			int newSize = 0;
+			for ( int i = 4; i < 15; i++ )
+			{
+				newSize = (int)Math.pow( 2.0, i );
+				if ( paddedLength <= newSize )
+					break;
+			}
+
+			if ( paddedLength > newSize )
+				throw new RuntimeException( "FRC tile size " + length + " is too large." );
+
+			this.fhtSize = newSize;
+			this.taper = windowFunction( paddedLength );
+
+			this.tile1 = new float[ paddedLength * paddedLength ];
+			this.tile2 = new float[ paddedLength * paddedLength ];
+			this.fht1 = new float[ fhtSize * fhtSize ];
+			this.fht2 = new float[ fhtSize * fhtSize ];
+			this.numerator = new float[ fhtSize * fhtSize ];
+			this.abs1 = new float[ fhtSize * fhtSize ];
+			this.abs2 = new float[ fhtSize * fhtSize ];
+
+			this.fht = new FHT();
+			this.frc = new FRC();
+		}
+
+		public double relativeFRC( final Plane pA, final Plane pB, final Plane pD0, final Plane pD1, final long x, final long y )
+		{
+			final double[][] frcCurve = frcCurve( pA, pB, x, y );
+
+			try
+			{
+				final double[][] frcCurveDist = frc.getSmoothedCurve( frcCurve( pD0, pD1, x, y ) );
+
+				for ( int i = 0; i < frcCurve.length; ++i )
+				{
+					if ( !Double.isFinite( frcCurveDist[ i ][ 1 ] ) || !Double.isFinite( frcCurve[ i ][ 1 ] ) )
+						return 0;
+
+					frcCurve[ i ][ 1 ] = frcCurve[ i ][ 1 ] - frcCurveDist[ i ][ 1 ];
+				}
+
+				return FRCRealRandomAccessible.integral( frcCurve );
+			}
+			catch ( Exception e )
+			{
+				// is thrown if everything is zero
+				return 0;
+			}
+		}
+
+		/**
+		 * Same as FRC.calculateFrcCurve() on the two tiles that FRCRealRandomAccessible.getFloatProcessor() would extract
+		 */
+		public double[][] frcCurve( final Plane p1, final Plane p2, final long x, final long y )
+		{
+			extractTile( p1, x, y, tile1 );
+			extractTile( p2, x, y, tile2 );
+
+			taperAndTransform( tile1, fht1 );
+			taperAndTransform( tile2, fht2 );
+
+			// real and imaginary parts as in FHT.getComplexTransform(), quadrants swapped so the origin is in the center
+			final int n = fhtSize;
+			final int half = n / 2;
+
+			for ( int yc = 0; yc < n; ++yc )
+			{
+				final int row = ( yc + half ) % n;
+				final int base = row * n;
+				final int offs = ( ( n - row ) % n ) * n;
+
+				for ( int xc = 0; xc < n; ++xc )
+				{
+					final int c = ( xc + half ) % n;
+					final int i = base + c;
+					final int m = offs + ( ( n - c ) % n );
+
+					final float re1 = ( fht1[ i ] + fht1[ m ] ) * 0.5f;
+					final float im1 = ( -fht1[ i ] + fht1[ m ] ) * 0.5f;
+					final float re2 = ( fht2[ i ] + fht2[ m ] ) * 0.5f;
+					final float im2 = ( -fht2[ i ] + fht2[ m ] ) * 0.5f;
+
+					final int j = yc * n + xc;
+
+					numerator[ j ] = re1 * re2 + im1 * im2;
+					abs1[ j ] = re1 * re1 + im1 * im1;
+					abs2[ j ] = re2 * re2 + im2 * im2;
+				}
+			}
+
+			final double centre = n / 2;
+			final double max = ( length / 2 ) - 1;
+
+			final double[][] frcCurve = new double[ (int)max ][ 3 ];
+
+			// Radius zero is always 1
+			frcCurve[ 0 ][ 0 ] = 0;
+			frcCurve[ 0 ][ 1 ] = 1;
+			frcCurve[ 0 ][ 2 ] = 1;
+
+			final double limit = ( frc.useHalfCircle ) ? Math.PI : 2 * Math.PI;
+
+			for ( int radius = 1; radius < max; ++radius )
+			{
+				double sum1 = 0;
+				double sum2 = 0;
+				double sum3 = 0;
+
+				final double angleStep = 1 / ( frc.perimeterSamplingFactor * radius );
+
+				double angle = 0D;
+				int numSum = 0;
+
+				while ( angle < limit )
+				{
+					interpolate( centre + radius * Math.cos( angle ), centre + radius * Math.sin( angle ) );
+
+					sum1 += values[ 0 ];
+					sum2 += values[ 1 ];
+					sum3 += values[ 2 ];
+
+					numSum++;
+					angle += angleStep;
+				}
+
+				frcCurve[ radius ][ 0 ] = radius;
+				frcCurve[ radius ][ 1 ] = sum1 / Math.sqrt( sum2 * sum3 );
+				frcCurve[ radius ][ 2 ] = numSum;
+			}
+
+			return frcCurve;
+		}
+
+		protected void extractTile( final Plane plane, final long x, final long y, final float[] tile )
+		{
+			// FRCRealRandomAccessible.getFloatProcessor() copies 2*(length/2) pixels, the rest stays zero
+			final int l = ( length / 2 ) * 2;
+			final int offX = (int)( x - length / 2 - plane.minX );
+			final int offY = (int)( y - length / 2 - plane.minY );
+
+			for ( int i = 0; i < tile.length; ++i )
+				tile[ i ] = 0;
+
+			for ( int yi = 0; yi < l; ++yi )
+				System.arraycopy( plane.data, ( offY + yi ) * plane.width + offX, tile, yi * paddedLength, l );
+		}
+
+		protected void taperAndTransform( final float[] tile, final float[] out )
+		{
+			for ( int i = 0; i < out.length; ++i )
+				out[ i ] = 0;
+
+			// Note that the limits at 0 and size-1 the taper is zero so this can be ignored
+			final int max_1 = paddedLength - 1;
+
+			for ( int y = 1; y < max_1; y++ )
+			{
+				final float yTmp = taper[ y ];
+
+				for ( int x = 1, i = y * paddedLength + 1, ii = y * fhtSize + 1; x < max_1; x++, i++, ii++ )
+					out[ ii ] = tile[ i ] * taper[ x ] * yTmp;
+			}
+
+			fht.rc2DFHT( out, false, fhtSize );
+		}
+
+		/**
+		 * Same as FRC.getInterpolatedValues() for the numerator and both power spectra
+		 */
+		protected void interpolate( final double x, final double y )
+		{
+			final int xbase = (int)x;
+			final int ybase = (int)y;
+			double xFraction = x - xbase;
+			double yFraction = y - ybase;
+			if ( xFraction < 0.0 )
+				xFraction = 0.0;
+			if ( yFraction < 0.0 )
+				yFraction = 0.0;
+
+			final int lowerLeftIndex = ybase * fhtSize + xbase;
+			final int lowerRightIndex = lowerLeftIndex + 1;
+			final int upperLeftIndex = lowerLeftIndex + fhtSize;
+			final int upperRightIndex = upperLeftIndex + 1;
+
+			values[ 0 ] = interpolate( numerator, lowerLeftIndex, lowerRightIndex, upperLeftIndex, upperRightIndex, xFraction, yFraction );
+			values[ 1 ] = interpolate( abs1, lowerLeftIndex, lowerRightIndex, upperLeftIndex, upperRightIndex, xFraction, yFraction );
+			values[ 2 ] = interpolate( abs2, lowerLeftIndex, lowerRightIndex, upperLeftIndex, upperRightIndex, xFraction, yFraction );
+		}
+
+		private static final double interpolate(
+				final float[] image,
+				final int lowerLeftIndex, final int lowerRightIndex, final int upperLeftIndex, final int upperRightIndex,
+				final double xFraction, final double yFraction )
+		{
+			final double lowerLeft = image[ lowerLeftIndex ];
+			final double lowerRight = image[ lowerRightIndex ];
+			final double upperRight = image[ upperLeftIndex ];
+			final double upperLeft = image[ upperRightIndex ];
+
+			final double upperAverage = upperLeft + xFraction * ( upperRight - upperLeft );
+			final double lowerAverage = lowerLeft + xFraction * ( lowerRight - lowerLeft );
+
+			return lowerAverage + yFraction * ( upperAverage - lowerAverage );
+		}
+
+		/**
+		 * Same Tukey window as FRC.getWindowFunction()
+		 */
+		private static float[] windowFunction( final int size )
+		{
+			final int boundary = size / 8;
+			final int upperBoundary = size - boundary;
+			final float[] taper = new float[ size ];
+
+			for ( int i = 0; i < size; i++ )
+			{
+				if ( ( i < boundary ) || ( i > size - upperBoundary ) )
+					taper[ i ] = (float)Math.pow( Math.sin( 12.566370614359172D * i / size ), 2.0D );
+				else
+					taper[ i ] = 1;
+			}
+
+			return taper;
+		}
+	}
+}
@@ -22,14 +22,9 @@
  */
 package net.preibisch.mvrecon.process.quality;
 
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
 
-import ij.IJ;
 import ij.process.FloatProcessor;
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
@@ -54,9 +49,6 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.RealSum;
 import net.imglib2.view.Views;
-import net.preibisch.legacy.io.IOFunctions;
-import net.preibisch.mvrecon.Threads;
-import net.preibisch.mvrecon.process.fusion.FusionTools;
 
 /**
  * Computes the fourier ring correlation at specific positions and interpolates between all points
@@ -85,55 +77,10 @@ public class FRCRealRandomAccessible< T extends RealType< T > > implements RealR
 		this.interval = new FinalInterval( input );
 		this.qualityList = new PointSampleList<>( input.numDimensions() );
 
-		final RandomAccessible< FloatType > floatInput = Views.extendMirrorSingle( getFloatRAI( input ) );
-		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
-		final AtomicInteger progress = new AtomicInteger( 0 );
+		final double[] quality = FRCEngine.computeFRC( getFloatRAI( input ), locations, length, relative, relativeFRCDist, service );
 
-		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Computing FRC for " + locations.size()  + " locations, length=" + length + ", relative=" + relative );
-
-		IJ.showProgress( 0.01 );
-
-		for ( final Point l : locations )
-		{
-			tasks.add( new Callable< Void >()
-			{
-				@Override
-				public Void call() throws Exception
-				{
-					final double quality;
-
-					if ( relative )
-						quality = computeRelativeFRC( floatInput, l, length, relativeFRCDist );
-					else
-						quality = computeFRC( floatInput, l, length );
-
-					synchronized ( qualityList )
-					{
-						qualityList.add( l, new FloatType( (float)quality ) );
-					}
-
-					IJ.showProgress( (double)progress.incrementAndGet() / locations.size() );
-
-					return null;
-				}
-			});
-		}
-
-		if ( service == null )
-			FusionTools.execTasks( tasks, Threads.numThreads(), "frc" );
-		else
-			FusionTools.execTasks( tasks, service, "frc" );
-
-		IJ.showProgress( 1.0 );
-
-		/*
-		for ( final Point l : locations )
-		{
-			final double quality = computeFRC( floatInput, l, length );
-			qualityList.add( l, new FloatType( (float)quality ) );
-			
-			System.out.println( l + ": " + quality );
-		}*/
+		for ( int i = 0; i < locations.size(); ++i )
+			qualityList.add( locations.get( i ), new FloatType( (float)quality[ i ] ) );
 	}
 
 	public double getTotalAvgQuality()